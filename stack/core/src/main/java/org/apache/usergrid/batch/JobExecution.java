@@ -86,6 +86,9 @@ public interface JobExecution {
     /** Get the current transaction Id from the heartbeat */
     public UUID getTransactionId();
 
+    /** Get the partition of the scheduler the job was read from */
+    public int getPartition();
+
     public enum Status {
         NOT_STARTED, IN_PROGRESS, COMPLETED, FAILED, DEAD, DELAYED
     }
@@ -46,6 +46,7 @@ public class JobExecutionImpl implements JobExecution, JobRuntime {
     private JobData data;
     private JobStat stats;
     private long delay = -1;
+    private final int partition;
 
 
     public JobExecutionImpl( JobDescriptor jobDescriptor ) {
@@ -56,6 +57,7 @@ public class JobExecutionImpl implements JobExecution, JobRuntime {
         this.transactionId = jobDescriptor.getTransactionId();
         this.data = jobDescriptor.getData();
         this.stats = jobDescriptor.getStats();
+        this.partition = jobDescriptor.getPartition();
     }
 
 
@@ -191,6 +193,12 @@ public class JobExecutionImpl implements JobExecution, JobRuntime {
     }
 
 
+    @Override
+    public int getPartition() {
+        return partition;
+    }
+
+
     public Status getStatus() {
         return this.status;
     }
@@ -27,6 +27,12 @@ public interface JobAccessor {
     /** Get new jobs, with a max return value of size */
     List<JobDescriptor> getJobs( int size );
 
+    /** Get new jobs from the partition, with a max return value of size */
+    List<JobDescriptor> getJobs( int partition, int size );
+
+    /** Get the number of partitions jobs are scheduled in, from 0 */
+    int getPartitions();
+
     /** Save job execution information */
     void save( JobExecution bulkJobExecution );
 
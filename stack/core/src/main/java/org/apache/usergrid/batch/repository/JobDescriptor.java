@@ -39,10 +39,18 @@ public class JobDescriptor extends TypedEntity {
     private final JobData data;
     private final JobStat stats;
     private final JobRuntimeService runtime;
+    private final int partition;
 
 
     public JobDescriptor( String jobName, UUID jobId, UUID transactionId, JobData data, JobStat stats,
                           JobRuntimeService runtime ) {
+        this( jobName, jobId, transactionId, data, stats, runtime, 0 );
+    }
+
+
+    /** @param partition The partition of the scheduler the job was read from */
+    public JobDescriptor( String jobName, UUID jobId, UUID transactionId, JobData data, JobStat stats,
+                          JobRuntimeService runtime, int partition ) {
         Assert.notNull( jobName, "Job name cannot be null" );
         Assert.notNull( jobId != null, "A JobId is required" );
         Assert.notNull( transactionId != null, "A transactionId is required" );
@@ -56,6 +64,7 @@ public class JobDescriptor extends TypedEntity {
         this.data = data;
         this.stats = stats;
         this.runtime = runtime;
+        this.partition = partition;
     }
 
 
@@ -93,4 +102,10 @@ public class JobDescriptor extends TypedEntity {
     public JobStat getStats() {
         return stats;
     }
+
+
+    /** @return the partition */
+    public int getPartition() {
+        return partition;
+    }
 }
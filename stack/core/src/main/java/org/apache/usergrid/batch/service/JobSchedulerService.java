@@ -17,9 +17,13 @@
 package org.apache.usergrid.batch.service;
 
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -37,8 +41,11 @@ import org.apache.usergrid.batch.JobNotFoundException;
 import org.apache.usergrid.batch.repository.JobAccessor;
 import org.apache.usergrid.batch.repository.JobDescriptor;
 import org.apache.usergrid.metrics.MetricsFactory;
+import org.apache.usergrid.utils.UUIDUtils;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.common.util.concurrent.FutureCallback;
@@ -60,6 +67,13 @@ public class JobSchedulerService extends AbstractScheduledService {
 
     private long interval = DEFAULT_DELAY;
     private int workerSize = 1;
+    private int partitions = 1;
+    private int nodes = 1;
+    private int node = 0;
+    private int batchSize = 1;
+
+    /** The partitions this node drains */
+    private int[] ownedPartitions;
     private int maxFailCount = 10;
 
     private JobAccessor jobAccessor;
@@ -68,6 +82,10 @@ public class JobSchedulerService extends AbstractScheduledService {
     private Semaphore capacitySemaphore;
 
     private ListeningScheduledExecutorService service;
+
+    /** Drains each partition on its own thread, null if there's only one partition */
+    private ExecutorService partitionPollers;
+
     private JobListener jobListener;
 
     private Timer jobTimer;
@@ -75,6 +93,10 @@ public class JobSchedulerService extends AbstractScheduledService {
     private Counter successCounter;
     private Counter failCounter;
 
+    private MetricsFactory metricsFactory;
+    private Meter[] partitionClaims;
+    private Histogram[] partitionLags;
+
     //TODO Add meters for throughput of start and stop
 
 
@@ -88,43 +110,100 @@ public class JobSchedulerService extends AbstractScheduledService {
 
         try {
             LOG.info( "Running one check iteration ..." );
-            List<JobDescriptor> activeJobs;
 
-            // run until there are no more active jobs
-            while ( true ) {
+            if ( partitionPollers == null ) {
+                for ( int partition : ownedPartitions ) {
+                    drain( partition );
+                }
+                return;
+            }
+
+            // drain every partition of this node on its own thread, and wait for them all before the next iteration
+            List<Future<?>> drains = new ArrayList<Future<?>>( ownedPartitions.length );
+
+            for ( final int partition : ownedPartitions ) {
+
+                drains.add( partitionPollers.submit( new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        drain( partition );
+                        return null;
+                    }
+                } ) );
+            }
 
-                // get the semaphore if we can. This means we have space for at least 1
-                // job
-                if ( LOG.isDebugEnabled() ) {
-                    LOG.debug( "About to acquire semaphore.  Capacity is {}", capacitySemaphore.availablePermits() );
+            for ( Future<?> drain : drains ) {
+                try {
+                    drain.get();
+                }
+                catch ( ExecutionException e ) {
+                    LOG.error( "Scheduler run of a partition failed, error is", e.getCause() );
                 }
+            }
+        }
+        catch ( Throwable t ) {
+            LOG.error( "Scheduler run failed, error is", t );
+        }
+    }
 
-                capacitySemaphore.acquire();
-                // release the sempaphore we only need to acquire as a way to stop the
-                // loop if there's no capacity
-                capacitySemaphore.release();
 
-                int capacity = capacitySemaphore.availablePermits();
+    /** Submit the jobs of the partition until there are none left to run */
+    private void drain( int partition ) throws InterruptedException {
+        List<JobDescriptor> activeJobs;
 
-                LOG.debug( "Capacity is {}", capacity );
+        // run until there are no more active jobs
+        while ( true ) {
 
-                activeJobs = jobAccessor.getJobs( capacity );
+            // claim capacity for at least 1 job, and up to the partition's share of the workers if they're free
+            if ( LOG.isDebugEnabled() ) {
+                LOG.debug( "About to acquire semaphore.  Capacity is {}", capacitySemaphore.availablePermits() );
+            }
 
-                // nothing to do, we don't have any jobs to run
-                if ( activeJobs.size() == 0 ) {
-                    LOG.debug( "No jobs returned. Exiting run loop" );
-                    return;
-                }
+            capacitySemaphore.acquire();
+
+            int capacity = 1;
 
+            while ( ( capacity < batchSize ) && capacitySemaphore.tryAcquire() ) {
+                capacity++;
+            }
+
+            LOG.debug( "Capacity is {} for partition {}", capacity, partition );
+
+            try {
+                activeJobs = jobAccessor.getJobs( partition, capacity );
+            }
+            catch ( RuntimeException e ) {
+                capacitySemaphore.release( capacity );
+                throw e;
+            }
+
+            // give back the capacity we didn't get jobs for
+            capacitySemaphore.release( capacity - activeJobs.size() );
+
+            // nothing to do, we don't have any jobs to run
+            if ( activeJobs.size() == 0 ) {
+                LOG.debug( "No jobs returned for partition {}. Exiting run loop", partition );
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            int submitted = 0;
+
+            try {
                 for ( JobDescriptor jd : activeJobs ) {
+                    partitionClaims[partition].mark();
+                    partitionLags[partition].update( now - UUIDUtils.getTimestampInMillis( jd.getJobId() ) );
+
                     LOG.info( "Submitting work for {}", jd );
                     submitWork( jd );
+                    submitted++;
                     LOG.info( "Work submitted for {}", jd );
                 }
             }
-        }
-        catch ( Throwable t ) {
-            LOG.error( "Scheduler run failed, error is", t );
+            finally {
+                // give back the capacity of the jobs that weren't submitted, they're run again once they time out
+                capacitySemaphore.release( activeJobs.size() - submitted );
+            }
         }
     }
 
@@ -141,7 +220,8 @@ public class JobSchedulerService extends AbstractScheduledService {
 
 
     /**
-     * Use the provided BulkJobFactory to build and submit BulkJob items as ListenableFuture objects
+     * Use the provided BulkJobFactory to build and submit BulkJob items as ListenableFuture objects. The caller has
+     * already acquired a permit from the capacity semaphore for the job
      */
     @ExceptionMetered( name = "BulkJobScheduledService_submitWork_exceptions", group = "scheduler" )
     private void submitWork( final JobDescriptor jobDescriptor ) {
@@ -152,6 +232,7 @@ public class JobSchedulerService extends AbstractScheduledService {
         }
         catch ( JobNotFoundException e ) {
             LOG.error( "Could not create jobs", e );
+            capacitySemaphore.release();
             return;
         }
 
@@ -165,20 +246,6 @@ public class JobSchedulerService extends AbstractScheduledService {
         // we just need to prevent NPEs from ever occurring
         final JobListener currentListener = this.jobListener;
 
-        /**
-         * Acquire the semaphore before we schedule.  This way we wont' take things from the Q that end up
-         * stuck in the queue for the scheduler and then time out their distributed heartbeat
-         */
-        try {
-            capacitySemaphore.acquire();
-        }
-        catch ( InterruptedException e ) {
-            LOG.error( "Unable to acquire semaphore capacity before submitting job", e );
-            //just return, they'll get picked up again later
-            return;
-        }
-
-
         final Timer.Context timer = jobTimer.time();
 
 
@@ -311,6 +378,23 @@ public class JobSchedulerService extends AbstractScheduledService {
     }
 
 
+    /**
+     * @param nodes the number of nodes the partitions of the job queue are divided between
+     */
+    public void setNodes( int nodes ) {
+        this.nodes = nodes;
+    }
+
+
+    /**
+     * @param node the index of this node, from 0 to the number of nodes - 1. It drains the partitions whose index
+     * modulo the number of nodes is this index
+     */
+    public void setNode( int node ) {
+        this.node = node;
+    }
+
+
     /**
      * @param jobAccessor the jobAccessor to set
      */
@@ -339,6 +423,7 @@ public class JobSchedulerService extends AbstractScheduledService {
      * Set the metrics factory
      */
     public void setMetricsFactory( MetricsFactory metricsFactory ) {
+        this.metricsFactory = metricsFactory;
         jobTimer = metricsFactory.getTimer( JobSchedulerService.class, "job_execution_timer" );
         runCounter = metricsFactory.getCounter( JobSchedulerService.class, "running_workers" );
         successCounter = metricsFactory.getCounter( JobSchedulerService.class, "successful_jobs" );
@@ -357,7 +442,36 @@ public class JobSchedulerService extends AbstractScheduledService {
                 .listeningDecorator( Executors.newScheduledThreadPool( workerSize, JobThreadFactory.INSTANCE ) );
         capacitySemaphore = new Semaphore( workerSize );
 
-        LOG.info( "Starting executor pool.  Capacity is {}", workerSize );
+        if ( ( nodes < 1 ) || ( node < 0 ) || ( node >= nodes ) ) {
+            throw new IllegalArgumentException( "Node " + node + " isn't one of " + nodes + " nodes" );
+        }
+
+        // the semaphore is acquired before the queue is read, so the jobs claimed never wait for a worker and time out
+        // their heartbeat. Each partition of this node claims up to its share of the workers at a time
+        partitions = jobAccessor.getPartitions();
+        ownedPartitions = getOwnedPartitions( partitions, nodes, node );
+        batchSize = Math.max( 1, workerSize / Math.max( 1, ownedPartitions.length ) );
+
+        if ( ownedPartitions.length == 0 ) {
+            LOG.warn( "Node {} of {} has none of the {} job partitions to drain",
+                    new Object[] { node, nodes, partitions } );
+        }
+
+        if ( ownedPartitions.length > 1 ) {
+            partitionPollers = Executors.newFixedThreadPool( ownedPartitions.length, PartitionThreadFactory.INSTANCE );
+        }
+
+        partitionClaims = new Meter[partitions];
+        partitionLags = new Histogram[partitions];
+
+        for ( int i = 0; i < partitions; i++ ) {
+            String prefix = "partition_" + i;
+            partitionClaims[i] = metricsFactory.getMeter( JobSchedulerService.class, prefix + "_claimed_jobs" );
+            partitionLags[i] = metricsFactory.getHistogram( JobSchedulerService.class, prefix + "_lag_millis" );
+        }
+
+        LOG.info( "Starting executor pool.  Capacity is {} over {} of {} partitions",
+                new Object[] { workerSize, ownedPartitions.length, partitions } );
 
         super.startUp();
 
@@ -365,6 +479,18 @@ public class JobSchedulerService extends AbstractScheduledService {
     }
 
 
+    /** The partitions drained by the node, every partition whose index modulo the number of nodes is the node's */
+    static int[] getOwnedPartitions( int partitions, int nodes, int node ) {
+        int[] owned = new int[partitions / nodes + ( node < partitions % nodes ? 1 : 0 )];
+
+        for ( int i = 0; i < owned.length; i++ ) {
+            owned[i] = node + i * nodes;
+        }
+
+        return owned;
+    }
+
+
     /*
      * (non-Javadoc)
      *
@@ -376,6 +502,10 @@ public class JobSchedulerService extends AbstractScheduledService {
 
         service.shutdown();
 
+        if ( partitionPollers != null ) {
+            partitionPollers.shutdown();
+        }
+
         LOG.info( "Job scheduler shut down" );
         super.shutDown();
     }
@@ -416,6 +546,26 @@ public class JobSchedulerService extends AbstractScheduledService {
         private final AtomicLong counter = new AtomicLong();
 
 
+        @Override
+        public Thread newThread( final Runnable r ) {
+
+            Thread newThread = new Thread( r, NAME + counter.incrementAndGet() );
+            newThread.setDaemon( true );
+
+            return newThread;
+        }
+    }
+
+
+    /** Daemon threads that drain the job queue partitions */
+    private static final class PartitionThreadFactory implements ThreadFactory {
+
+        public static final PartitionThreadFactory INSTANCE = new PartitionThreadFactory();
+
+        private static final String NAME = "JobPartitionPoller-";
+        private final AtomicLong counter = new AtomicLong();
+
+
         @Override
         public Thread newThread( final Runnable r ) {
 
@@ -88,6 +88,9 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
     /** Timeout for how long to set the transaction timeout from the queue. Default is 30000 */
     private long jobTimeout = 30000;
 
+    /** The number of queues jobs are spread over by their id. Default is 1, the job queue itself */
+    private int partitions = 1;
+
 
     /**
      *
@@ -136,7 +139,30 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
         message.setProperty( JOB_ID, jobDataId );
         message.setProperty( STATS_ID, jobStatId );
 
-        qm.postToQueue( jobQueueName, message );
+        qm.postToQueue( getJobQueue( getPartition( jobDataId ) ), message );
+    }
+
+
+    /** The partition of the job, the same every time it's scheduled */
+    int getPartition( UUID jobDataId ) {
+        if ( partitions <= 1 ) {
+            return 0;
+        }
+
+        return ( jobDataId.hashCode() & Integer.MAX_VALUE ) % partitions;
+    }
+
+
+    /**
+     * The queue of the partition. The first partition is the job queue itself, so jobs scheduled before it was
+     * partitioned still run
+     */
+    String getJobQueue( int partition ) {
+        if ( partition == 0 ) {
+            return jobQueueName;
+        }
+
+        return jobQueueName + "/" + partition;
     }
 
 
@@ -169,11 +195,24 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
      */
     @Override
     public List<JobDescriptor> getJobs( int size ) {
+        return getJobs( 0, size );
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.usergrid.batch.repository.JobAccessor#getJobs(int, int)
+     */
+    @Override
+    public List<JobDescriptor> getJobs( int partition, int size ) {
         QueueQuery query = new QueueQuery();
         query.setTimeout( jobTimeout );
         query.setLimit( size );
 
-        QueueResults jobs = qm.getFromQueue( jobQueueName, query );
+        String jobQueue = getJobQueue( partition );
+
+        QueueResults jobs = qm.getFromQueue( jobQueue, query );
 
         List<JobDescriptor> results = new ArrayList<JobDescriptor>( jobs.size() );
 
@@ -195,7 +234,7 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
                 if ( data == null || stats == null ) {
                     LOG.info( "Received job with data id '{}' from the queue, but no data was found.  Dropping job",
                             jobUuid );
-                    qm.deleteTransaction( jobQueueName, job.getTransaction(), null );
+                    qm.deleteTransaction( jobQueue, job.getTransaction(), null );
 
                     if ( data != null ) {
                         em.delete( data );
@@ -208,7 +247,8 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
                     continue;
                 }
 
-                results.add( new JobDescriptor( jobName, job.getUuid(), job.getTransaction(), data, stats, this ) );
+                results.add( new JobDescriptor( jobName, job.getUuid(), job.getTransaction(), data, stats, this,
+                        partition ) );
             }
             catch ( Exception e ) {
                 // log and skip. This is a catastrophic runtime error if we see an
@@ -230,7 +270,8 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
         try {
             // @TODO - what's the point to this sychronized block on an argument?
             synchronized ( execution ) {
-                UUID newId = qm.renewTransaction( jobQueueName, execution.getTransactionId(),
+                UUID newId = qm.renewTransaction( getJobQueue( execution.getExecution().getPartition() ),
+                        execution.getTransactionId(),
                         new QueueQuery().withTimeout( delay ) );
 
                 execution.setTransactionId( newId );
@@ -280,12 +321,14 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
 
         Status jobStatus = bulkJobExecution.getStatus();
 
+        String jobQueue = getJobQueue( bulkJobExecution.getPartition() );
+
         try {
 
             // we're done. Mark the transaction as complete and delete the job info
             if ( jobStatus == Status.COMPLETED ) {
                 LOG.info( "Job {} is complete id: {}", data.getJobName(), bulkJobExecution.getTransactionId() );
-                qm.deleteTransaction( jobQueueName, bulkJobExecution.getTransactionId(), null );
+                qm.deleteTransaction( jobQueue, bulkJobExecution.getTransactionId(), null );
                 LOG.debug( "delete job data {}", data.getUuid() );
                 em.delete( data );
             }
@@ -294,7 +337,7 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
             // running again and save it for querying later
             else if ( jobStatus == Status.DEAD ) {
                 LOG.warn( "Job {} is dead.  Removing", data.getJobName() );
-                qm.deleteTransaction( jobQueueName, bulkJobExecution.getTransactionId(), null );
+                qm.deleteTransaction( jobQueue, bulkJobExecution.getTransactionId(), null );
                 em.update( data );
             }
 
@@ -344,11 +387,13 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
         JobData data = execution.getJobData();
         JobStat stat = execution.getJobStats();
 
+        String jobQueue = getJobQueue( execution.getPartition() );
+
         try {
 
             // if it's a dead status, it's failed too many times, just kill the job
             if ( execution.getStatus() == Status.DEAD ) {
-                qm.deleteTransaction( jobQueueName, execution.getTransactionId(), null );
+                qm.deleteTransaction( jobQueue, execution.getTransactionId(), null );
                 em.update( data );
                 em.update( stat );
                 return;
@@ -358,7 +403,7 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
             scheduleJob( execution.getJobName(), System.currentTimeMillis() + delay, data.getUuid(), stat.getUuid() );
 
             // delete the pending transaction
-            qm.deleteTransaction( jobQueueName, execution.getTransactionId(), null );
+            qm.deleteTransaction( jobQueue, execution.getTransactionId(), null );
 
             // update the data for the next run
 
@@ -427,4 +472,19 @@ public class SchedulerServiceImpl implements SchedulerService, JobAccessor, JobR
     public void setJobTimeout( long timeout ) {
         this.jobTimeout = timeout;
     }
+
+
+    /**
+     * @param partitions the number of queues to spread jobs over. Jobs already scheduled stay in their partition, so
+     * don't lower it until the partitions above the new number are drained
+     */
+    public void setPartitions( int partitions ) {
+        this.partitions = Math.max( 1, partitions );
+    }
+
+
+    @Override
+    public int getPartitions() {
+        return partitions;
+    }
 }
@@ -18,25 +18,40 @@ package org.apache.usergrid.count;
 
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.usergrid.count.common.Count;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
 import me.prettyprint.cassandra.model.HCounterColumnImpl;
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.Mutator;
 import static org.apache.usergrid.persistence.cassandra.Serializers.*;
+import static org.apache.usergrid.utils.MetricsUtils.replaceGauge;
 
 
 /**
  * Encapsulate counter writes to Cassandra
+ * <p/>
+ * With an aggregation window, increments to the same cell (row key and column) are combined across every saved
+ * batch, and one mutation per distinct cell is written when the window closes. Without one each save is written
+ * immediately.
  *
  * @author zznate
  */
@@ -46,11 +61,35 @@ public class CassandraCounterStore implements CounterStore {
     // keep track of exceptions thrown in scheduler so we can reduce noise in logs
     private Map<String, Integer> counterInsertFailures = new HashMap<String, Integer>();
 
+    private final Counter incrementCounter = Metrics.newCounter( CassandraCounterStore.class, "window_increments" );
+    private final Counter mutationCounter = Metrics.newCounter( CassandraCounterStore.class, "window_mutations" );
+
     private final Keyspace keyspace;
 
+    /** Milliseconds increments are combined for before they're written, 0 writes every save */
+    private final long windowMillis;
+
+    /** Increments combined in the current window, swapped out when it closes */
+    private Map<Cell, Pending> window = new HashMap<Cell, Pending>();
+
+    private ScheduledExecutorService flusher;
+
 
     public CassandraCounterStore( Keyspace keyspace ) {
+        this( keyspace, 0 );
+    }
+
+
+    public CassandraCounterStore( Keyspace keyspace, long windowMillis ) {
         this.keyspace = keyspace;
+        this.windowMillis = windowMillis;
+
+        replaceGauge( CassandraCounterStore.class, "window_compaction_ratio", new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return getCompactionRatio();
+            }
+        } );
     }
 
 
@@ -60,18 +99,121 @@ public class CassandraCounterStore implements CounterStore {
 
 
     public void save( Collection<Count> counts ) {
-        Map<String, Count> countHolder = new HashMap<String, Count>();
+        incrementCounter.inc( counts.size() );
+
+        if ( windowMillis > 0 ) {
+            synchronized ( this ) {
+                //once shut down there's no window to close, write straight through
+                if ( flusher == null || !flusher.isShutdown() ) {
+                    start();
+                    combine( window, counts );
+                    return;
+                }
+            }
+        }
+
+        Map<Cell, Pending> combined = new HashMap<Cell, Pending>();
+        combine( combined, counts );
+        write( combined );
+    }
+
+
+    /** Write every increment combined so far */
+    public void flush() {
+        Map<Cell, Pending> closed;
+
+        synchronized ( this ) {
+            if ( window.isEmpty() ) {
+                return;
+            }
+
+            closed = window;
+            window = new HashMap<Cell, Pending>();
+        }
+
+        write( closed );
+    }
+
+
+    /** Write the open window and stop flushing */
+    public void shutdown() {
+        synchronized ( this ) {
+            if ( flusher != null ) {
+                flusher.shutdown();
+            }
+        }
+
+        flush();
+    }
+
+
+    /** The number of increments saved for every mutation written */
+    public double getCompactionRatio() {
+        long mutations = mutationCounter.count();
+        return mutations == 0 ? 0 : ( double ) incrementCounter.count() / mutations;
+    }
+
+
+    private void start() {
+        if ( flusher != null ) {
+            return;
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor( WindowThreadFactory.INSTANCE );
+
+        flusher.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                }
+                catch ( Exception e ) {
+                    log.error( "Unable to write counter window", e );
+                }
+            }
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS );
+    }
+
+
+    private static void combine( Map<Cell, Pending> combined, Collection<Count> counts ) {
         for ( Count count : counts ) {
-            Count c = countHolder.get( count.getCounterName() );
-            if ( c != null ) {
-                c.apply( count );
+            Cell cell = new Cell( count );
+            Pending pending = combined.get( cell );
+
+            if ( pending == null ) {
+                combined.put( cell, new Pending( count ) );
             }
             else {
-                countHolder.put( count.getCounterName(), count );
+                pending.value += count.getValue();
             }
         }
+    }
+
+
+    private void write( Map<Cell, Pending> combined ) {
+        List<Count> counts = new ArrayList<Count>( combined.size() );
+
+        for ( Pending pending : combined.values() ) {
+            //increments that cancelled out don't need a mutation
+            if ( pending.value != 0 ) {
+                counts.add( pending.toCount() );
+            }
+        }
+
+        if ( counts.isEmpty() ) {
+            return;
+        }
+
+        mutationCounter.inc( counts.size() );
+
+        execute( counts );
+    }
+
+
+    /** Write one counter mutation for each count */
+    protected void execute( Collection<Count> counts ) {
         Mutator<ByteBuffer> mutator = HFactory.createMutator( keyspace, be );
-        for ( Count count : countHolder.values() ) {
+        for ( Count count : counts ) {
             mutator.addCounter( count.getKeyNameBytes(), count.getTableName(),
                     new HCounterColumnImpl( count.getColumnName(), count.getValue(),
                             count.getColumnNameSerializer() ) );
@@ -98,4 +240,83 @@ public class CassandraCounterStore implements CounterStore {
             }
         }
     }
+
+
+    /** A counter cell, the table, row key and column name */
+    private static final class Cell {
+
+        private final String tableName;
+        private final ByteBuffer key;
+        private final ByteBuffer column;
+
+
+        private Cell( Count count ) {
+            this.tableName = count.getTableName();
+            this.key = count.getKeyNameBytes();
+            this.column = count.getColumnNameBytes();
+        }
+
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !( o instanceof Cell ) ) {
+                return false;
+            }
+
+            Cell cell = ( Cell ) o;
+
+            return tableName.equals( cell.tableName ) && key.equals( cell.key ) && column.equals( cell.column );
+        }
+
+
+        @Override
+        public int hashCode() {
+            int result = tableName.hashCode();
+            result = 31 * result + key.hashCode();
+            result = 31 * result + column.hashCode();
+            return result;
+        }
+    }
+
+
+    /** The combined increment of one cell */
+    private static final class Pending {
+
+        private final Count prototype;
+        private long value;
+
+
+        private Pending( Count count ) {
+            this.prototype = count;
+            this.value = count.getValue();
+        }
+
+
+        @SuppressWarnings("unchecked")
+        private Count toCount() {
+            if ( value == prototype.getValue() ) {
+                return prototype;
+            }
+
+            return new Count( prototype.getTableName(), prototype.getKeyName(), prototype.getColumnName(), value );
+        }
+    }
+
+
+    /** Names the window thread and keeps it from holding the jvm open */
+    private static final class WindowThreadFactory implements ThreadFactory {
+
+        private static final WindowThreadFactory INSTANCE = new WindowThreadFactory();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "CounterWindow" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
 }
@@ -41,16 +41,22 @@ import com.yammer.metrics.core.TimerContext;
 public class CassandraSubmitter implements BatchSubmitter {
     private final Logger log = LoggerFactory.getLogger( CassandraSubmitter.class );
 
-    private final int threadCount = 3;
     private final CassandraCounterStore cassandraCounterStore;
 
-    private final ExecutorService executor = Executors.newFixedThreadPool( threadCount );
+    private final ExecutorService executor;
     private final Timer addTimer =
             Metrics.newTimer( CassandraSubmitter.class, "submit_invocation", TimeUnit.MICROSECONDS, TimeUnit.SECONDS );
 
 
     public CassandraSubmitter( CassandraCounterStore cassandraCounterStore ) {
+        this( cassandraCounterStore, 3 );
+    }
+
+
+    /** @param threadCount The number of batches written to cassandra in parallel */
+    public CassandraSubmitter( CassandraCounterStore cassandraCounterStore, int threadCount ) {
         this.cassandraCounterStore = cassandraCounterStore;
+        this.executor = Executors.newFixedThreadPool( threadCount );
     }
 
 
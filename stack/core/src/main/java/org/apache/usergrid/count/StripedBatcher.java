@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.count;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.usergrid.count.common.Count;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+
+/**
+ * A batcher that rolls counts up in place instead of queueing them. Counts are summed into one of several striped
+ * maps keyed by counter name, and a single background thread drains the stripes to the {@link BatchSubmitter} every
+ * flush interval, or as soon as batchSize distinct counters are pending. Callers never block, if more than maxPending
+ * distinct counters are waiting to be flushed new counters are dropped.
+ * <p/>
+ * A batchSize of 1 keeps the behavior of {@link SimpleBatcher}, each count is written before add returns. It bypasses
+ * the stripes, so a concurrent flush can't take the count and write it after add has returned.
+ */
+public class StripedBatcher implements Batcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger( StripedBatcher.class );
+
+    /** Marks a pending counter the flusher has already taken, adds must go to a new one */
+    private static final long FLUSHED = Long.MIN_VALUE;
+
+    private final Counter aggregatedCounter = Metrics.newCounter( StripedBatcher.class, "counts_aggregated" );
+    private final Counter flushedCounter = Metrics.newCounter( StripedBatcher.class, "counts_flushed" );
+    private final Counter droppedCounter = Metrics.newCounter( StripedBatcher.class, "counts_dropped" );
+    private final Counter failedCounter = Metrics.newCounter( StripedBatcher.class, "counts_failed" );
+
+    private final ConcurrentMap<String, Pending>[] stripes;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong opCount = new AtomicLong();
+    private final AtomicLong batchSubmissionCount = new AtomicLong();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean( false );
+
+    private volatile ScheduledExecutorService flusher;
+
+    private BatchSubmitter batchSubmitter;
+    private volatile int batchSize = 500;
+    private int maxPending = 100000;
+    private long flushInterval = 30;
+
+
+    public StripedBatcher() {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public StripedBatcher( int stripeCount ) {
+        stripes = new ConcurrentMap[Math.max( 1, stripeCount )];
+
+        for ( int i = 0; i < stripes.length; i++ ) {
+            stripes[i] = new ConcurrentHashMap<String, Pending>();
+        }
+    }
+
+
+    @Override
+    public void setBatchSubmitter( BatchSubmitter batchSubmitter ) {
+        this.batchSubmitter = batchSubmitter;
+    }
+
+
+    /**
+     * The number of distinct pending counters that triggers a flush before the interval is up. 1 writes each count
+     * before add returns, anything pending is flushed when it's set
+     */
+    public void setBatchSize( int batchSize ) {
+        this.batchSize = batchSize;
+
+        if ( batchSize == 1 ) {
+            flush();
+        }
+    }
+
+
+    /** The number of distinct pending counters after which new counters are dropped */
+    public void setMaxPending( int maxPending ) {
+        this.maxPending = maxPending;
+    }
+
+
+    /** Seconds between flushes */
+    public void setFlushInterval( long flushInterval ) {
+        this.flushInterval = flushInterval;
+    }
+
+
+    /** Add a count to this batcher, summing it into the pending counter of the same name */
+    @Override
+    public void add( Count count ) {
+        opCount.incrementAndGet();
+
+        if ( batchSize == 1 ) {
+            submit( Collections.singletonList( count ) );
+            return;
+        }
+
+        start();
+
+        ConcurrentMap<String, Pending> stripe = stripes[( int ) ( Thread.currentThread().getId() % stripes.length )];
+        String name = count.getCounterName();
+
+        for (; ; ) {
+            Pending existing = stripe.get( name );
+
+            if ( existing != null ) {
+                if ( existing.add( count.getValue() ) ) {
+                    aggregatedCounter.inc();
+                    return;
+                }
+
+                //the flusher took it, start a new one
+                stripe.remove( name, existing );
+                continue;
+            }
+
+            if ( pending.incrementAndGet() > maxPending ) {
+                pending.decrementAndGet();
+                droppedCounter.inc();
+                return;
+            }
+
+            existing = stripe.putIfAbsent( name, new Pending( count ) );
+
+            if ( existing == null ) {
+                if ( pending.get() >= batchSize ) {
+                    requestFlush();
+                }
+                return;
+            }
+
+            //lost the race to another thread on this stripe, add to theirs
+            pending.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * Individual {@link Count} for the same counter get rolled up, so we track the individual number of operations.
+     *
+     * @return the number of operation against this StripedBatcher
+     */
+    @Override
+    public long getOpCount() {
+        return opCount.get();
+    }
+
+
+    @Override
+    public long getBatchSubmissionCount() {
+        return batchSubmissionCount.get();
+    }
+
+
+    /** Drain every stripe to the batch submitter */
+    public void flush() {
+        List<Count> batch = new ArrayList<Count>( Math.min( batchSize, pending.get() ) );
+
+        for ( ConcurrentMap<String, Pending> stripe : stripes ) {
+            for ( Map.Entry<String, Pending> entry : stripe.entrySet() ) {
+                Pending taken = entry.getValue();
+
+                if ( !stripe.remove( entry.getKey(), taken ) ) {
+                    continue;
+                }
+
+                pending.decrementAndGet();
+
+                long value = taken.take();
+
+                if ( value == 0 ) {
+                    continue;
+                }
+
+                batch.add( taken.toCount( value ) );
+
+                if ( batch.size() >= batchSize ) {
+                    submit( batch );
+                    batch = new ArrayList<Count>( batchSize );
+                }
+            }
+        }
+
+        if ( !batch.isEmpty() ) {
+            submit( batch );
+        }
+    }
+
+
+    /** Flush anything pending and stop the flush thread */
+    public void shutdown() {
+        ScheduledExecutorService running = flusher;
+
+        if ( running != null ) {
+            running.shutdown();
+        }
+
+        flush();
+    }
+
+
+    private void submit( List<Count> batch ) {
+        try {
+            Future<?> future = batchSubmitter.submit( batch );
+
+            if ( batchSize == 1 && future != null ) {
+                future.get();
+            }
+        }
+        catch ( Exception e ) {
+            failedCounter.inc( batch.size() );
+            LOG.error( "Unable to submit {} counts", batch.size(), e );
+            return;
+        }
+
+        flushedCounter.inc( batch.size() );
+        batchSubmissionCount.incrementAndGet();
+    }
+
+
+    /** Start the flush thread the first time a count is added */
+    private void start() {
+        if ( flusher != null ) {
+            return;
+        }
+
+        synchronized ( this ) {
+            if ( flusher != null ) {
+                return;
+            }
+
+            ScheduledExecutorService created =
+                    Executors.newSingleThreadScheduledExecutor( FlushThreadFactory.INSTANCE );
+
+            created.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run() {
+                    flushSafely();
+                }
+            }, flushInterval, flushInterval, TimeUnit.SECONDS );
+
+            flusher = created;
+        }
+    }
+
+
+    /** Ask the flush thread for an early flush, only one request is outstanding at a time */
+    private void requestFlush() {
+        ScheduledExecutorService running = flusher;
+
+        if ( running.isShutdown() || !flushRequested.compareAndSet( false, true ) ) {
+            return;
+        }
+
+        running.execute( new Runnable() {
+            @Override
+            public void run() {
+                flushRequested.set( false );
+                flushSafely();
+            }
+        } );
+    }
+
+
+    private void flushSafely() {
+        try {
+            flush();
+        }
+        catch ( Exception e ) {
+            LOG.error( "Unable to flush counters", e );
+        }
+    }
+
+
+    /** The running total of one counter, closed once the flusher takes it */
+    private static final class Pending {
+
+        private final Count prototype;
+        private final AtomicLong value;
+
+
+        private Pending( Count count ) {
+            this.prototype = count;
+            this.value = new AtomicLong( count.getValue() );
+        }
+
+
+        /** Add to this counter, false if it has already been flushed */
+        private boolean add( long delta ) {
+            for (; ; ) {
+                long current = value.get();
+
+                if ( current == FLUSHED ) {
+                    return false;
+                }
+
+                if ( value.compareAndSet( current, current + delta ) ) {
+                    return true;
+                }
+            }
+        }
+
+
+        /** Close this counter and return its total */
+        private long take() {
+            return value.getAndSet( FLUSHED );
+        }
+
+
+        @SuppressWarnings("unchecked")
+        private Count toCount( long total ) {
+            return new Count( prototype.getTableName(), prototype.getKeyName(), prototype.getColumnName(), total );
+        }
+    }
+
+
+    /** Names the flush thread and keeps it from holding the jvm open */
+    private static final class FlushThreadFactory implements ThreadFactory {
+
+        private static final FlushThreadFactory INSTANCE = new FlushThreadFactory();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "CounterFlusher" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
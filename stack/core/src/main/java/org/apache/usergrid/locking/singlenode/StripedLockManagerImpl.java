@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.locking.singlenode;
+
+
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.usergrid.locking.Lock;
+import org.apache.usergrid.locking.LockManager;
+
+
+/**
+ * Single Node implementation for {@link LockManager} that maps lock paths onto a fixed, power of two number of
+ * reentrant locks. Unlike {@link SingleNodeLockManagerImpl} there's no cache of locks by path, so creating a lock
+ * doesn't allocate and its memory doesn't grow with the paths locked.
+ * <p/>
+ * Different paths can share a lock, which only makes them wait on each other. Threads that hold one lock while
+ * taking another, as creating an organization does, could deadlock when their paths share locks in the opposite
+ * order, so use enough stripes to make that unlikely.
+ */
+public class StripedLockManagerImpl implements LockManager {
+
+    public static final int DEFAULT_STRIPES = 1024;
+
+    private static final char SLASH = '/';
+
+    private final SingleNodeLockImpl[] locks;
+
+    private final int mask;
+
+
+    /** Default constructor, non fair locks with {@link #DEFAULT_STRIPES} stripes */
+    public StripedLockManagerImpl() {
+        this( DEFAULT_STRIPES, false );
+    }
+
+
+    /**
+     * @param stripes The number of locks, rounded up to a power of two
+     * @param fair True if each lock should be granted to the longest waiting thread
+     */
+    public StripedLockManagerImpl( int stripes, boolean fair ) {
+        int size = Integer.highestOneBit( Math.max( 1, stripes ) );
+
+        if ( size < stripes ) {
+            size <<= 1;
+        }
+
+        locks = new SingleNodeLockImpl[size];
+        mask = size - 1;
+
+        for ( int i = 0; i < size; i++ ) {
+            locks[i] = new SingleNodeLockImpl( new ReentrantLock( fair ) );
+        }
+    }
+
+
+    /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.usergrid.locking.LockManager#createLock(java.util.UUID,
+   * java.lang.String[])
+   */
+    @Override
+    public Lock createLock( UUID applicationId, String... path ) {
+        return locks[stripe( applicationId, path )];
+    }
+
+
+    /** The number of locks paths are spread over */
+    public int getStripes() {
+        return locks.length;
+    }
+
+
+    /**
+     * The lock of the path, hashed the way the string built by {@link org.apache.usergrid.locking.LockPathBuilder}
+     * would be after the application id, without building it
+     */
+    int stripe( UUID applicationId, String... path ) {
+        int hash = applicationId.hashCode();
+
+        for ( String element : path ) {
+            hash = 31 * hash + SLASH;
+
+            for ( int i = 0; i < element.length(); i++ ) {
+                hash = 31 * hash + element.charAt( i );
+            }
+        }
+
+        // spread the bits so the low ones used for the index depend on all of them
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+
+        return hash & mask;
+    }
+}
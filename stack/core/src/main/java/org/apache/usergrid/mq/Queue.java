@@ -50,10 +50,21 @@ public class Queue {
     public static final String QUEUE_NEWEST = "newest";
     public static final String QUEUE_OLDEST = "oldest";
 
+    /** The milliseconds of messages in each shard of the queue, only set before the first message is posted */
+    public static final String QUEUE_SHARD_MILLIS = "shard_millis";
+
+    /** The seconds messages posted to the queue live, unset or 0 if they live until deleted */
+    public static final String QUEUE_MESSAGE_TTL = "message_ttl";
+
+    /** The shard the queue is compacted up to, every shard before it expired and was deleted */
+    public static final String QUEUE_COMPACTED = "compacted";
+
     @SuppressWarnings("rawtypes")
     public static final Map<String, Class> QUEUE_PROPERTIES =
             hashMap( QUEUE_PATH, ( Class ) String.class ).map( QUEUE_ID, UUID.class ).map( QUEUE_CREATED, Long.class )
-                    .map( QUEUE_MODIFIED, Long.class ).map( QUEUE_NEWEST, UUID.class ).map( QUEUE_OLDEST, UUID.class );
+                    .map( QUEUE_MODIFIED, Long.class ).map( QUEUE_NEWEST, UUID.class ).map( QUEUE_OLDEST, UUID.class )
+                    .map( QUEUE_SHARD_MILLIS, Long.class ).map( QUEUE_MESSAGE_TTL, Long.class )
+                    .map( QUEUE_COMPACTED, Long.class );
 
     protected Map<String, Object> properties = new TreeMap<String, Object>( String.CASE_INSENSITIVE_ORDER );
 
@@ -91,6 +91,17 @@ public interface QueueManager {
     public UUID renewTransaction( String queuePath, UUID transactionId, QueueQuery query )
             throws TransactionNotFoundException;
 
+    /**
+     * Renew transactions in one batch.  Will remove the current transactions and return new ones
+     *
+     * @param queuePath The path to the queue
+     * @param transactionIds The transaction ids
+     *
+     * @return The new transaction id for each transaction id, in the order given. Null if the transaction doesn't
+     *         exist
+     */
+    public Map<UUID, UUID> renewTransactions( String queuePath, List<UUID> transactionIds, QueueQuery query );
+
     /**
      * Deletes the transaction for the consumer. Synonymous with "commit."
      *
@@ -109,6 +120,23 @@ public interface QueueManager {
      */
     public void commitTransaction( String queuePath, UUID transactionId, QueueQuery query );
 
+    /**
+     * Commits transactions for the consumer in one batch.
+     *
+     * @param queuePath The path to the queue
+     * @param transactionIds The transaction ids
+     *
+     * @return For each transaction id in the order given, true if the transaction existed
+     */
+    public Map<UUID, Boolean> commitTransactions( String queuePath, List<UUID> transactionIds, QueueQuery query );
+
+    /**
+     * Deletes transactions for the consumer in one batch. Synonymous with "commit."
+     *
+     * @see #commitTransactions(String, java.util.List, QueueQuery)
+     */
+    public Map<UUID, Boolean> deleteTransactions( String queuePath, List<UUID> transactionIds, QueueQuery query );
+
     /**
      * Determines if there are any outstanding transactions on a queue
      *
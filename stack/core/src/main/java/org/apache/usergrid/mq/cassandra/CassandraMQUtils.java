@@ -95,6 +95,13 @@ public class CassandraMQUtils {
 
 
     public static Mutator<ByteBuffer> addMessageToMutator( Mutator<ByteBuffer> m, Message message, long timestamp ) {
+        return addMessageToMutator( m, message, timestamp, 0 );
+    }
+
+
+    /** @param ttl The seconds the message lives, 0 if it lives until it's deleted */
+    public static Mutator<ByteBuffer> addMessageToMutator( Mutator<ByteBuffer> m, Message message, long timestamp,
+                                                           int ttl ) {
 
         Map<ByteBuffer, ByteBuffer> columns = serializeMessage( message );
 
@@ -106,6 +113,9 @@ public class CassandraMQUtils {
             if ( ( column_entry.getValue() != null ) && column_entry.getValue().hasRemaining() ) {
                 HColumn<ByteBuffer, ByteBuffer> column =
                         createColumn( column_entry.getKey(), column_entry.getValue(), timestamp, be, be );
+                if ( ttl > 0 ) {
+                    column.setTtl( ttl );
+                }
                 m.addInsertion( bytebuffer( message.getUuid() ), QueuesCF.MESSAGE_PROPERTIES.toString(), column );
             }
             else {
@@ -149,7 +159,7 @@ public class CassandraMQUtils {
                 continue;
             }
             if ( Queue.QUEUE_ID.equals( property.getKey() ) || QUEUE_NEWEST.equals( property.getKey() ) || QUEUE_OLDEST
-                    .equals( property.getKey() ) ) {
+                    .equals( property.getKey() ) || Queue.QUEUE_COMPACTED.equals( property.getKey() ) ) {
                 continue;
             }
             if ( QUEUE_PROPERTIES.containsKey( property.getKey() ) ) {
@@ -228,6 +238,15 @@ public class CassandraMQUtils {
     }
 
 
+    /** Get a row key in format of queueId+clientId+1, for the leases of transactional reads without locks */
+    public static ByteBuffer getQueueClientLeaseKey( UUID queueId, UUID clientId ) {
+        ByteBuffer bytes = ByteBuffer.allocate( 33 );
+        bytes.put( getQueueClientTransactionKey( queueId, clientId ) );
+        bytes.put( ( byte ) 1 );
+        return ( ByteBuffer ) bytes.rewind();
+    }
+
+
     public static UUID getUUIDFromRowKey( ByteBuffer bytes ) {
         return ConversionUtils.uuid( bytes );
     }
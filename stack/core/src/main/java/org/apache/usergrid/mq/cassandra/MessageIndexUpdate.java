@@ -27,6 +27,7 @@ import java.util.UUID;
 import org.apache.usergrid.mq.Message;
 
 import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.mutation.Mutator;
 
 import static me.prettyprint.hector.api.factory.HFactory.createColumn;
@@ -75,6 +76,12 @@ public class MessageIndexUpdate {
 
 
     public void addToMutation( Mutator<ByteBuffer> batch, UUID queueId, long shard_ts, long timestamp ) {
+        addToMutation( batch, queueId, shard_ts, timestamp, 0 );
+    }
+
+
+    /** @param ttl The seconds the index entries live, 0 if they live until they're deleted */
+    public void addToMutation( Mutator<ByteBuffer> batch, UUID queueId, long shard_ts, long timestamp, int ttl ) {
 
         if ( propertyEntryList != null ) {
             for ( Entry<String, List<Entry<String, Object>>> property : propertyEntryList.entrySet() ) {
@@ -83,10 +90,15 @@ public class MessageIndexUpdate {
 
                     if ( validIndexableValue( indexEntry.getValue() ) ) {
 
-                        batch.addInsertion( bytebuffer( key( queueId, shard_ts, indexEntry.getKey() ) ),
-                                PROPERTY_INDEX.getColumnFamily(), createColumn(
+                        HColumn<DynamicComposite, ByteBuffer> column = createColumn(
                                 new DynamicComposite( indexValueCode( indexEntry.getValue() ), indexEntry.getValue(),
-                                        message.getUuid() ), ByteBuffer.allocate( 0 ), timestamp, dce, be ) );
+                                        message.getUuid() ), ByteBuffer.allocate( 0 ), timestamp, dce, be );
+                        if ( ttl > 0 ) {
+                            column.setTtl( ttl );
+                        }
+
+                        batch.addInsertion( bytebuffer( key( queueId, shard_ts, indexEntry.getKey() ) ),
+                                PROPERTY_INDEX.getColumnFamily(), column );
 
                         batch.addInsertion( bytebuffer( key( queueId, DICTIONARY_MESSAGE_INDEXES ) ),
                                 QUEUE_DICTIONARIES.getColumnFamily(),
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra;
+
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+
+/**
+ * Periodically deletes the shards of queues whose messages have all expired, see {@link
+ * QueueManagerImpl#compactQueue(String)}.
+ * <p/>
+ * Queues are compacted by every node that posted to them since it started, the same way {@link QueueFanout} sweeps
+ * the applications fanned out from it. Compacting the same queue on several nodes only repeats the deletes.
+ */
+public class QueueCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger( QueueCompactor.class );
+
+    private final Counter failures = Metrics.newCounter( QueueCompactor.class, "compaction_failures" );
+
+    /** A queue manager of the application by queue, for each queue with expiring messages posted to from this node */
+    private final ConcurrentMap<String, Compaction> queues = new ConcurrentHashMap<String, Compaction>();
+
+    private final ScheduledExecutorService executor;
+
+
+    /** @param intervalSeconds How often to compact the queues, 0 never compacts them */
+    public QueueCompactor( long intervalSeconds ) {
+        if ( intervalSeconds <= 0 ) {
+            executor = null;
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor( CompactorThreadFactory.INSTANCE );
+        executor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS );
+    }
+
+
+    /** Compact the queue from now on, with the manager of its application */
+    public void register( UUID applicationId, String queuePath, QueueManagerImpl qm ) {
+        if ( executor != null ) {
+            queues.putIfAbsent( applicationId + queuePath, new Compaction( queuePath, qm ) );
+        }
+    }
+
+
+    /** Compact every registered queue, and stop compacting the ones whose messages don't expire any more */
+    public void compact() {
+        for ( Map.Entry<String, Compaction> entry : queues.entrySet() ) {
+            Compaction compaction = entry.getValue();
+
+            try {
+                if ( !compaction.qm.compactQueue( compaction.queuePath ) ) {
+                    queues.remove( entry.getKey(), compaction );
+                }
+            }
+            catch ( Exception e ) {
+                failures.inc();
+                logger.error( "Unable to compact queue " + compaction.queuePath, e );
+            }
+        }
+    }
+
+
+    public void shutdown() {
+        if ( executor != null ) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private static final class Compaction {
+
+        private final String queuePath;
+        private final QueueManagerImpl qm;
+
+
+        private Compaction( String queuePath, QueueManagerImpl qm ) {
+            this.queuePath = queuePath;
+            this.qm = qm;
+        }
+    }
+
+
+    private static final class CompactorThreadFactory implements ThreadFactory {
+
+        private static final CompactorThreadFactory INSTANCE = new CompactorThreadFactory();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "QueueCompactor" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
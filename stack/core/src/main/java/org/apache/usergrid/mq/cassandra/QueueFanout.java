@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra;
+
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+import static org.apache.usergrid.utils.MetricsUtils.replaceGauge;
+
+
+/**
+ * Fans messages posted to a queue out to the queue's subscribers.
+ * <p/>
+ * The subscribers of each queue are cached. Subscribing and unsubscribing on this node invalidates the entry, other
+ * nodes see the change when their entry expires.
+ * <p/>
+ * Fan out runs on a pool of daemon threads once the publisher's write is done, so posting doesn't wait on every
+ * subscriber. The publisher's write also marks its messages as pending fan out, and fanning out clears the marks. A
+ * sweep resumes marks left behind by a failure or a restart, so a message is fanned out at least once. The marks are
+ * listed by application in Cassandra, so the sweep of any node resumes the marks of a node that didn't come back. When
+ * the pool falls too far behind, posting threads fan out their own messages.
+ */
+public class QueueFanout {
+
+    private static final Logger logger = LoggerFactory.getLogger( QueueFanout.class );
+
+    private final Timer fanoutTimer =
+            Metrics.newTimer( QueueFanout.class, "fanout", TimeUnit.MILLISECONDS, TimeUnit.SECONDS );
+    private final Histogram delays = Metrics.newHistogram( QueueFanout.class, "fanout_delay_millis" );
+    private final Counter failures = Metrics.newCounter( QueueFanout.class, "fanout_failures" );
+
+    /** Subscriber paths by application and publisher path, null if not cached */
+    private final Cache<String, List<String>> subscribers;
+
+    /** Null if fan out runs on the posting thread */
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledExecutorService sweeper;
+
+    /** Resumes the pending fan out of every application, set by the factory sharing this fan out */
+    private volatile QueueManagerFactoryImpl factory;
+
+    private final long sweepMillis;
+
+
+    /**
+     * @param threads The threads fanning out, 0 fans out on the posting thread before it returns
+     * @param maxPending The most fan outs waiting for a thread before posting threads run their own
+     * @param subscriberCacheSeconds How long a queue's subscribers are cached, 0 reads them on every post
+     * @param sweepSeconds How often to resume pending fan out. Only fan out pending for twice as long is resumed, so
+     * fan out still waiting on another node is rarely repeated
+     */
+    public QueueFanout( int threads, int maxPending, long subscriberCacheSeconds, long sweepSeconds ) {
+        if ( subscriberCacheSeconds > 0 ) {
+            subscribers = CacheBuilder.newBuilder().maximumSize( 10000 )
+                                      .expireAfterWrite( subscriberCacheSeconds, TimeUnit.SECONDS ).build();
+        }
+        else {
+            subscribers = null;
+        }
+
+        sweepMillis = TimeUnit.SECONDS.toMillis( sweepSeconds );
+
+        if ( threads <= 0 ) {
+            executor = null;
+            sweeper = null;
+            return;
+        }
+
+        executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>( maxPending ), FanoutThreadFactory.INSTANCE,
+                new ThreadPoolExecutor.CallerRunsPolicy() );
+
+        replaceGauge( QueueFanout.class, "fanout_pending", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return executor.getQueue().size();
+            }
+        } );
+
+        replaceGauge( QueueFanout.class, "fanout_lag_millis", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return getLag();
+            }
+        } );
+
+        sweeper = Executors.newSingleThreadScheduledExecutor( FanoutThreadFactory.INSTANCE );
+
+        if ( sweepSeconds > 0 ) {
+            sweeper.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            }, sweepSeconds, sweepSeconds, TimeUnit.SECONDS );
+        }
+    }
+
+
+    /** True if fan out runs after the post returns */
+    public boolean isAsync() {
+        return executor != null;
+    }
+
+
+    /** Get the subscribers of the queue, loading them if they aren't cached */
+    public List<String> getSubscribers( UUID applicationId, String queuePath, Callable<List<String>> loader ) {
+        try {
+            if ( subscribers == null ) {
+                return loader.call();
+            }
+
+            return subscribers.get( applicationId + queuePath, loader );
+        }
+        catch ( ExecutionException e ) {
+            throw new RuntimeException( "Unable to load the subscribers of " + queuePath, e.getCause() );
+        }
+        catch ( UncheckedExecutionException e ) {
+            throw ( RuntimeException ) e.getCause();
+        }
+        catch ( RuntimeException e ) {
+            throw e;
+        }
+        catch ( Exception e ) {
+            throw new RuntimeException( "Unable to load the subscribers of " + queuePath, e );
+        }
+    }
+
+
+    /** Drop the cached subscribers of the queue */
+    public void invalidateSubscribers( UUID applicationId, String queuePath ) {
+        if ( subscribers != null ) {
+            subscribers.invalidate( applicationId + queuePath );
+        }
+    }
+
+
+    void setQueueManagerFactory( QueueManagerFactoryImpl factory ) {
+        this.factory = factory;
+    }
+
+
+    /** Run the fan out, on the pool if there is one */
+    public void submit( Runnable fanout ) {
+        if ( executor == null ) {
+            fanout.run();
+            return;
+        }
+
+        executor.execute( new Task( fanout ) );
+    }
+
+
+    /** Milliseconds the oldest fan out has been waiting for a thread */
+    public long getLag() {
+        if ( executor == null ) {
+            return 0;
+        }
+
+        Runnable oldest = executor.getQueue().peek();
+
+        return oldest instanceof Task ? System.currentTimeMillis() - ( ( Task ) oldest ).submitted : 0;
+    }
+
+
+    /** Resume pending fan out in every application with some, unless fan out is still running here */
+    public void sweep() {
+        if ( ( executor == null ) || ( factory == null ) ) {
+            return;
+        }
+
+        if ( ( executor.getActiveCount() > 0 ) || !executor.getQueue().isEmpty() ) {
+            return;
+        }
+
+        try {
+            factory.resumePendingFanout( sweepMillis * 2 );
+        }
+        catch ( Exception e ) {
+            logger.error( "Unable to resume pending fan out", e );
+        }
+    }
+
+
+    /** Finish the fan out already submitted */
+    public void shutdown() {
+        if ( executor == null ) {
+            return;
+        }
+
+        sweeper.shutdownNow();
+        executor.shutdown();
+
+        try {
+            if ( !executor.awaitTermination( 30, TimeUnit.SECONDS ) ) {
+                logger.warn( "Fan out still running at shutdown, it will be resumed by the next sweep" );
+            }
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private final class Task implements Runnable {
+
+        private final Runnable fanout;
+        private final long submitted = System.currentTimeMillis();
+
+
+        private Task( Runnable fanout ) {
+            this.fanout = fanout;
+        }
+
+
+        @Override
+        public void run() {
+            delays.update( System.currentTimeMillis() - submitted );
+
+            TimerContext timer = fanoutTimer.time();
+
+            try {
+                fanout.run();
+            }
+            catch ( RuntimeException e ) {
+                failures.inc();
+                logger.error( "Unable to fan out, it will be resumed by the next sweep", e );
+            }
+            finally {
+                timer.stop();
+            }
+        }
+    }
+
+
+    private static final class FanoutThreadFactory implements ThreadFactory {
+
+        private static final FanoutThreadFactory INSTANCE = new FanoutThreadFactory();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "QueueFanout" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
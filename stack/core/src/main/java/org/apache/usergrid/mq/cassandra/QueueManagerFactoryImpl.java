@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.usergrid.locking.LockManager;
 import org.apache.usergrid.mq.QueueManager;
 import org.apache.usergrid.mq.QueueManagerFactory;
+import org.apache.usergrid.mq.cassandra.io.QueueCache;
 import org.apache.usergrid.persistence.cassandra.CassandraService;
 import org.apache.usergrid.persistence.cassandra.CounterUtils;
 
@@ -40,6 +41,11 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     private CounterUtils counterUtils;
     private LockManager lockManager;
     private int lockTimeout;
+    private QueueFanout fanout;
+    private boolean leasedTransactions;
+    private QueueNotifier notifier;
+    private QueueCache cache;
+    private QueueCompactor compactor;
 
     /**
      * Must be constructed with a CassandraClientPool.
@@ -55,6 +61,62 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     }
 
 
+    /**
+     * @param fanout fans posted messages out to subscribers and caches the subscribers of each queue, shared by the
+     * queue managers of every application
+     */
+    public QueueManagerFactoryImpl( CassandraService cass, CounterUtils counterUtils, LockManager lockManager,
+                                    int lockTimeout, QueueFanout fanout ) {
+        this( cass, counterUtils, lockManager, lockTimeout );
+        this.fanout = fanout;
+
+        if ( fanout != null ) {
+            fanout.setQueueManagerFactory( this );
+        }
+    }
+
+
+    /** Start transactions with leases instead of locks, see {@link QueueManagerImpl#setLeasedTransactions(boolean)} */
+    public void setLeasedTransactions( boolean leasedTransactions ) {
+        this.leasedTransactions = leasedTransactions;
+    }
+
+
+    /** Wakes consumers waiting on an empty queue, shared by the queue managers of every application */
+    public void setNotifier( QueueNotifier notifier ) {
+        this.notifier = notifier;
+    }
+
+
+    /** Caches the bounds and settings of queues, shared by the queue managers of every application */
+    public void setCache( QueueCache cache ) {
+        this.cache = cache;
+    }
+
+
+    /** Deletes the expired shards of queues, shared by the queue managers of every application */
+    public void setCompactor( QueueCompactor compactor ) {
+        this.compactor = compactor;
+    }
+
+
+    /**
+     * Resume the fan out still pending after the given time in every application listed with some, whichever node
+     * posted it
+     *
+     * @return The number of messages fanned out
+     */
+    public int resumePendingFanout( long olderThanMillis ) {
+        int resumed = 0;
+
+        for ( UUID applicationId : QueueManagerImpl.getPendingFanoutApplications( cass ) ) {
+            resumed += ( ( QueueManagerImpl ) getQueueManager( applicationId ) ).resumePendingFanout( olderThanMillis );
+        }
+
+        return resumed;
+    }
+
+
     @Override
     public String getImpementationDescription() throws Exception {
         return IMPLEMENTATION_DESCRIPTION;
@@ -64,7 +126,11 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     @Override
     public QueueManager getQueueManager( UUID applicationId ) {
         QueueManagerImpl qm = new QueueManagerImpl();
-        qm.init( cass, counterUtils, lockManager, applicationId, lockTimeout );
+        qm.init( cass, counterUtils, lockManager, applicationId, lockTimeout, fanout );
+        qm.setLeasedTransactions( leasedTransactions );
+        qm.setNotifier( notifier );
+        qm.setCache( cache );
+        qm.setCompactor( compactor );
         return qm;
         //return applicationContext.getAutowireCapableBeanFactory()
         //		.createBean(QueueManagerImpl.class)
@@ -26,8 +26,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,11 +47,15 @@ import org.apache.usergrid.mq.QueueSet;
 import org.apache.usergrid.mq.QueueSet.QueueInfo;
 import org.apache.usergrid.mq.cassandra.QueueIndexUpdate.QueueIndexEntry;
 import org.apache.usergrid.mq.cassandra.io.ConsumerTransaction;
+import org.apache.usergrid.mq.cassandra.io.AbstractSearch;
 import org.apache.usergrid.mq.cassandra.io.EndSearch;
 import org.apache.usergrid.mq.cassandra.io.FilterSearch;
+import org.apache.usergrid.mq.cassandra.io.LeasedConsumerTransaction;
 import org.apache.usergrid.mq.cassandra.io.NoTransactionSearch;
 import org.apache.usergrid.mq.cassandra.io.QueueBounds;
+import org.apache.usergrid.mq.cassandra.io.QueueCache;
 import org.apache.usergrid.mq.cassandra.io.QueueSearch;
+import org.apache.usergrid.mq.cassandra.io.QueueSettings;
 import org.apache.usergrid.mq.cassandra.io.StartSearch;
 import org.apache.usergrid.persistence.AggregateCounter;
 import org.apache.usergrid.persistence.AggregateCounterSet;
@@ -64,7 +69,7 @@ import org.apache.usergrid.persistence.exceptions.TransactionNotFoundException;
 import org.apache.usergrid.persistence.hector.CountingMutator;
 import org.apache.usergrid.utils.UUIDUtils;
 
-import com.fasterxml.uuid.UUIDComparator;
+import com.google.common.collect.Lists;
 
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
@@ -86,10 +91,13 @@ import static me.prettyprint.hector.api.factory.HFactory.createColumn;
 import static me.prettyprint.hector.api.factory.HFactory.createCounterSliceQuery;
 
 import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
+import static org.apache.usergrid.mq.Queue.QUEUE_COMPACTED;
 import static org.apache.usergrid.mq.Queue.QUEUE_CREATED;
+import static org.apache.usergrid.mq.Queue.QUEUE_MESSAGE_TTL;
 import static org.apache.usergrid.mq.Queue.QUEUE_MODIFIED;
 import static org.apache.usergrid.mq.Queue.QUEUE_NEWEST;
 import static org.apache.usergrid.mq.Queue.QUEUE_OLDEST;
+import static org.apache.usergrid.mq.Queue.QUEUE_SHARD_MILLIS;
 import static org.apache.usergrid.mq.Queue.getQueueId;
 import static org.apache.usergrid.mq.Queue.normalizeQueuePath;
 import static org.apache.usergrid.mq.QueuePosition.CONSUMER;
@@ -111,6 +119,7 @@ import static org.apache.usergrid.mq.cassandra.QueuesCF.PROPERTY_INDEX;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.PROPERTY_INDEX_ENTRIES;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_DICTIONARIES;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_INBOX;
+import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_PENDING_FANOUT;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_PROPERTIES;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_SUBSCRIBERS;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_SUBSCRIPTIONS;
@@ -124,7 +133,6 @@ import static org.apache.usergrid.utils.CompositeUtils.setGreaterThanEqualityFla
 import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
 import static org.apache.usergrid.utils.IndexUtils.getKeyValueList;
 import static org.apache.usergrid.utils.MapUtils.emptyMapWithKeys;
-import static org.apache.usergrid.utils.NumberUtils.roundLong;
 import static org.apache.usergrid.utils.UUIDUtils.getTimestampInMicros;
 import static org.apache.usergrid.utils.UUIDUtils.newTimeUUID;
 import static org.apache.usergrid.persistence.cassandra.Serializers.*;
@@ -137,9 +145,26 @@ public class QueueManagerImpl implements QueueManager {
     public static final String DICTIONARY_SUBSCRIBER_INDEXES = "subscriber_indexes";
     public static final String DICTIONARY_MESSAGE_INDEXES = "message_indexes";
 
+    /** Messages posted to a queue with subscribers that haven't been fanned out to the subscribers yet */
+    public static final String DICTIONARY_PENDING_FANOUT = "pending_fanout";
+
+    /** The hours of message time of an application that may still have messages pending fan out */
+    public static final String DICTIONARY_PENDING_FANOUT_SHARDS = "pending_fanout_shards";
+
+    /** The row of the applications that may have messages pending fan out, across every application */
+    public static final String PENDING_FANOUT_APPLICATIONS = "pending_fanout_applications";
+
+    public static final long PENDING_FANOUT_SHARD_INTERVAL = 1000 * 60 * 60;
+
     public static final int QUEUE_SHARD_INTERVAL = 1000 * 60 * 60 * 24;
+
+    /** The most expired shards of a queue deleted by one compaction */
+    public static final int MAX_COMPACTED_SHARDS = 1000;
     public static final int INDEX_ENTRY_LIST_COUNT = 1000;
 
+    /** The most messages written in one batch when posting a list of messages */
+    public static final int POST_BATCH_SIZE = 100;
+
     public static final int DEFAULT_SEARCH_COUNT = 10000;
     public static final int ALL_COUNT = 100000000;
 
@@ -148,7 +173,11 @@ public class QueueManagerImpl implements QueueManager {
     private CounterUtils counterUtils;
     private LockManager lockManager;
     private int lockTimeout;
-
+    private QueueFanout fanout;
+    private boolean leasedTransactions;
+    private QueueNotifier notifier;
+    private QueueCache cache;
+    private QueueCompactor compactor;
 
 
     public QueueManagerImpl() {
@@ -166,6 +195,41 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    public QueueManagerImpl init( CassandraService cass, CounterUtils counterUtils, LockManager lockManager,
+                                  UUID applicationId, int lockTimeout, QueueFanout fanout ) {
+        init( cass, counterUtils, lockManager, applicationId, lockTimeout );
+        this.fanout = fanout;
+        return this;
+    }
+
+
+    /**
+     * Start transactions by claiming a range of the queue with a lease instead of locking the consumer, so readers of
+     * the same consumer don't wait on each other
+     */
+    public void setLeasedTransactions( boolean leasedTransactions ) {
+        this.leasedTransactions = leasedTransactions;
+    }
+
+
+    /** Wake consumers waiting on a queue when this manager posts to it, see {@link QueueQuery#setWait(long)} */
+    public void setNotifier( QueueNotifier notifier ) {
+        this.notifier = notifier;
+    }
+
+
+    /** Read the bounds and settings of queues from the cache, and keep it up to date with posts */
+    public void setCache( QueueCache cache ) {
+        this.cache = cache;
+    }
+
+
+    /** Compact the queues with expiring messages this manager posts to */
+    public void setCompactor( QueueCompactor compactor ) {
+        this.compactor = compactor;
+    }
+
+
     @Override
     public Message getMessage( UUID messageId ) {
         SliceQuery<UUID, String, ByteBuffer> q =
@@ -188,14 +252,16 @@ public class QueueManagerImpl implements QueueManager {
 
         message.sync();
 
-        addMessageToMutator( batch, message, timestamp );
+        QueueSettings settings = getQueueSettings( queueId );
+
+        addMessageToMutator( batch, message, timestamp, settings.getMessageTtl() );
 
-        long shard_ts = roundLong( message.getTimestamp(), QUEUE_SHARD_INTERVAL );
+        long shard_ts = settings.getShard( message.getTimestamp() );
 
         logger.debug( "Adding message with id '{}' to queue '{}'", message.getUuid(), queueId );
 
         batch.addInsertion( getQueueShardRowKey( queueId, shard_ts ), QUEUE_INBOX.getColumnFamily(),
-                createColumn( message.getUuid(), ByteBuffer.allocate( 0 ), timestamp, ue, be ) );
+                createInboxColumn( message, timestamp, settings ) );
 
         long oldest_ts = Long.MAX_VALUE - getTimestampInMicros( message.getUuid() );
         batch.addInsertion( bytebuffer( queueId ), QUEUE_PROPERTIES.getColumnFamily(),
@@ -213,7 +279,9 @@ public class QueueManagerImpl implements QueueManager {
         if ( indexUpdate == null ) {
             indexUpdate = new MessageIndexUpdate( message );
         }
-        indexUpdate.addToMutation( batch, queueId, shard_ts, timestamp );
+        indexUpdate.addToMutation( batch, queueId, shard_ts, timestamp, settings.getMessageTtl() );
+
+        compactWhenExpired( queuePath, settings );
 
         counterUtils.addMessageCounterMutations( batch, applicationId, queueId, message, timestamp );
 
@@ -229,41 +297,82 @@ public class QueueManagerImpl implements QueueManager {
 
     @Override
     public Message postToQueue( String queuePath, Message message ) {
-        long timestamp = cass.createTimestamp();
-        Mutator<ByteBuffer> batch = CountingMutator.createFlushingMutator( cass.getApplicationKeyspace( applicationId ),
-                be );
+        postToQueue( queuePath, Collections.singletonList( message ) );
+        return message;
+    }
+
+
+    /**
+     * Add a chunk of messages already written to the message properties to the queue, with one update of the queue's
+     * properties and counter for the whole chunk instead of one per message
+     */
+    public void batchPostToQueue( Mutator<ByteBuffer> batch, String queuePath, List<Message> messages,
+                                  List<MessageIndexUpdate> indexUpdates, long timestamp ) {
+
+        batchPostToQueue( batch, queuePath, messages, indexUpdates, timestamp,
+                getQueueSettings( getQueueId( normalizeQueuePath( queuePath ) ) ) );
+    }
+
+
+    /** Add the chunk of messages to the queue, sharded and expiring by the given settings of the queue */
+    public void batchPostToQueue( Mutator<ByteBuffer> batch, String queuePath, List<Message> messages,
+                                  List<MessageIndexUpdate> indexUpdates, long timestamp, QueueSettings settings ) {
 
         queuePath = normalizeQueuePath( queuePath );
+        UUID queueId = getQueueId( queuePath );
 
-        MessageIndexUpdate indexUpdate = new MessageIndexUpdate( message );
+        UUID oldest = null;
+        UUID newest = null;
 
-        batchPostToQueue( batch, queuePath, message, indexUpdate, timestamp );
+        for ( int i = 0; i < messages.size(); i++ ) {
+            Message message = messages.get( i );
 
-        batchExecute( batch, RETRY_COUNT );
+            long shard_ts = settings.getShard( message.getTimestamp() );
 
-        String firstSubscriberQueuePath = null;
-        while ( true ) {
+            logger.debug( "Adding message with id '{}' to queue '{}'", message.getUuid(), queueId );
 
-            QueueSet subscribers = getSubscribers( queuePath, firstSubscriberQueuePath, 1000 );
+            batch.addInsertion( getQueueShardRowKey( queueId, shard_ts ), QUEUE_INBOX.getColumnFamily(),
+                    createInboxColumn( message, timestamp, settings ) );
 
-            if ( subscribers.getQueues().isEmpty() ) {
-                break;
-            }
+            indexUpdates.get( i ).addToMutation( batch, queueId, shard_ts, timestamp, settings.getMessageTtl() );
 
-            batch = CountingMutator.createFlushingMutator( cass.getApplicationKeyspace( applicationId ), be );
-            for ( QueueInfo q : subscribers.getQueues() ) {
-                batchPostToQueue( batch, q.getPath(), message, indexUpdate, timestamp );
+            counterUtils.addMessageCounterMutations( batch, applicationId, queueId, message, timestamp );
 
-                firstSubscriberQueuePath = q.getPath();
-            }
-            batchExecute( batch, RETRY_COUNT );
+            long message_ts = getTimestampInMicros( message.getUuid() );
 
-            if ( !subscribers.hasMore() ) {
-                break;
+            if ( ( oldest == null ) || ( message_ts < getTimestampInMicros( oldest ) ) ) {
+                oldest = message.getUuid();
+            }
+            if ( ( newest == null ) || ( message_ts > getTimestampInMicros( newest ) ) ) {
+                newest = message.getUuid();
             }
         }
 
-        return message;
+        if ( oldest == null ) {
+            return;
+        }
+
+        compactWhenExpired( queuePath, settings );
+
+        long oldest_ts = Long.MAX_VALUE - getTimestampInMicros( oldest );
+        batch.addInsertion( bytebuffer( queueId ), QUEUE_PROPERTIES.getColumnFamily(),
+                createColumn( QUEUE_OLDEST, oldest, oldest_ts, se, ue ) );
+
+        long newest_ts = getTimestampInMicros( newest );
+        batch.addInsertion( bytebuffer( queueId ), QUEUE_PROPERTIES.getColumnFamily(),
+                createColumn( QUEUE_NEWEST, newest, newest_ts, se, ue ) );
+
+        batch.addInsertion( bytebuffer( getQueueId( "/" ) ), QUEUE_SUBSCRIBERS.getColumnFamily(),
+                createColumn( queuePath, queueId, timestamp, se, ue ) );
+
+        counterUtils.batchIncrementQueueCounter( batch, getQueueId( "/" ), queuePath, messages.size(), timestamp,
+                applicationId );
+
+        batch.addInsertion( bytebuffer( queueId ), QUEUE_PROPERTIES.getColumnFamily(),
+                createColumn( QUEUE_CREATED, timestamp / 1000, Long.MAX_VALUE - timestamp, se, le ) );
+
+        batch.addInsertion( bytebuffer( queueId ), QUEUE_PROPERTIES.getColumnFamily(),
+                createColumn( QUEUE_MODIFIED, timestamp / 1000, timestamp, se, le ) );
     }
 
 
@@ -271,101 +380,560 @@ public class QueueManagerImpl implements QueueManager {
     public List<Message> postToQueue( String queuePath, List<Message> messages ) {
 
         // Can't do this as one big batch operation because it will
-        // time out
+        // time out, so the messages are written in chunks of POST_BATCH_SIZE.
+        // Each chunk is written to the queue, then fanned out to all of
+        // its subscribers at once
 
-        for ( Message message : messages ) {
-            postToQueue( queuePath, message );
+        queuePath = normalizeQueuePath( queuePath );
+
+        List<String> subscriberQueuePaths = getSubscriberQueuePaths( queuePath );
+
+        QueueSettings settings = getQueueSettings( getQueueId( queuePath ) );
+        int messageTtl = getMessageTtl( settings, subscriberQueuePaths );
+
+        for ( List<Message> chunk : Lists.partition( messages, POST_BATCH_SIZE ) ) {
+            long timestamp = cass.createTimestamp();
+            Mutator<ByteBuffer> batch =
+                    CountingMutator.createFlushingMutator( cass.getApplicationKeyspace( applicationId ), be );
+
+            List<MessageIndexUpdate> indexUpdates = new ArrayList<MessageIndexUpdate>( chunk.size() );
+
+            for ( Message message : chunk ) {
+                message.sync();
+                addMessageToMutator( batch, message, timestamp, messageTtl );
+                indexUpdates.add( new MessageIndexUpdate( message ) );
+            }
+
+            batchPostToQueue( batch, queuePath, chunk, indexUpdates, timestamp, settings );
+
+            boolean async = !subscriberQueuePaths.isEmpty() && ( fanout != null ) && fanout.isAsync();
+
+            if ( async ) {
+                batchAddPendingFanout( batch, queuePath, chunk, timestamp );
+            }
+
+            batchExecute( batch, RETRY_COUNT );
+
+            messagesPosted( queuePath, chunk );
+
+            if ( subscriberQueuePaths.isEmpty() ) {
+                continue;
+            }
+
+            Runnable task = new FanoutTask( queuePath, chunk, indexUpdates, subscriberQueuePaths, timestamp, async );
+
+            if ( async ) {
+                fanout.submit( task );
+            }
+            else {
+                task.run();
+            }
         }
 
         return messages;
     }
 
 
-    static TreeSet<UUID> add( TreeSet<UUID> a, UUID uuid, boolean reversed, int limit ) {
+    /**
+     * The seconds the message bodies live, the longest of the queue and its subscribers, so a body isn't gone before
+     * the inbox entry of any queue it's posted to. 0 if any of them keeps its messages until they're deleted.
+     */
+    int getMessageTtl( QueueSettings settings, List<String> subscriberQueuePaths ) {
+        int messageTtl = settings.getMessageTtl();
+
+        for ( String subscriberQueuePath : subscriberQueuePaths ) {
+            if ( messageTtl == 0 ) {
+                break;
+            }
 
-        if ( a == null ) {
-            a = new TreeSet<UUID>( new UUIDComparator() );
+            int subscriberTtl = getQueueSettings( getQueueId( normalizeQueuePath( subscriberQueuePath ) ) )
+                    .getMessageTtl();
+            messageTtl = subscriberTtl == 0 ? 0 : Math.max( messageTtl, subscriberTtl );
         }
 
-        if ( uuid == null ) {
-            return a;
+        return messageTtl;
+    }
+
+
+    /**
+     * Mark the messages as not yet fanned out to the subscribers of the queue, in the row of the hour of their time.
+     * The application is listed as having pending fan out first, so any node's sweep finds the marks.
+     */
+    private void batchAddPendingFanout( Mutator<ByteBuffer> batch, String queuePath, List<Message> messages,
+                                        long timestamp ) {
+        Set<Long> shards = new HashSet<Long>();
+
+        for ( Message message : messages ) {
+            long shard = getPendingFanoutShard( UUIDUtils.getTimestampInMillis( message.getUuid() ) );
+
+            batch.addInsertion( getPendingFanoutRowKey( shard ), QUEUE_PENDING_FANOUT.getColumnFamily(),
+                    createColumn( message.getUuid(), queuePath, timestamp, ue, se ) );
+            shards.add( shard );
         }
 
-        // if we have less than the limit, just add it
-        if ( a.size() < limit ) {
-            a.add( uuid );
+        for ( Long shard : shards ) {
+            batch.addInsertion( bytebuffer( key( getQueueId( "/" ), DICTIONARY_PENDING_FANOUT_SHARDS ) ),
+                    QUEUE_DICTIONARIES.getColumnFamily(),
+                    createColumn( shard, ByteBuffer.allocate( 0 ), timestamp, le, be ) );
         }
-        else if ( reversed ) {
-            // if reversed, we want to add more recent messages
-            // and eject the oldest
-            if ( UUIDComparator.staticCompare( uuid, a.first() ) > 0 ) {
-                a.pollFirst();
-                a.add( uuid );
+
+        Mutator<ByteBuffer> applications =
+                CountingMutator.createFlushingMutator( cass.getUsergridApplicationKeyspace(), be );
+        applications.addInsertion( bytebuffer( PENDING_FANOUT_APPLICATIONS ), QUEUE_DICTIONARIES.getColumnFamily(),
+                createColumn( applicationId, ByteBuffer.allocate( 0 ), timestamp, ue, be ) );
+        batchExecute( applications, RETRY_COUNT );
+    }
+
+
+    private static long getPendingFanoutShard( long millis ) {
+        return millis - ( millis % PENDING_FANOUT_SHARD_INTERVAL );
+    }
+
+
+    private ByteBuffer getPendingFanoutRowKey( long shard ) {
+        return bytebuffer( key( getQueueId( "/" ), DICTIONARY_PENDING_FANOUT, shard ) );
+    }
+
+
+    /**
+     * Add the messages to every subscriber, and clear their pending marks if they have them. The entries expire the
+     * seconds of the subscriber after the bodies were written, not after the fan out, so they don't outlive them.
+     *
+     * @param written The timestamp the message bodies were written with
+     */
+    void fanoutToSubscribers( String queuePath, List<Message> messages, List<MessageIndexUpdate> indexUpdates,
+                              List<String> subscriberQueuePaths, long timestamp, long written, boolean pending ) {
+
+        Mutator<ByteBuffer> batch =
+                CountingMutator.createFlushingMutator( cass.getApplicationKeyspace( applicationId ), be );
+
+        long elapsed = TimeUnit.MICROSECONDS.toSeconds( Math.max( 0, timestamp - written ) );
+
+        for ( String subscriberQueuePath : subscriberQueuePaths ) {
+            QueueSettings settings = getQueueSettings( getQueueId( normalizeQueuePath( subscriberQueuePath ) ) );
+
+            if ( ( settings.getMessageTtl() > 0 ) && ( elapsed > 0 ) ) {
+                settings = new QueueSettings( settings.getShardInterval(),
+                        ( int ) Math.max( 1, settings.getMessageTtl() - elapsed ) );
             }
+
+            batchPostToQueue( batch, subscriberQueuePath, messages, indexUpdates, timestamp, settings );
         }
-        else {
-            // add older messages and eject the newset
-            if ( UUIDComparator.staticCompare( uuid, a.last() ) < 0 ) {
-                a.pollLast();
-                a.add( uuid );
+
+        if ( pending ) {
+            long deleted = cass.createTimestamp();
+
+            for ( Message message : messages ) {
+                long shard = getPendingFanoutShard( UUIDUtils.getTimestampInMillis( message.getUuid() ) );
+                batch.addDeletion( getPendingFanoutRowKey( shard ), QUEUE_PENDING_FANOUT.getColumnFamily(),
+                        message.getUuid(), ue, deleted );
             }
         }
 
-        return a;
+        batchExecute( batch, RETRY_COUNT );
+
+        for ( String subscriberQueuePath : subscriberQueuePaths ) {
+            messagesPosted( subscriberQueuePath, messages );
+        }
+
+        logger.debug( "Fanned out {} messages from '{}'", messages.size(), queuePath );
+    }
+
+
+    /** The column adding the message to a shard of the queue inbox, expiring with the messages of the queue */
+    private static HColumn<UUID, ByteBuffer> createInboxColumn( Message message, long timestamp,
+                                                                QueueSettings settings ) {
+        HColumn<UUID, ByteBuffer> column =
+                createColumn( message.getUuid(), ByteBuffer.allocate( 0 ), timestamp, ue, be );
+
+        if ( settings.getMessageTtl() > 0 ) {
+            column.setTtl( settings.getMessageTtl() );
+        }
+
+        return column;
+    }
+
+
+    private void compactWhenExpired( String queuePath, QueueSettings settings ) {
+        if ( ( compactor != null ) && ( settings.getMessageTtl() > 0 ) ) {
+            compactor.register( applicationId, queuePath, this );
+        }
     }
 
 
-    static TreeSet<UUID> add( TreeSet<UUID> a, TreeSet<UUID> b, boolean reversed, int limit ) {
+    /**
+     * Get how the queue is sharded and how long its messages live. Messages posted on this node after the settings are
+     * updated on another node may be sharded and expire by the old settings until the cache expires, so set them
+     * before posting to the queue.
+     */
+    public QueueSettings getQueueSettings( UUID queueId ) {
+        if ( cache != null ) {
+            QueueSettings settings = cache.getSettings( applicationId, queueId );
 
-        if ( b == null ) {
-            return a;
+            if ( settings != null ) {
+                return settings;
+            }
         }
 
-        for ( UUID uuid : b ) {
-            a = add( a, uuid, reversed, limit );
+        QueueSettings settings =
+                QueueSettings.fromColumns( getQueueColumns( queueId, QUEUE_SHARD_MILLIS, QUEUE_MESSAGE_TTL ) );
+
+        if ( cache != null ) {
+            cache.putSettings( applicationId, queueId, settings );
         }
 
-        return a;
+        return settings;
     }
 
 
-    static TreeSet<UUID> mergeOr( TreeSet<UUID> a, TreeSet<UUID> b, boolean reversed, int limit ) {
-        TreeSet<UUID> mergeSet = new TreeSet<UUID>( new UUIDComparator() );
+    private ColumnSlice<String, ByteBuffer> getQueueColumns( UUID queueId, String... names ) {
+        return createSliceQuery( cass.getApplicationKeyspace( applicationId ), ue, se, be ).setKey( queueId )
+                .setColumnNames( names ).setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() ).execute().get();
+    }
+
 
-        if ( ( a == null ) && ( b == null ) ) {
-            return mergeSet;
+    /**
+     * Delete the shards of the queue that only hold expired messages, with the entries of their message indexes, so
+     * reads don't walk their tombstones. At most {@link #MAX_COMPACTED_SHARDS} are deleted each time.
+     *
+     * @return false if the messages of the queue don't expire
+     */
+    public boolean compactQueue( String queuePath ) {
+        queuePath = normalizeQueuePath( queuePath );
+        UUID queueId = getQueueId( queuePath );
+
+        ColumnSlice<String, ByteBuffer> columns =
+                getQueueColumns( queueId, QUEUE_OLDEST, QUEUE_SHARD_MILLIS, QUEUE_MESSAGE_TTL, QUEUE_COMPACTED );
+
+        QueueSettings settings = QueueSettings.fromColumns( columns );
+        long expired = settings.getExpiredBefore( System.currentTimeMillis() );
+
+        if ( expired == 0 ) {
+            return false;
         }
-        else if ( a == null ) {
-            return b;
+
+        HColumn<String, ByteBuffer> oldest = columns.getColumnByName( QUEUE_OLDEST );
+
+        if ( oldest == null ) {
+            return true;
         }
-        else if ( b == null ) {
-            return a;
+
+        long interval = settings.getShardInterval();
+        long from = settings.getShard( UUIDUtils.getTimestampInMillis( ue.fromByteBuffer( oldest.getValue() ) ) );
+
+        HColumn<String, ByteBuffer> compacted = columns.getColumnByName( QUEUE_COMPACTED );
+
+        if ( compacted != null ) {
+            from = Math.max( from, le.fromByteBuffer( compacted.getValue() ) );
+        }
+
+        // messages expire from when they're written, not from the time of their ids, so a shard before the one of
+        // the expiry time is only deleted once its inbox row has no live entry left
+        long to = Math.min( settings.getShard( expired ), from + MAX_COMPACTED_SHARDS * interval );
+
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+
+        for ( long shard = from; shard < to; shard += interval ) {
+            if ( hasLiveEntries( ko, queueId, shard ) ) {
+                to = shard;
+                break;
+            }
+        }
+
+        if ( to <= from ) {
+            return true;
         }
 
-        add( mergeSet, a, reversed, limit );
-        add( mergeSet, b, reversed, limit );
+        List<HColumn<String, ByteBuffer>> indexes =
+                createSliceQuery( ko, be, se, be ).setColumnFamily( QUEUE_DICTIONARIES.getColumnFamily() )
+                        .setKey( bytebuffer( key( queueId, DICTIONARY_MESSAGE_INDEXES ) ) )
+                        .setRange( null, null, false, ALL_COUNT ).execute().get().getColumns();
+
+        long timestamp = cass.createTimestamp();
+        Mutator<ByteBuffer> batch = CountingMutator.createFlushingMutator( ko, be );
+
+        for ( long shard = from; shard < to; shard += interval ) {
+            batch.addDeletion( getQueueShardRowKey( queueId, shard ), QUEUE_INBOX.getColumnFamily(), timestamp );
+
+            for ( HColumn<String, ByteBuffer> index : indexes ) {
+                batch.addDeletion( bytebuffer( key( queueId, shard, index.getName() ) ),
+                        PROPERTY_INDEX.getColumnFamily(), timestamp );
+            }
+        }
+
+        batch.addInsertion( bytebuffer( queueId ), QUEUE_PROPERTIES.getColumnFamily(),
+                createColumn( QUEUE_COMPACTED, to, timestamp, se, le ) );
+
+        batchExecute( batch, RETRY_COUNT );
 
-        return mergeSet;
+        logger.info( "Compacted {} expired shards of queue '{}'", ( to - from ) / interval, queuePath );
+
+        return true;
+    }
+
+
+    /** True if the shard of the queue inbox still has an entry that hasn't expired */
+    private boolean hasLiveEntries( Keyspace ko, UUID queueId, long shard ) {
+        return !createSliceQuery( ko, be, ue, be ).setColumnFamily( QUEUE_INBOX.getColumnFamily() )
+                .setKey( getQueueShardRowKey( queueId, shard ) ).setRange( null, null, false, 1 ).execute().get()
+                .getColumns().isEmpty();
     }
 
 
-    static TreeSet<UUID> mergeAnd( TreeSet<UUID> a, TreeSet<UUID> b, boolean reversed, int limit ) {
-        TreeSet<UUID> mergeSet = new TreeSet<UUID>( new UUIDComparator() );
+    private void messagesPosted( String queuePath, List<Message> messages ) {
+        if ( cache != null ) {
+            UUID oldest = null;
+            UUID newest = null;
+
+            for ( Message message : messages ) {
+                oldest = UUIDUtils.min( oldest, message.getUuid() );
+                newest = UUIDUtils.max( newest, message.getUuid() );
+            }
+
+            cache.widenBounds( applicationId, getQueueId( queuePath ), oldest, newest );
+        }
 
-        if ( a == null ) {
-            return mergeSet;
+        if ( notifier != null ) {
+            notifier.messagesPosted( applicationId, queuePath );
         }
-        if ( b == null ) {
-            return mergeSet;
+    }
+
+
+    /**
+     * Fan out the messages still marked as pending after the given time, left behind by a failed fan out or a restart.
+     * Every hour of marks that may still hold one is paged through, and hours that are over by the given time are
+     * dropped once they're resumed, so their tombstones aren't read again. Deletes are timestamped the given time
+     * back, so marks written while this runs aren't lost.
+     *
+     * @return The number of messages fanned out
+     */
+    public int resumePendingFanout( long olderThanMillis ) {
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+        ByteBuffer shardsKey = bytebuffer( key( getQueueId( "/" ), DICTIONARY_PENDING_FANOUT_SHARDS ) );
+
+        long cutoff = System.currentTimeMillis() - olderThanMillis;
+        long deleted = cass.createTimestamp() - TimeUnit.MILLISECONDS.toMicros( olderThanMillis );
+
+        List<HColumn<Long, ByteBuffer>> shards =
+                createSliceQuery( ko, be, le, be ).setKey( shardsKey )
+                        .setColumnFamily( QUEUE_DICTIONARIES.getColumnFamily() )
+                        .setRange( null, null, false, ALL_COUNT ).execute().get().getColumns();
+
+        Mutator<ByteBuffer> batch = CountingMutator.createFlushingMutator( ko, be );
+        int remaining = shards.size();
+        int resumed = 0;
+
+        for ( HColumn<Long, ByteBuffer> shard : shards ) {
+            if ( shard.getName() > cutoff ) {
+                break;
+            }
+
+            resumed += resumePendingFanout( shard.getName(), cutoff );
+
+            if ( shard.getName() + PENDING_FANOUT_SHARD_INTERVAL <= cutoff ) {
+                batch.addDeletion( shardsKey, QUEUE_DICTIONARIES.getColumnFamily(), shard.getName(), le, deleted );
+                remaining--;
+            }
+        }
+
+        batchExecute( batch, RETRY_COUNT );
+
+        if ( remaining == 0 ) {
+            Mutator<ByteBuffer> applications =
+                    CountingMutator.createFlushingMutator( cass.getUsergridApplicationKeyspace(), be );
+            applications.addDeletion( bytebuffer( PENDING_FANOUT_APPLICATIONS ), QUEUE_DICTIONARIES.getColumnFamily(),
+                    applicationId, ue, deleted );
+            batchExecute( applications, RETRY_COUNT );
+        }
+
+        if ( resumed > 0 ) {
+            logger.info( "Resumed the fan out of {} messages", resumed );
+        }
+
+        return resumed;
+    }
+
+
+    /** Page through the marks of one hour, in time order, fanning out the ones before the cutoff */
+    private int resumePendingFanout( long shard, long cutoff ) {
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+        ByteBuffer key = getPendingFanoutRowKey( shard );
+        int pageSize = POST_BATCH_SIZE * 10;
+
+        UUID start = null;
+        int resumed = 0;
+
+        while ( true ) {
+            List<HColumn<UUID, String>> columns =
+                    createSliceQuery( ko, be, ue, se ).setKey( key )
+                            .setColumnFamily( QUEUE_PENDING_FANOUT.getColumnFamily() )
+                            .setRange( start, null, false, pageSize + 1 ).execute().get().getColumns();
+
+            Map<String, List<Message>> pending = new HashMap<String, List<Message>>();
+            Map<String, Long> written = new HashMap<String, Long>();
+            List<UUID> missing = new ArrayList<UUID>();
+            boolean done = columns.size() <= pageSize;
+
+            for ( HColumn<UUID, String> column : columns ) {
+                if ( column.getName().equals( start ) ) {
+                    continue;
+                }
+
+                if ( UUIDUtils.getTimestampInMillis( column.getName() ) > cutoff ) {
+                    done = true;
+                    break;
+                }
+
+                start = column.getName();
+
+                Message message = getMessage( column.getName() );
+
+                if ( message == null ) {
+                    missing.add( column.getName() );
+                    continue;
+                }
+
+                List<Message> messages = pending.get( column.getValue() );
+
+                if ( messages == null ) {
+                    messages = new ArrayList<Message>();
+                    pending.put( column.getValue(), messages );
+                }
+
+                messages.add( message );
+
+                // the marks are written with the bodies, so the earliest bounds when the bodies expire
+                Long clock = written.get( column.getValue() );
+                written.put( column.getValue(),
+                        clock == null ? column.getClock() : Math.min( clock, column.getClock() ) );
+            }
+
+            if ( !missing.isEmpty() ) {
+                Mutator<ByteBuffer> batch = CountingMutator.createFlushingMutator( ko, be );
+                long deleted = cass.createTimestamp();
+
+                for ( UUID messageId : missing ) {
+                    batch.addDeletion( key, QUEUE_PENDING_FANOUT.getColumnFamily(), messageId, ue, deleted );
+                }
+
+                batchExecute( batch, RETRY_COUNT );
+            }
+
+            for ( Map.Entry<String, List<Message>> entry : pending.entrySet() ) {
+                List<MessageIndexUpdate> indexUpdates = new ArrayList<MessageIndexUpdate>();
+
+                for ( Message message : entry.getValue() ) {
+                    indexUpdates.add( new MessageIndexUpdate( message ) );
+                }
+
+                fanoutToSubscribers( entry.getKey(), entry.getValue(), indexUpdates,
+                        getSubscriberQueuePaths( entry.getKey() ), cass.createTimestamp(),
+                        written.get( entry.getKey() ), true );
+
+                resumed += entry.getValue().size();
+            }
+
+            if ( done ) {
+                return resumed;
+            }
         }
+    }
+
 
-        for ( UUID uuid : b ) {
-            if ( a.contains( b ) ) {
-                add( mergeSet, uuid, reversed, limit );
+    /** Page through the applications that may have messages pending fan out, written by any node */
+    public static List<UUID> getPendingFanoutApplications( CassandraService cass ) {
+        List<UUID> applicationIds = new ArrayList<UUID>();
+        int pageSize = 1000;
+        UUID start = null;
+
+        while ( true ) {
+            List<HColumn<UUID, ByteBuffer>> columns =
+                    createSliceQuery( cass.getUsergridApplicationKeyspace(), be, ue, be )
+                            .setKey( bytebuffer( PENDING_FANOUT_APPLICATIONS ) )
+                            .setColumnFamily( QUEUE_DICTIONARIES.getColumnFamily() )
+                            .setRange( start, null, false, pageSize + 1 ).execute().get().getColumns();
+
+            for ( HColumn<UUID, ByteBuffer> column : columns ) {
+                if ( !column.getName().equals( start ) ) {
+                    applicationIds.add( column.getName() );
+                }
+            }
+
+            if ( columns.size() <= pageSize ) {
+                return applicationIds;
             }
+
+            start = columns.get( columns.size() - 1 ).getName();
         }
+    }
+
 
-        return mergeSet;
+    /** The subscribers of the queue, cached if there's a fan out */
+    private List<String> getSubscriberQueuePaths( final String queuePath ) {
+        if ( fanout == null ) {
+            return getAllSubscriberQueuePaths( queuePath );
+        }
+
+        return fanout.getSubscribers( applicationId, queuePath, new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return getAllSubscriberQueuePaths( queuePath );
+            }
+        } );
+    }
+
+
+    /** Page through every subscriber of the queue */
+    private List<String> getAllSubscriberQueuePaths( String queuePath ) {
+        List<String> subscriberQueuePaths = new ArrayList<String>();
+
+        String firstSubscriberQueuePath = null;
+        while ( true ) {
+
+            QueueSet subscribers = getSubscribers( queuePath, firstSubscriberQueuePath, 1000 );
+
+            for ( QueueInfo q : subscribers.getQueues() ) {
+                subscriberQueuePaths.add( q.getPath() );
+
+                firstSubscriberQueuePath = q.getPath();
+            }
+
+            if ( subscribers.getQueues().isEmpty() || !subscribers.hasMore() ) {
+                break;
+            }
+        }
+
+        return subscriberQueuePaths;
+    }
+
+
+    /** Fans a chunk of posted messages out to the subscribers of their queue */
+    private final class FanoutTask implements Runnable {
+
+        private final String queuePath;
+        private final List<Message> messages;
+        private final List<MessageIndexUpdate> indexUpdates;
+        private final List<String> subscriberQueuePaths;
+        private final long timestamp;
+        private final boolean pending;
+
+
+        private FanoutTask( String queuePath, List<Message> messages, List<MessageIndexUpdate> indexUpdates,
+                            List<String> subscriberQueuePaths, long timestamp, boolean pending ) {
+            this.queuePath = queuePath;
+            this.messages = messages;
+            this.indexUpdates = indexUpdates;
+            this.subscriberQueuePaths = subscriberQueuePaths;
+            this.timestamp = timestamp;
+            this.pending = pending;
+        }
+
+
+        @Override
+        public void run() {
+            fanoutToSubscribers( queuePath, messages, indexUpdates, subscriberQueuePaths, timestamp, timestamp,
+                    pending );
+        }
     }
 
 
@@ -378,14 +946,19 @@ public class QueueManagerImpl implements QueueManager {
 
         Keyspace ko = cass.getApplicationKeyspace( applicationId );
 
-        QueueSearch search = null;
+        AbstractSearch search = null;
+        boolean fromConsumer = false;
 
         if ( query.hasFilterPredicates() ) {
             search = new FilterSearch( ko );
         }
 
         else if ( query.getPosition() == LAST || query.getPosition() == CONSUMER ) {
-            if ( query.getTimeout() > 0 ) {
+            fromConsumer = true;
+            if ( query.getTimeout() > 0 && leasedTransactions ) {
+                search = new LeasedConsumerTransaction( applicationId, ko, cass, lockTimeout );
+            }
+            else if ( query.getTimeout() > 0 ) {
                 search = new ConsumerTransaction( applicationId, ko, lockManager, cass, lockTimeout );
             }
             else {
@@ -403,10 +976,48 @@ public class QueueManagerImpl implements QueueManager {
             throw new IllegalArgumentException( "You must specify a valid position or query" );
         }
 
+        search.setCache( cache, applicationId );
+
+        if ( fromConsumer && ( query.getWait() > 0 ) && ( notifier != null ) && ( notifier.getMaxWaitMillis() > 0 ) ) {
+            return waitForResults( search, queuePath, query );
+        }
+
         return search.getResults( queuePath, query );
     }
 
 
+    /**
+     * Read from the consumer's position until there are messages or the wait is up. An empty queue is only read again
+     * when a post on this node signals it, or every re-check interval for posts on other nodes.
+     */
+    private QueueResults waitForResults( QueueSearch search, String queuePath, QueueQuery query ) {
+        long deadline = System.currentTimeMillis() + Math.min( query.getWait(), notifier.getMaxWaitMillis() );
+
+        // hold the signal while waiting, and get its version before reading so a post during the read isn't missed
+        QueueNotifier.Signal signal = notifier.getSignal( applicationId, queuePath );
+
+        while ( true ) {
+            long version = signal.getVersion();
+
+            QueueResults results = search.getResults( queuePath, query );
+
+            long remaining = deadline - System.currentTimeMillis();
+
+            if ( !results.getMessages().isEmpty() || ( remaining <= 0 ) ) {
+                return results;
+            }
+
+            try {
+                notifier.await( signal, version, Math.min( remaining, notifier.getRecheckMillis() ) );
+            }
+            catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return results;
+            }
+        }
+    }
+
+
     public void batchSubscribeToQueue( Mutator<ByteBuffer> batch, String publisherQueuePath, UUID publisherQueueId,
                                        String subscriberQueuePath, UUID subscriberQueueId, long timestamp ) {
 
@@ -448,6 +1059,7 @@ public class QueueManagerImpl implements QueueManager {
         }
 
         batchExecute( batch, RETRY_COUNT );
+        invalidateSubscribers( publisherQueuePath );
 
         return new QueueSet().addQueue( subscriberQueuePath, subscriberQueueId );
     }
@@ -493,11 +1105,20 @@ public class QueueManagerImpl implements QueueManager {
         }
 
         batchExecute( batch, RETRY_COUNT );
+        invalidateSubscribers( publisherQueuePath );
 
         return new QueueSet().addQueue( subscriberQueuePath, subscriberQueueId );
     }
 
 
+    /** Drop the cached subscribers of the queue once they've changed */
+    private void invalidateSubscribers( String publisherQueuePath ) {
+        if ( fanout != null ) {
+            fanout.invalidateSubscribers( applicationId, publisherQueuePath );
+        }
+    }
+
+
     @Override
     public QueueSet getSubscribers( String publisherQueuePath, String firstSubscriberQueuePath, int limit ) {
 
@@ -598,6 +1219,7 @@ public class QueueManagerImpl implements QueueManager {
         }
 
         batchExecute( batch, RETRY_COUNT );
+        invalidateSubscribers( publisherQueuePath );
 
         return queues;
     }
@@ -639,6 +1261,7 @@ public class QueueManagerImpl implements QueueManager {
         }
 
         batchExecute( batch, RETRY_COUNT );
+        invalidateSubscribers( publisherQueuePath );
 
         return queues;
     }
@@ -680,6 +1303,9 @@ public class QueueManagerImpl implements QueueManager {
         }
 
         batchExecute( batch, RETRY_COUNT );
+        for ( String publisherQueuePath : publisherQueuePaths ) {
+            invalidateSubscribers( normalizeQueuePath( publisherQueuePath ) );
+        }
 
         return queues;
     }
@@ -721,6 +1347,9 @@ public class QueueManagerImpl implements QueueManager {
         }
 
         batchExecute( batch, RETRY_COUNT );
+        for ( String publisherQueuePath : publisherQueuePaths ) {
+            invalidateSubscribers( normalizeQueuePath( publisherQueuePath ) );
+        }
 
         return queues;
     }
@@ -951,6 +1580,8 @@ public class QueueManagerImpl implements QueueManager {
     public Queue updateQueue( String queuePath, Queue queue ) {
         queue.setPath( queuePath );
 
+        validateSettings( queue );
+
         UUID timestampUuid = newTimeUUID();
         long timestamp = getTimestampInMicros( timestampUuid );
 
@@ -975,10 +1606,67 @@ public class QueueManagerImpl implements QueueManager {
 
         batchExecute( batch, RETRY_COUNT );
 
+        if ( cache != null ) {
+            cache.invalidateQueue( applicationId, queue.getUuid() );
+        }
+
         return queue;
     }
 
 
+    /**
+     * Check the shard interval and message ttl being set on the queue, and store them as longs. The shard interval
+     * can't change once messages are posted, or the shards they're in couldn't be found.
+     */
+    private void validateSettings( Queue queue ) {
+        Map<String, Object> properties = queue.getProperties();
+
+        Long shardMillis = getLongSetting( properties, QUEUE_SHARD_MILLIS, QueueSettings.MIN_SHARD_INTERVAL,
+                QueueSettings.MAX_SHARD_INTERVAL );
+
+        if ( shardMillis != null ) {
+            ColumnSlice<String, ByteBuffer> columns =
+                    getQueueColumns( queue.getUuid(), QUEUE_OLDEST, QUEUE_SHARD_MILLIS, QUEUE_MESSAGE_TTL );
+
+            if ( ( columns.getColumnByName( QUEUE_OLDEST ) != null ) && ( shardMillis
+                    != QueueSettings.fromColumns( columns ).getShardInterval() ) ) {
+                throw new IllegalArgumentException(
+                        "The shard interval of queue " + queue.getPath() + " can't change once it has messages" );
+            }
+        }
+
+        getLongSetting( properties, QUEUE_MESSAGE_TTL, 0, QueueSettings.MAX_MESSAGE_TTL );
+    }
+
+
+    private static Long getLongSetting( Map<String, Object> properties, String name, long min, long max ) {
+        Object value = properties.get( name );
+
+        if ( value == null ) {
+            return null;
+        }
+
+        long setting;
+
+        try {
+            setting = ( value instanceof Number ) ? ( ( Number ) value ).longValue() :
+                      Long.parseLong( value.toString() );
+        }
+        catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException( "The queue property " + name + " must be a number" );
+        }
+
+        if ( ( setting < min ) || ( setting > max ) ) {
+            throw new IllegalArgumentException(
+                    "The queue property " + name + " must be from " + min + " to " + max + ", not " + setting );
+        }
+
+        properties.put( name, setting );
+
+        return setting;
+    }
+
+
     @Override
     public Queue updateQueue( String queuePath, Map<String, Object> properties ) {
         return updateQueue( queuePath, new Queue( properties ) );
@@ -1316,6 +2004,14 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    @Override
+    public Map<UUID, UUID> renewTransactions( String queuePath, List<UUID> transactionIds, QueueQuery query ) {
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+        return new ConsumerTransaction( applicationId, ko, lockManager, cass, lockTimeout )
+                .renewTransactions( queuePath, transactionIds, query );
+    }
+
+
     /*
      * (non-Javadoc)
      *
@@ -1336,6 +2032,20 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    @Override
+    public Map<UUID, Boolean> deleteTransactions( String queuePath, List<UUID> transactionIds, QueueQuery query ) {
+        return this.commitTransactions( queuePath, transactionIds, query );
+    }
+
+
+    @Override
+    public Map<UUID, Boolean> commitTransactions( String queuePath, List<UUID> transactionIds, QueueQuery query ) {
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+        return new ConsumerTransaction( applicationId, ko, lockManager, cass, lockTimeout )
+                .deleteTransactions( queuePath, transactionIds, query );
+    }
+
+
     @Override
     public boolean hasOutstandingTransactions( String queuePath, UUID consumerId ) {
         UUID queueId = CassandraMQUtils.getQueueId( queuePath );
@@ -1363,6 +2073,7 @@ public class QueueManagerImpl implements QueueManager {
         }
 
         NoTransactionSearch search = new NoTransactionSearch( ko );
+        search.setCache( cache, applicationId );
 
         QueueBounds bounds = search.getQueueBounds( queueId );
 
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra;
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Meter;
+
+import static org.apache.usergrid.mq.Queue.normalizeQueuePath;
+
+
+/**
+ * Wakes consumers waiting on a queue when messages are posted to it, so they don't poll an empty queue.
+ * <p/>
+ * Posting on this node signals the queue once the messages are written. Posts on other nodes aren't seen here, so
+ * waiting consumers also look at the queue again every re-check interval, and listeners are called on the same
+ * interval. A queue's signal only exists while something waits on or listens to it.
+ */
+public class QueueNotifier {
+
+    private static final Logger logger = LoggerFactory.getLogger( QueueNotifier.class );
+
+    private final Counter waiting = Metrics.newCounter( QueueNotifier.class, "waiting_consumers" );
+    private final Meter signaled =
+            Metrics.newMeter( QueueNotifier.class, "signaled_wakeups", "wakeups", TimeUnit.SECONDS );
+    private final Meter rechecks =
+            Metrics.newMeter( QueueNotifier.class, "recheck_wakeups", "wakeups", TimeUnit.SECONDS );
+
+    /** Signals by application and queue path, dropped once nothing holds them */
+    private final Cache<String, Signal> signals = CacheBuilder.newBuilder().weakValues().build();
+
+    /** Signals with listeners, held here until their last listener is removed */
+    private final Set<Signal> listened = Collections.newSetFromMap( new ConcurrentHashMap<Signal, Boolean>() );
+
+    private final long recheckMillis;
+
+    private final long maxWaitMillis;
+
+    private final ScheduledExecutorService rechecker;
+
+
+    /**
+     * @param recheckMillis How often waiting consumers and listeners look at the queue for messages posted on other
+     * nodes
+     * @param maxWaitMillis The longest a consumer can wait for messages
+     */
+    public QueueNotifier( long recheckMillis, long maxWaitMillis ) {
+        this.recheckMillis = recheckMillis;
+        this.maxWaitMillis = maxWaitMillis;
+
+        rechecker = Executors.newSingleThreadScheduledExecutor( NotifierThreadFactory.INSTANCE );
+        rechecker.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                recheck();
+            }
+        }, recheckMillis, recheckMillis, TimeUnit.MILLISECONDS );
+    }
+
+
+    public long getRecheckMillis() {
+        return recheckMillis;
+    }
+
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+
+    /** Get the signal of the queue, hold on to it while waiting */
+    public Signal getSignal( UUID applicationId, String queuePath ) {
+        try {
+            return signals.get( key( applicationId, queuePath ), new Callable<Signal>() {
+                @Override
+                public Signal call() {
+                    return new Signal();
+                }
+            } );
+        }
+        catch ( ExecutionException e ) {
+            throw new RuntimeException( "Unable to create the signal of " + queuePath, e.getCause() );
+        }
+    }
+
+
+    /** Wake everything waiting on or listening to the queue, called once the messages are written */
+    public void messagesPosted( UUID applicationId, String queuePath ) {
+        Signal signal = signals.getIfPresent( key( applicationId, queuePath ) );
+
+        if ( signal != null ) {
+            signal.fire();
+        }
+    }
+
+
+    /**
+     * Wait for messages to be posted to the queue after the signal was at the given version, or until the time is up
+     *
+     * @return True if messages were posted on this node, false if it's time to look at the queue again
+     */
+    public boolean await( Signal signal, long version, long timeoutMillis ) throws InterruptedException {
+        waiting.inc();
+
+        try {
+            boolean posted = signal.await( version, timeoutMillis );
+
+            if ( posted ) {
+                signaled.mark();
+            }
+            else {
+                rechecks.mark();
+            }
+
+            return posted;
+        }
+        finally {
+            waiting.dec();
+        }
+    }
+
+
+    /** Call the listener whenever messages may have been posted to the queue, until it's removed */
+    public void addListener( UUID applicationId, String queuePath, QueueListener listener ) {
+        Signal signal = getSignal( applicationId, queuePath );
+
+        // held by the signal so removing the last listener can't drop it from the listened set after this adds one
+        synchronized ( signal.listeners ) {
+            signal.listeners.add( listener );
+            listened.add( signal );
+        }
+    }
+
+
+    public void removeListener( UUID applicationId, String queuePath, QueueListener listener ) {
+        Signal signal = signals.getIfPresent( key( applicationId, queuePath ) );
+
+        if ( signal == null ) {
+            return;
+        }
+
+        synchronized ( signal.listeners ) {
+            signal.listeners.remove( listener );
+
+            if ( signal.listeners.isEmpty() ) {
+                listened.remove( signal );
+            }
+        }
+    }
+
+
+    /** Call every listener, for messages posted on other nodes */
+    public void recheck() {
+        for ( Signal signal : listened ) {
+            signal.callListeners();
+        }
+    }
+
+
+    public void shutdown() {
+        rechecker.shutdownNow();
+    }
+
+
+    private static String key( UUID applicationId, String queuePath ) {
+        queuePath = normalizeQueuePath( queuePath );
+        return applicationId + ( queuePath == null ? "/" : queuePath );
+    }
+
+
+    /**
+     * Called when messages may have been posted to a queue. Called on the posting thread, so it should hand any work
+     * off rather than read the queue itself.
+     */
+    public interface QueueListener {
+
+        public void messagesPosted();
+    }
+
+
+    /** Counts the posts to one queue, so a consumer can wait for the next post after it last looked */
+    public static final class Signal {
+
+        private final List<QueueListener> listeners = new CopyOnWriteArrayList<QueueListener>();
+
+        private long version;
+
+
+        public synchronized long getVersion() {
+            return version;
+        }
+
+
+        private void fire() {
+            synchronized ( this ) {
+                version++;
+                notifyAll();
+            }
+
+            callListeners();
+        }
+
+
+        private synchronized boolean await( long seen, long timeoutMillis ) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+
+            while ( ( version == seen ) && ( remaining > 0 ) ) {
+                wait( remaining );
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            return version != seen;
+        }
+
+
+        private void callListeners() {
+            for ( QueueListener listener : listeners ) {
+                try {
+                    listener.messagesPosted();
+                }
+                catch ( RuntimeException e ) {
+                    logger.error( "Queue listener failed", e );
+                }
+            }
+        }
+    }
+
+
+    private static final class NotifierThreadFactory implements ThreadFactory {
+
+        private static final NotifierThreadFactory INSTANCE = new NotifierThreadFactory();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "QueueNotifier" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
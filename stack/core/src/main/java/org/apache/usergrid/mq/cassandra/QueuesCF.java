@@ -39,6 +39,12 @@ public enum QueuesCF implements CFEnum {
 
     QUEUE_DICTIONARIES( "Queue_Dictionaries", "BytesType" ),
 
+    /**
+     * Messages not yet fanned out to the subscribers of their queue, a row for each hour of message time. The value is
+     * the path of the queue the message was posted to
+     */
+    QUEUE_PENDING_FANOUT( "Queue_Pending_Fanout", "TimeUUIDType" ),
+
     QUEUE_SUBSCRIBERS( "Queue_Subscribers", "BytesType" ),
 
     QUEUE_SUBSCRIPTIONS( "Queue_Subscriptions", "BytesType" ),
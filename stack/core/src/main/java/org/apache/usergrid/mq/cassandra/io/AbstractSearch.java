@@ -49,17 +49,17 @@ import static me.prettyprint.hector.api.factory.HFactory.createColumn;
 import static me.prettyprint.hector.api.factory.HFactory.createMultigetSliceQuery;
 
 import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
+import static org.apache.usergrid.mq.Queue.QUEUE_MESSAGE_TTL;
 import static org.apache.usergrid.mq.Queue.QUEUE_NEWEST;
 import static org.apache.usergrid.mq.Queue.QUEUE_OLDEST;
+import static org.apache.usergrid.mq.Queue.QUEUE_SHARD_MILLIS;
 import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.deserializeMessage;
 import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.getQueueShardRowKey;
 import static org.apache.usergrid.mq.cassandra.QueueManagerImpl.ALL_COUNT;
-import static org.apache.usergrid.mq.cassandra.QueueManagerImpl.QUEUE_SHARD_INTERVAL;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.CONSUMERS;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.MESSAGE_PROPERTIES;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_INBOX;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_PROPERTIES;
-import static org.apache.usergrid.utils.NumberUtils.roundLong;
 import static org.apache.usergrid.utils.UUIDUtils.MAX_TIME_UUID;
 import static org.apache.usergrid.utils.UUIDUtils.MIN_TIME_UUID;
 import static org.apache.usergrid.utils.UUIDUtils.getTimestampInMillis;
@@ -74,6 +74,11 @@ public abstract class AbstractSearch implements QueueSearch
 
     protected Keyspace ko;
 
+    /** Bounds and empty shards cached on this node, null if nothing is cached */
+    protected QueueCache cache;
+
+    protected UUID applicationId;
+
 
     /**
      *
@@ -84,6 +89,14 @@ public abstract class AbstractSearch implements QueueSearch
     }
 
 
+    /** Use the cache for the queues of the application */
+    public void setCache( QueueCache cache, UUID applicationId )
+    {
+        this.cache = cache;
+        this.applicationId = applicationId;
+    }
+
+
     /**
      * Get the position in the queue for the given appId, consumer and queu
      *
@@ -184,9 +197,34 @@ public abstract class AbstractSearch implements QueueSearch
             return results;
         }
 
-        long start_ts_shard = roundLong( getTimestampInMillis( start ), QUEUE_SHARD_INTERVAL );
+        QueueSettings settings = bounds.getSettings();
+        long shard_interval = settings.getShardInterval();
+
+        // don't read messages that have expired, or shards that were compacted
+        long expired = settings.getExpiredBefore( System.currentTimeMillis() );
+
+        if ( expired > 0 )
+        {
+            UUID horizon = UUIDUtils.minTimeUUID( expired );
+
+            if ( params.reversed )
+            {
+                finish_uuid = UUIDUtils.max( finish_uuid, horizon );
+            }
+            else
+            {
+                start = UUIDUtils.max( start, horizon );
+            }
+
+            if ( UUIDUtils.compare( start, finish_uuid ) * ( params.reversed ? -1 : 1 ) > 0 )
+            {
+                return results;
+            }
+        }
+
+        long start_ts_shard = settings.getShard( getTimestampInMillis( start ) );
 
-        long finish_ts_shard = roundLong( getTimestampInMillis( finish_uuid ), QUEUE_SHARD_INTERVAL );
+        long finish_ts_shard = settings.getShard( getTimestampInMillis( finish_uuid ) );
 
         long current_ts_shard = start_ts_shard;
         if ( params.reversed )
@@ -194,6 +232,10 @@ public abstract class AbstractSearch implements QueueSearch
             current_ts_shard = finish_ts_shard;
         }
 
+        // the first of the shards after the start shard the read found empty, so the next read from the start shard can
+        // skip to the first shard with messages. Only forward reads skip shards.
+        long empty_ts_shard = -1;
+
         while ( ( current_ts_shard >= start_ts_shard ) && ( current_ts_shard <= finish_ts_shard ) )
         {
 
@@ -217,6 +259,14 @@ public abstract class AbstractSearch implements QueueSearch
 
             List<HColumn<UUID, ByteBuffer>> cassResults = q.execute().get().getColumns();
 
+            if ( ( empty_ts_shard != -1 ) && !cassResults.isEmpty() )
+            {
+                cache.putEmptyShards( applicationId, queueId, empty_ts_shard, current_ts_shard, shard_interval );
+                empty_ts_shard = -1;
+            }
+
+            int found = results.size();
+
             for ( int i = 0; i < cassResults.size(); i++ )
             {
                 HColumn<UUID, ByteBuffer> column = cassResults.get( i );
@@ -239,16 +289,38 @@ public abstract class AbstractSearch implements QueueSearch
                 }
             }
 
+            // nothing after the start in the start shard, skip the shards known to be empty
+            if ( ( cache != null ) && !params.reversed && ( current_ts_shard == start_ts_shard ) && ( results.size()
+                    == found ) && ( current_ts_shard < finish_ts_shard ) )
+            {
+                empty_ts_shard = current_ts_shard + shard_interval;
+                current_ts_shard = cache.getFirstShard( applicationId, queueId, empty_ts_shard, shard_interval );
+
+                // we already know where they end
+                if ( current_ts_shard != empty_ts_shard )
+                {
+                    empty_ts_shard = -1;
+                }
+
+                continue;
+            }
+
             if ( params.reversed )
             {
-                current_ts_shard -= QUEUE_SHARD_INTERVAL;
+                current_ts_shard -= shard_interval;
             }
             else
             {
-                current_ts_shard += QUEUE_SHARD_INTERVAL;
+                current_ts_shard += shard_interval;
             }
         }
 
+        // every shard before the finish shard was empty, the finish shard can still get messages after the finish
+        if ( empty_ts_shard != -1 )
+        {
+            cache.putEmptyShards( applicationId, queueId, empty_ts_shard, finish_ts_shard, shard_interval );
+        }
+
         return results;
     }
 
@@ -260,17 +332,37 @@ public abstract class AbstractSearch implements QueueSearch
      */
     public QueueBounds getQueueBounds( UUID queueId )
     {
+        if ( cache != null )
+        {
+            QueueBounds bounds = cache.getBounds( applicationId, queueId );
+
+            if ( bounds != null )
+            {
+                return bounds;
+            }
+        }
+
         try
         {
-            ColumnSlice<String, UUID> result = HFactory.createSliceQuery( ko, ue, se, ue ).setKey( queueId )
-                                                       .setColumnNames( QUEUE_NEWEST, QUEUE_OLDEST )
-                                                       .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() ).execute()
-                                                       .get();
+            ColumnSlice<String, ByteBuffer> result = HFactory.createSliceQuery( ko, ue, se, be ).setKey( queueId )
+                                                           .setColumnNames( QUEUE_NEWEST, QUEUE_OLDEST,
+                                                                   QUEUE_SHARD_MILLIS, QUEUE_MESSAGE_TTL )
+                                                           .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() )
+                                                           .execute().get();
             if ( result != null && result.getColumnByName( QUEUE_OLDEST ) != null
                     && result.getColumnByName( QUEUE_NEWEST ) != null )
             {
-                return new QueueBounds( result.getColumnByName( QUEUE_OLDEST ).getValue(),
-                        result.getColumnByName( QUEUE_NEWEST ).getValue() );
+                UUID oldest = ue.fromByteBuffer( result.getColumnByName( QUEUE_OLDEST ).getValue() );
+                UUID newest = ue.fromByteBuffer( result.getColumnByName( QUEUE_NEWEST ).getValue() );
+
+                QueueBounds bounds = new QueueBounds( oldest, newest, QueueSettings.fromColumns( result ) );
+
+                if ( cache != null )
+                {
+                    cache.putBounds( applicationId, queueId, bounds );
+                }
+
+                return bounds;
             }
         }
         catch ( Exception e )
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.usergrid.utils.UUIDUtils;
+
+
+/**
+ * A claim by one reader on a range of a consumer's position in a queue, from after start up to and including end. A
+ * null start is the beginning of the queue. Readers claim disjoint ranges, so they can read a queue in parallel without
+ * locking the consumer.
+ * <p/>
+ * A lease is pending until its reader has written the transactions for the messages in the range, then it's done. The
+ * consumer's position only moves across done leases, so a range claimed by a reader that never finished is read again
+ * once the lease expires.
+ */
+public class ConsumerLease
+{
+
+    private static final int SIZE = 33;
+
+    private static final Comparator<ConsumerLease> BY_START = new Comparator<ConsumerLease>()
+    {
+        @Override
+        public int compare( ConsumerLease o1, ConsumerLease o2 )
+        {
+            return compareStart( o1.start, o2.start );
+        }
+    };
+
+    private final UUID id;
+    private final UUID start;
+    private final UUID end;
+    private final boolean done;
+
+
+    /**
+     * @param id A time uuid, unique to the reader's claim
+     * @param start The position the range starts after, null for the beginning of the queue
+     * @param end The last position in the range
+     * @param done True if the transactions for the range have been written
+     */
+    public ConsumerLease( UUID id, UUID start, UUID end, boolean done )
+    {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.done = done;
+    }
+
+
+    public UUID getId()
+    {
+        return id;
+    }
+
+
+    public UUID getStart()
+    {
+        return start;
+    }
+
+
+    public UUID getEnd()
+    {
+        return end;
+    }
+
+
+    public boolean isDone()
+    {
+        return done;
+    }
+
+
+    /** The same lease, with its transactions written */
+    public ConsumerLease finish()
+    {
+        return new ConsumerLease( id, start, end, true );
+    }
+
+
+    /** True if the ranges of the leases have a position in common */
+    public boolean overlaps( ConsumerLease other )
+    {
+        return isBefore( start, other.end ) && isBefore( other.start, end );
+    }
+
+
+    /** Serialize the range, the id is the column name */
+    public ByteBuffer toByteBuffer()
+    {
+        ByteBuffer bytes = ByteBuffer.allocate( SIZE );
+        putUUID( bytes, start == null ? UUIDUtils.MIN_TIME_UUID : start );
+        putUUID( bytes, end );
+        bytes.put( done ? ( byte ) 1 : ( byte ) 0 );
+        return ( ByteBuffer ) bytes.rewind();
+    }
+
+
+    public static ConsumerLease fromByteBuffer( UUID id, ByteBuffer bytes )
+    {
+        if ( ( bytes == null ) || ( bytes.remaining() < SIZE ) )
+        {
+            return null;
+        }
+
+        bytes = bytes.duplicate();
+
+        UUID start = new UUID( bytes.getLong(), bytes.getLong() );
+        UUID end = new UUID( bytes.getLong(), bytes.getLong() );
+        boolean done = bytes.get() != 0;
+
+        return new ConsumerLease( id, UUIDUtils.MIN_TIME_UUID.equals( start ) ? null : start, end, done );
+    }
+
+
+    /**
+     * The position the next claim should start after: the end of the leases that cover the consumer's position without
+     * a gap, or the position itself if no lease covers it
+     */
+    public static UUID getFirstUnclaimed( UUID position, List<ConsumerLease> leases )
+    {
+        return getCovered( position, leases, false );
+    }
+
+
+    /**
+     * The position the consumer can move to: the end of the done leases that cover the consumer's position without a
+     * gap, or the position itself if none do
+     */
+    public static UUID getCompleted( UUID position, List<ConsumerLease> leases )
+    {
+        return getCovered( position, leases, true );
+    }
+
+
+    /** The start of the first lease after the position, null if there isn't one */
+    public static UUID getNextClaimed( UUID position, List<ConsumerLease> leases )
+    {
+        UUID next = null;
+
+        for ( ConsumerLease lease : leases )
+        {
+            if ( ( lease.start != null ) && ( compareStart( position, lease.start ) < 0 ) )
+            {
+                next = UUIDUtils.min( next, lease.start );
+            }
+        }
+
+        return next;
+    }
+
+
+    private static UUID getCovered( UUID position, List<ConsumerLease> leases, boolean onlyDone )
+    {
+        List<ConsumerLease> sorted = new ArrayList<ConsumerLease>( leases );
+        Collections.sort( sorted, BY_START );
+
+        UUID covered = position;
+
+        for ( ConsumerLease lease : sorted )
+        {
+            // entirely behind the position, nothing left to cover
+            if ( !isBefore( covered, lease.end ) )
+            {
+                continue;
+            }
+
+            // there's a gap before this lease, or it isn't done
+            if ( ( compareStart( lease.start, covered ) > 0 ) || ( onlyDone && !lease.done ) )
+            {
+                break;
+            }
+
+            covered = lease.end;
+        }
+
+        return covered;
+    }
+
+
+    /** True if the position is before the end, a null position is the beginning of the queue */
+    private static boolean isBefore( UUID position, UUID end )
+    {
+        return ( position == null ) || ( UUIDUtils.compare( position, end ) < 0 );
+    }
+
+
+    /** Compare start positions, null is the beginning of the queue */
+    private static int compareStart( UUID first, UUID second )
+    {
+        if ( first == null )
+        {
+            return second == null ? 0 : -1;
+        }
+
+        if ( second == null )
+        {
+            return 1;
+        }
+
+        return UUIDUtils.compare( first, second );
+    }
+
+
+    private static void putUUID( ByteBuffer bytes, UUID uuid )
+    {
+        bytes.putLong( uuid.getMostSignificantBits() );
+        bytes.putLong( uuid.getLeastSignificantBits() );
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "ConsumerLease [id=" + id + ", start=" + start + ", end=" + end + ", done=" + done + "]";
+    }
+}
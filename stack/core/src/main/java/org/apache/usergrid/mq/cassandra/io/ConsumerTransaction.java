@@ -20,7 +20,10 @@ package org.apache.usergrid.mq.cassandra.io;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -61,7 +64,7 @@ public class ConsumerTransaction extends NoTransactionSearch
 {
 
     private static final Logger logger = LoggerFactory.getLogger( ConsumerTransaction.class );
-    private static final int MAX_READ = 10000;
+    protected static final int MAX_READ = 10000;
     private final LockManager lockManager;
     private final UUID applicationId;
     protected final CassandraService cass;
@@ -94,6 +97,32 @@ public class ConsumerTransaction extends NoTransactionSearch
      */
     public UUID renewTransaction( String queuePath, UUID transactionId, QueueQuery query )
             throws TransactionNotFoundException
+    {
+        UUID expirationId =
+                renewTransactions( queuePath, Collections.singletonList( transactionId ), query ).get( transactionId );
+
+        if ( expirationId == null )
+        {
+            throw new TransactionNotFoundException(
+                    String.format( "No transaction with id %s exists", transactionId ) );
+        }
+
+        return expirationId;
+    }
+
+
+    /**
+     * Renew the existing transactions with one read and one batch of writes. Does so by deleting the existing
+     * timeouts, and replacing them with new values
+     *
+     * @param queuePath The queue path
+     * @param transactionIds The transaction ids
+     * @param query The query params
+     *
+     * @return The new transaction uuid for each transaction id, in the order given. Null if the transaction doesn't
+     *         exist
+     */
+    public Map<UUID, UUID> renewTransactions( String queuePath, List<UUID> transactionIds, QueueQuery query )
     {
         long now = System.currentTimeMillis();
 
@@ -106,41 +135,50 @@ public class ConsumerTransaction extends NoTransactionSearch
         UUID consumerId = getConsumerId( queueId, query );
         ByteBuffer key = getQueueClientTransactionKey( queueId, consumerId );
 
-        // read the original transaction, if it's not there, then we can't possibly
-        // extend it
-        SliceQuery<ByteBuffer, UUID, UUID> q = createSliceQuery( ko, be, ue, ue );
-        q.setColumnFamily( CONSUMER_QUEUE_TIMEOUTS.getColumnFamily() );
-        q.setKey( key );
-        q.setColumnNames( transactionId );
+        // read the original transactions, the ones that aren't there can't possibly be extended
+        Map<UUID, UUID> messageIds = getTransactions( key, transactionIds );
+
+        Map<UUID, UUID> results = new LinkedHashMap<UUID, UUID>();
 
-        HColumn<UUID, UUID> col = q.execute().get().getColumnByName( transactionId );
+        Mutator<ByteBuffer> mutator = CountingMutator.createFlushingMutator( ko, be );
 
-        if ( col == null )
+        long timestamp = cass.createTimestamp();
+
+        for ( UUID transactionId : transactionIds )
         {
-            throw new TransactionNotFoundException(
-                    String.format( "No transaction with id %s exists", transactionId ) );
-        }
+            if ( results.containsKey( transactionId ) )
+            {
+                continue;
+            }
 
-        UUID origTrans = col.getName();
-        UUID messageId = col.getValue();
+            UUID messageId = messageIds.get( transactionId );
 
-        // Generate a new expiration and insert it
-        UUID expirationId = UUIDUtils.newTimeUUID( now + query.getTimeout() );
+            if ( messageId == null )
+            {
+                results.put( transactionId, null );
+                continue;
+            }
 
-        logger.debug( "Writing new timeout at '{}' for message '{}'", expirationId, messageId );
+            // Generate a new expiration and insert it
+            UUID expirationId = UUIDUtils.newTimeUUID( now + query.getTimeout() );
 
+            logger.debug( "Writing new timeout at '{}' for message '{}'", expirationId, messageId );
 
-        Mutator<ByteBuffer> mutator = CountingMutator.createFlushingMutator( ko, be );
+            mutator.addInsertion( key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(),
+                    createColumn( expirationId, messageId, timestamp, ue, ue ) );
 
-        mutator.addInsertion( key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(),
-                createColumn( expirationId, messageId, cass.createTimestamp(), ue, ue ) );
+            // now delete the old value
+            mutator.addDeletion( key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(), transactionId, ue, timestamp );
 
-        mutator.execute();
+            results.put( transactionId, expirationId );
+        }
 
-        // now delete the old value
-        deleteTransaction( queueId, consumerId, origTrans );
+        if ( !messageIds.isEmpty() )
+        {
+            mutator.execute();
+        }
 
-        return expirationId;
+        return results;
     }
 
 
@@ -160,6 +198,50 @@ public class ConsumerTransaction extends NoTransactionSearch
     }
 
 
+    /**
+     * Delete the specified transactions with one read and one batch of writes
+     *
+     * @return For each transaction id in the order given, true if the transaction existed
+     */
+    public Map<UUID, Boolean> deleteTransactions( String queuePath, List<UUID> transactionIds, QueueQuery query )
+    {
+
+        if ( query == null )
+        {
+            query = new QueueQuery();
+        }
+
+        UUID queueId = getQueueId( queuePath );
+        UUID consumerId = getConsumerId( queueId, query );
+        ByteBuffer key = getQueueClientTransactionKey( queueId, consumerId );
+
+        Map<UUID, UUID> messageIds = getTransactions( key, transactionIds );
+
+        Map<UUID, Boolean> results = new LinkedHashMap<UUID, Boolean>();
+
+        Mutator<ByteBuffer> mutator = CountingMutator.createFlushingMutator( ko, be );
+
+        long timestamp = cass.createTimestamp();
+
+        for ( UUID transactionId : transactionIds )
+        {
+            if ( !results.containsKey( transactionId ) && messageIds.containsKey( transactionId ) )
+            {
+                mutator.addDeletion( key, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(), transactionId, ue, timestamp );
+            }
+
+            results.put( transactionId, messageIds.containsKey( transactionId ) );
+        }
+
+        if ( !messageIds.isEmpty() )
+        {
+            mutator.execute();
+        }
+
+        return results;
+    }
+
+
     /** Delete the specified transaction */
     private void deleteTransaction( UUID queueId, UUID consumerId, UUID transactionId )
     {
@@ -174,6 +256,30 @@ public class ConsumerTransaction extends NoTransactionSearch
     }
 
 
+    /** Read the transactions that exist, the message each times out for by transaction id */
+    protected Map<UUID, UUID> getTransactions( ByteBuffer key, List<UUID> transactionIds )
+    {
+        Map<UUID, UUID> messageIds = new HashMap<UUID, UUID>();
+
+        if ( transactionIds.isEmpty() )
+        {
+            return messageIds;
+        }
+
+        SliceQuery<ByteBuffer, UUID, UUID> q = createSliceQuery( ko, be, ue, ue );
+        q.setColumnFamily( CONSUMER_QUEUE_TIMEOUTS.getColumnFamily() );
+        q.setKey( key );
+        q.setColumnNames( transactionIds.toArray( new UUID[transactionIds.size()] ) );
+
+        for ( HColumn<UUID, UUID> column : q.execute().get().getColumns() )
+        {
+            messageIds.put( column.getName(), column.getValue() );
+        }
+
+        return messageIds;
+    }
+
+
     /*
      * (non-Javadoc)
      *
@@ -224,44 +330,11 @@ public class ConsumerTransaction extends NoTransactionSearch
 
             SearchParam params = getParams( queueId, consumerId, query );
 
-            List<UUID> ids = getQueueRange( queueId, bounds, params );
-
-            // get a list of ids from the consumer.
-
-            List<TransactionPointer> pointers = getConsumerIds( queueId, consumerId, params, startTimeUUID );
-
-            TransactionPointer pointer = null;
-
-            int lastTransactionIndex = -1;
-
-            for ( int i = 0; i < pointers.size(); i++ )
-            {
-
-                pointer = pointers.get( i );
-
-                int insertIndex = Collections.binarySearch( ids, pointer.expiration );
+            Selection selection = select( queueId, consumerId, params, bounds, startTimeUUID );
 
-                // we're done, this message goes at the end, no point in continuing
-                // since
-                // we have our full result set
-                if ( insertIndex <= params.limit * -1 - 1 )
-                {
-                    break;
-                }
-
-                // get the insertion index into the set
-                insertIndex = ( insertIndex + 1 ) * -1;
-
-                ids.add( insertIndex, pointer.targetMessage );
-
-                lastTransactionIndex = i;
-            }
-
-            // now we've merge the results, trim them to size;
-            if ( ids.size() > params.limit )
-            {
-                ids = ids.subList( 0, params.limit );
-            }
+            List<UUID> ids = selection.ids;
+            List<TransactionPointer> pointers = selection.pointers;
+            int lastTransactionIndex = selection.lastTransactionIndex;
 
             // load the messages
             List<Message> messages = loadMessages( ids, params.reversed );
@@ -309,6 +382,62 @@ public class ConsumerTransaction extends NoTransactionSearch
     }
 
 
+    /**
+     * Merge the next messages in the queue with the transactions that have timed out, in the order they should be
+     * returned
+     *
+     * @param queueId The queue id
+     * @param consumerId The consumer id
+     * @param params The position to read after and the number of messages to read
+     * @param bounds The bounds of the queue, the newest can't be in the future
+     * @param startTimeUUID Only transactions that timed out before this are read
+     */
+    protected Selection select( UUID queueId, UUID consumerId, SearchParam params, QueueBounds bounds,
+                                UUID startTimeUUID )
+    {
+        List<UUID> ids = getQueueRange( queueId, bounds, params );
+
+        // get a list of ids from the consumer.
+
+        List<TransactionPointer> pointers = getConsumerIds( queueId, consumerId, params, startTimeUUID );
+
+        TransactionPointer pointer = null;
+
+        int lastTransactionIndex = -1;
+
+        for ( int i = 0; i < pointers.size(); i++ )
+        {
+
+            pointer = pointers.get( i );
+
+            int insertIndex = Collections.binarySearch( ids, pointer.expiration );
+
+            // we're done, this message goes at the end, no point in continuing
+            // since
+            // we have our full result set
+            if ( insertIndex <= params.limit * -1 - 1 )
+            {
+                break;
+            }
+
+            // get the insertion index into the set
+            insertIndex = ( insertIndex + 1 ) * -1;
+
+            ids.add( insertIndex, pointer.targetMessage );
+
+            lastTransactionIndex = i;
+        }
+
+        // now we've merge the results, trim them to size;
+        if ( ids.size() > params.limit )
+        {
+            ids = ids.subList( 0, params.limit );
+        }
+
+        return new Selection( ids, pointers, lastTransactionIndex );
+    }
+
+
     /**
      * Get all pending transactions that have timed out
      *
@@ -442,7 +571,47 @@ public class ConsumerTransaction extends NoTransactionSearch
     }
 
 
-    private static class TransactionPointer
+    /** The messages a transactional read returns, and the timed out transactions they include */
+    protected static class Selection
+    {
+        protected final List<UUID> ids;
+        protected final List<TransactionPointer> pointers;
+
+        /** The index of the last pointer merged into the ids, -1 if none were */
+        protected final int lastTransactionIndex;
+
+
+        protected Selection( List<UUID> ids, List<TransactionPointer> pointers, int lastTransactionIndex )
+        {
+            this.ids = ids;
+            this.pointers = pointers;
+            this.lastTransactionIndex = lastTransactionIndex;
+        }
+
+
+        /** True if there is nothing to return */
+        protected boolean isEmpty()
+        {
+            return ids.isEmpty() && lastTransactionIndex == -1;
+        }
+
+
+        /** The last position read, the greater of the last timed out transaction merged and the newest message */
+        protected UUID getLast()
+        {
+            UUID last = lastTransactionIndex == -1 ? null : pointers.get( lastTransactionIndex ).expiration;
+
+            for ( UUID id : ids )
+            {
+                last = UUIDUtils.max( last, id );
+            }
+
+            return last;
+        }
+    }
+
+
+    protected static class TransactionPointer
     {
         private UUID expiration;
         private UUID targetMessage;
@@ -18,10 +18,7 @@ package org.apache.usergrid.mq.cassandra.io;
 
 
 import java.nio.ByteBuffer;
-import java.util.Iterator;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.UUID;
 
 import org.slf4j.Logger;
@@ -31,8 +28,7 @@ import org.apache.usergrid.mq.QueryProcessor;
 import org.apache.usergrid.mq.QueryProcessor.QuerySlice;
 import org.apache.usergrid.mq.QueueQuery;
 import org.apache.usergrid.mq.QueueResults;
-
-import com.fasterxml.uuid.UUIDComparator;
+import org.apache.usergrid.utils.UUIDUtils;
 
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
@@ -43,12 +39,10 @@ import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
 import static org.apache.usergrid.mq.Queue.getQueueId;
 import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.getConsumerId;
 import static org.apache.usergrid.mq.cassandra.QueueManagerImpl.DEFAULT_SEARCH_COUNT;
-import static org.apache.usergrid.mq.cassandra.QueueManagerImpl.QUEUE_SHARD_INTERVAL;
 import static org.apache.usergrid.mq.cassandra.QueuesCF.PROPERTY_INDEX;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
 import static org.apache.usergrid.utils.CompositeUtils.setEqualityFlag;
 import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
-import static org.apache.usergrid.utils.NumberUtils.roundLong;
 import static org.apache.usergrid.utils.UUIDUtils.getTimestampInMillis;
 
 import static org.apache.usergrid.persistence.cassandra.Serializers.*;
@@ -92,15 +86,12 @@ public class FilterSearch extends NoTransactionSearch
         UUID consumerId = getConsumerId( queueId, query );
         QueueBounds bounds = getQueueBounds( queueId );
 
-        UUIDComparator comparator = query.isReversed() ? new ReverseUUIDComparator() : new UUIDComparator();
-
-        SortedSet<UUID> merged = null;
+        SortedUUIDs merged = null;
 
         for ( QuerySlice slice : slices )
         {
-            SortedSet<UUID> results =
-                    searchQueueRange( ko, queueId, bounds, slice, query.getLastMessageId(), query.isReversed(),
-                            comparator );
+            SortedUUIDs results =
+                    searchQueueRange( ko, queueId, bounds, slice, query.getLastMessageId(), query.isReversed() );
 
             if ( merged == null )
             {
@@ -108,27 +99,14 @@ public class FilterSearch extends NoTransactionSearch
             }
             else
             {
-                merged.retainAll( results );
+                merged = merged.and( results, Integer.MAX_VALUE, query.isReversed() );
             }
         }
 
-        // now trim. Not efficient, but when indexing is updated, seeking will
-        // change, so I'm not worried about this.
-        if ( merged.size() > limit )
-        {
-            Iterator<UUID> current = merged.iterator();
-            UUID max = null;
-
-
-            for ( int i = 0; i <= limit && current.hasNext(); i++ )
-            {
-                max = current.next();
-            }
-
-            merged = merged.headSet( max );
-        }
+        // keep the first of them in the direction of the query
+        merged = merged.limit( ( int ) Math.min( limit, Integer.MAX_VALUE ), query.isReversed() );
 
-        List<Message> messages = loadMessages( merged, query.isReversed() );
+        List<Message> messages = loadMessages( merged.toList( query.isReversed() ), query.isReversed() );
 
         QueueResults results = createResults( messages, queuePath, queueId, consumerId );
 
@@ -136,16 +114,16 @@ public class FilterSearch extends NoTransactionSearch
     }
 
 
-    public SortedSet<UUID> searchQueueRange( Keyspace ko, UUID queueId, QueueBounds bounds, QuerySlice slice, UUID last,
-                                             boolean reversed, UUIDComparator comparator )
+    public SortedUUIDs searchQueueRange( Keyspace ko, UUID queueId, QueueBounds bounds, QuerySlice slice, UUID last,
+                                         boolean reversed )
     {
 
-        TreeSet<UUID> uuid_set = new TreeSet<UUID>( comparator );
+        SortedUUIDs.Builder uuid_set = new SortedUUIDs.Builder();
 
         if ( bounds == null )
         {
             logger.error( "Necessary queue bounds not found" );
-            return uuid_set;
+            return SortedUUIDs.EMPTY;
         }
 
         UUID start_uuid = reversed ? bounds.getNewest() : bounds.getOldest();
@@ -161,12 +139,31 @@ public class FilterSearch extends NoTransactionSearch
         if ( finish_uuid == null )
         {
             logger.error( "No last message in queue" );
-            return uuid_set;
+            return SortedUUIDs.EMPTY;
+        }
+
+        QueueSettings settings = bounds.getSettings();
+
+        // expired messages may still be indexed in shards that aren't compacted yet
+        long expired = settings.getExpiredBefore( System.currentTimeMillis() );
+
+        if ( expired > 0 )
+        {
+            UUID horizon = UUIDUtils.minTimeUUID( expired );
+
+            if ( reversed )
+            {
+                finish_uuid = UUIDUtils.max( finish_uuid, horizon );
+            }
+            else
+            {
+                start_uuid = UUIDUtils.max( start_uuid, horizon );
+            }
         }
 
-        long start_ts_shard = roundLong( getTimestampInMillis( start_uuid ), QUEUE_SHARD_INTERVAL );
+        long start_ts_shard = settings.getShard( getTimestampInMillis( start_uuid ) );
 
-        long finish_ts_shard = roundLong( getTimestampInMillis( finish_uuid ), QUEUE_SHARD_INTERVAL );
+        long finish_ts_shard = settings.getShard( getTimestampInMillis( finish_uuid ) );
 
         long current_ts_shard = start_ts_shard;
 
@@ -230,32 +227,15 @@ public class FilterSearch extends NoTransactionSearch
 
             if ( reversed )
             {
-                current_ts_shard -= QUEUE_SHARD_INTERVAL;
+                current_ts_shard -= settings.getShardInterval();
             }
             else
             {
-                current_ts_shard += QUEUE_SHARD_INTERVAL;
+                current_ts_shard += settings.getShardInterval();
             }
         }
 
         // trim the results
-        return uuid_set.headSet( finish_uuid ).tailSet( start_uuid );
-    }
-
-
-    private static class ReverseUUIDComparator extends UUIDComparator
-    {
-
-        /*
-         * (non-Javadoc)
-         *
-         * @see com.fasterxml.uuid.UUIDComparator#compare(java.util.UUID,
-         * java.util.UUID)
-         */
-        @Override
-        public int compare( UUID u1, UUID u2 )
-        {
-            return super.compare( u1, u2 ) * -1;
-        }
+        return uuid_set.build().range( start_uuid, finish_uuid, reversed );
     }
 }
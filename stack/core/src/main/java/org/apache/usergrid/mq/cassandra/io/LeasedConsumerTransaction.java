@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.mq.Message;
+import org.apache.usergrid.mq.QueueQuery;
+import org.apache.usergrid.mq.QueueResults;
+import org.apache.usergrid.persistence.cassandra.CassandraService;
+import org.apache.usergrid.persistence.exceptions.QueueException;
+import org.apache.usergrid.persistence.hector.CountingMutator;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.SliceQuery;
+
+import static me.prettyprint.hector.api.factory.HFactory.createColumn;
+import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
+import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.getConsumerId;
+import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.getQueueClientLeaseKey;
+import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.getQueueId;
+import static org.apache.usergrid.mq.cassandra.QueuesCF.CONSUMER_QUEUE_TIMEOUTS;
+import static org.apache.usergrid.persistence.cassandra.Serializers.*;
+
+
+/**
+ * Reads from the queue and starts a transaction without locking the consumer. Readers of the same consumer claim
+ * disjoint ranges of the queue with a {@link ConsumerLease} and read them in parallel.
+ * <p/>
+ * A reader picks the first range no lease covers, writes its lease, then reads the leases back. Since every reader
+ * writes its lease before it reads the others, of two readers claiming overlapping ranges at least one sees the other.
+ * Any reader that sees an overlapping lease gives its range up and tries again after a short random wait, so a range
+ * is only read by one of them. Cassandra has no conditional writes in this version, this relies on writes and reads
+ * being consistent with each other, as they are with quorum reads and writes.
+ * <p/>
+ * Pending leases expire after the lease timeout. A reader stalled for longer than that can return messages another
+ * reader has also claimed, the same way a transaction that times out is returned again.
+ */
+public class LeasedConsumerTransaction extends ConsumerTransaction
+{
+
+    private static final Logger logger = LoggerFactory.getLogger( LeasedConsumerTransaction.class );
+
+    /** The most leases read, well over the number of readers of one consumer */
+    private static final int MAX_LEASES = 1000;
+
+    private static final int MAX_ATTEMPTS = 20;
+
+    private static final Random random = new Random();
+
+    private final int leaseSeconds;
+
+
+    /** @param leaseSeconds How long a pending lease holds its range */
+    public LeasedConsumerTransaction( UUID applicationId, Keyspace ko, CassandraService cass, int leaseSeconds )
+    {
+        super( applicationId, ko, null, cass, leaseSeconds );
+        this.leaseSeconds = leaseSeconds;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.usergrid.mq.cassandra.io.QueueSearch#getResults(java.lang.String,
+     * org.apache.usergrid.mq.QueueQuery)
+     */
+    @Override
+    public QueueResults getResults( String queuePath, QueueQuery query )
+    {
+
+        UUID queueId = getQueueId( queuePath );
+        UUID consumerId = getConsumerId( queueId, query );
+        ByteBuffer leaseKey = getQueueClientLeaseKey( queueId, consumerId );
+
+        if ( query.getLimit() > MAX_READ )
+        {
+            throw new IllegalArgumentException( String.format(
+                    "You specified a size of %d, you cannot specify a size larger than %d when using transations",
+                    query.getLimit( DEFAULT_READ ), MAX_READ ) );
+        }
+
+        for ( int attempt = 0; attempt < MAX_ATTEMPTS; attempt++ )
+        {
+            long startTime = System.currentTimeMillis();
+
+            UUID startTimeUUID = UUIDUtils.newTimeUUID( startTime, 0 );
+
+            QueueBounds bounds = getQueueBounds( queueId );
+
+            //queue has never been written to
+            if ( bounds == null )
+            {
+                return createResults( new ArrayList<Message>( 0 ), queuePath, queueId, consumerId );
+            }
+
+            // read the leases before the position, the position is written before done leases are deleted
+            List<ConsumerLease> leases = getLeases( leaseKey );
+
+            UUID position = advance( queueId, consumerId, leaseKey, getConsumerQueuePosition( queueId, consumerId ),
+                    leases );
+
+            UUID start = ConsumerLease.getFirstUnclaimed( position, leases );
+
+            // with transactional reads, we can't read into the future, or into the next claimed range
+            UUID until = UUIDUtils.min( startTimeUUID, ConsumerLease.getNextClaimed( start, leases ) );
+
+            SearchParam params = new SearchParam( start, false, start != null, query.getLimit( DEFAULT_READ ) );
+
+            Selection selection = select( queueId, consumerId, params, new QueueBounds( bounds.getOldest(), until ),
+                    until );
+
+            if ( selection.isEmpty() )
+            {
+                return createResults( new ArrayList<Message>( 0 ), queuePath, queueId, consumerId );
+            }
+
+            ConsumerLease lease =
+                    new ConsumerLease( UUIDUtils.newTimeUUID(), start, selection.getLast(), false );
+
+            writeLease( leaseKey, lease );
+
+            if ( isContended( lease, getLeases( leaseKey ) ) )
+            {
+                logger.debug( "Lease {} on queue '{}' is contended, retrying", lease, queuePath );
+
+                deleteLease( leaseKey, lease );
+
+                backoff( attempt );
+
+                continue;
+            }
+
+            // load the messages
+            List<Message> messages = loadMessages( selection.ids, params.reversed );
+
+            // write our future timeouts for all these messages
+            writeTransactions( messages, query.getTimeout() + startTime, queueId, consumerId );
+
+            // remove all read transaction pointers
+            deleteTransactionPointers( selection.pointers, selection.lastTransactionIndex + 1, queueId,
+                    consumerId );
+
+            writeLease( leaseKey, lease.finish() );
+
+            // move the consumer across this lease, and any done before it
+            List<ConsumerLease> finished = getLeases( leaseKey );
+            advance( queueId, consumerId, leaseKey, getConsumerQueuePosition( queueId, consumerId ), finished );
+
+            return createResults( messages, queuePath, queueId, consumerId );
+        }
+
+        throw new QueueException(
+                "Unable to claim messages on queue '" + queuePath + "' after " + MAX_ATTEMPTS + " attempts" );
+    }
+
+
+    /**
+     * Move the consumer's position across the done leases that start at it, and delete the leases behind it
+     *
+     * @return The new position
+     */
+    protected UUID advance( UUID queueId, UUID consumerId, ByteBuffer leaseKey, UUID position,
+                            List<ConsumerLease> leases )
+    {
+        UUID completed = ConsumerLease.getCompleted( position, leases );
+
+        if ( completed == null )
+        {
+            return null;
+        }
+
+        // only ever moves forward, the column timestamp is the time of the position
+        if ( !completed.equals( position ) )
+        {
+            writeClientPointer( queueId, consumerId, completed );
+        }
+
+        Mutator<ByteBuffer> mutator = CountingMutator.createFlushingMutator( ko, be );
+        boolean deleted = false;
+
+        for ( ConsumerLease lease : new ArrayList<ConsumerLease>( leases ) )
+        {
+            if ( lease.isDone() && ( UUIDUtils.compare( lease.getEnd(), completed ) <= 0 ) )
+            {
+                mutator.addDeletion( leaseKey, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(), lease.getId(), ue,
+                        cass.createTimestamp() );
+                leases.remove( lease );
+                deleted = true;
+            }
+        }
+
+        if ( deleted )
+        {
+            mutator.execute();
+        }
+
+        return completed;
+    }
+
+
+    /** True if a lease other than this one overlaps it, or this one can't be read back */
+    protected boolean isContended( ConsumerLease lease, List<ConsumerLease> leases )
+    {
+        boolean found = false;
+
+        for ( ConsumerLease other : leases )
+        {
+            if ( other.getId().equals( lease.getId() ) )
+            {
+                found = true;
+            }
+            else if ( other.overlaps( lease ) )
+            {
+                return true;
+            }
+        }
+
+        return !found;
+    }
+
+
+    /** Get the leases that haven't expired */
+    protected List<ConsumerLease> getLeases( ByteBuffer leaseKey )
+    {
+        SliceQuery<ByteBuffer, UUID, ByteBuffer> q = createSliceQuery( ko, be, ue, be );
+        q.setColumnFamily( CONSUMER_QUEUE_TIMEOUTS.getColumnFamily() );
+        q.setKey( leaseKey );
+        q.setRange( null, null, false, MAX_LEASES );
+
+        List<HColumn<UUID, ByteBuffer>> columns = q.execute().get().getColumns();
+
+        List<ConsumerLease> leases = new ArrayList<ConsumerLease>( columns.size() );
+
+        for ( HColumn<UUID, ByteBuffer> column : columns )
+        {
+            ConsumerLease lease = ConsumerLease.fromByteBuffer( column.getName(), column.getValue() );
+
+            if ( lease != null )
+            {
+                leases.add( lease );
+            }
+        }
+
+        return leases;
+    }
+
+
+    /** Write the lease, pending leases expire so the range is read again if the reader never finishes */
+    protected void writeLease( ByteBuffer leaseKey, ConsumerLease lease )
+    {
+        Mutator<ByteBuffer> mutator = CountingMutator.createFlushingMutator( ko, be );
+
+        HColumn<UUID, ByteBuffer> column =
+                createColumn( lease.getId(), lease.toByteBuffer(), cass.createTimestamp(), ue, be );
+
+        if ( !lease.isDone() )
+        {
+            column.setTtl( leaseSeconds );
+        }
+
+        mutator.addInsertion( leaseKey, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(), column );
+
+        mutator.execute();
+    }
+
+
+    protected void deleteLease( ByteBuffer leaseKey, ConsumerLease lease )
+    {
+        Mutator<ByteBuffer> mutator = CountingMutator.createFlushingMutator( ko, be );
+
+        mutator.addDeletion( leaseKey, CONSUMER_QUEUE_TIMEOUTS.getColumnFamily(), lease.getId(), ue,
+                cass.createTimestamp() );
+
+        mutator.execute();
+    }
+
+
+    /** Wait a random time that grows with the attempts, so contending readers don't keep claiming together */
+    private static void backoff( int attempt )
+    {
+        try
+        {
+            Thread.sleep( random.nextInt( 10 * ( attempt + 1 ) ) + 1 );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new QueueException( "Interrupted claiming messages", e );
+        }
+    }
+}
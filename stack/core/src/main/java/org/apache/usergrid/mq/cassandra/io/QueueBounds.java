@@ -25,12 +25,20 @@ public class QueueBounds
 
     private final UUID oldest;
     private final UUID newest;
+    private final QueueSettings settings;
 
 
     public QueueBounds( UUID oldest, UUID newest )
+    {
+        this( oldest, newest, QueueSettings.DEFAULT );
+    }
+
+
+    public QueueBounds( UUID oldest, UUID newest, QueueSettings settings )
     {
         this.oldest = oldest;
         this.newest = newest;
+        this.settings = settings;
     }
 
 
@@ -46,6 +54,13 @@ public class QueueBounds
     }
 
 
+    /** The sharding and expiry of the queue, read with the bounds */
+    public QueueSettings getSettings()
+    {
+        return settings;
+    }
+
+
     @Override
     public int hashCode()
     {
@@ -53,6 +68,7 @@ public class QueueBounds
         int result = 1;
         result = ( prime * result ) + ( ( newest == null ) ? 0 : newest.hashCode() );
         result = ( prime * result ) + ( ( oldest == null ) ? 0 : oldest.hashCode() );
+        result = ( prime * result ) + ( ( settings == null ) ? 0 : settings.hashCode() );
         return result;
     }
 
@@ -95,6 +111,17 @@ public class QueueBounds
         {
             return false;
         }
+        if ( settings == null )
+        {
+            if ( other.settings != null )
+            {
+                return false;
+            }
+        }
+        else if ( !settings.equals( other.settings ) )
+        {
+            return false;
+        }
         return true;
     }
 
@@ -102,6 +129,6 @@ public class QueueBounds
     @Override
     public String toString()
     {
-        return "QueueBounds [oldest=" + oldest + ", newest=" + newest + "]";
+        return "QueueBounds [oldest=" + oldest + ", newest=" + newest + ", settings=" + settings + "]";
     }
 }
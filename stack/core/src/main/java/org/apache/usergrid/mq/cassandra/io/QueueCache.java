@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.utils.UUIDUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+
+import static org.apache.usergrid.utils.NumberUtils.roundLong;
+
+
+/**
+ * Caches the bounds and settings of queues, and the historical shards of queues known to be empty, on this node.
+ * <p/>
+ * Posts on this node widen the bounds as they write them. Writes on other nodes are seen when the entries expire, so
+ * they should expire quickly. The positions of consumers aren't cached: behind a load balancer the next read of a
+ * consumer is often on another node, and a stale position would return messages that were already read.
+ * <p/>
+ * Messages are written to the shard of their time, so once a shard is in the past it stays as it is. Empty shards
+ * older than the one before the current shard are remembered much longer, so a read from an old position starts at
+ * the first shard with messages instead of reading every empty shard in between.
+ */
+public class QueueCache
+{
+
+    private final Meter boundsHits = Metrics.newMeter( QueueCache.class, "bounds_hits", "reads", TimeUnit.SECONDS );
+    private final Meter boundsMisses =
+            Metrics.newMeter( QueueCache.class, "bounds_misses", "reads", TimeUnit.SECONDS );
+    private final Meter skippedShards =
+            Metrics.newMeter( QueueCache.class, "skipped_shards", "shards", TimeUnit.SECONDS );
+
+    /** How long empty shards are remembered */
+    private static final long EMPTY_SHARD_HOURS = 1;
+
+    private final Cache<String, QueueBounds> bounds;
+
+    private final Cache<String, QueueSettings> settings;
+
+    /** The first shard that may have messages, by the first shard of a read */
+    private final Cache<String, Long> firstShards;
+
+
+    /**
+     * @param ttlMillis How long bounds and settings are cached, so writes on other nodes are seen after this long
+     * @param maxSize The most entries of each kind to cache
+     */
+    public QueueCache( long ttlMillis, int maxSize )
+    {
+        bounds = CacheBuilder.newBuilder().maximumSize( maxSize ).expireAfterWrite( ttlMillis, TimeUnit.MILLISECONDS )
+                             .build();
+        settings =
+                CacheBuilder.newBuilder().maximumSize( maxSize ).expireAfterWrite( ttlMillis, TimeUnit.MILLISECONDS )
+                            .build();
+        firstShards = CacheBuilder.newBuilder().maximumSize( maxSize )
+                                  .expireAfterAccess( EMPTY_SHARD_HOURS, TimeUnit.HOURS ).build();
+    }
+
+
+    /** The cached bounds of the queue, null if they aren't cached */
+    public QueueBounds getBounds( UUID applicationId, UUID queueId )
+    {
+        QueueBounds cached = bounds.getIfPresent( key( applicationId, queueId ) );
+
+        if ( cached != null )
+        {
+            boundsHits.mark();
+        }
+        else
+        {
+            boundsMisses.mark();
+        }
+
+        return cached;
+    }
+
+
+    public void putBounds( UUID applicationId, UUID queueId, QueueBounds queueBounds )
+    {
+        if ( queueBounds != null )
+        {
+            bounds.put( key( applicationId, queueId ), queueBounds );
+        }
+    }
+
+
+    /** Widen the cached bounds to take in messages posted from oldest to newest, if the bounds are cached */
+    public void widenBounds( UUID applicationId, UUID queueId, UUID oldest, UUID newest )
+    {
+        ConcurrentMap<String, QueueBounds> map = bounds.asMap();
+        String key = key( applicationId, queueId );
+
+        while ( true )
+        {
+            QueueBounds cached = map.get( key );
+
+            // the next read loads them
+            if ( cached == null )
+            {
+                return;
+            }
+
+            QueueBounds widened = new QueueBounds( UUIDUtils.min( cached.getOldest(), oldest ),
+                    UUIDUtils.max( cached.getNewest(), newest ), cached.getSettings() );
+
+            if ( widened.equals( cached ) || map.replace( key, cached, widened ) )
+            {
+                return;
+            }
+        }
+    }
+
+
+    /** The cached settings of the queue, null if they aren't cached */
+    public QueueSettings getSettings( UUID applicationId, UUID queueId )
+    {
+        return settings.getIfPresent( key( applicationId, queueId ) );
+    }
+
+
+    public void putSettings( UUID applicationId, UUID queueId, QueueSettings queueSettings )
+    {
+        settings.put( key( applicationId, queueId ), queueSettings );
+    }
+
+
+    /** Drop the cached bounds and settings of the queue, when its settings are updated on this node */
+    public void invalidateQueue( UUID applicationId, UUID queueId )
+    {
+        bounds.invalidate( key( applicationId, queueId ) );
+        settings.invalidate( key( applicationId, queueId ) );
+    }
+
+
+    /** The first shard from the given one that may have messages */
+    public long getFirstShard( UUID applicationId, UUID queueId, long shard, long shardInterval )
+    {
+        Long first = firstShards.getIfPresent( key( applicationId, queueId ) + shard );
+
+        if ( first == null )
+        {
+            return shard;
+        }
+
+        skippedShards.mark( ( first - shard ) / shardInterval );
+
+        return first;
+    }
+
+
+    /**
+     * Remember that a read found no messages from the shard up to the next one. Only shards older than the one before
+     * the current shard are remembered, since the recent ones can still get messages posted with a skewed clock.
+     */
+    public void putEmptyShards( UUID applicationId, UUID queueId, long shard, long next, long shardInterval )
+    {
+        long closed = roundLong( System.currentTimeMillis(), shardInterval ) - shardInterval;
+
+        next = Math.min( next, closed );
+
+        if ( next > shard )
+        {
+            firstShards.put( key( applicationId, queueId ) + shard, next );
+        }
+    }
+
+
+    private static String key( UUID applicationId, UUID queueId )
+    {
+        return applicationId.toString() + queueId;
+    }
+}
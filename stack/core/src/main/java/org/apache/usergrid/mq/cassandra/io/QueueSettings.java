@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.HColumn;
+
+import static org.apache.usergrid.mq.Queue.QUEUE_MESSAGE_TTL;
+import static org.apache.usergrid.mq.Queue.QUEUE_SHARD_MILLIS;
+import static org.apache.usergrid.mq.cassandra.QueueManagerImpl.QUEUE_SHARD_INTERVAL;
+import static org.apache.usergrid.persistence.cassandra.Serializers.le;
+import static org.apache.usergrid.utils.NumberUtils.roundLong;
+
+
+/**
+ * How a queue is sharded and how long its messages live, from the queue's properties.
+ *
+ * @see org.apache.usergrid.mq.Queue#QUEUE_SHARD_MILLIS
+ * @see org.apache.usergrid.mq.Queue#QUEUE_MESSAGE_TTL
+ */
+public class QueueSettings
+{
+
+    public static final long MIN_SHARD_INTERVAL = TimeUnit.MINUTES.toMillis( 1 );
+
+    public static final long MAX_SHARD_INTERVAL = TimeUnit.DAYS.toMillis( 30 );
+
+    /** The longest ttl cassandra takes, 20 years */
+    public static final long MAX_MESSAGE_TTL = TimeUnit.DAYS.toSeconds( 365 * 20 );
+
+    public static final QueueSettings DEFAULT = new QueueSettings( QUEUE_SHARD_INTERVAL, 0 );
+
+    private final long shardInterval;
+    private final int messageTtl;
+
+
+    /**
+     * @param shardInterval The milliseconds of messages in each row of the queue inbox
+     * @param messageTtl The seconds messages live, 0 if they live until they're deleted
+     */
+    public QueueSettings( long shardInterval, int messageTtl )
+    {
+        this.shardInterval = shardInterval;
+        this.messageTtl = messageTtl;
+    }
+
+
+    /** Read the settings from the queue property columns, the default for any that aren't set */
+    public static QueueSettings fromColumns( ColumnSlice<String, ByteBuffer> columns )
+    {
+        long shardInterval = getLong( columns, QUEUE_SHARD_MILLIS, QUEUE_SHARD_INTERVAL );
+        long messageTtl = getLong( columns, QUEUE_MESSAGE_TTL, 0 );
+
+        if ( ( shardInterval == QUEUE_SHARD_INTERVAL ) && ( messageTtl == 0 ) )
+        {
+            return DEFAULT;
+        }
+
+        return new QueueSettings( shardInterval, ( int ) messageTtl );
+    }
+
+
+    private static long getLong( ColumnSlice<String, ByteBuffer> columns, String name, long defaultValue )
+    {
+        HColumn<String, ByteBuffer> column = ( columns == null ) ? null : columns.getColumnByName( name );
+
+        if ( ( column == null ) || ( column.getValue().remaining() != 8 ) )
+        {
+            return defaultValue;
+        }
+
+        return le.fromByteBuffer( column.getValue().duplicate() );
+    }
+
+
+    public long getShardInterval()
+    {
+        return shardInterval;
+    }
+
+
+    public int getMessageTtl()
+    {
+        return messageTtl;
+    }
+
+
+    /** The shard of the queue that holds messages of the time */
+    public long getShard( long timestamp )
+    {
+        return roundLong( timestamp, shardInterval );
+    }
+
+
+    /** The time messages posted before have expired, 0 if they don't expire */
+    public long getExpiredBefore( long now )
+    {
+        return messageTtl > 0 ? now - TimeUnit.SECONDS.toMillis( messageTtl ) : 0;
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = ( prime * result ) + ( int ) ( shardInterval ^ ( shardInterval >>> 32 ) );
+        result = ( prime * result ) + messageTtl;
+        return result;
+    }
+
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( ( obj == null ) || ( getClass() != obj.getClass() ) )
+        {
+            return false;
+        }
+        QueueSettings other = ( QueueSettings ) obj;
+        return ( shardInterval == other.shardInterval ) && ( messageTtl == other.messageTtl );
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "QueueSettings [shardInterval=" + shardInterval + ", messageTtl=" + messageTtl + "]";
+    }
+}
@@ -0,0 +1,606 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * An immutable set of uuids in the order {@link com.fasterxml.uuid.UUIDComparator} sorts them, time uuids by their
+ * time. The uuids are kept as pairs of longs in one array, encoded so comparing the pairs as signed longs gives that
+ * order, so unions and intersections are a linear merge of two arrays without creating a uuid for every comparison.
+ * <p/>
+ * Unions and intersections take a limit and keep the oldest uuids, or the newest if reversed, and stop merging once
+ * they have that many.
+ */
+public final class SortedUUIDs
+{
+
+    public static final SortedUUIDs EMPTY = new SortedUUIDs( new long[0], 0 );
+
+    private static final int TIME_BASED = 1;
+
+    /** When one set is this many times larger, intersect by searching it rather than walking it */
+    private static final int SEARCH_RATIO = 16;
+
+    /** Two longs for every uuid, see {@link #encode(long[], int, UUID)} */
+    private final long[] keys;
+
+    private final int size;
+
+
+    private SortedUUIDs( long[] keys, int size )
+    {
+        this.keys = keys;
+        this.size = size;
+    }
+
+
+    /** The uuids sorted, without duplicates */
+    public static SortedUUIDs of( Collection<UUID> uuids )
+    {
+        Builder builder = new Builder( uuids.size() );
+
+        for ( UUID uuid : uuids )
+        {
+            builder.add( uuid );
+        }
+
+        return builder.build();
+    }
+
+
+    public int size()
+    {
+        return size;
+    }
+
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+
+    public UUID get( int index )
+    {
+        if ( ( index < 0 ) || ( index >= size ) )
+        {
+            throw new IndexOutOfBoundsException( "Index " + index + " of " + size );
+        }
+
+        return decode( keys[index * 2], keys[index * 2 + 1] );
+    }
+
+
+    public boolean contains( UUID uuid )
+    {
+        long[] key = new long[2];
+        encode( key, 0, uuid );
+        return search( keys, 0, size, key[0], key[1] ) >= 0;
+    }
+
+
+    /** The uuids in order, or newest first if reversed */
+    public List<UUID> toList( final boolean reversed )
+    {
+        return new AbstractList<UUID>()
+        {
+            @Override
+            public UUID get( int index )
+            {
+                return SortedUUIDs.this.get( reversed ? size - 1 - index : index );
+            }
+
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
+    }
+
+
+    /** The limit oldest uuids, or newest if reversed */
+    public SortedUUIDs limit( int limit, boolean reversed )
+    {
+        if ( size <= limit )
+        {
+            return this;
+        }
+
+        int from = reversed ? size - limit : 0;
+        return new SortedUUIDs( Arrays.copyOfRange( keys, from * 2, ( from + limit ) * 2 ), limit );
+    }
+
+
+    /**
+     * The uuids from start up to finish, in the direction of the search. Start is included and finish isn't, either
+     * can be null for no bound.
+     */
+    public SortedUUIDs range( UUID start, UUID finish, boolean reversed )
+    {
+        UUID lower = reversed ? finish : start;
+        UUID upper = reversed ? start : finish;
+
+        // going forwards the lower bound is included and the upper isn't, the other way around if reversed
+        int from = lower == null ? 0 : bound( lower, !reversed );
+        int to = upper == null ? size : bound( upper, !reversed );
+
+        if ( ( from == 0 ) && ( to == size ) )
+        {
+            return this;
+        }
+
+        if ( from >= to )
+        {
+            return EMPTY;
+        }
+
+        return new SortedUUIDs( Arrays.copyOfRange( keys, from * 2, to * 2 ), to - from );
+    }
+
+
+    /** The uuids in either set, no more than limit of them */
+    public SortedUUIDs or( SortedUUIDs other, int limit, boolean reversed )
+    {
+        if ( other.isEmpty() )
+        {
+            return limit( limit, reversed );
+        }
+
+        if ( isEmpty() )
+        {
+            return other.limit( limit, reversed );
+        }
+
+        int max = Math.min( limit, size + other.size );
+        long[] merged = new long[max * 2];
+        int count = 0;
+
+        if ( reversed )
+        {
+            // fill from the end with the newest
+            int i = size - 1;
+            int j = other.size - 1;
+
+            while ( ( count < max ) && ( ( i >= 0 ) || ( j >= 0 ) ) )
+            {
+                int cmp = i < 0 ? -1 : j < 0 ? 1 : compare( keys, i, other.keys, j );
+                int slot = ( max - 1 - count ) * 2;
+
+                if ( cmp >= 0 )
+                {
+                    merged[slot] = keys[i * 2];
+                    merged[slot + 1] = keys[i * 2 + 1];
+                    i--;
+
+                    if ( cmp == 0 )
+                    {
+                        j--;
+                    }
+                }
+                else
+                {
+                    merged[slot] = other.keys[j * 2];
+                    merged[slot + 1] = other.keys[j * 2 + 1];
+                    j--;
+                }
+
+                count++;
+            }
+
+            // duplicates left the front short
+            int from = max - count;
+            return new SortedUUIDs( from == 0 ? merged : Arrays.copyOfRange( merged, from * 2, max * 2 ), count );
+        }
+
+        int i = 0;
+        int j = 0;
+
+        while ( ( count < max ) && ( ( i < size ) || ( j < other.size ) ) )
+        {
+            int cmp = i >= size ? 1 : j >= other.size ? -1 : compare( keys, i, other.keys, j );
+
+            if ( cmp <= 0 )
+            {
+                merged[count * 2] = keys[i * 2];
+                merged[count * 2 + 1] = keys[i * 2 + 1];
+                i++;
+
+                if ( cmp == 0 )
+                {
+                    j++;
+                }
+            }
+            else
+            {
+                merged[count * 2] = other.keys[j * 2];
+                merged[count * 2 + 1] = other.keys[j * 2 + 1];
+                j++;
+            }
+
+            count++;
+        }
+
+        return new SortedUUIDs( merged, count );
+    }
+
+
+    /** The uuids in both sets, no more than limit of them */
+    public SortedUUIDs and( SortedUUIDs other, int limit, boolean reversed )
+    {
+        if ( isEmpty() || other.isEmpty() || ( limit <= 0 ) )
+        {
+            return EMPTY;
+        }
+
+        SortedUUIDs small = size <= other.size ? this : other;
+        SortedUUIDs large = small == this ? other : this;
+
+        int max = Math.min( limit, small.size );
+        long[] merged = new long[max * 2];
+        int count = 0;
+
+        boolean search = large.size / small.size >= SEARCH_RATIO;
+
+        int i = reversed ? small.size - 1 : 0;
+        int j = reversed ? large.size - 1 : 0;
+        int step = reversed ? -1 : 1;
+
+        while ( ( count < max ) && ( i >= 0 ) && ( i < small.size ) && ( j >= 0 ) && ( j < large.size ) )
+        {
+            if ( search )
+            {
+                // only search the part of the large set that's left
+                int found = reversed ? search( large.keys, 0, j + 1, small.keys[i * 2], small.keys[i * 2 + 1] ) :
+                            search( large.keys, j, large.size, small.keys[i * 2], small.keys[i * 2 + 1] );
+
+                if ( found >= 0 )
+                {
+                    count = copy( small.keys, i, merged, count );
+                    j = found + step;
+                }
+                else
+                {
+                    // the insertion point, where the next larger uuid is
+                    int insertion = -found - 1;
+                    j = reversed ? insertion - 1 : insertion;
+                }
+
+                i += step;
+                continue;
+            }
+
+            int cmp = compare( small.keys, i, large.keys, j ) * step;
+
+            if ( cmp == 0 )
+            {
+                count = copy( small.keys, i, merged, count );
+                i += step;
+                j += step;
+            }
+            else if ( cmp < 0 )
+            {
+                i += step;
+            }
+            else
+            {
+                j += step;
+            }
+        }
+
+        if ( reversed )
+        {
+            reverse( merged, count );
+        }
+
+        return new SortedUUIDs( merged, count );
+    }
+
+
+    /** Copy the uuid at the index to the end of the merged uuids, returns the new count */
+    private static int copy( long[] keys, int index, long[] merged, int count )
+    {
+        merged[count * 2] = keys[index * 2];
+        merged[count * 2 + 1] = keys[index * 2 + 1];
+        return count + 1;
+    }
+
+
+    private static void reverse( long[] keys, int count )
+    {
+        for ( int i = 0, j = count - 1; i < j; i++, j-- )
+        {
+            swap( keys, i, j );
+        }
+    }
+
+
+    private static void swap( long[] keys, int i, int j )
+    {
+        long high = keys[i * 2];
+        long low = keys[i * 2 + 1];
+        keys[i * 2] = keys[j * 2];
+        keys[i * 2 + 1] = keys[j * 2 + 1];
+        keys[j * 2] = high;
+        keys[j * 2 + 1] = low;
+    }
+
+
+    /** The index of the first uuid after the given one, or at it if atOrAfter */
+    private int bound( UUID uuid, boolean atOrAfter )
+    {
+        long[] key = new long[2];
+        encode( key, 0, uuid );
+
+        int found = search( keys, 0, size, key[0], key[1] );
+
+        if ( found >= 0 )
+        {
+            return atOrAfter ? found : found + 1;
+        }
+
+        return -found - 1;
+    }
+
+
+    /** Binary search of the uuids from index from up to to, as {@link Arrays#binarySearch(long[], long)} returns */
+    private static int search( long[] keys, int from, int to, long high, long low )
+    {
+        int lo = from;
+        int hi = to - 1;
+
+        while ( lo <= hi )
+        {
+            int mid = ( lo + hi ) >>> 1;
+            int cmp = compare( keys[mid * 2], keys[mid * 2 + 1], high, low );
+
+            if ( cmp < 0 )
+            {
+                lo = mid + 1;
+            }
+            else if ( cmp > 0 )
+            {
+                hi = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+
+        return -( lo + 1 );
+    }
+
+
+    private static int compare( long[] a, int i, long[] b, int j )
+    {
+        return compare( a[i * 2], a[i * 2 + 1], b[j * 2], b[j * 2 + 1] );
+    }
+
+
+    private static int compare( long high1, long low1, long high2, long low2 )
+    {
+        if ( high1 != high2 )
+        {
+            return high1 < high2 ? -1 : 1;
+        }
+
+        if ( low1 != low2 )
+        {
+            return low1 < low2 ? -1 : 1;
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * Encode the uuid as two longs that compare as signed longs the way UUIDComparator compares uuids: by version,
+     * then by time for time uuids or by the most significant bits for the rest, then by the least significant bits,
+     * all unsigned. The version takes the top 4 bits of the first long, with the time or the rest of the most
+     * significant bits in the other 60. Flipping the sign bits turns unsigned order into signed.
+     */
+    static void encode( long[] keys, int index, UUID uuid )
+    {
+        long msb = uuid.getMostSignificantBits();
+        long version = ( msb >>> 12 ) & 0xf;
+        long value;
+
+        if ( version == TIME_BASED )
+        {
+            value = uuid.timestamp();
+        }
+        else
+        {
+            value = ( ( msb >>> 16 ) << 12 ) | ( msb & 0xfff );
+        }
+
+        keys[index * 2] = ( ( version << 60 ) | value ) ^ Long.MIN_VALUE;
+        keys[index * 2 + 1] = uuid.getLeastSignificantBits() ^ Long.MIN_VALUE;
+    }
+
+
+    static UUID decode( long high, long low )
+    {
+        high ^= Long.MIN_VALUE;
+
+        long version = high >>> 60;
+        long value = high & 0x0fffffffffffffffL;
+        long msb;
+
+        if ( version == TIME_BASED )
+        {
+            // time low, time mid, version and time high
+            msb = ( value << 32 ) | ( ( value >>> 16 ) & 0xffff0000L ) | ( version << 12 ) | ( ( value >>> 48 )
+                    & 0xfff );
+        }
+        else
+        {
+            msb = ( ( value >>> 12 ) << 16 ) | ( version << 12 ) | ( value & 0xfff );
+        }
+
+        return new UUID( msb, low ^ Long.MIN_VALUE );
+    }
+
+
+    /** Collects uuids in any order, and sorts them once */
+    public static final class Builder
+    {
+
+        private long[] keys;
+
+        private int size;
+
+        /** True while every uuid added is larger than the one before */
+        private boolean sorted = true;
+
+
+        public Builder()
+        {
+            this( 16 );
+        }
+
+
+        public Builder( int expected )
+        {
+            keys = new long[Math.max( expected, 1 ) * 2];
+        }
+
+
+        public Builder add( UUID uuid )
+        {
+            if ( uuid == null )
+            {
+                return this;
+            }
+
+            if ( size * 2 == keys.length )
+            {
+                keys = Arrays.copyOf( keys, keys.length * 2 );
+            }
+
+            encode( keys, size, uuid );
+
+            if ( sorted && ( size > 0 ) && ( compare( keys, size - 1, keys, size ) >= 0 ) )
+            {
+                sorted = false;
+            }
+
+            size++;
+
+            return this;
+        }
+
+
+        public int size()
+        {
+            return size;
+        }
+
+
+        public SortedUUIDs build()
+        {
+            if ( size == 0 )
+            {
+                return EMPTY;
+            }
+
+            long[] built = Arrays.copyOf( keys, size * 2 );
+
+            if ( sorted )
+            {
+                return new SortedUUIDs( built, size );
+            }
+
+            sort( built, new long[size * 2], 0, size );
+
+            // drop duplicates, which are next to each other once sorted
+            int count = 1;
+
+            for ( int i = 1; i < size; i++ )
+            {
+                if ( compare( built, i, built, count - 1 ) != 0 )
+                {
+                    built[count * 2] = built[i * 2];
+                    built[count * 2 + 1] = built[i * 2 + 1];
+                    count++;
+                }
+            }
+
+            return new SortedUUIDs( count == size ? built : Arrays.copyOf( built, count * 2 ), count );
+        }
+
+
+        /** Merge sort of the uuids from index from up to to */
+        private static void sort( long[] keys, long[] work, int from, int to )
+        {
+            if ( to - from < 8 )
+            {
+                // insertion sort for short runs
+                for ( int i = from + 1; i < to; i++ )
+                {
+                    for ( int j = i; ( j > from ) && ( compare( keys, j - 1, keys, j ) > 0 ); j-- )
+                    {
+                        swap( keys, j - 1, j );
+                    }
+                }
+
+                return;
+            }
+
+            int mid = ( from + to ) >>> 1;
+
+            sort( keys, work, from, mid );
+            sort( keys, work, mid, to );
+
+            // already in order
+            if ( compare( keys, mid - 1, keys, mid ) <= 0 )
+            {
+                return;
+            }
+
+            System.arraycopy( keys, from * 2, work, from * 2, ( to - from ) * 2 );
+
+            int i = from;
+            int j = mid;
+
+            for ( int k = from; k < to; k++ )
+            {
+                if ( ( j >= to ) || ( ( i < mid ) && ( compare( work, i, work, j ) <= 0 ) ) )
+                {
+                    keys[k * 2] = work[i * 2];
+                    keys[k * 2 + 1] = work[i * 2 + 1];
+                    i++;
+                }
+                else
+                {
+                    keys[k * 2] = work[j * 2];
+                    keys[k * 2 + 1] = work[j * 2 + 1];
+                    j++;
+                }
+            }
+        }
+    }
+}
@@ -73,4 +73,15 @@ public interface IndexBucketLocator {
      * @return All buckets for this application at the given component path
      */
     public List<String> getBuckets( UUID applicationId, IndexType type, String... components );
+
+    /**
+     * Check that an entity can be created with the given id. Called before an entity is created with an id supplied
+     * by the client rather than generated from the current time
+     *
+     * @param applicationId The application id
+     * @param entityId The id of the entity to create
+     *
+     * @throws IllegalArgumentException If the entity can't always be located in the same buckets with the id
+     */
+    public void checkEntityId( UUID applicationId, UUID entityId );
 }
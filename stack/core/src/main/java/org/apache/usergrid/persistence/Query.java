@@ -30,7 +30,6 @@ import java.util.UUID;
 
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.ClassicToken;
-import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
 import org.antlr.runtime.Token;
 import org.antlr.runtime.TokenRewriteStream;
@@ -53,6 +52,7 @@ import org.apache.usergrid.persistence.query.tree.LessThanEqual;
 import org.apache.usergrid.persistence.query.tree.Operand;
 import org.apache.usergrid.persistence.query.tree.QueryFilterLexer;
 import org.apache.usergrid.persistence.query.tree.QueryFilterParser;
+import org.apache.usergrid.persistence.query.tree.QueryPlanCache;
 import org.apache.usergrid.utils.JsonUtils;
 
 import static org.apache.commons.codec.binary.Base64.decodeBase64;
@@ -78,6 +78,9 @@ public class Query {
 
     public static final int MAX_LIMIT = 1000;
 
+    /** Parsed trees of the queries we've seen, sized by usergrid.query.plan.cache.size */
+    private static volatile QueryPlanCache planCache = new QueryPlanCache( 1000 );
+
     private String type;
     private List<SortPredicate> sortPredicates = new ArrayList<SortPredicate>();
     private Operand rootOperand;
@@ -134,6 +137,12 @@ public class Query {
     }
 
 
+    /** Replace the cache of parsed queries with one of the given size, 0 parses every query */
+    public static void setPlanCacheSize( int maxSize ) {
+        planCache = new QueryPlanCache( maxSize );
+    }
+
+
     public static Query fromQL( String ql ) throws QueryParseException {
         if ( ql == null ) {
             return null;
@@ -152,13 +161,8 @@ public class Query {
             }
         }
 
-        ANTLRStringStream in = new ANTLRStringStream( qlt.trim() );
-        QueryFilterLexer lexer = new QueryFilterLexer( in );
-        CommonTokenStream tokens = new CommonTokenStream( lexer );
-        QueryFilterParser parser = new QueryFilterParser( tokens );
-
         try {
-            Query q = parser.ql().query;
+            Query q = planCache.parse( qlt.trim() );
             q.setQl( originalQl );
             return q;
         }
@@ -62,6 +62,7 @@ import org.apache.usergrid.persistence.schema.CollectionInfo;
 import org.apache.usergrid.persistence.schema.DictionaryInfo;
 import org.apache.usergrid.persistence.schema.EntityInfo;
 import org.apache.usergrid.persistence.schema.PropertyInfo;
+import org.apache.usergrid.utils.CompactValueUtils;
 import org.apache.usergrid.utils.InflectionUtils;
 import org.apache.usergrid.utils.JsonUtils;
 import org.apache.usergrid.utils.MapUtils;
@@ -199,6 +200,12 @@ public class Schema {
                 }
             } );
 
+    /**
+     * Write property and dictionary values in the compact format, set from usergrid.properties.compact. Off until
+     * every node reads it, both formats are always read.
+     */
+    private static volatile boolean compactPropertyValues = false;
+
     private final ObjectMapper mapper = new ObjectMapper();
 
     @SuppressWarnings("unused")
@@ -253,6 +260,12 @@ public class Schema {
     public static final Object initLock = new Object();
 
 
+    /** Write new property and dictionary values in the compact format rather than Smile */
+    public static void setCompactPropertyValues( boolean compact ) {
+        compactPropertyValues = compact;
+    }
+
+
     public static void setDefaultSchema( Schema instance ) {
         synchronized ( initLock ) {
             if ( Schema.instance == null ) {
@@ -1635,7 +1648,7 @@ public class Schema {
             bytes = bytebuffer( string( propertyValue ) );
         }
         else {
-            bytes = Schema.serializePropertyValueToJsonBinary( toJsonNode( propertyValue ) );
+            bytes = Schema.serializePropertyValue( propertyValue );
             if ( Schema.getDefaultSchema().isPropertyEncrypted( entityType, propertyName ) ) {
                 bytes.rewind();
                 bytes = encrypt( bytes );
@@ -1645,17 +1658,44 @@ public class Schema {
     }
 
 
+    /** Serialize the value in the compact format when it can be, otherwise as Smile */
+    public static ByteBuffer serializePropertyValue( Object obj ) {
+        ByteBuffer bytes = serializePropertyValueToCompactBinary( obj );
+        if ( bytes != null ) {
+            return bytes;
+        }
+        return serializePropertyValueToJsonBinary( toJsonNode( obj ) );
+    }
+
+
+    /** @return the value in the compact format, null if it's disabled or can't hold the value */
+    public static ByteBuffer serializePropertyValueToCompactBinary( Object obj ) {
+        if ( !compactPropertyValues ) {
+            return null;
+        }
+        return CompactValueUtils.toByteBuffer( obj );
+    }
+
+
     public static ByteBuffer serializePropertyValueToJsonBinary( Object obj ) {
         return JsonUtils.toByteBuffer( obj );
     }
 
 
+    /** Deserialize a value written as Smile or in the compact format */
     public static Object deserializePropertyValueFromJsonBinary( ByteBuffer bytes ) {
+        if ( CompactValueUtils.isCompact( bytes ) ) {
+            return CompactValueUtils.fromByteBuffer( bytes );
+        }
         return JsonUtils.normalizeJsonTree( JsonUtils.fromByteBuffer( bytes ) );
     }
 
 
+    /** Deserialize a value written as Smile or in the compact format */
     public static Object deserializePropertyValueFromJsonBinary( ByteBuffer bytes, Class<?> classType ) {
+        if ( CompactValueUtils.isCompact( bytes ) ) {
+            return CompactValueUtils.fromByteBuffer( bytes, classType );
+        }
         return JsonUtils.normalizeJsonTree( JsonUtils.fromByteBuffer( bytes, classType ) );
     }
 
@@ -0,0 +1,548 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.IndexBucketLocator;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import me.prettyprint.hector.api.beans.HColumn;
+
+import static org.apache.commons.codec.digest.DigestUtils.md5;
+import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_DICTIONARIES;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.apache.usergrid.persistence.cassandra.Serializers.le;
+import static org.apache.usergrid.persistence.cassandra.Serializers.se;
+import static org.apache.usergrid.utils.ConversionUtils.bytes;
+import static org.apache.usergrid.utils.UUIDUtils.getTimestampInMillis;
+import static org.apache.usergrid.utils.UUIDUtils.isTimeBased;
+
+
+/**
+ * Bucket locator that keeps a bucket layout per application, index type and index path, and splits the buckets that
+ * receive the most writes. Every index starts with the same ring of tokens as {@link SimpleIndexBucketLocatorImpl} of
+ * the initial size, so existing indexes are located exactly as before. A scanner only fans out to the buckets an index
+ * has actually been given.
+ * <p/>
+ * Removing an index entry locates its bucket again, so an entity must always map to the same bucket. A split is
+ * therefore never applied to existing entries. It creates a new layout that is used for entities whose time uuid is
+ * later than the split delay from now, and the layouts are stored in cassandra so every node locates the same bucket.
+ * Layouts are reloaded every half of the split delay, so a node knows every layout an entity can be in as long as the
+ * entity's time isn't more than a quarter of the split delay ahead of the node's clock. Entities with uuids that
+ * aren't time based always use the initial layout.
+ * <p/>
+ * An entity with a time uuid further in the future would be indexed in the layout known when it's written, and a
+ * split before its time would locate a different bucket when it's removed. While splitting is enabled such ids are
+ * rejected by {@link #checkEntityId(UUID, UUID)}.
+ * <p/>
+ * Only collection indexes are split, the other index types hash a single id per row or are already partitioned by
+ * their path and always use the initial layout.
+ */
+public class AdaptiveIndexBucketLocatorImpl implements IndexBucketLocator {
+
+    private static final Logger logger = LoggerFactory.getLogger( AdaptiveIndexBucketLocatorImpl.class );
+
+    /** Name of the dictionary that holds the layouts of an index */
+    public static final String DICTIONARY_INDEX_BUCKETS = "index_buckets";
+
+    /** The number of positions on the ring, one more than the maximum token */
+    private static final BigInteger RING_SIZE = SimpleIndexBucketLocatorImpl.MAXIMUM.add( BigInteger.ONE );
+
+    private final CassandraService cass;
+    private final Layout initialLayout;
+    private final int maxBuckets;
+    private final long splitThreshold;
+    private final long splitDelay;
+
+    private final LoadingCache<TopologyKey, Topology> topologies;
+
+    private final ConcurrentMap<TopologyKey, SplitCounter> counters = new ConcurrentHashMap<TopologyKey, SplitCounter>();
+
+
+    /**
+     * @param cass The cassandra service to store the layouts with
+     * @param initialBuckets The number of buckets every index starts with
+     * @param maxBuckets The maximum number of buckets an index can be split into
+     * @param splitThreshold The number of writes a bucket receives on this node before it's split, 0 to never split
+     * @param splitDelaySeconds The number of seconds before a new layout is used. Must be several times longer than the
+     * clock skew between nodes
+     */
+    public AdaptiveIndexBucketLocatorImpl( CassandraService cass, int initialBuckets, int maxBuckets,
+                                           long splitThreshold, long splitDelaySeconds ) {
+        this.cass = cass;
+        this.maxBuckets = maxBuckets;
+        this.splitThreshold = splitThreshold;
+        this.splitDelay = TimeUnit.SECONDS.toMillis( splitDelaySeconds );
+
+        List<BigInteger> tokens = new ArrayList<BigInteger>( initialBuckets );
+
+        for ( int i = 0; i < initialBuckets; i++ ) {
+            tokens.add( SimpleIndexBucketLocatorImpl.initialToken( initialBuckets, i ) );
+        }
+
+        this.initialLayout = new Layout( 0, tokens );
+
+        //reload well before a layout can be stale so we rarely have to reload while locating a bucket
+        this.topologies = CacheBuilder.newBuilder().maximumSize( 10000 )
+                                      .expireAfterWrite( Math.max( 1, splitDelay / 2 ), TimeUnit.MILLISECONDS )
+                                      .build( new CacheLoader<TopologyKey, Topology>() {
+                                          @Override
+                                          public Topology load( TopologyKey key ) throws Exception {
+                                              return loadTopology( key );
+                                          }
+                                      } );
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.usergrid.persistence.IndexBucketLocator#getBucket(java.util.UUID,
+     * org.apache.usergrid.persistence.IndexBucketLocator.IndexType, java.util.UUID,
+     * java.lang.String[])
+     */
+    @Override
+    public String getBucket( UUID applicationId, IndexType type, UUID entityId, String... components ) {
+        if ( type != IndexType.COLLECTION ) {
+            return initialLayout.getBucket( entityId );
+        }
+
+        TopologyKey key = new TopologyKey( applicationId, type, components );
+
+        Topology topology = getTopology( key );
+
+        Layout layout = topology.getLayout( isTimeBased( entityId ) ? getTimestampInMillis( entityId ) : 0 );
+
+        String bucket = layout.getBucket( entityId );
+
+        //only count writes to the newest layout, older layouts are never split again
+        if ( layout == topology.getLatest() ) {
+            count( key, layout, bucket );
+        }
+
+        return bucket;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.usergrid.persistence.IndexBucketLocator#getBuckets(java.util.UUID,
+     * org.apache.usergrid.persistence.IndexBucketLocator.IndexType,
+     * java.lang.String[])
+     */
+    @Override
+    public List<String> getBuckets( UUID applicationId, IndexType type, String... components ) {
+        if ( type != IndexType.COLLECTION ) {
+            return initialLayout.getBuckets();
+        }
+
+        return getTopology( new TopologyKey( applicationId, type, components ) ).getBuckets();
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.usergrid.persistence.IndexBucketLocator#checkEntityId(java.util.UUID,
+     * java.util.UUID)
+     */
+    @Override
+    public void checkEntityId( UUID applicationId, UUID entityId ) {
+        if ( splitThreshold <= 0 || !isTimeBased( entityId ) ) {
+            return;
+        }
+
+        long latest = System.currentTimeMillis() + splitDelay / 4;
+
+        if ( getTimestampInMillis( entityId ) > latest ) {
+            throw new IllegalArgumentException( "Entity id " + entityId
+                    + " is dated in the future, it can't be indexed while index buckets are split" );
+        }
+    }
+
+
+    /** Get the topology of the index, reloading it if it's old enough that a layout may become active we don't know */
+    private Topology getTopology( TopologyKey key ) {
+        Topology topology = topologies.getUnchecked( key );
+
+        if ( System.currentTimeMillis() >= topology.loaded + splitDelay / 2 ) {
+            topologies.invalidate( key );
+            topology = topologies.getUnchecked( key );
+        }
+
+        return topology;
+    }
+
+
+    /** Count a write to the bucket, and split the bucket if it has received too many */
+    private void count( TopologyKey key, Layout layout, String bucket ) {
+        if ( splitThreshold <= 0 || layout.size() >= maxBuckets ) {
+            return;
+        }
+
+        SplitCounter counter = counters.get( key );
+
+        //a new layout, start counting again
+        if ( counter == null || !counter.counts( layout ) ) {
+            SplitCounter created = new SplitCounter( layout );
+
+            boolean set = counter == null ? counters.putIfAbsent( key, created ) == null :
+                          counters.replace( key, counter, created );
+
+            counter = set ? created : counters.get( key );
+
+            //another thread is counting a different layout, we'll count the next write
+            if ( counter == null || !counter.counts( layout ) ) {
+                return;
+            }
+        }
+
+        if ( counter.increment( bucket ) < splitThreshold || !counter.splitting.compareAndSet( false, true ) ) {
+            return;
+        }
+
+        Layout split = layout.split( bucket, System.currentTimeMillis() + splitDelay );
+
+        if ( split == null ) {
+            logger.warn( "Unable to split bucket {} of index {}", bucket, key );
+            return;
+        }
+
+        logger.info( "Splitting bucket {} of index {} into {} buckets", new Object[] { bucket, key, split.size() } );
+
+        try {
+            saveLayout( key.applicationId, key.getRowKey(), split.start, split.toString() );
+        }
+        catch ( Exception e ) {
+            logger.error( "Unable to save the layout of index " + key, e );
+            counter.splitting.set( false );
+            return;
+        }
+
+        topologies.invalidate( key );
+    }
+
+
+    /** Read the layouts that have been added to the initial layout */
+    private Topology loadTopology( TopologyKey key ) throws Exception {
+        long loaded = System.currentTimeMillis();
+
+        List<Layout> layouts = new ArrayList<Layout>();
+        layouts.add( initialLayout );
+
+        for ( Map.Entry<Long, String> stored : loadLayouts( key.applicationId, key.getRowKey() ).entrySet() ) {
+            layouts.add( Layout.parse( stored.getKey(), stored.getValue() ) );
+        }
+
+        return new Topology( loaded, layouts );
+    }
+
+
+    /** Read the stored layouts of the index, keyed and ordered by the time they become active */
+    protected SortedMap<Long, String> loadLayouts( UUID applicationId, Object rowKey ) throws Exception {
+        List<HColumn<Long, String>> columns =
+                cass.getAllColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_DICTIONARIES, rowKey, le,
+                        se );
+
+        SortedMap<Long, String> layouts = new TreeMap<Long, String>();
+
+        for ( HColumn<Long, String> column : columns ) {
+            layouts.put( column.getName(), column.getValue() );
+        }
+
+        return layouts;
+    }
+
+
+    /** Store a layout of the index that becomes active at the given time */
+    protected void saveLayout( UUID applicationId, Object rowKey, long start, String tokens ) throws Exception {
+        cass.setColumn( cass.getApplicationKeyspace( applicationId ), ENTITY_DICTIONARIES, rowKey, start, tokens );
+    }
+
+
+    /** All the layouts of a single index */
+    private static class Topology {
+
+        private final long loaded;
+        private final List<Layout> layouts;
+        private final List<String> buckets;
+
+
+        private Topology( long loaded, List<Layout> layouts ) {
+            this.loaded = loaded;
+            this.layouts = layouts;
+
+            //tokens are never removed by a split, so this is usually the latest layout, unless two nodes split at once
+            TreeSet<String> all = new TreeSet<String>();
+
+            for ( Layout layout : layouts ) {
+                all.addAll( layout.getBuckets() );
+            }
+
+            this.buckets = Collections.unmodifiableList( new ArrayList<String>( all ) );
+        }
+
+
+        /** Get the layout used by entities created at the given time */
+        private Layout getLayout( long timestamp ) {
+            Layout result = layouts.get( 0 );
+
+            for ( Layout layout : layouts ) {
+                if ( layout.start > timestamp ) {
+                    break;
+                }
+
+                result = layout;
+            }
+
+            return result;
+        }
+
+
+        private Layout getLatest() {
+            return layouts.get( layouts.size() - 1 );
+        }
+
+
+        private List<String> getBuckets() {
+            return buckets;
+        }
+    }
+
+
+    /** A ring of tokens, each bucket holds the entities that hash after the previous token up to its own */
+    static class Layout {
+
+        private final long start;
+        private final List<BigInteger> tokens;
+        private final List<String> buckets;
+
+
+        Layout( long start, List<BigInteger> tokens ) {
+            this.start = start;
+            this.tokens = tokens;
+
+            List<String> buckets = new ArrayList<String>( tokens.size() );
+
+            for ( BigInteger token : tokens ) {
+                buckets.add( String.format( "%039d", token ) );
+            }
+
+            this.buckets = Collections.unmodifiableList( buckets );
+        }
+
+
+        /** Same hashing as {@link SimpleIndexBucketLocatorImpl} */
+        String getBucket( UUID entityId ) {
+            BigInteger location = new BigInteger( md5( bytes( entityId ) ) ).abs();
+
+            int index = Collections.binarySearch( tokens, location );
+
+            if ( index < 0 ) {
+                index = ( index + 1 ) * -1;
+            }
+
+            return buckets.get( index % tokens.size() );
+        }
+
+
+        List<String> getBuckets() {
+            return buckets;
+        }
+
+
+        int size() {
+            return tokens.size();
+        }
+
+
+        /**
+         * Create a layout with the given bucket split in half
+         *
+         * @return The new layout, or null if the bucket's range can't be split
+         */
+        Layout split( String bucket, long start ) {
+            int index = buckets.indexOf( bucket );
+
+            if ( index < 0 ) {
+                return null;
+            }
+
+            BigInteger token = tokens.get( index );
+
+            //the first bucket wraps around the ring from the last token
+            BigInteger previous =
+                    index == 0 ? tokens.get( tokens.size() - 1 ).subtract( RING_SIZE ) : tokens.get( index - 1 );
+
+            BigInteger middle = previous.add( token.subtract( previous ).shiftRight( 1 ) );
+
+            if ( middle.equals( previous ) || middle.equals( token ) ) {
+                return null;
+            }
+
+            if ( middle.signum() < 0 ) {
+                middle = middle.add( RING_SIZE );
+            }
+
+            List<BigInteger> split = new ArrayList<BigInteger>( tokens );
+            split.add( middle );
+            Collections.sort( split );
+
+            return new Layout( start, split );
+        }
+
+
+        /** Parse a stored layout */
+        static Layout parse( long start, String stored ) {
+            List<BigInteger> tokens = new ArrayList<BigInteger>();
+
+            for ( String token : StringUtils.split( stored, ',' ) ) {
+                tokens.add( new BigInteger( token ) );
+            }
+
+            Collections.sort( tokens );
+
+            return new Layout( start, tokens );
+        }
+
+
+        @Override
+        public String toString() {
+            return StringUtils.join( tokens, ',' );
+        }
+    }
+
+
+    /** The writes each bucket of the latest layout of an index has received on this node */
+    private static class SplitCounter {
+
+        private final long start;
+        private final int size;
+        private final ConcurrentMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+
+        /** Set once we've split a bucket of this layout, we split again once the new layout is loaded */
+        private final AtomicBoolean splitting = new AtomicBoolean();
+
+
+        private SplitCounter( Layout layout ) {
+            this.start = layout.start;
+            this.size = layout.size();
+        }
+
+
+        /** True if this counts the writes of the layout. Layouts are reloaded, so we can't compare instances */
+        private boolean counts( Layout layout ) {
+            return start == layout.start && size == layout.size();
+        }
+
+
+        private long increment( String bucket ) {
+            AtomicLong count = counts.get( bucket );
+
+            if ( count == null ) {
+                AtomicLong created = new AtomicLong();
+                count = counts.putIfAbsent( bucket, created );
+
+                if ( count == null ) {
+                    count = created;
+                }
+            }
+
+            return count.incrementAndGet();
+        }
+    }
+
+
+    /** Identifies the index within an application */
+    private static class TopologyKey {
+
+        private final UUID applicationId;
+        private final IndexType type;
+        private final List<String> components;
+
+
+        private TopologyKey( UUID applicationId, IndexType type, String... components ) {
+            this.applicationId = applicationId;
+            this.type = type;
+            this.components = Arrays.asList( components );
+        }
+
+
+        /** The row in the application's dictionaries the layouts are stored in */
+        private Object getRowKey() {
+            return key( applicationId, DICTIONARY_INDEX_BUCKETS, type.toString(), StringUtils.join( components, ':' ) );
+        }
+
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !( o instanceof TopologyKey ) ) {
+                return false;
+            }
+
+            TopologyKey other = ( TopologyKey ) o;
+
+            return applicationId.equals( other.applicationId ) && type == other.type && components
+                    .equals( other.components );
+        }
+
+
+        @Override
+        public int hashCode() {
+            int result = applicationId.hashCode();
+            result = 31 * result + type.hashCode();
+            result = 31 * result + components.hashCode();
+            return result;
+        }
+
+
+        @Override
+        public String toString() {
+            return applicationId + "/" + type + "/" + components;
+        }
+    }
+}
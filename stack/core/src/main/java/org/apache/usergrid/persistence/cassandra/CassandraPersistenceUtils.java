@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -62,6 +63,7 @@ import static org.apache.commons.lang.StringUtils.substringAfterLast;
 import static org.apache.usergrid.persistence.Schema.PROPERTY_TYPE;
 import static org.apache.usergrid.persistence.Schema.PROPERTY_UUID;
 import static org.apache.usergrid.persistence.Schema.serializeEntityProperty;
+import static org.apache.usergrid.persistence.Schema.serializePropertyValueToCompactBinary;
 import static org.apache.usergrid.utils.ClassUtils.isBasicType;
 import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
 import static org.apache.usergrid.utils.JsonUtils.toJsonNode;
@@ -371,23 +373,27 @@ public class CassandraPersistenceUtils {
 
 
     public static ByteBuffer toStorableBinaryValue( Object obj ) {
-        obj = toStorableValue( obj );
-        if ( obj instanceof JsonNode ) {
-            return JsonUtils.toByteBuffer( obj );
-        }
-        else {
-            return bytebuffer( obj );
-        }
+        return toStorableBinaryValue( obj, false );
     }
 
 
     public static ByteBuffer toStorableBinaryValue( Object obj, boolean forceJson ) {
-        obj = toStorableValue( obj );
-        if ( ( obj instanceof JsonNode ) || ( forceJson && ( obj != null ) && !( obj instanceof ByteBuffer ) ) ) {
-            return JsonUtils.toByteBuffer( obj );
+        boolean json = forceJson && ( obj != null ) && !( obj instanceof ByteBuffer );
+
+        //maps, collections and arrays are always stored as json, encode them before they're converted to a json tree
+        if ( json || ( obj instanceof Map ) || ( obj instanceof Collection ) || ( obj instanceof Object[] ) ) {
+            ByteBuffer bytes = serializePropertyValueToCompactBinary( obj );
+            if ( bytes != null ) {
+                return bytes;
+            }
+        }
+
+        Object value = toStorableValue( obj );
+        if ( ( value instanceof JsonNode ) || ( forceJson && ( value != null ) && !( value instanceof ByteBuffer ) ) ) {
+            return JsonUtils.toByteBuffer( value );
         }
         else {
-            return bytebuffer( obj );
+            return bytebuffer( value );
         }
     }
 
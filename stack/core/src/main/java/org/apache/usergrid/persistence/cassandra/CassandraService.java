@@ -37,7 +37,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.usergrid.locking.LockManager;
 import org.apache.usergrid.persistence.IndexBucketLocator;
 import org.apache.usergrid.persistence.IndexBucketLocator.IndexType;
-import org.apache.usergrid.persistence.cassandra.index.IndexBucketScanner;
+import org.apache.usergrid.persistence.cassandra.index.IndexBucketMergeScanner;
 import org.apache.usergrid.persistence.cassandra.index.IndexScanner;
 import org.apache.usergrid.persistence.hector.CountingMutator;
 
@@ -1040,8 +1040,8 @@ public class CassandraService {
         final boolean skipFirst = start != null && !keepFirst;
 
         IndexScanner scanner =
-                new IndexBucketScanner( this, locator, ENTITY_ID_SETS, applicationId, IndexType.COLLECTION, key, start,
-                        finish, reversed, count, skipFirst, collectionName );
+                new IndexBucketMergeScanner( this, locator, ENTITY_ID_SETS, applicationId, IndexType.COLLECTION, key,
+                        start, finish, reversed, count, skipFirst, collectionName );
 
         return scanner;
     }
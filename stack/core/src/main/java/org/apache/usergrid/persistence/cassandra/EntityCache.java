@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ * Read-through cache of the raw {@link ApplicationCF#ENTITY_PROPERTIES} row of an entity, keyed by application and
+ * entity id. The cached value is the undeserialized column map so callers always build a fresh entity from it.
+ */
+public interface EntityCache {
+
+    /**
+     * Get the cached property columns for the entity
+     *
+     * @return The columns, or null if the entity is not in the cache
+     */
+    public Map<String, ByteBuffer> get( UUID applicationId, UUID entityId );
+
+    /**
+     * Get the cached property columns for all of the entities that are present in the cache. Entities that are not
+     * cached are not present in the returned map
+     */
+    public Map<UUID, Map<String, ByteBuffer>> getAll( UUID applicationId, Collection<UUID> entityIds );
+
+    /** Put the property columns that were read from cassandra for the entity into the cache */
+    public void put( UUID applicationId, UUID entityId, Map<String, ByteBuffer> columns );
+
+    /** Remove the entity from the cache. Must be invoked whenever the properties of the entity are mutated */
+    public void invalidate( UUID applicationId, UUID entityId );
+}
@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,6 +91,9 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
 
     private boolean skipAggregateCounters;
 
+    /** Caches application ids by name, null to read them every time */
+    private NameLookupCache applicationNames;
+
     private LoadingCache<UUID, EntityManager> entityManagers =
             CacheBuilder.newBuilder().maximumSize( 100 ).build( new CacheLoader<UUID, EntityManager>() {
                 public EntityManager load( UUID appId ) { // no checked exception
@@ -228,8 +232,8 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
                                        Map<String, Object> properties ) throws Exception {
 
         String appName = buildAppName( organizationName, name );
-        // check for pre-existing
-        if ( lookupApplication( appName ) != null ) {
+        // check for pre-existing, from cassandra rather than a cached lookup
+        if ( readApplicationId( appName ) != null ) {
             throw new ApplicationAlreadyExistsException( appName );
         }
         if ( properties == null ) {
@@ -251,6 +255,8 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
 
         batchExecute( m, RETRY_COUNT );
 
+        applicationNameChanged( appName );
+
         EntityManager em = getEntityManager( applicationId );
         em.create( TYPE_APPLICATION, APPLICATION_ENTITY_CLASS, properties );
 
@@ -281,9 +287,25 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
     @Override
     @Metered(group = "core", name = "EntityManagerFactory_lookupApplication_byName")
     public UUID lookupApplication( String name ) throws Exception {
-        name = name.toLowerCase();
+        final String appName = name.toLowerCase();
+
+        if ( applicationNames == null ) {
+            return readApplicationId( appName );
+        }
+
+        return applicationNames.lookup( appName, new Callable<UUID>() {
+            @Override
+            public UUID call() throws Exception {
+                return readApplicationId( appName );
+            }
+        } );
+    }
+
+
+    /** Read the id of the application with the lower case name from the system keyspace */
+    private UUID readApplicationId( String appName ) throws Exception {
         HColumn<String, ByteBuffer> column =
-                cass.getColumn( cass.getSystemKeyspace(), APPLICATIONS_CF, name, PROPERTY_UUID );
+                cass.getColumn( cass.getSystemKeyspace(), APPLICATIONS_CF, appName, PROPERTY_UUID );
         if ( column != null ) {
             return uuid( column.getValue() );
         }
@@ -291,6 +313,17 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
     }
 
 
+    /**
+     * Drop the cached id of the application name. Must be called whenever an application is created with the name,
+     * or the name is moved to another application or removed.
+     */
+    public void applicationNameChanged( String name ) {
+        if ( ( applicationNames != null ) && ( name != null ) ) {
+            applicationNames.invalidate( name.toLowerCase() );
+        }
+    }
+
+
     /**
      * Gets the application.
      *
@@ -302,15 +335,11 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
      */
     @Metered(group = "core", name = "EntityManagerFactory_getApplication")
     public Application getApplication( String name ) throws Exception {
-        name = name.toLowerCase();
-        HColumn<String, ByteBuffer> column =
-                cass.getColumn( cass.getSystemKeyspace(), APPLICATIONS_CF, name, PROPERTY_UUID );
-        if ( column == null ) {
+        UUID applicationId = lookupApplication( name );
+        if ( applicationId == null ) {
             return null;
         }
 
-        UUID applicationId = uuid( column.getValue() );
-
         EntityManager em = getEntityManager( applicationId );
         return ( ( EntityManagerImpl ) em ).getEntity( applicationId, Application.class );
     }
@@ -393,6 +422,11 @@ public class EntityManagerFactoryImpl implements EntityManagerFactory, Applicati
     }
 
 
+    public void setApplicationNameCache( NameLookupCache applicationNames ) {
+        this.applicationNames = applicationNames;
+    }
+
+
     public void setCounterUtils( CounterUtils counterUtils ) {
         this.counterUtils = counterUtils;
     }
@@ -115,6 +115,7 @@ import static org.apache.commons.lang.StringUtils.isBlank;
 import static org.apache.usergrid.locking.LockHelper.getUniqueUpdateLock;
 import static org.apache.usergrid.persistence.Results.Level.REFS;
 import static org.apache.usergrid.persistence.Results.fromEntities;
+import static org.apache.usergrid.persistence.Schema.COLLECTION_GROUPS;
 import static org.apache.usergrid.persistence.Schema.COLLECTION_ROLES;
 import static org.apache.usergrid.persistence.Schema.COLLECTION_USERS;
 import static org.apache.usergrid.persistence.Schema.DICTIONARY_COLLECTIONS;
@@ -153,6 +154,7 @@ import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_UNI
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.addDeleteToMutator;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.addInsertToMutator;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.addPropertyToMutator;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.asMap;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.batchExecute;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
 import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.toStorableBinaryValue;
@@ -198,6 +200,10 @@ public class EntityManagerImpl implements EntityManager {
     private CassandraService cass;
     @Resource
     private CounterUtils counterUtils;
+    @Resource
+    private EntityCache entityCache;
+    @Resource
+    private PermissionVersions permissionVersions;
 
     private boolean skipAggregateCounters;
 
@@ -214,6 +220,8 @@ public class EntityManagerImpl implements EntityManager {
         this.skipAggregateCounters = skipAggregateCounters;
         qmf = ( QueueManagerFactoryImpl ) getApplicationContext().getBean( "queueManagerFactory" );
         indexBucketLocator = ( IndexBucketLocator ) getApplicationContext().getBean( "indexBucketLocator" );
+        entityCache = ( EntityCache ) getApplicationContext().getBean( "entityCache" );
+        permissionVersions = ( PermissionVersions ) getApplicationContext().getBean( "permissionVersions" );
         // prime the application entity for the EM
         try {
             getApplication();
@@ -295,6 +303,19 @@ public class EntityManagerImpl implements EntityManager {
     public Mutator<ByteBuffer> batchSetProperty( Mutator<ByteBuffer> batch, EntityRef entity, String propertyName,
                                                  Object propertyValue, boolean force, boolean noRead,
                                                  UUID timestampUuid ) throws Exception {
+        return batchSetProperty( batch, entity, propertyName, propertyValue, force, noRead, timestampUuid, null );
+    }
+
+
+    /**
+     * Batch set a property, taking the previous index entries of the entity from the snapshot when it's not null
+     * instead of reading them for the property. The caller executes the batch and must invalidate the entity in the
+     * entity cache after it has executed, so a concurrent read can't cache the previous value again
+     */
+    public Mutator<ByteBuffer> batchSetProperty( Mutator<ByteBuffer> batch, EntityRef entity, String propertyName,
+                                                 Object propertyValue, boolean force, boolean noRead,
+                                                 UUID timestampUuid, IndexEntriesSnapshot snapshot )
+            throws Exception {
 
         long timestamp = getTimestampInMicros( timestampUuid );
 
@@ -366,7 +387,7 @@ public class EntityManagerImpl implements EntityManager {
             //this call is incorrect.  The current entity is NOT the head entity
             getRelationManager( entity )
                     .batchUpdatePropertyIndexes( batch, propertyName, propertyValue, entitySchemaHasProperty, noRead,
-                            timestampUuid );
+                            timestampUuid, snapshot );
         }
 
 
@@ -406,16 +427,51 @@ public class EntityManagerImpl implements EntityManager {
                                                       Map<String, Object> properties, UUID timestampUuid )
             throws Exception {
 
+        IndexEntriesSnapshot snapshot = loadIndexEntries( entity, properties.keySet() );
+
+        // load the entity once, otherwise every indexed property reads it to update its containers
+        if ( snapshot != null && !( entity instanceof Entity ) ) {
+            Entity loaded = get( entity );
+            if ( loaded != null ) {
+                entity = loaded;
+            }
+        }
+
         for ( String propertyName : properties.keySet() ) {
             Object propertyValue = properties.get( propertyName );
 
-            batch = batchSetProperty( batch, entity, propertyName, propertyValue, timestampUuid );
+            batch = batchSetProperty( batch, entity, propertyName, propertyValue, false, false, timestampUuid,
+                    snapshot );
         }
 
         return batch;
     }
 
 
+    /**
+     * Read all the previous index entries of the entity at once if more than one of the properties is indexed.
+     *
+     * @return The snapshot, or null if reading the entries of each property is no more expensive
+     */
+    private IndexEntriesSnapshot loadIndexEntries( EntityRef entity, Collection<String> propertyNames )
+            throws Exception {
+
+        int indexed = 0;
+
+        for ( String propertyName : propertyNames ) {
+            if ( getDefaultSchema().isPropertyIndexed( entity.getType(), propertyName ) ) {
+                indexed++;
+            }
+        }
+
+        if ( indexed < 2 ) {
+            return null;
+        }
+
+        return IndexEntriesSnapshot.load( cass, applicationId, Collections.singleton( entity.getUuid() ) );
+    }
+
+
     /**
      * Batch update set.
      *
@@ -722,6 +778,10 @@ public class EntityManagerImpl implements EntityManager {
 
         batchExecute( m, CassandraService.RETRY_COUNT );
 
+        if ( entity != null ) {
+            entityCache.invalidate( applicationId, entity.getUuid() );
+        }
+
         return entity;
     }
 
@@ -750,6 +810,7 @@ public class EntityManagerImpl implements EntityManager {
             itemId = applicationId;
         }
         if ( importId != null ) {
+            indexBucketLocator.checkEntityId( applicationId, importId );
             itemId = importId;
         }
         if (itemId == null) {
@@ -961,6 +1022,8 @@ public class EntityManagerImpl implements EntityManager {
         addPropertyToMutator( m, itemKey, type, PROPERTY_TYPE, type, timestamp );
 
         batchExecute( m, CassandraService.RETRY_COUNT );
+
+        entityCache.invalidate( applicationId, entityId );
     }
 
 
@@ -993,6 +1056,11 @@ public class EntityManagerImpl implements EntityManager {
     @Metered( group = "core", name = "EntityManager_getEntityType" )
     public String getEntityType( UUID entityId ) throws Exception {
 
+        Map<String, ByteBuffer> cached = entityCache.get( applicationId, entityId );
+        if ( cached != null ) {
+            return string( cached.get( PROPERTY_TYPE ) );
+        }
+
         HColumn<String, String> column =
                 cass.getColumn( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES, key( entityId ),
                         PROPERTY_TYPE, se, se );
@@ -1060,14 +1128,22 @@ public class EntityManagerImpl implements EntityManager {
         Object entity_key = key( entityId );
         Map<String, Object> results = null;
 
-        // if (entityType == null) {
-        results = deserializeEntityProperties(
-                cass.getAllColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES, entity_key ) );
-        // } else {
-        // Set<String> columnNames = Schema.getPropertyNames(entityType);
-        // results = getColumns(getApplicationKeyspace(applicationId),
-        // EntityCF.PROPERTIES, entity_key, columnNames, se, be);
-        // }
+        Map<String, ByteBuffer> columns = entityCache.get( applicationId, entityId );
+
+        if ( columns == null ) {
+            // if (entityType == null) {
+            columns = asMap(
+                    cass.getAllColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES, entity_key ) );
+            // } else {
+            // Set<String> columnNames = Schema.getPropertyNames(entityType);
+            // results = getColumns(getApplicationKeyspace(applicationId),
+            // EntityCF.PROPERTIES, entity_key, columnNames, se, be);
+            // }
+
+            entityCache.put( applicationId, entityId, columns );
+        }
+
+        results = deserializeEntityProperties( columns );
 
         if ( results == null ) {
             logger.warn( "getEntity(): No properties found for entity {}, probably doesn't exist...", entityId );
@@ -1111,21 +1187,44 @@ public class EntityManagerImpl implements EntityManager {
 
         Map<UUID, A> resultSet = new LinkedHashMap<UUID, A>();
 
+        Map<UUID, Map<String, ByteBuffer>> cached = entityCache.getAll( applicationId, entityIds );
+
+        List<UUID> uncachedIds = new ArrayList<UUID>( entityIds.size() - cached.size() );
+
+        for ( UUID entityId : entityIds ) {
+            if ( !cached.containsKey( entityId ) ) {
+                uncachedIds.add( entityId );
+            }
+        }
+
         Rows<UUID, String, ByteBuffer> results = null;
 
-        // if (entityType == null) {
-        results =
-                cass.getRows( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES, entityIds, ue, se, be );
-        // } else {
-        // Set<String> columnNames = Schema.getPropertyNames(entityType);
-        // results = getRows(getApplicationKeyspace(applicationId),
-        // EntityCF.PROPERTIES,
-        // entityIds, columnNames, ue, se, be);
-        // }
+        if ( !uncachedIds.isEmpty() ) {
+            // if (entityType == null) {
+            results = cass.getRows( cass.getApplicationKeyspace( applicationId ), ENTITY_PROPERTIES, uncachedIds, ue,
+                    se, be );
+            // } else {
+            // Set<String> columnNames = Schema.getPropertyNames(entityType);
+            // results = getRows(getApplicationKeyspace(applicationId),
+            // EntityCF.PROPERTIES,
+            // entityIds, columnNames, ue, se, be);
+            // }
+        }
 
-        if ( results != null ) {
+        if ( results != null || !cached.isEmpty() ) {
             for ( UUID key : entityIds ) {
-                Map<String, Object> properties = deserializeEntityProperties( results.getByKey( key ) );
+                Map<String, ByteBuffer> columns = cached.get( key );
+
+                if ( columns == null && results != null ) {
+                    Row<UUID, String, ByteBuffer> row = results.getByKey( key );
+
+                    if ( row != null && row.getColumnSlice() != null ) {
+                        columns = asMap( row.getColumnSlice().getColumns() );
+                        entityCache.put( applicationId, key, columns );
+                    }
+                }
+
+                Map<String, Object> properties = deserializeEntityProperties( columns );
 
                 if ( properties == null ) {
                     logger.error( "Error deserializing entity with key {} entity probaby doesn't exist, where did this key come from?", key );
@@ -1387,6 +1486,9 @@ public class EntityManagerImpl implements EntityManager {
         batchUpdateProperties( m, entity, properties, timestampUuid );
 
         batchExecute( m, CassandraService.RETRY_COUNT );
+
+        entityCache.invalidate( applicationId, entityId );
+        permissionsChanged( entity );
     }
 
 
@@ -1415,8 +1517,10 @@ public class EntityManagerImpl implements EntityManager {
         // dictionary for this entity
         Set<String> properties = getPropertyNames( entity );
         if ( properties != null ) {
+            IndexEntriesSnapshot snapshot = loadIndexEntries( entity, properties );
+
             for ( String propertyName : properties ) {
-                m = batchSetProperty( m, entity, propertyName, null, true, false, timestampUuid );
+                m = batchSetProperty( m, entity, propertyName, null, true, false, timestampUuid, snapshot );
             }
         }
 
@@ -1460,6 +1564,9 @@ public class EntityManagerImpl implements EntityManager {
         addDeleteToMutator( m, ENTITY_PROPERTIES, key( entityId ), timestamp );
 
         batchExecute( m, CassandraService.RETRY_COUNT );
+
+        entityCache.invalidate( applicationId, entityId );
+        permissionsChanged( entity );
     }
 
 
@@ -2021,6 +2128,9 @@ public class EntityManagerImpl implements EntityManager {
         entity.setProperty( propertyName, propertyValue );
         batch = batchSetProperty( batch, entity, propertyName, propertyValue, override, false, timestampUuid );
         batchExecute( batch, CassandraService.RETRY_COUNT );
+
+        entityCache.invalidate( applicationId, entity.getUuid() );
+        permissionsChanged( entity );
     }
 
 
@@ -2056,6 +2166,7 @@ public class EntityManagerImpl implements EntityManager {
                 timestampUuid );
 
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionsChanged( dictionaryName );
     }
 
 
@@ -2078,6 +2189,7 @@ public class EntityManagerImpl implements EntityManager {
         }
 
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionsChanged( dictionaryName );
     }
 
 
@@ -2101,6 +2213,7 @@ public class EntityManagerImpl implements EntityManager {
         }
 
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionsChanged( dictionaryName );
     }
 
 
@@ -2121,6 +2234,7 @@ public class EntityManagerImpl implements EntityManager {
         batch = batchUpdateDictionary( batch, entity, dictionaryName, elementValue, true, timestampUuid );
 
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionsChanged( dictionaryName );
     }
 
 
@@ -2294,6 +2408,7 @@ public class EntityManagerImpl implements EntityManager {
                 be );
         batchCreateRole( batch, null, roleName, roleTitle, inactivity, null, timestampUuid );
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionVersions.changed( applicationId );
         return get( roleRef( roleName ) );
     }
 
@@ -2308,6 +2423,7 @@ public class EntityManagerImpl implements EntityManager {
         addInsertToMutator( batch, ApplicationCF.ENTITY_DICTIONARIES, getRolePermissionsKey( roleName ), permission,
                 ByteBuffer.allocate( 0 ), timestamp );
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionVersions.changed( applicationId );
     }
 
 
@@ -2323,6 +2439,7 @@ public class EntityManagerImpl implements EntityManager {
                     ByteBuffer.allocate( 0 ), timestamp );
         }
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionVersions.changed( applicationId );
     }
 
 
@@ -2337,6 +2454,7 @@ public class EntityManagerImpl implements EntityManager {
                 .addDeleteToMutator( batch, ApplicationCF.ENTITY_DICTIONARIES, getRolePermissionsKey( roleName ),
                         permission, timestamp );
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionVersions.changed( applicationId );
     }
 
 
@@ -2375,6 +2493,7 @@ public class EntityManagerImpl implements EntityManager {
                 be );
         batchCreateRole( batch, groupId, roleName, null, inactivity, null, timestampUuid );
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionVersions.changed( applicationId );
         return get( roleRef( groupId, roleName ) );
     }
 
@@ -2389,6 +2508,7 @@ public class EntityManagerImpl implements EntityManager {
         addInsertToMutator( batch, ApplicationCF.ENTITY_DICTIONARIES, getRolePermissionsKey( groupId, roleName ),
                 permission, ByteBuffer.allocate( 0 ), timestamp );
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionVersions.changed( applicationId );
     }
 
 
@@ -2402,6 +2522,7 @@ public class EntityManagerImpl implements EntityManager {
         CassandraPersistenceUtils.addDeleteToMutator( batch, ApplicationCF.ENTITY_DICTIONARIES,
                 getRolePermissionsKey( groupId, roleName ), permission, timestamp );
         batchExecute( batch, CassandraService.RETRY_COUNT );
+        permissionVersions.changed( applicationId );
     }
 
 
@@ -2419,6 +2540,7 @@ public class EntityManagerImpl implements EntityManager {
         removeFromDictionary( groupRef( groupId ), DICTIONARY_ROLENAMES, roleName );
         cass.deleteRow( cass.getApplicationKeyspace( applicationId ), ApplicationCF.ENTITY_DICTIONARIES,
                 getIdForGroupIdAndRoleName( groupId, roleName ) );
+        permissionVersions.changed( applicationId );
     }
 
 
@@ -2616,27 +2738,36 @@ public class EntityManagerImpl implements EntityManager {
 
     @Override
     public Entity addToCollection( EntityRef entityRef, String collectionName, EntityRef itemRef ) throws Exception {
-        return getRelationManager( entityRef ).addToCollection( collectionName, itemRef );
+        Entity entity = getRelationManager( entityRef ).addToCollection( collectionName, itemRef );
+        permissionsChanged( entityRef, collectionName, itemRef );
+        return entity;
     }
 
 
     @Override
     public Entity addToCollections( List<EntityRef> ownerEntities, String collectionName, EntityRef itemRef )
             throws Exception {
-        return getRelationManager( itemRef ).addToCollections( ownerEntities, collectionName );
+        Entity entity = getRelationManager( itemRef ).addToCollections( ownerEntities, collectionName );
+        for ( EntityRef ownerEntity : ownerEntities ) {
+            permissionsChanged( ownerEntity, collectionName, itemRef );
+        }
+        return entity;
     }
 
 
     @Override
     public Entity createItemInCollection( EntityRef entityRef, String collectionName, String itemType,
                                           Map<String, Object> properties ) throws Exception {
-        return getRelationManager( entityRef ).createItemInCollection( collectionName, itemType, properties );
+        Entity entity = getRelationManager( entityRef ).createItemInCollection( collectionName, itemType, properties );
+        permissionsChanged( entityRef, collectionName, entity );
+        return entity;
     }
 
 
     @Override
     public void removeFromCollection( EntityRef entityRef, String collectionName, EntityRef itemRef ) throws Exception {
         getRelationManager( entityRef ).removeFromCollection( collectionName, itemRef );
+        permissionsChanged( entityRef, collectionName, itemRef );
     }
 
 
@@ -2757,6 +2888,41 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    /** Bump the permission version of the application if the entity is a role, a group or the application */
+    private void permissionsChanged( EntityRef entity ) {
+        if ( entity == null ) {
+            return;
+        }
+
+        String type = entity.getType();
+
+        if ( Role.ENTITY_TYPE.equals( type ) || Group.ENTITY_TYPE.equals( type ) || TYPE_APPLICATION.equals( type ) ) {
+            permissionVersions.changed( applicationId );
+        }
+    }
+
+
+    /** Bump the permission version of the application if the dictionary holds roles or permissions */
+    private void permissionsChanged( String dictionaryName ) {
+        if ( DICTIONARY_ROLENAMES.equals( dictionaryName ) || DICTIONARY_ROLETIMES.equals( dictionaryName )
+                || DICTIONARY_PERMISSIONS.equals( dictionaryName ) ) {
+            permissionVersions.changed( applicationId );
+        }
+    }
+
+
+    /** Bump the permission version of the application if the collection relates users, groups and roles */
+    private void permissionsChanged( EntityRef owner, String collectionName, EntityRef item ) {
+        if ( COLLECTION_ROLES.equals( collectionName ) || COLLECTION_GROUPS.equals( collectionName ) ) {
+            permissionVersions.changed( applicationId );
+            return;
+        }
+
+        permissionsChanged( owner );
+        permissionsChanged( item );
+    }
+
+
     @Override
     public void resetRoles() throws Exception {
 
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+
+import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_INDEX_ENTRIES;
+import static org.apache.usergrid.persistence.cassandra.CassandraService.ALL_COUNT;
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+import static org.apache.usergrid.persistence.cassandra.Serializers.ue;
+
+
+/**
+ * The previous {@link ApplicationCF#ENTITY_INDEX_ENTRIES} of one or more entities, read with a single multiget before
+ * an update. {@link RelationManagerImpl#batchStartIndexUpdate} plans each {@link IndexUpdate} from the snapshot
+ * instead of slicing the entries of every property it updates.
+ */
+public class IndexEntriesSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger( IndexEntriesSnapshot.class );
+
+    private final Map<UUID, List<HColumn<ByteBuffer, ByteBuffer>>> entries;
+
+
+    IndexEntriesSnapshot( Map<UUID, List<HColumn<ByteBuffer, ByteBuffer>>> entries ) {
+        this.entries = entries;
+    }
+
+
+    /** Read the index entries of all the entities in one round trip */
+    public static IndexEntriesSnapshot load( CassandraService cass, UUID applicationId, Collection<UUID> entityIds )
+            throws Exception {
+
+        Map<UUID, List<HColumn<ByteBuffer, ByteBuffer>>> entries =
+                new HashMap<UUID, List<HColumn<ByteBuffer, ByteBuffer>>>();
+
+        if ( entityIds.isEmpty() ) {
+            return new IndexEntriesSnapshot( entries );
+        }
+
+        Rows<UUID, ByteBuffer, ByteBuffer> rows =
+                cass.getRows( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES, entityIds, ue, be,
+                        be );
+
+        for ( Row<UUID, ByteBuffer, ByteBuffer> row : rows ) {
+            List<HColumn<ByteBuffer, ByteBuffer>> columns = row.getColumnSlice().getColumns();
+
+            // we may not have the whole row, leave it out so the update falls back to reading each entry
+            if ( columns.size() >= ALL_COUNT ) {
+                logger.warn( "Entity {} has more than {} index entries, not using a snapshot", row.getKey(),
+                        ALL_COUNT );
+                continue;
+            }
+
+            entries.put( row.getKey(), columns );
+        }
+
+        return new IndexEntriesSnapshot( entries );
+    }
+
+
+    /** True if the snapshot holds all the index entries of the entity */
+    public boolean contains( UUID entityId ) {
+        return entries.containsKey( entityId );
+    }
+
+
+    /**
+     * Get the entries of the entity whose name starts with all the components of the prefix, in column order. This
+     * returns the same columns as a slice from the prefix to the prefix with a greater than equal flag.
+     *
+     * @param entityId The entity the entries belong to
+     * @param prefix The leading components of the entries
+     * @param count The maximum number of entries to return
+     *
+     * @return The entries, or null if the entity is not in this snapshot
+     */
+    public List<HColumn<ByteBuffer, ByteBuffer>> getEntries( UUID entityId, DynamicComposite prefix, int count ) {
+        List<HColumn<ByteBuffer, ByteBuffer>> columns = entries.get( entityId );
+
+        if ( columns == null ) {
+            return null;
+        }
+
+        ByteBuffer prefixBytes = prefix.serialize();
+
+        List<HColumn<ByteBuffer, ByteBuffer>> results = new ArrayList<HColumn<ByteBuffer, ByteBuffer>>();
+
+        for ( HColumn<ByteBuffer, ByteBuffer> column : columns ) {
+            if ( results.size() >= count ) {
+                break;
+            }
+
+            if ( startsWith( column.getName(), prefixBytes ) ) {
+                results.add( column );
+            }
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Each serialized component carries its own length and end of component byte, so a byte prefix match is a match
+     * on whole components
+     */
+    private static boolean startsWith( ByteBuffer name, ByteBuffer prefix ) {
+        if ( name.remaining() < prefix.remaining() ) {
+            return false;
+        }
+
+        int nameStart = name.position();
+        int prefixStart = prefix.position();
+
+        for ( int i = 0; i < prefix.remaining(); i++ ) {
+            if ( name.get( nameStart + i ) != prefix.get( prefixStart + i ) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
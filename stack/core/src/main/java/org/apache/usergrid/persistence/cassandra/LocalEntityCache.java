@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.yammer.metrics.core.Gauge;
+
+import static org.apache.usergrid.persistence.Schema.PROPERTY_TYPE;
+import static org.apache.usergrid.utils.MetricsUtils.replaceGauge;
+
+
+/**
+ * In JVM {@link EntityCache} bounded by the approximate number of bytes held and by a time to live. The time to live
+ * bounds how stale an entry can be when it was mutated on another node, since invalidation is local to this JVM.
+ * <p/>
+ * When constructed as disabled every lookup is a miss and nothing is retained, so deployments can switch the cache off
+ * with configuration alone.
+ */
+public class LocalEntityCache implements EntityCache {
+
+    private static final Logger logger = LoggerFactory.getLogger( LocalEntityCache.class );
+
+    /** Rough per column overhead of the map entry, the name and the buffer */
+    private static final int COLUMN_OVERHEAD = 64;
+
+    private final Cache<EntityKey, Map<String, ByteBuffer>> cache;
+
+
+    /**
+     * @param enabled False to disable caching entirely
+     * @param maxBytes The approximate maximum number of bytes of column data to hold
+     * @param ttlSeconds The number of seconds an entry lives after it's been read from cassandra
+     */
+    public LocalEntityCache( boolean enabled, long maxBytes, long ttlSeconds ) {
+
+        if ( !enabled ) {
+            logger.info( "Entity cache is disabled" );
+            cache = null;
+            return;
+        }
+
+        logger.info( "Entity cache enabled with a max size of {} bytes and a ttl of {} seconds", maxBytes,
+                ttlSeconds );
+
+        cache = CacheBuilder.newBuilder().maximumWeight( maxBytes ).weigher( new ColumnWeigher() )
+                            .expireAfterWrite( ttlSeconds, TimeUnit.SECONDS ).recordStats().build();
+
+        replaceGauge( LocalEntityCache.class, "hits", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return cache.stats().hitCount();
+            }
+        } );
+
+        replaceGauge( LocalEntityCache.class, "misses", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return cache.stats().missCount();
+            }
+        } );
+
+        replaceGauge( LocalEntityCache.class, "evictions", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return cache.stats().evictionCount();
+            }
+        } );
+
+        replaceGauge( LocalEntityCache.class, "size", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return cache.size();
+            }
+        } );
+    }
+
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+
+    /** Get the statistics of this cache. Returns empty statistics if the cache is disabled */
+    public CacheStats getStats() {
+        if ( cache == null ) {
+            return new CacheStats( 0, 0, 0, 0, 0, 0 );
+        }
+
+        return cache.stats();
+    }
+
+
+    @Override
+    public Map<String, ByteBuffer> get( UUID applicationId, UUID entityId ) {
+        if ( cache == null ) {
+            return null;
+        }
+
+        return view( cache.getIfPresent( new EntityKey( applicationId, entityId ) ) );
+    }
+
+
+    @Override
+    public Map<UUID, Map<String, ByteBuffer>> getAll( UUID applicationId, Collection<UUID> entityIds ) {
+        if ( cache == null ) {
+            return Collections.emptyMap();
+        }
+
+        Map<UUID, Map<String, ByteBuffer>> results = new LinkedHashMap<UUID, Map<String, ByteBuffer>>();
+
+        for ( UUID entityId : entityIds ) {
+            Map<String, ByteBuffer> columns = view( cache.getIfPresent( new EntityKey( applicationId, entityId ) ) );
+
+            if ( columns != null ) {
+                results.put( entityId, columns );
+            }
+        }
+
+        return results;
+    }
+
+
+    @Override
+    public void put( UUID applicationId, UUID entityId, Map<String, ByteBuffer> columns ) {
+        // rows without a type are deleted or never existed, don't cache them since they may be created with this id
+        if ( cache == null || columns == null || !columns.containsKey( PROPERTY_TYPE ) ) {
+            return;
+        }
+
+        cache.put( new EntityKey( applicationId, entityId ), copy( columns ) );
+    }
+
+
+    @Override
+    public void invalidate( UUID applicationId, UUID entityId ) {
+        if ( cache == null ) {
+            return;
+        }
+
+        cache.invalidate( new EntityKey( applicationId, entityId ) );
+    }
+
+
+    /**
+     * Copy the columns into compact buffers. Buffers returned by thrift may be slices of a much larger frame we don't
+     * want to retain
+     */
+    private static Map<String, ByteBuffer> copy( Map<String, ByteBuffer> columns ) {
+        Map<String, ByteBuffer> copy = new LinkedHashMap<String, ByteBuffer>( columns.size() );
+
+        for ( Map.Entry<String, ByteBuffer> column : columns.entrySet() ) {
+            ByteBuffer value = column.getValue();
+
+            if ( value == null ) {
+                copy.put( column.getKey(), null );
+                continue;
+            }
+
+            ByteBuffer compact = ByteBuffer.allocate( value.remaining() );
+            compact.put( value.duplicate() );
+            compact.flip();
+
+            copy.put( column.getKey(), compact );
+        }
+
+        return Collections.unmodifiableMap( copy );
+    }
+
+
+    /** Return a view of the cached columns where each buffer has its own position so readers can't corrupt it */
+    private static Map<String, ByteBuffer> view( Map<String, ByteBuffer> columns ) {
+        if ( columns == null ) {
+            return null;
+        }
+
+        Map<String, ByteBuffer> view = new LinkedHashMap<String, ByteBuffer>( columns.size() );
+
+        for ( Map.Entry<String, ByteBuffer> column : columns.entrySet() ) {
+            ByteBuffer value = column.getValue();
+            view.put( column.getKey(), value == null ? null : value.duplicate() );
+        }
+
+        return view;
+    }
+
+
+    /** Weighs an entry by the approximate number of bytes it holds */
+    private static class ColumnWeigher implements Weigher<EntityKey, Map<String, ByteBuffer>> {
+
+        @Override
+        public int weigh( EntityKey key, Map<String, ByteBuffer> columns ) {
+            int weight = COLUMN_OVERHEAD;
+
+            for ( Map.Entry<String, ByteBuffer> column : columns.entrySet() ) {
+                weight += COLUMN_OVERHEAD + column.getKey().length() * 2;
+
+                if ( column.getValue() != null ) {
+                    weight += column.getValue().remaining();
+                }
+            }
+
+            return weight;
+        }
+    }
+
+
+    /** Key of an entity within an application */
+    private static class EntityKey {
+
+        private final UUID applicationId;
+        private final UUID entityId;
+
+
+        private EntityKey( UUID applicationId, UUID entityId ) {
+            this.applicationId = applicationId;
+            this.entityId = entityId;
+        }
+
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !( o instanceof EntityKey ) ) {
+                return false;
+            }
+
+            EntityKey other = ( EntityKey ) o;
+
+            return entityId.equals( other.entityId ) && ( applicationId == null ? other.applicationId == null :
+                                                          applicationId.equals( other.applicationId ) );
+        }
+
+
+        @Override
+        public int hashCode() {
+            int result = applicationId != null ? applicationId.hashCode() : 0;
+            result = 31 * result + entityId.hashCode();
+            return result;
+        }
+    }
+}
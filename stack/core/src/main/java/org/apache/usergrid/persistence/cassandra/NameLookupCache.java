@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.util.RatioGauge;
+
+
+/**
+ * Caches the ids that names of applications or organizations resolve to, including names that don't resolve to
+ * anything, so routing a request by name doesn't read cassandra each time. Names that weren't found are kept for a
+ * shorter time, as they're only correct until something is created with the name.
+ * <p/>
+ * Creating, renaming or deleting a named entity must invalidate its name. That only reaches the cache of this node,
+ * other nodes see the change once their entries expire.
+ */
+public class NameLookupCache {
+
+    private final Meter hits;
+    private final Meter negativeHits;
+    private final Meter misses;
+
+    private final Cache<String, Entry> ids;
+
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    /** Incremented on every invalidation, so lookups that started before one aren't cached */
+    private final AtomicLong generation = new AtomicLong();
+
+
+    /**
+     * @param scope The names cached, such as applications, used as the scope of the metrics
+     * @param ttlSeconds How long the id of a name is cached, 0 doesn't cache anything
+     * @param negativeTtlSeconds How long a name that wasn't found is cached, 0 doesn't cache names that weren't found
+     * @param maxSize The most names to cache
+     */
+    public NameLookupCache( String scope, long ttlSeconds, long negativeTtlSeconds, int maxSize ) {
+        ttlMillis = TimeUnit.SECONDS.toMillis( Math.max( 0, ttlSeconds ) );
+        negativeTtlMillis = TimeUnit.SECONDS.toMillis( Math.max( 0, negativeTtlSeconds ) );
+
+        long expireSeconds = Math.max( 1, Math.max( ttlSeconds, negativeTtlSeconds ) );
+        ids = CacheBuilder.newBuilder().maximumSize( ttlSeconds > 0 ? maxSize : 0 )
+                          .expireAfterWrite( expireSeconds, TimeUnit.SECONDS ).build();
+
+        hits = Metrics.newMeter( NameLookupCache.class, "hits", scope, "lookups", TimeUnit.SECONDS );
+        negativeHits = Metrics.newMeter( NameLookupCache.class, "negative_hits", scope, "lookups", TimeUnit.SECONDS );
+        misses = Metrics.newMeter( NameLookupCache.class, "misses", scope, "lookups", TimeUnit.SECONDS );
+
+        Metrics.newGauge( NameLookupCache.class, "hit_ratio", scope, new RatioGauge() {
+            @Override
+            protected double getNumerator() {
+                return hits.count() + negativeHits.count();
+            }
+
+
+            @Override
+            protected double getDenominator() {
+                return hits.count() + negativeHits.count() + misses.count();
+            }
+        } );
+
+        Metrics.newGauge( NameLookupCache.class, "size", scope, new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return ids.size();
+            }
+        } );
+    }
+
+
+    /**
+     * The id of the name, from the cache or else from the loader
+     *
+     * @param name The name, already normalized the way it's stored
+     * @param loader Reads the id of the name, or null if nothing has the name
+     *
+     * @return The id, or null if nothing has the name
+     */
+    public UUID lookup( String name, Callable<UUID> loader ) throws Exception {
+        Entry entry = ids.getIfPresent( name );
+
+        if ( ( entry != null ) && ( System.currentTimeMillis() >= entry.expires ) ) {
+            ids.invalidate( name );
+            entry = null;
+        }
+
+        if ( entry != null ) {
+            ( entry.id != null ? hits : negativeHits ).mark();
+            return entry.id;
+        }
+
+        misses.mark();
+
+        long readGeneration = generation.get();
+
+        UUID id = loader.call();
+
+        long ttl = ( id != null ) ? ttlMillis : negativeTtlMillis;
+        if ( ttl > 0 ) {
+            ids.put( name, new Entry( id, System.currentTimeMillis() + ttl ) );
+
+            // the name was invalidated while it was read, so what was read may already be wrong
+            if ( generation.get() != readGeneration ) {
+                ids.invalidate( name );
+            }
+        }
+
+        return id;
+    }
+
+
+    /** Drop the name, must be called when something is created with it, renamed from it or deleted */
+    public void invalidate( String name ) {
+        if ( name != null ) {
+            generation.incrementAndGet();
+            ids.invalidate( name );
+        }
+    }
+
+
+    private static final class Entry {
+
+        private final UUID id;
+        private final long expires;
+
+
+        private Entry( UUID id, long expires ) {
+            this.id = id;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Versions of the roles, groups and permissions of each application on this node. {@link EntityManagerImpl} bumps
+ * the version of an application whenever it mutates any of them, so anything computed from them can be cached with
+ * the version read before it was computed, and dropped once the version moves on.
+ * <p/>
+ * Applications are hashed onto a fixed number of slots so memory doesn't grow with the number of applications. Two
+ * applications sharing a slot only invalidate each other more often than needed.
+ */
+public class PermissionVersions {
+
+    public static final int DEFAULT_SLOTS = 1024;
+
+    private final AtomicLongArray versions;
+
+
+    public PermissionVersions() {
+        this( DEFAULT_SLOTS );
+    }
+
+
+    public PermissionVersions( int slots ) {
+        versions = new AtomicLongArray( Math.max( 1, slots ) );
+    }
+
+
+    /** The current version of the application, read before computing anything from its roles and permissions */
+    public long getVersion( UUID applicationId ) {
+        return versions.get( slot( applicationId ) );
+    }
+
+
+    /** Record that the roles, groups or permissions of the application have changed */
+    public void changed( UUID applicationId ) {
+        versions.incrementAndGet( slot( applicationId ) );
+    }
+
+
+    private int slot( UUID applicationId ) {
+        if ( applicationId == null ) {
+            return 0;
+        }
+
+        return ( applicationId.hashCode() & Integer.MAX_VALUE ) % versions.length();
+    }
+}
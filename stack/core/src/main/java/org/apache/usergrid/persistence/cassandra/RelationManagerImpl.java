@@ -53,7 +53,7 @@ import org.apache.usergrid.persistence.SimpleEntityRef;
 import org.apache.usergrid.persistence.SimpleRoleRef;
 import org.apache.usergrid.persistence.cassandra.IndexUpdate.IndexEntry;
 import org.apache.usergrid.persistence.cassandra.index.ConnectedIndexScanner;
-import org.apache.usergrid.persistence.cassandra.index.IndexBucketScanner;
+import org.apache.usergrid.persistence.cassandra.index.IndexBucketMergeScanner;
 import org.apache.usergrid.persistence.cassandra.index.IndexScanner;
 import org.apache.usergrid.persistence.cassandra.index.NoOpIndexScanner;
 import org.apache.usergrid.persistence.entities.Group;
@@ -218,9 +218,10 @@ public class RelationManagerImpl implements RelationManager {
 
         Entity indexedEntity = indexUpdate.getEntity();
 
-        String bucketId = indexBucketLocator
-                .getBucket( applicationId, IndexType.COLLECTION, indexedEntity.getUuid(), indexedEntity.getType(),
-                        indexUpdate.getEntryName() );
+        //locate the bucket the same way the collection is searched
+        String bucketId =
+                indexBucketLocator.getBucket( applicationId, IndexType.COLLECTION, indexedEntity.getUuid(),
+                        collectionName );
 
         // the root name without the bucket
         // entity_id,collection_name,prop_name,
@@ -1117,11 +1118,24 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
-    @Metered(group = "core", name = "RelationManager_batchStartIndexUpdate")
     public IndexUpdate batchStartIndexUpdate( Mutator<ByteBuffer> batch, Entity entity, String entryName,
                                               Object entryValue, UUID timestampUuid, boolean schemaHasProperty,
                                               boolean isMultiValue, boolean removeListEntry, boolean fulltextIndexed,
                                               boolean skipRead ) throws Exception {
+        return batchStartIndexUpdate( batch, entity, entryName, entryValue, timestampUuid, schemaHasProperty,
+                isMultiValue, removeListEntry, fulltextIndexed, skipRead, null );
+    }
+
+
+    /**
+     * Start an index update for the entry. The previous entries are taken from the snapshot when it contains the
+     * entity, otherwise they're read from cassandra
+     */
+    @Metered(group = "core", name = "RelationManager_batchStartIndexUpdate")
+    public IndexUpdate batchStartIndexUpdate( Mutator<ByteBuffer> batch, Entity entity, String entryName,
+                                              Object entryValue, UUID timestampUuid, boolean schemaHasProperty,
+                                              boolean isMultiValue, boolean removeListEntry, boolean fulltextIndexed,
+                                              boolean skipRead, IndexEntriesSnapshot snapshot ) throws Exception {
 
         long timestamp = getTimestampInMicros( timestampUuid );
 
@@ -1137,7 +1151,15 @@ public class RelationManagerImpl implements RelationManager {
 
             List<HColumn<ByteBuffer, ByteBuffer>> entries = null;
 
-            if ( isMultiValue && validIndexableValue( entryValue ) ) {
+            if ( snapshot != null && snapshot.contains( entity.getUuid() ) ) {
+                DynamicComposite prefix = isMultiValue && validIndexableValue( entryValue ) ?
+                                          new DynamicComposite( entryName, indexValueCode( entryValue ),
+                                                  toIndexableValue( entryValue ) ) :
+                                          new DynamicComposite( entryName );
+
+                entries = snapshot.getEntries( entity.getUuid(), prefix, INDEX_ENTRY_LIST_COUNT );
+            }
+            else if ( isMultiValue && validIndexableValue( entryValue ) ) {
                 entries = cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
                         entity.getUuid(),
                         new DynamicComposite( entryName, indexValueCode( entryValue ), toIndexableValue( entryValue ) ),
@@ -1247,10 +1269,18 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
-    @Metered(group = "core", name = "RelationManager_batchUpdatePropertyIndexes")
     public void batchUpdatePropertyIndexes( Mutator<ByteBuffer> batch, String propertyName, Object propertyValue,
                                             boolean entitySchemaHasProperty, boolean noRead, UUID timestampUuid )
             throws Exception {
+        batchUpdatePropertyIndexes( batch, propertyName, propertyValue, entitySchemaHasProperty, noRead, timestampUuid,
+                null );
+    }
+
+
+    @Metered(group = "core", name = "RelationManager_batchUpdatePropertyIndexes")
+    public void batchUpdatePropertyIndexes( Mutator<ByteBuffer> batch, String propertyName, Object propertyValue,
+                                            boolean entitySchemaHasProperty, boolean noRead, UUID timestampUuid,
+                                            IndexEntriesSnapshot snapshot ) throws Exception {
 
         Entity entity = getHeadEntity();
 
@@ -1274,7 +1304,7 @@ public class RelationManagerImpl implements RelationManager {
 
         IndexUpdate indexUpdate = batchStartIndexUpdate( batch, entity, propertyName, propertyValue, timestampUuid,
                 entitySchemaHasProperty, false, false,
-                getDefaultSchema().isPropertyFulltextIndexed( entity.getType(), propertyName ), noRead );
+                getDefaultSchema().isPropertyFulltextIndexed( entity.getType(), propertyName ), noRead, snapshot );
 
         // Update collections
 
@@ -1381,8 +1411,9 @@ public class RelationManagerImpl implements RelationManager {
         Object keyPrefix = key( indexKey, slice.getPropertyName() );
 
         IndexScanner scanner =
-                new IndexBucketScanner( cass, indexBucketLocator, ENTITY_INDEX, applicationId, IndexType.CONNECTION,
-                        keyPrefix, range[0], range[1], slice.isReversed(), pageSize, slice.hasCursor(), slice.getPropertyName() );
+                new IndexBucketMergeScanner( cass, indexBucketLocator, ENTITY_INDEX, applicationId,
+                        IndexType.CONNECTION, keyPrefix, range[0], range[1], slice.isReversed(), pageSize,
+                        slice.hasCursor(), slice.getPropertyName() );
 
         return scanner;
     }
@@ -1404,8 +1435,9 @@ public class RelationManagerImpl implements RelationManager {
         Object keyPrefix = key( indexKey, slice.getPropertyName() );
 
         IndexScanner scanner =
-                new IndexBucketScanner( cass, indexBucketLocator, ENTITY_INDEX, applicationId, IndexType.COLLECTION,
-                        keyPrefix, range[0], range[1], slice.isReversed(), pageSize, slice.hasCursor(), collectionName );
+                new IndexBucketMergeScanner( cass, indexBucketLocator, ENTITY_INDEX, applicationId,
+                        IndexType.COLLECTION, keyPrefix, range[0], range[1], slice.isReversed(), pageSize,
+                        slice.hasCursor(), collectionName );
 
         return scanner;
     }
@@ -65,7 +65,7 @@ public class SimpleIndexBucketLocatorImpl implements IndexBucketLocator {
 
 
     /** Get a token */
-    private static BigInteger initialToken( int size, int position ) {
+    static BigInteger initialToken( int size, int position ) {
         BigInteger decValue = MINIMUM;
         if ( position != 0 ) {
             decValue = MAXIMUM.divide( new BigInteger( "" + size ) ).multiply( new BigInteger( "" + position ) )
@@ -119,4 +119,17 @@ public class SimpleIndexBucketLocatorImpl implements IndexBucketLocator {
     public List<String> getBuckets( UUID applicationId, IndexType type, String... components ) {
         return bucketsString;
     }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.usergrid.persistence.IndexBucketLocator#checkEntityId(java.util.UUID,
+     * java.util.UUID)
+     */
+    @Override
+    public void checkEntityId( UUID applicationId, UUID entityId ) {
+        //every id maps to the same bucket forever
+    }
 }
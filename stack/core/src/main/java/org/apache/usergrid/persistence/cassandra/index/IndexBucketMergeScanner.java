@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra.index;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.usergrid.persistence.IndexBucketLocator;
+import org.apache.usergrid.persistence.IndexBucketLocator.IndexType;
+import org.apache.usergrid.persistence.cassandra.ApplicationCF;
+import org.apache.usergrid.persistence.cassandra.CassandraService;
+
+import com.yammer.metrics.annotation.Metered;
+
+import me.prettyprint.hector.api.beans.HColumn;
+
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
+
+
+/**
+ * Scans all buckets of an index, keeping a cursor into each bucket and merging the buckets with a heap instead of
+ * reading a full page from every bucket for each page. The first page reads a few
+ * columns from each bucket, after that a bucket is only read again once the merge has drained it, and the buckets that
+ * keep draining read more columns each time. A page therefore costs roughly a page of columns instead of a page per
+ * bucket. Buckets are always read with a single multiget, a drained bucket is read together with every bucket that is
+ * about to drain.
+ * <p/>
+ * Pages are returned with the same semantics as the page per bucket scanner this replaced, an inclusive start that the
+ * caller skips with skipFirst when resuming, so cursors stored before the change still resume where they left off.
+ */
+public class IndexBucketMergeScanner implements IndexScanner {
+
+    private final CassandraService cass;
+    private final IndexBucketLocator indexBucketLocator;
+    private final UUID applicationId;
+    private final Object keyPrefix;
+    private final ApplicationCF columnFamily;
+    private final Object start;
+    private final Object finish;
+    private final boolean reversed;
+    private final int pageSize;
+    private final String[] indexPath;
+    private final IndexType indexType;
+    private final boolean skipFirst;
+    private final Comparator<ByteBuffer> comparator;
+
+    /** Buckets ordered by the column at the head of each, only buckets with a head are in the heap */
+    private final PriorityQueue<BucketCursor> heap;
+
+    /** Buckets that have been drained by the merge but still have columns in cassandra */
+    private final List<BucketCursor> drained = new ArrayList<BucketCursor>();
+
+    /** True once the cursors have been created and the first columns of each bucket read */
+    private boolean started;
+
+    /** The name of the last column we merged, used to drop duplicates */
+    private ByteBuffer lastMerged;
+
+    /** Results from the last page load */
+    private Set<HColumn<ByteBuffer, ByteBuffer>> lastResults;
+
+    /** True if there may be more columns to merge */
+    private boolean hasMore = true;
+
+
+    public IndexBucketMergeScanner( CassandraService cass, IndexBucketLocator locator, ApplicationCF columnFamily,
+                                    UUID applicationId, IndexType indexType, Object keyPrefix, Object start,
+                                    Object finish, boolean reversed, int pageSize, boolean skipFirst,
+                                    String... indexPath ) {
+        this.cass = cass;
+        this.indexBucketLocator = locator;
+        this.applicationId = applicationId;
+        this.keyPrefix = keyPrefix;
+        this.columnFamily = columnFamily;
+        this.start = start;
+        this.finish = finish;
+        this.reversed = reversed;
+        this.skipFirst = skipFirst;
+
+        //the caller sizes its buffers with this
+        this.pageSize = pageSize + 1;
+        this.indexPath = indexPath;
+        this.indexType = indexType;
+        this.comparator = IndexMultiBucketSetLoader.getComparator( columnFamily, reversed );
+
+        this.heap = new PriorityQueue<BucketCursor>( 16, new Comparator<BucketCursor>() {
+            @Override
+            public int compare( BucketCursor first, BucketCursor second ) {
+                return comparator.compare( first.head.getName(), second.head.getName() );
+            }
+        } );
+    }
+
+
+    /* (non-Javadoc)
+     * @see org.apache.usergrid.persistence.cassandra.index.IndexScanner#reset()
+     */
+    @Override
+    public void reset() {
+        hasMore = true;
+        started = false;
+        lastMerged = null;
+        heap.clear();
+        drained.clear();
+    }
+
+
+    /**
+     * Merge the next page from the bucket cursors, reading from cassandra only the buckets the merge has drained.
+     * Return false if nothing was loaded, true otherwise
+     *
+     * @return True if the data could be loaded
+     */
+    public boolean load() throws Exception {
+
+        // nothing left to load
+        if ( !hasMore ) {
+            return false;
+        }
+
+        boolean skip = false;
+
+        if ( !started ) {
+            start();
+            started = true;
+
+            //the first column is the cursor value the caller has already seen
+            skip = skipFirst;
+        }
+
+        //one less than our page size, the last column is returned again as the first of the next page
+        int resultSize = pageSize - 1;
+
+        Set<HColumn<ByteBuffer, ByteBuffer>> results = new LinkedHashSet<HColumn<ByteBuffer, ByteBuffer>>( pageSize );
+
+        while ( results.size() < resultSize ) {
+
+            //a drained bucket may have the next column, we can't merge until we've read it
+            refill();
+
+            BucketCursor cursor = heap.poll();
+
+            if ( cursor == null ) {
+                break;
+            }
+
+            HColumn<ByteBuffer, ByteBuffer> column = cursor.head;
+
+            advance( cursor );
+
+            //the same column in more than one bucket, only return it once
+            if ( lastMerged != null && comparator.compare( lastMerged, column.getName() ) == 0 ) {
+                continue;
+            }
+
+            lastMerged = column.getName();
+
+            if ( skip ) {
+                skip = false;
+                continue;
+            }
+
+            results.add( column );
+        }
+
+        hasMore = !heap.isEmpty() || !drained.isEmpty();
+
+        lastResults = results;
+
+        return results.size() > 0;
+    }
+
+
+    /** Create a cursor for each bucket and read the first columns of all buckets in a single multiget */
+    private void start() throws Exception {
+        List<String> buckets = indexBucketLocator.getBuckets( applicationId, indexType, indexPath );
+
+        List<Object> rowKeys = new ArrayList<Object>( buckets.size() );
+
+        for ( String bucket : buckets ) {
+            rowKeys.add( key( keyPrefix, bucket ) );
+        }
+
+        //enough to fill a page if the columns are spread evenly, drained buckets read more as they're merged
+        int fetchSize = ( pageSize + 1 ) / Math.max( 1, rowKeys.size() ) + 1;
+
+        Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> results = multiGetColumns( rowKeys, start, fetchSize );
+
+        for ( Object rowKey : rowKeys ) {
+            BucketCursor cursor = new BucketCursor( rowKey, fetchSize );
+
+            cursor.fill( results.get( bytebuffer( rowKey ) ), fetchSize, null );
+
+            advance( cursor );
+        }
+    }
+
+
+    /**
+     * Read the next columns of every drained bucket, and of the buckets in the heap that are down to their head, in a
+     * single multiget. Put the drained buckets that have more back in the heap
+     */
+    private void refill() throws Exception {
+        if ( drained.isEmpty() ) {
+            return;
+        }
+
+        List<BucketCursor> group = new ArrayList<BucketCursor>( drained );
+        drained.clear();
+
+        int fetchSize = 0;
+
+        for ( BucketCursor cursor : group ) {
+            //adaptive, a bucket that keeps draining holds more of the results so read more of it each time
+            cursor.fetchSize = Math.min( cursor.fetchSize * 2, pageSize + 1 );
+            fetchSize = Math.max( fetchSize, cursor.fetchSize );
+        }
+
+        int drainedCount = group.size();
+
+        /*
+         * Read two more than the fetch size for the last merged column and the head, fill drops the columns each
+         * bucket has already read
+         */
+        int count = fetchSize + 2;
+
+        //buckets down to their head drain on their next column, read the ones the merge reaches first with this read
+        //rather than in a round trip of their own, as long as the read stays about a page
+        int limit = Math.max( drainedCount, pageSize / count );
+
+        if ( group.size() < limit ) {
+            List<BucketCursor> draining = new ArrayList<BucketCursor>();
+
+            for ( BucketCursor cursor : heap ) {
+                if ( cursor.buffer.isEmpty() && !cursor.exhausted ) {
+                    draining.add( cursor );
+                }
+            }
+
+            Collections.sort( draining, heap.comparator() );
+
+            group.addAll( draining.subList( 0, Math.min( draining.size(), limit - group.size() ) ) );
+        }
+
+        List<Object> rowKeys = new ArrayList<Object>( group.size() );
+
+        for ( BucketCursor cursor : group ) {
+            rowKeys.add( cursor.rowKey );
+        }
+
+        //every bucket in the group has read all of its columns up to the last merged column, and at most its head
+        //beyond it, so a slice from the last merged column serves all of them
+        Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> results =
+                multiGetColumns( rowKeys, lastMerged != null ? lastMerged : start, count );
+
+        for ( int i = 0; i < group.size(); i++ ) {
+            BucketCursor cursor = group.get( i );
+
+            cursor.fill( results.get( bytebuffer( cursor.rowKey ) ), count, cursor.last );
+
+            //the others are still in the heap at their head
+            if ( i < drainedCount ) {
+                advance( cursor );
+            }
+        }
+    }
+
+
+    /** Move the cursor to its next buffered column */
+    private void advance( BucketCursor cursor ) {
+        cursor.head = cursor.buffer.poll();
+
+        if ( cursor.head != null ) {
+            heap.add( cursor );
+        }
+        else if ( !cursor.exhausted ) {
+            drained.add( cursor );
+        }
+    }
+
+
+    /** Read the columns of the given bucket rows from the start column */
+    protected Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> multiGetColumns( List<Object> rowKeys,
+                                                                                       Object start, int count )
+            throws Exception {
+        return cass.multiGetColumns( cass.getApplicationKeyspace( applicationId ), columnFamily, rowKeys, start,
+                finish, count, reversed );
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Iterable#iterator()
+     */
+    @Override
+    public Iterator<Set<HColumn<ByteBuffer, ByteBuffer>>> iterator() {
+        return this;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+
+        // Our currently buffered results don't exist. Try to load them again if we may have more
+        if ( lastResults == null && hasMore ) {
+            try {
+                return load();
+            }
+            catch ( Exception e ) {
+                throw new RuntimeException( "Error loading next page of indexbucket scanner", e );
+            }
+        }
+
+        return false;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    @Metered(group = "core", name = "IndexBucketMergeScanner_load")
+    public Set<HColumn<ByteBuffer, ByteBuffer>> next() {
+        Set<HColumn<ByteBuffer, ByteBuffer>> returnVal = lastResults;
+
+        lastResults = null;
+
+        return returnVal;
+    }
+
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Iterator#remove()
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException( "You can't remove from a result set, only advance" );
+    }
+
+
+    /* (non-Javadoc)
+     * @see org.apache.usergrid.persistence.cassandra.index.IndexScanner#getPageSize()
+     */
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+
+    /** Position of the scan within a single bucket row */
+    private class BucketCursor {
+
+        private final Object rowKey;
+
+        /** Columns read from cassandra that haven't been merged yet */
+        private final ArrayDeque<HColumn<ByteBuffer, ByteBuffer>> buffer =
+                new ArrayDeque<HColumn<ByteBuffer, ByteBuffer>>();
+
+        /** The column this bucket contributes to the merge next */
+        private HColumn<ByteBuffer, ByteBuffer> head;
+
+        /** The name of the last column read from cassandra, the next read starts here */
+        private ByteBuffer last;
+
+        /** The number of columns to read the next time this bucket is drained */
+        private int fetchSize;
+
+        /** True when we've read the last column of the row */
+        private boolean exhausted;
+
+
+        private BucketCursor( Object rowKey, int fetchSize ) {
+            this.rowKey = rowKey;
+            this.fetchSize = fetchSize;
+        }
+
+
+        /**
+         * Buffer the columns we've read
+         *
+         * @param columns The columns read
+         * @param count The number of columns we asked for
+         * @param previous The last column read before, it and the columns before it are dropped if they're returned
+         */
+        private void fill( List<HColumn<ByteBuffer, ByteBuffer>> columns, int count, ByteBuffer previous ) {
+            if ( columns == null || columns.size() < count ) {
+                exhausted = true;
+            }
+
+            if ( columns == null || columns.isEmpty() ) {
+                return;
+            }
+
+            for ( HColumn<ByteBuffer, ByteBuffer> column : columns ) {
+                if ( previous != null && comparator.compare( column.getName(), previous ) <= 0 ) {
+                    continue;
+                }
+
+                buffer.add( column );
+            }
+
+            last = columns.get( columns.size() - 1 ).getName();
+        }
+    }
+}
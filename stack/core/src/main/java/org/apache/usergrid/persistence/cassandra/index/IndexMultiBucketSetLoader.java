@@ -56,8 +56,7 @@ public class IndexMultiBucketSetLoader {
                 cass.multiGetColumns( cass.getApplicationKeyspace( applicationId ), columnFamily, rowKeys, start,
                         finish, resultSize, reversed );
 
-        final Comparator<ByteBuffer> comparator = reversed ? new DynamicCompositeReverseComparator( columnFamily ) :
-                                                  new DynamicCompositeForwardComparator( columnFamily );
+        final Comparator<ByteBuffer> comparator = getComparator( columnFamily, reversed );
 
         TreeSet<HColumn<ByteBuffer, ByteBuffer>> resultsTree =
                 new TreeSet<HColumn<ByteBuffer, ByteBuffer>>( new Comparator<HColumn<ByteBuffer, ByteBuffer>>() {
@@ -86,6 +85,13 @@ public class IndexMultiBucketSetLoader {
     }
 
 
+    /** Get the comparator that orders column names of the column family the way a slice in this direction returns them */
+    static Comparator<ByteBuffer> getComparator( ApplicationCF columnFamily, boolean reversed ) {
+        return reversed ? new DynamicCompositeReverseComparator( columnFamily ) :
+               new DynamicCompositeForwardComparator( columnFamily );
+    }
+
+
     private static abstract class DynamicCompositeComparator implements Comparator<ByteBuffer> {
         @SuppressWarnings("rawtypes")
         protected final AbstractType dynamicComposite;
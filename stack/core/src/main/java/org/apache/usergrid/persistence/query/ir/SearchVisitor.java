@@ -182,15 +182,20 @@ public abstract class SearchVisitor implements NodeVisitor {
          */
         if ( orderByNode.hasSecondarySorts() ) {
 
+            boolean primaryOrdered = false;
+
             //only order by with no query, start scanning the first field
             if ( subResults == null ) {
                 QuerySlice firstFieldSlice = new QuerySlice( slice.getPropertyName(), -1 );
                 subResults =
                         new SliceIterator( slice, secondaryIndexScan( orderByNode, firstFieldSlice ), COLLECTION_PARSER );
+
+                //the scan applies the sort direction, so the candidates arrive in the order of the first field
+                primaryOrdered = true;
             }
 
             orderIterator = new OrderByIterator( slice, orderByNode.getSecondarySorts(), subResults, em,
-                    queryProcessor.getPageSizeHint( orderByNode ) );
+                    queryProcessor.getPageSizeHint( orderByNode ), primaryOrdered );
         }
 
         //we don't have multi field sorting, we can simply do intersection with a single scan range
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -39,19 +40,28 @@ import org.apache.usergrid.persistence.Query;
 import org.apache.usergrid.persistence.Query.SortPredicate;
 import org.apache.usergrid.persistence.cassandra.CursorCache;
 import org.apache.usergrid.persistence.query.ir.QuerySlice;
+import org.apache.usergrid.persistence.query.ir.result.SecondaryIndexSliceParser.SecondaryIndexColumn;
 
 import org.apache.commons.collections.comparators.ComparatorChain;
 
+import static org.apache.usergrid.persistence.cassandra.IndexUpdate.compareIndexedValues;
 import static org.apache.usergrid.persistence.cassandra.Serializers.*;
 
 /**
  * 1) Take a result set iterator as the child 2) Iterate only over candidates and create a cursor from the candidates
+ * <p/>
+ * Only the sort fields of the best page size candidates are kept. Candidate ids are loaded in multigets of up to
+ * {@link #LOAD_SIZE}, and when the candidates are a scan of the first sort field's index, scanning stops as soon as
+ * the indexed values are past the worst entry we're keeping.
  *
  * @author tnine
  */
 
 public class OrderByIterator extends MergeIterator {
 
+    /** The number of candidate ids to load the sort fields of in one multiget */
+    public static final int LOAD_SIZE = 1000;
+
     private static final String NAME_UUID = "uuid";
     private static final Logger logger = LoggerFactory.getLogger( OrderByIterator.class );
     private final QuerySlice slice;
@@ -59,20 +69,35 @@ public class OrderByIterator extends MergeIterator {
     private final ComparatorChain subSortCompare;
     private final List<String> secondaryFields;
     private final EntityManager em;
+    private final boolean primaryOrdered;
 
     //our last result from in memory sorting
     private SortedEntitySet entries;
 
+    //set once we stop scanning early, the remaining candidates can't be in any page
+    private boolean complete;
+
 
     /**
      * @param pageSize
      */
     public OrderByIterator( QuerySlice slice, List<Query.SortPredicate> secondary, ResultIterator candidates,
                             EntityManager em, int pageSize ) {
+        this( slice, secondary, candidates, em, pageSize, false );
+    }
+
+
+    /**
+     * @param primaryOrdered True if the candidates are a scan of the index of the slice's property, in the slice's
+     * order
+     */
+    public OrderByIterator( QuerySlice slice, List<Query.SortPredicate> secondary, ResultIterator candidates,
+                            EntityManager em, int pageSize, boolean primaryOrdered ) {
         super( pageSize );
         this.slice = slice;
         this.em = em;
         this.candidates = candidates;
+        this.primaryOrdered = primaryOrdered;
         this.subSortCompare = new ComparatorChain();
         this.secondaryFields = new ArrayList<String>( 1 + secondary.size() );
 
@@ -107,6 +132,12 @@ public class OrderByIterator extends MergeIterator {
 
         entries = new SortedEntitySet( subSortCompare, em, secondaryFields, pageSize, minEntryId );
 
+        if ( complete ) {
+            return entries.toIds();
+        }
+
+        ScanColumn lastScanned = null;
+
         /**
          *  keep looping through our peek iterator.  We need to inspect each forward page to ensure we have performed a
          *  seek to the end of our primary range.  Otherwise we need to keep aggregating. I.E  if the value is a boolean
@@ -119,11 +150,22 @@ public class OrderByIterator extends MergeIterator {
 
             for ( ScanColumn id : candidates.next() ) {
                 entries.add( id );
+                lastScanned = id;
+            }
+
+            if ( entries.getPendingCount() < LOAD_SIZE ) {
+                continue;
             }
 
             entries.load();
+
+            if ( primaryOrdered && entries.isPast( lastScanned, slice.isReversed() ) ) {
+                complete = true;
+                break;
+            }
         }
 
+        entries.load();
 
         return entries.toIds();
     }
@@ -154,6 +196,7 @@ public class OrderByIterator extends MergeIterator {
 
         private final int maxSize;
         private final Map<UUID, ScanColumn> cursorVal = new HashMap<UUID, ScanColumn>();
+        private final Map<UUID, ScanColumn> pending = new LinkedHashMap<UUID, ScanColumn>();
         private final EntityManager em;
         private final List<String> fields;
         private final Entity minEntity;
@@ -180,6 +223,11 @@ public class OrderByIterator extends MergeIterator {
                 return false;
             }
 
+            // we're full and it's no better than our worst, don't bother adding and removing it
+            if ( size() >= maxSize && comparator.compare( entity, last() ) >= 0 ) {
+                return false;
+            }
+
             boolean added = super.add( entity );
 
             while ( size() > maxSize ) {
@@ -195,7 +243,17 @@ public class OrderByIterator extends MergeIterator {
 
         /** add the id to be loaded, and the dynamiccomposite column that belongs with it */
         public void add( ScanColumn col ) {
-            cursorVal.put( col.getUUID(), col );
+            if ( cursorVal.containsKey( col.getUUID() ) ) {
+                return;
+            }
+
+            pending.put( col.getUUID(), col );
+        }
+
+
+        /** The number of ids added since the last load */
+        public int getPendingCount() {
+            return pending.size();
         }
 
 
@@ -218,16 +276,59 @@ public class OrderByIterator extends MergeIterator {
         }
 
 
+        /** Load the sort fields of the ids added since the last load, keeping only the ones that sort into our page */
         public void load() {
+            if ( pending.isEmpty() ) {
+                return;
+            }
+
             try {
-                for ( Entity e : em.getPartialEntities( cursorVal.keySet(), fields ) ) {
-                    add( e );
+                for ( Entity e : em.getPartialEntities( pending.keySet(), fields ) ) {
+                    ScanColumn col = pending.get( e.getUuid() );
+
+                    if ( col == null ) {
+                        continue;
+                    }
+
+                    //set before adding, adding may evict it or another entry
+                    cursorVal.put( e.getUuid(), col );
+
+                    if ( !add( e ) ) {
+                        cursorVal.remove( e.getUuid() );
+                    }
                 }
             }
             catch ( Exception e ) {
                 logger.error( "Unable to load partial entities", e );
                 throw new RuntimeException( e );
             }
+
+            pending.clear();
+        }
+
+
+        /**
+         * True if we're full and the scanned index value is past the first sort field of our worst entry, so no
+         * candidate scanned after it can sort into our page
+         *
+         * @param lastScanned The last column scanned from the index of the first sort field
+         * @param reversed True if the first sort field, and the index scan, are descending
+         */
+        public boolean isPast( ScanColumn lastScanned, boolean reversed ) {
+            if ( size() < maxSize || !pending.isEmpty() || !( lastScanned instanceof SecondaryIndexColumn ) ) {
+                return false;
+            }
+
+            ScanColumn worst = cursorVal.get( last().getUuid() );
+
+            if ( !( worst instanceof SecondaryIndexColumn ) ) {
+                return false;
+            }
+
+            int compare = compareIndexedValues( ( ( SecondaryIndexColumn ) lastScanned ).getValue(),
+                    ( ( SecondaryIndexColumn ) worst ).getValue() );
+
+            return ( reversed ? -compare : compare ) > 0;
         }
 
 
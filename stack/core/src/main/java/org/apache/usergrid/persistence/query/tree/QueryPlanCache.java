@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.tree;
+
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.tree.CommonTree;
+import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.exceptions.QueryTokenException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+
+/**
+ * Caches parsed query trees in two levels. The first is keyed by the exact ql, and holds the plan along with the
+ * literals already lexed from it, so a repeated query isn't even lexed. Otherwise the query is lexed, and every literal
+ * token is replaced with a placeholder of its type to build the key of the second level, so "a = 5" and "a = 6" share
+ * a plan. Either hit copies the cached tree, binding the request's literals in place of the cached ones, instead of
+ * running the parser.
+ */
+public class QueryPlanCache {
+
+    private final Timer parseTimer =
+            Metrics.newTimer( QueryPlanCache.class, "parse", TimeUnit.MICROSECONDS, TimeUnit.SECONDS );
+    private final Timer bindTimer =
+            Metrics.newTimer( QueryPlanCache.class, "bind", TimeUnit.MICROSECONDS, TimeUnit.SECONDS );
+    private final Counter exactHits = Metrics.newCounter( QueryPlanCache.class, "exact_hits" );
+    private final Counter hits = Metrics.newCounter( QueryPlanCache.class, "hits" );
+    private final Counter misses = Metrics.newCounter( QueryPlanCache.class, "misses" );
+
+    /** Tree node constructors, every node type takes the token it was parsed from */
+    private static final ConcurrentMap<Class<?>, Constructor<?>> CONSTRUCTORS =
+            new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+    /** Plans by the exact ql, with the literals lexed from it */
+    private final Cache<String, Bound> exact;
+
+    /** Plans by the shape of the ql */
+    private final Cache<String, Plan> plans;
+
+
+    /** @param maxSize The maximum number of plans to keep in each level, 0 parses every query */
+    public QueryPlanCache( int maxSize ) {
+        if ( maxSize > 0 ) {
+            exact = CacheBuilder.newBuilder().maximumSize( maxSize ).build();
+            plans = CacheBuilder.newBuilder().maximumSize( maxSize ).build();
+        }
+        else {
+            exact = null;
+            plans = null;
+        }
+    }
+
+
+    /** Parse the ql, or bind it to the plan of a query of the same shape */
+    public Query parse( String ql ) throws RecognitionException {
+        if ( plans == null ) {
+            return parseTimed( ql );
+        }
+
+        Bound bound = exact.getIfPresent( ql );
+
+        if ( bound != null ) {
+            exactHits.inc();
+            return bindTimed( bound.plan, bound.literals );
+        }
+
+        List<Token> literals = new ArrayList<Token>();
+        String key;
+
+        try {
+            key = key( ql, literals );
+        }
+        catch ( QueryTokenException e ) {
+            //let the parser report it the same way it always has
+            return parseTimed( ql );
+        }
+
+        Plan plan = plans.getIfPresent( key );
+
+        if ( plan != null ) {
+            hits.inc();
+            exact.put( ql, new Bound( plan, literals ) );
+            return bindTimed( plan, literals );
+        }
+
+        misses.inc();
+
+        Query query = parseTimed( ql );
+
+        plan = Plan.create( query, literals.size() );
+
+        if ( plan == null ) {
+            return query;
+        }
+
+        plans.put( key, plan );
+        exact.put( ql, new Bound( plan, literals ) );
+
+        return plan.bind( literals );
+    }
+
+
+    /** The number of query shapes currently cached */
+    public long size() {
+        return plans == null ? 0 : plans.size();
+    }
+
+
+    private Query bindTimed( Plan plan, List<Token> literals ) {
+        TimerContext timer = bindTimer.time();
+
+        try {
+            return plan.bind( literals );
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+
+    private Query parseTimed( String ql ) throws RecognitionException {
+        TimerContext timer = parseTimer.time();
+
+        try {
+            return parseQuery( ql );
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+
+    /** Run the parser */
+    static Query parseQuery( String ql ) throws RecognitionException {
+        ANTLRStringStream in = new ANTLRStringStream( ql );
+        QueryFilterLexer lexer = new QueryFilterLexer( in );
+        CommonTokenStream tokens = new CommonTokenStream( lexer );
+        QueryFilterParser parser = new QueryFilterParser( tokens );
+
+        return parser.ql().query;
+    }
+
+
+    /** Lex the ql into a key with every literal replaced by its type, collecting the literals in order */
+    static String key( String ql, List<Token> literals ) {
+        QueryFilterLexer lexer = new QueryFilterLexer( new ANTLRStringStream( ql ) );
+
+        StringBuilder key = new StringBuilder( ql.length() + 16 );
+
+        for ( Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken() ) {
+            if ( token.getChannel() == Token.HIDDEN_CHANNEL ) {
+                continue;
+            }
+
+            key.append( token.getType() );
+
+            if ( isLiteral( token ) ) {
+                literals.add( token );
+            }
+            else {
+                key.append( ':' ).append( token.getText() );
+            }
+
+            key.append( ' ' );
+        }
+
+        return key.toString();
+    }
+
+
+    private static boolean isLiteral( Token token ) {
+        switch ( token.getType() ) {
+            case QueryFilterLexer.BOOLEAN:
+            case QueryFilterLexer.LONG:
+            case QueryFilterLexer.FLOAT:
+            case QueryFilterLexer.STRING:
+            case QueryFilterLexer.UUID:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+
+    /** A plan and the literals of one exact ql */
+    private static final class Bound {
+
+        private final Plan plan;
+        private final List<Token> literals;
+
+
+        private Bound( Plan plan, List<Token> literals ) {
+            this.plan = plan;
+            this.literals = literals;
+        }
+    }
+
+
+    /** A parsed query that's never handed out, only copied */
+    private static final class Plan {
+
+        private final Query template;
+
+
+        private Plan( Query template ) {
+            this.template = template;
+        }
+
+
+        /**
+         * Create a plan for the query, null if its literals don't line up with the lexed ones, which happens when the
+         * parser recovered from an error
+         */
+        private static Plan create( Query query, int literalCount ) {
+            if ( countLiterals( query.getRootOperand() ) != literalCount ) {
+                return null;
+            }
+
+            return new Plan( query );
+        }
+
+
+        /** Copy the template, using the literals in the order they were lexed */
+        private Query bind( List<Token> literals ) {
+            Query query = new Query( template );
+
+            if ( template.getRootOperand() != null ) {
+                query.setRootOperand( ( Operand ) copy( template.getRootOperand(), literals.iterator() ) );
+            }
+
+            return query;
+        }
+
+
+        private static int countLiterals( CommonTree node ) {
+            if ( node == null ) {
+                return 0;
+            }
+
+            int count = isLiteral( node.getToken() ) ? 1 : 0;
+
+            for ( int i = 0; i < node.getChildCount(); i++ ) {
+                count += countLiterals( ( CommonTree ) node.getChild( i ) );
+            }
+
+            return count;
+        }
+
+
+        /** Copy the tree, children are visited in the same order their tokens were parsed */
+        private static CommonTree copy( CommonTree node, Iterator<Token> literals ) {
+            Token token = isLiteral( node.getToken() ) ? literals.next() : node.getToken();
+
+            CommonTree copy = newNode( node.getClass(), token );
+
+            for ( int i = 0; i < node.getChildCount(); i++ ) {
+                copy.addChild( copy( ( CommonTree ) node.getChild( i ), literals ) );
+            }
+
+            return copy;
+        }
+
+
+        private static CommonTree newNode( Class<?> type, Token token ) {
+            try {
+                Constructor<?> constructor = CONSTRUCTORS.get( type );
+
+                if ( constructor == null ) {
+                    //not every node's token constructor is public
+                    constructor = type.getDeclaredConstructor( Token.class );
+                    constructor.setAccessible( true );
+                    CONSTRUCTORS.put( type, constructor );
+                }
+
+                return ( CommonTree ) constructor.newInstance( token );
+            }
+            catch ( Exception e ) {
+                throw new IllegalStateException( "Unable to copy query node " + type.getName(), e );
+            }
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.utils;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+
+/**
+ * A compact binary encoding for the json values stored in entity properties and dictionaries. Every value is a one
+ * byte type tag followed by its payload: integers are zig-zag varints, uuids are their 16 bytes instead of a 36
+ * character string, and lists and maps are a varint count followed by their entries. Values are written straight from
+ * the java objects and read straight back into them, without a JsonNode tree in between.
+ * <p/>
+ * Encoded values start with a version byte. Smile always starts with its ":)\n" header, so columns written in either
+ * format can be told apart when they're read. Reading returns the same types as reading the value from Smile and
+ * normalizing it with {@link JsonUtils#normalizeJsonTree(Object)}.
+ */
+public class CompactValueUtils {
+
+    private static final Logger LOG = LoggerFactory.getLogger( CompactValueUtils.class );
+
+    /** The first byte of every value in this format */
+    public static final byte VERSION_1 = 0x01;
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    private static final byte UUID_VALUE = 6;
+    private static final byte BINARY = 7;
+    private static final byte LIST = 8;
+    private static final byte MAP = 9;
+
+    /** Deeper values are left to jackson, which also reports cycles */
+    private static final int MAX_DEPTH = 64;
+
+
+    /**
+     * Encode the value, null if it's null or holds anything other than strings, uuids, booleans, integers, floating
+     * point numbers, byte arrays, lists, arrays and maps with string keys
+     */
+    public static ByteBuffer toByteBuffer( Object obj ) {
+        if ( obj == null ) {
+            return null;
+        }
+
+        Output out = new Output();
+        out.write( VERSION_1 );
+
+        if ( !write( out, obj, 0 ) ) {
+            return null;
+        }
+
+        return ByteBuffer.wrap( out.buf, 0, out.size );
+    }
+
+
+    /** True if the bytes were written in this format */
+    public static boolean isCompact( ByteBuffer bytes ) {
+        return ( bytes != null ) && bytes.hasRemaining() && ( bytes.get( bytes.position() ) == VERSION_1 );
+    }
+
+
+    /** Decode the value, normalized the same way values read from Smile are */
+    public static Object fromByteBuffer( ByteBuffer bytes ) {
+        return decode( bytes, true );
+    }
+
+
+    /** Decode the value and convert it to the class, the same way values read from Smile into a class are */
+    public static Object fromByteBuffer( ByteBuffer bytes, Class<?> clazz ) {
+        if ( ( clazz == null ) || ( clazz == Object.class ) ) {
+            return fromByteBuffer( bytes );
+        }
+
+        Object obj = decode( bytes, false );
+
+        if ( ( obj != null ) && !clazz.isInstance( obj ) ) {
+            try {
+                obj = JsonUtils.mapper.convertValue( obj, clazz );
+            }
+            catch ( IllegalArgumentException e ) {
+                LOG.error( "Error converting compact value to " + clazz.getName(), e );
+                return null;
+            }
+        }
+
+        return JsonUtils.normalizeJsonTree( obj );
+    }
+
+
+    private static Object decode( ByteBuffer bytes, boolean normalize ) {
+        if ( !isCompact( bytes ) ) {
+            return null;
+        }
+
+        try {
+            Input in = new Input( bytes );
+            in.pos++;
+
+            return read( in, normalize, normalize );
+        }
+        catch ( RuntimeException e ) {
+            LOG.error( "Error parsing compact bytes", e );
+        }
+
+        return null;
+    }
+
+
+    private static boolean write( Output out, Object obj, int depth ) {
+        if ( depth > MAX_DEPTH ) {
+            return false;
+        }
+
+        if ( obj == null ) {
+            out.write( NULL );
+        }
+        else if ( obj instanceof String ) {
+            out.write( STRING );
+            out.writeString( ( String ) obj );
+        }
+        else if ( obj instanceof UUID ) {
+            out.write( UUID_VALUE );
+            out.writeLong( ( ( UUID ) obj ).getMostSignificantBits() );
+            out.writeLong( ( ( UUID ) obj ).getLeastSignificantBits() );
+        }
+        else if ( obj instanceof Boolean ) {
+            out.write( ( Boolean ) obj ? TRUE : FALSE );
+        }
+        else if ( ( obj instanceof Long ) || ( obj instanceof Integer ) || ( obj instanceof Short )
+                || ( obj instanceof Byte ) ) {
+            long l = ( ( Number ) obj ).longValue();
+            out.write( INT );
+            out.writeVarint( ( l << 1 ) ^ ( l >> 63 ) );
+        }
+        else if ( ( obj instanceof Double ) || ( obj instanceof Float ) ) {
+            out.write( DOUBLE );
+            out.writeLong( Double.doubleToLongBits( ( ( Number ) obj ).doubleValue() ) );
+        }
+        else if ( obj instanceof Map ) {
+            Map<?, ?> map = ( Map<?, ?> ) obj;
+            out.write( MAP );
+            out.writeVarint( map.size() );
+
+            for ( Map.Entry<?, ?> entry : map.entrySet() ) {
+                if ( !( entry.getKey() instanceof String ) ) {
+                    return false;
+                }
+
+                out.writeString( ( String ) entry.getKey() );
+
+                if ( !write( out, entry.getValue(), depth + 1 ) ) {
+                    return false;
+                }
+            }
+        }
+        else if ( obj instanceof Collection ) {
+            Collection<?> list = ( Collection<?> ) obj;
+            out.write( LIST );
+            out.writeVarint( list.size() );
+
+            for ( Object item : list ) {
+                if ( !write( out, item, depth + 1 ) ) {
+                    return false;
+                }
+            }
+        }
+        else if ( obj instanceof Object[] ) {
+            Object[] array = ( Object[] ) obj;
+            out.write( LIST );
+            out.writeVarint( array.length );
+
+            for ( Object item : array ) {
+                if ( !write( out, item, depth + 1 ) ) {
+                    return false;
+                }
+            }
+        }
+        else if ( obj instanceof byte[] ) {
+            out.write( BINARY );
+            out.writeBytes( ( byte[] ) obj );
+        }
+        else {
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Read a value. Uuids and integers are converted where normalizeJsonTree would convert them, and left as the
+     * strings and ints jackson reads everywhere else. It converts the children of the maps and lists it's called on,
+     * and only recurses into lists, so maps convert their own children but not their grandchildren.
+     *
+     * @param convert Convert this value
+     * @param recurse Convert the children of this value
+     */
+    private static Object read( Input in, boolean convert, boolean recurse ) {
+        byte tag = in.read();
+
+        switch ( tag ) {
+            case NULL:
+                return null;
+
+            case TRUE:
+                return Boolean.TRUE;
+
+            case FALSE:
+                return Boolean.FALSE;
+
+            case INT:
+                long n = in.readVarint();
+                long l = ( n >>> 1 ) ^ -( n & 1 );
+
+                if ( convert || ( l != ( int ) l ) ) {
+                    return l;
+                }
+
+                return ( int ) l;
+
+            case DOUBLE:
+                return Double.longBitsToDouble( in.readLong() );
+
+            case STRING:
+                String s = in.readString();
+
+                if ( convert ) {
+                    UUID converted = JsonUtils.tryConvertToUUID( s );
+
+                    if ( converted != null ) {
+                        return converted;
+                    }
+                }
+
+                return s;
+
+            case UUID_VALUE:
+                UUID uuid = new UUID( in.readLong(), in.readLong() );
+                return convert ? uuid : uuid.toString();
+
+            case BINARY:
+                return in.readBytes( in.readLength() );
+
+            case LIST:
+                int size = in.readLength();
+                List<Object> list = new ArrayList<Object>( size );
+
+                for ( int i = 0; i < size; i++ ) {
+                    list.add( read( in, recurse, recurse ) );
+                }
+
+                return list;
+
+            case MAP:
+                int entries = in.readLength();
+                Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+                for ( int i = 0; i < entries; i++ ) {
+                    String key = in.readString();
+                    map.put( key, read( in, recurse && !"name".equalsIgnoreCase( key ), false ) );
+                }
+
+                return map;
+
+            default:
+                throw new IllegalArgumentException( "Unknown type " + tag + " at " + ( in.pos - 1 ) );
+        }
+    }
+
+
+    private static final class Output {
+
+        private byte[] buf = new byte[64];
+        private int size;
+
+
+        private void ensure( int length ) {
+            if ( size + length > buf.length ) {
+                byte[] grown = new byte[Math.max( buf.length * 2, size + length )];
+                System.arraycopy( buf, 0, grown, 0, size );
+                buf = grown;
+            }
+        }
+
+
+        private void write( byte b ) {
+            ensure( 1 );
+            buf[size++] = b;
+        }
+
+
+        private void writeVarint( long v ) {
+            ensure( 10 );
+
+            while ( ( v & ~0x7FL ) != 0 ) {
+                buf[size++] = ( byte ) ( ( v & 0x7F ) | 0x80 );
+                v >>>= 7;
+            }
+
+            buf[size++] = ( byte ) v;
+        }
+
+
+        private void writeLong( long v ) {
+            ensure( 8 );
+
+            for ( int shift = 56; shift >= 0; shift -= 8 ) {
+                buf[size++] = ( byte ) ( v >>> shift );
+            }
+        }
+
+
+        private void writeBytes( byte[] bytes ) {
+            writeVarint( bytes.length );
+            ensure( bytes.length );
+            System.arraycopy( bytes, 0, buf, size, bytes.length );
+            size += bytes.length;
+        }
+
+
+        /** Write ascii strings a char at a time, and start over with the utf-8 bytes when a char isn't ascii */
+        private void writeString( String s ) {
+            int start = size;
+            int length = s.length();
+
+            writeVarint( length );
+            ensure( length );
+
+            for ( int i = 0; i < length; i++ ) {
+                char c = s.charAt( i );
+
+                if ( c >= 0x80 ) {
+                    size = start;
+                    writeBytes( s.getBytes( Charsets.UTF_8 ) );
+                    return;
+                }
+
+                buf[size++] = ( byte ) c;
+            }
+        }
+    }
+
+
+    private static final class Input {
+
+        private final byte[] buf;
+        private final int limit;
+        private int pos;
+
+
+        private Input( ByteBuffer bytes ) {
+            if ( bytes.hasArray() ) {
+                buf = bytes.array();
+                pos = bytes.arrayOffset() + bytes.position();
+                limit = pos + bytes.remaining();
+            }
+            else {
+                buf = new byte[bytes.remaining()];
+                bytes.duplicate().get( buf );
+                limit = buf.length;
+            }
+        }
+
+
+        private byte read() {
+            if ( pos >= limit ) {
+                throw new IllegalArgumentException( "Unexpected end of value" );
+            }
+
+            return buf[pos++];
+        }
+
+
+        private long readVarint() {
+            long v = 0;
+
+            for ( int shift = 0; shift < 64; shift += 7 ) {
+                byte b = read();
+                v |= ( long ) ( b & 0x7F ) << shift;
+
+                if ( ( b & 0x80 ) == 0 ) {
+                    return v;
+                }
+            }
+
+            throw new IllegalArgumentException( "Malformed varint at " + pos );
+        }
+
+
+        /** Read a length, which can't be longer than what's left since every entry takes at least a byte */
+        private int readLength() {
+            long length = readVarint();
+
+            if ( ( length < 0 ) || ( length > limit - pos ) ) {
+                throw new IllegalArgumentException( "Invalid length " + length + " at " + pos );
+            }
+
+            return ( int ) length;
+        }
+
+
+        private long readLong() {
+            long v = 0;
+
+            for ( int i = 0; i < 8; i++ ) {
+                v = ( v << 8 ) | ( read() & 0xFF );
+            }
+
+            return v;
+        }
+
+
+        private byte[] readBytes( int length ) {
+            byte[] bytes = new byte[length];
+            System.arraycopy( buf, pos, bytes, 0, length );
+            pos += length;
+            return bytes;
+        }
+
+
+        private String readString() {
+            int length = readLength();
+            String s = new String( buf, pos, length, Charsets.UTF_8 );
+            pos += length;
+            return s;
+        }
+    }
+}
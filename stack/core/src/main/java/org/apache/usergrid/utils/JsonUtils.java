@@ -165,7 +165,7 @@ public class JsonUtils {
     }
 
 
-    private static UUID tryConvertToUUID( Object o ) {
+    static UUID tryConvertToUUID( Object o ) {
         if ( o instanceof String ) {
             String s = ( String ) o;
             if ( s.length() == 36 ) {
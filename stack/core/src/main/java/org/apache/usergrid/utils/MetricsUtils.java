@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.utils;
+
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+
+public class MetricsUtils {
+
+    /**
+     * Register the gauge in place of any registered under the same name by an earlier instance. The registry returns
+     * an existing gauge with the same name, which would keep reporting the first instance created in this JVM
+     */
+    public static <T> Gauge<T> replaceGauge( Class<?> klass, String name, Gauge<T> gauge ) {
+        Metrics.defaultRegistry().removeMetric( klass, name );
+        return Metrics.newGauge( klass, name, gauge );
+    }
+}
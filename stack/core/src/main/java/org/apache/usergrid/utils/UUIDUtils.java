@@ -21,11 +21,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.fasterxml.uuid.EthernetAddress;
 import com.fasterxml.uuid.UUIDComparator;
 
 import static com.fasterxml.uuid.impl.UUIDUtil.BYTE_OFFSET_CLOCK_HI;
@@ -55,66 +53,68 @@ public class UUIDUtils {
     }
 
 
-    private static ReentrantLock tsLock = new ReentrantLock( true );
-
     public static final UUID MIN_TIME_UUID = UUID.fromString( "00000000-0000-1000-8000-000000000000" );
 
     public static final UUID MAX_TIME_UUID = UUID.fromString( "ffffffff-ffff-1fff-bfff-ffffffffffff" );
 
     public static final UUID ZERO_UUID = new UUID( 0, 0 );
 
-    private static long timestampMillisNow = System.currentTimeMillis();
+    /** One microsecond in the 100 nanosecond intervals of a time uuid */
+    private static final int MICROSECOND = 10;
+
+    /** The last time handed out by newTimeUUID(), in 100 nanosecond intervals since the epoch */
+    static final AtomicLong lastTimestamp = new AtomicLong( 0 );
 
-    private static AtomicInteger currentMicrosPoint = new AtomicInteger( 0 );
     private static AtomicInteger customMicrosPointer = new AtomicInteger( 0 );
 
 
     /**
      * Return the "next" UUID in micro second resolution. <b>WARNING</b>: this is designed to return the next unique
-     * timestamped UUID for this JVM. Depending on velocity of the call, this method may block internally to insure that
-     * "now" is kept in sync with the UUIDs being generated by this call.
+     * timestamped UUID for this JVM. Every call returns a timestamp at least one microsecond after the previous call,
+     * so no two UUIDs from this JVM share a timestamp.
      * <p/>
-     * In other words, we will intentionally burn CPU insuring that this method is not executed more than 10k -1 times
-     * per millisecond and guarantee that those microseconds held within are sequential.
+     * The timestamp is claimed with a compare and set instead of a lock. Once the 1000 microseconds of the clock's
+     * millisecond are used up callers yield until the clock moves on, keeping "now" in sync with the UUIDs generated by
+     * this call. If the clock is set back behind the last timestamp, the timestamps run ahead of it without waiting.
      * <p/>
      * If we did not do this, you would get <b>timestamp collision</b> even though the UUIDs will technically be
      * 'unique.'
      */
     public static java.util.UUID newTimeUUID() {
-        // get & inc counter, but roll on 1k (because we divide by 10 on retrieval)
-        // if count + currentMicro > 1k, block and roll
-        tsLock.lock();
-        long ts = System.currentTimeMillis();
-        if ( ts > timestampMillisNow ) {
-            timestampMillisNow = ts;
-            currentMicrosPoint.set( 0 );
-        }
-        int pointer = currentMicrosPoint.getAndIncrement();
-        try {
-            if ( pointer > 990 ) {
-                TimeUnit.MILLISECONDS.sleep( 1L );
+        while ( true ) {
+            long now = System.currentTimeMillis() * KCLOCK_MULTIPLIER_L;
+            long last = lastTimestamp.get();
+
+            //never go backwards, even if the clock does
+            long next = Math.max( now, last + MICROSECOND );
+
+            //this millisecond is used up, wait for the clock. If the clock was set back, run ahead of it instead
+            boolean sameMillis = last / KCLOCK_MULTIPLIER_L == now / KCLOCK_MULTIPLIER_L;
+            if ( sameMillis && ( next >= now + KCLOCK_MULTIPLIER_L ) ) {
+                Thread.yield();
+                continue;
+            }
+
+            if ( lastTimestamp.compareAndSet( last, next ) ) {
+                return newTimeUUID( next / KCLOCK_MULTIPLIER_L, ( int ) ( next % KCLOCK_MULTIPLIER_L ) );
             }
         }
-        catch ( Exception ex ) {
-            ex.printStackTrace();
-        }
-        finally {
-            tsLock.unlock();
-        }
-        return newTimeUUID( ts, MICROS[pointer] );
     }
 
 
     private static final long KCLOCK_OFFSET = 0x01b21dd213814000L;
     private static final long KCLOCK_MULTIPLIER_L = 10000L;
 
-    private static final Random CLOCK_SEQ_RANDOM = new Random();
-
-
-    // 14 bits of randomness
-    private static int getRandomClockSequence() {
-        return CLOCK_SEQ_RANDOM.nextInt() & 0x3FFF;
-    }
+    /**
+     * Random clock sequence and node for each thread. Sharing a Random, or the synchronized one in EthernetAddress,
+     * makes every thread creating uuids contend on it
+     */
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
 
 
     private static void setTimestamp( long timestamp, byte[] uuidBytes, int clockSeq, int timeOffset ) {
@@ -179,11 +179,16 @@ public class UUIDUtils {
             return newTimeUUID();
         }
 
+        // 48 bits of node and 14 bits of clock sequence from a single random long
+        long random = RANDOM.get().nextLong();
+
         byte[] uuidBytes = new byte[16];
-        // 47 bits of randomness
-        EthernetAddress eth = EthernetAddress.constructMulticastAddress();
-        eth.toByteArray( uuidBytes, 10 );
-        setTimestamp( ts, uuidBytes, getRandomClockSequence(), timeoffset );
+        // 47 bits of randomness, the same multicast address EthernetAddress.constructMulticastAddress() creates
+        for ( int i = 0; i < 6; i++ ) {
+            uuidBytes[10 + i] = ( byte ) ( random >>> ( 8 * i ) );
+        }
+        uuidBytes[10] |= 0x01;
+        setTimestamp( ts, uuidBytes, ( int ) ( random >>> 48 ) & 0x3FFF, timeoffset );
 
         return uuid( uuidBytes );
     }
@@ -195,16 +200,8 @@ public class UUIDUtils {
      * with the same timestamp, you will have non-unique temporal values stored in your UUID.
      */
     public static UUID newTimeUUID( long ts ) {
-        tsLock.lock();
-        int pointer = customMicrosPointer.getAndIncrement();
-        try {
-            if ( pointer > 990 ) {
-                customMicrosPointer.set( 0 );
-            }
-        }
-        finally {
-            tsLock.unlock();
-        }
+        //roll over at 1k without a lock, the mask keeps the pointer positive once the counter overflows
+        int pointer = ( customMicrosPointer.getAndIncrement() & Integer.MAX_VALUE ) % MICROS.length;
         return newTimeUUID( ts, MICROS[pointer] );
     }
 
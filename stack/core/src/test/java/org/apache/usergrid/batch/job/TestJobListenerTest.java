@@ -103,6 +103,12 @@ public class TestJobListenerTest {
         public java.util.UUID getTransactionId() {
             return null;
         }
+
+
+        @Override
+        public int getPartition() {
+            return 0;
+        }
     };
 
     @Test
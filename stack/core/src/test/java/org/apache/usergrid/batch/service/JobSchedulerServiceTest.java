@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.batch.service;
+
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+
+import static org.junit.Assert.assertArrayEquals;
+
+
+@Concurrent()
+public class JobSchedulerServiceTest {
+
+    @Test
+    public void partitionsDividedBetweenNodes() {
+        assertArrayEquals( new int[] { 0, 1, 2, 3 }, JobSchedulerService.getOwnedPartitions( 4, 1, 0 ) );
+
+        assertArrayEquals( new int[] { 0, 2, 4 }, JobSchedulerService.getOwnedPartitions( 5, 2, 0 ) );
+        assertArrayEquals( new int[] { 1, 3 }, JobSchedulerService.getOwnedPartitions( 5, 2, 1 ) );
+
+        // more nodes than partitions leaves some nodes without any
+        assertArrayEquals( new int[] { 1 }, JobSchedulerService.getOwnedPartitions( 2, 3, 1 ) );
+        assertArrayEquals( new int[] { }, JobSchedulerService.getOwnedPartitions( 2, 3, 2 ) );
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.batch.service;
+
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class SchedulerServiceImplTest {
+
+    @Test
+    public void partitionsById() {
+        SchedulerServiceImpl scheduler = new SchedulerServiceImpl();
+        UUID jobDataId = UUID.randomUUID();
+
+        assertEquals( 0, scheduler.getPartition( jobDataId ) );
+
+        scheduler.setPartitions( 8 );
+
+        int partition = scheduler.getPartition( jobDataId );
+        assertEquals( partition, scheduler.getPartition( jobDataId ) );
+
+        boolean[] used = new boolean[8];
+
+        for ( int i = 0; i < 1000; i++ ) {
+            int p = scheduler.getPartition( UUID.randomUUID() );
+
+            assertTrue( p >= 0 && p < 8 );
+            used[p] = true;
+        }
+
+        for ( boolean u : used ) {
+            assertTrue( u );
+        }
+    }
+
+
+    @Test
+    public void partitionQueues() {
+        SchedulerServiceImpl scheduler = new SchedulerServiceImpl();
+        scheduler.setJobQueueName( "/jobs" );
+        scheduler.setPartitions( 0 );
+
+        assertEquals( 1, scheduler.getPartitions() );
+
+        // the first partition is the queue jobs were scheduled to before there were partitions
+        assertEquals( "/jobs", scheduler.getJobQueue( 0 ) );
+        assertEquals( "/jobs/2", scheduler.getJobQueue( 2 ) );
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.count;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.count.common.Count;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class CassandraCounterStoreTest {
+
+    @Test
+    public void combinesAcrossBatches() {
+        MemoryStore store = new MemoryStore( TimeUnit.HOURS.toMillis( 1 ) );
+
+        for ( int i = 0; i < 100; i++ ) {
+            store.save( Arrays.<Count>asList( new Count( "Counters", "row1", "hits", 1 ),
+                    new Count( "Counters", "row1", "misses", 2 ), new Count( "Counters", "row2", "hits", 3 ) ) );
+        }
+
+        assertEquals( 0, store.batches.size() );
+
+        store.flush();
+
+        assertEquals( 1, store.batches.size() );
+        assertEquals( 3, store.batches.get( 0 ).size() );
+
+        assertEquals( 100, store.total( "row1", "hits" ) );
+        assertEquals( 200, store.total( "row1", "misses" ) );
+        assertEquals( 300, store.total( "row2", "hits" ) );
+
+        //nothing new, nothing written
+        store.flush();
+
+        assertEquals( 1, store.batches.size() );
+    }
+
+
+    @Test
+    public void cancelledIncrementsSkipped() {
+        MemoryStore store = new MemoryStore( TimeUnit.HOURS.toMillis( 1 ) );
+
+        store.save( new Count( "Counters", "row1", "hits", 5 ) );
+        store.save( new Count( "Counters", "row1", "hits", -5 ) );
+        store.save( new Count( "Counters", "row1", "misses", 1 ) );
+
+        store.flush();
+
+        assertEquals( 1, store.batches.get( 0 ).size() );
+        assertEquals( 1, store.total( "row1", "misses" ) );
+    }
+
+
+    @Test
+    public void noWindowWritesImmediately() {
+        MemoryStore store = new MemoryStore( 0 );
+
+        store.save( Arrays.<Count>asList( new Count( "Counters", "row1", "hits", 1 ),
+                new Count( "Counters", "row1", "hits", 1 ) ) );
+
+        assertEquals( 1, store.batches.size() );
+        assertEquals( 1, store.batches.get( 0 ).size() );
+        assertEquals( 2, store.total( "row1", "hits" ) );
+    }
+
+
+    @Test
+    public void windowCloses() throws Exception {
+        MemoryStore store = new MemoryStore( 50 );
+
+        store.save( new Count( "Counters", "row1", "hits", 1 ) );
+        store.save( new Count( "Counters", "row1", "hits", 1 ) );
+
+        for ( int i = 0; i < 50 && store.total( "row1", "hits" ) == 0; i++ ) {
+            Thread.sleep( 100 );
+        }
+
+        assertEquals( 2, store.total( "row1", "hits" ) );
+        store.shutdown();
+    }
+
+
+    @Test
+    public void shutdownWritesWindow() {
+        MemoryStore store = new MemoryStore( TimeUnit.HOURS.toMillis( 1 ) );
+
+        store.save( new Count( "Counters", "row1", "hits", 1 ) );
+        store.shutdown();
+
+        assertEquals( 1, store.total( "row1", "hits" ) );
+
+        //written straight through once shut down
+        store.save( new Count( "Counters", "row1", "hits", 1 ) );
+
+        assertEquals( 2, store.total( "row1", "hits" ) );
+        assertTrue( store.getCompactionRatio() >= 1 );
+    }
+
+
+    /** Keeps the written batches instead of sending them to cassandra */
+    private static class MemoryStore extends CassandraCounterStore {
+
+        private final List<Collection<Count>> batches = new ArrayList<Collection<Count>>();
+
+
+        private MemoryStore( long windowMillis ) {
+            super( null, windowMillis );
+        }
+
+
+        @Override
+        protected synchronized void execute( Collection<Count> counts ) {
+            batches.add( counts );
+        }
+
+
+        private synchronized long total( String row, String column ) {
+            long total = 0;
+
+            for ( Collection<Count> batch : batches ) {
+                for ( Count count : batch ) {
+                    if ( row.equals( count.getKeyName() ) && column.equals( count.getColumnName() ) ) {
+                        total += count.getValue();
+                    }
+                }
+            }
+
+            return total;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.count;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.count.common.Count;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class StripedBatcherTest {
+
+    @Test
+    public void aggregatesInPlace() {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+        StripedBatcher batcher = batcher( submitter, 100, 1000 );
+
+        for ( int i = 0; i < 10; i++ ) {
+            batcher.add( new Count( "Counter", "k1", "counter1", 1 ) );
+            batcher.add( new Count( "Counter", "k1", "counter2", 2 ) );
+        }
+
+        batcher.flush();
+
+        assertEquals( 1, batcher.getBatchSubmissionCount() );
+        assertEquals( 20, batcher.getOpCount() );
+        assertEquals( 10L, submitter.totals().get( "counter1" ).longValue() );
+        assertEquals( 20L, submitter.totals().get( "counter2" ).longValue() );
+
+        //nothing left to flush
+        batcher.flush();
+
+        assertEquals( 1, batcher.getBatchSubmissionCount() );
+        batcher.shutdown();
+    }
+
+
+    @Test
+    public void concurrentAdds() throws Exception {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+        final StripedBatcher batcher = batcher( submitter, 3, 1000 );
+
+        ExecutorService exec = Executors.newFixedThreadPool( 8 );
+        List<Future<Void>> jobs = new ArrayList<Future<Void>>();
+
+        for ( int x = 0; x < 8; x++ ) {
+            jobs.add( exec.submit( new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for ( int y = 0; y < 10000; y++ ) {
+                        batcher.add( new Count( "Counter", "k1", "counter" + ( y % 5 ), 1 ) );
+                    }
+                    return null;
+                }
+            } ) );
+        }
+
+        for ( Future<Void> job : jobs ) {
+            job.get();
+        }
+
+        exec.shutdown();
+        batcher.shutdown();
+
+        //flushes during the adds split the totals, but none are lost
+        Map<String, Long> totals = submitter.totals();
+
+        assertEquals( 5, totals.size() );
+
+        for ( Long total : totals.values() ) {
+            assertEquals( 16000L, total.longValue() );
+        }
+    }
+
+
+    @Test
+    public void flushesWhenFull() throws Exception {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+        StripedBatcher batcher = batcher( submitter, 4, 1000 );
+
+        for ( int i = 0; i < 4; i++ ) {
+            batcher.add( new Count( "Counter", "k1", "counter" + i, 1 ) );
+        }
+
+        //the flush thread picks up the request without waiting for the interval
+        for ( int i = 0; i < 50 && batcher.getBatchSubmissionCount() == 0; i++ ) {
+            Thread.sleep( 100 );
+        }
+
+        assertEquals( 1, batcher.getBatchSubmissionCount() );
+        assertEquals( 4, submitter.totals().size() );
+        batcher.shutdown();
+    }
+
+
+    @Test
+    public void dropsWhenBacklogged() {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+        StripedBatcher batcher = batcher( submitter, 1000, 10 );
+
+        for ( int i = 0; i < 20; i++ ) {
+            batcher.add( new Count( "Counter", "k1", "counter" + i, 1 ) );
+        }
+
+        //existing counters still aggregate
+        batcher.add( new Count( "Counter", "k1", "counter0", 1 ) );
+
+        batcher.shutdown();
+
+        Map<String, Long> totals = submitter.totals();
+
+        assertEquals( 10, totals.size() );
+        assertEquals( 2L, totals.get( "counter0" ).longValue() );
+    }
+
+
+    @Test
+    public void serialWhenBatchSizeOne() {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+        StripedBatcher batcher = batcher( submitter, 1, 1000 );
+
+        batcher.add( new Count( "Counter", "k1", "counter1", 1 ) );
+
+        assertEquals( 1, batcher.getBatchSubmissionCount() );
+        assertEquals( 1L, submitter.totals().get( "counter1" ).longValue() );
+        batcher.shutdown();
+    }
+
+
+    @Test
+    public void serialDuringConcurrentFlushes() throws Exception {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+        final StripedBatcher batcher = batcher( submitter, 1, 1000 );
+
+        Thread flusher = new Thread() {
+            @Override
+            public void run() {
+                while ( !isInterrupted() ) {
+                    batcher.flush();
+                }
+            }
+        };
+        flusher.start();
+
+        try {
+            //every count is written by the time add returns, never by the flush
+            for ( int i = 1; i <= 1000; i++ ) {
+                batcher.add( new Count( "Counter", "k1", "counter1", 1 ) );
+                assertEquals( i, submitter.totals().get( "counter1" ).longValue() );
+            }
+        }
+        finally {
+            flusher.interrupt();
+            flusher.join();
+        }
+
+        batcher.shutdown();
+    }
+
+
+    @Test
+    public void pendingFlushedWhenSetToSerial() {
+        CapturingSubmitter submitter = new CapturingSubmitter();
+        StripedBatcher batcher = batcher( submitter, 1000, 1000 );
+
+        batcher.add( new Count( "Counter", "k1", "counter1", 1 ) );
+
+        assertTrue( submitter.totals().isEmpty() );
+
+        batcher.setBatchSize( 1 );
+
+        assertEquals( 1L, submitter.totals().get( "counter1" ).longValue() );
+        batcher.shutdown();
+    }
+
+
+    @Test
+    public void failedSubmissionsNotCounted() {
+        BatchSubmitter failing = new CapturingSubmitter() {
+            @Override
+            public synchronized Future<?> submit( Collection<Count> counts ) {
+                throw new RuntimeException( "Unable to write" );
+            }
+        };
+        StripedBatcher batcher = batcher( failing, 1, 1000 );
+
+        batcher.add( new Count( "Counter", "k1", "counter1", 1 ) );
+
+        assertEquals( 0, batcher.getBatchSubmissionCount() );
+        batcher.shutdown();
+    }
+
+
+    private static StripedBatcher batcher( BatchSubmitter submitter, int batchSize, int maxPending ) {
+        StripedBatcher batcher = new StripedBatcher( 4 );
+        batcher.setBatchSubmitter( submitter );
+        batcher.setBatchSize( batchSize );
+        batcher.setMaxPending( maxPending );
+        batcher.setFlushInterval( TimeUnit.HOURS.toSeconds( 1 ) );
+        return batcher;
+    }
+
+
+    /** Keeps every submitted count */
+    private static class CapturingSubmitter implements BatchSubmitter {
+
+        private final List<Count> submitted = new ArrayList<Count>();
+
+
+        @Override
+        public synchronized Future<?> submit( Collection<Count> counts ) {
+            submitted.addAll( counts );
+            return null;
+        }
+
+
+        /** The submitted totals by column name */
+        private synchronized Map<String, Long> totals() {
+            Map<String, Long> totals = new HashMap<String, Long>();
+
+            for ( Count count : submitted ) {
+                String name = ( String ) count.getColumnName();
+                Long total = totals.get( name );
+                totals.put( name, ( total == null ? 0 : total ) + count.getValue() );
+            }
+
+            return totals;
+        }
+
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
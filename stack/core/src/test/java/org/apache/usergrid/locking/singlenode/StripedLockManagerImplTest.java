@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.locking.singlenode;
+
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.apache.usergrid.locking.Lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class StripedLockManagerImplTest {
+
+    private StripedLockManagerImpl manager;
+
+    private ExecutorService pool;
+
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new StripedLockManagerImpl( 64, false );
+        pool = Executors.newFixedThreadPool( 1 );
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+
+    @Test
+    public void roundsStripes() {
+        assertEquals( 64, manager.getStripes() );
+        assertEquals( 128, new StripedLockManagerImpl( 100, true ).getStripes() );
+        assertEquals( 1, new StripedLockManagerImpl( 0, false ).getStripes() );
+    }
+
+
+    @Test
+    public void samePathSameLock() {
+        UUID application = UUID.randomUUID();
+        UUID entity = UUID.randomUUID();
+
+        assertSame( manager.createLock( application, entity.toString() ),
+                manager.createLock( application, entity.toString() ) );
+
+        // the path is hashed as if it had been joined
+        assertSame( manager.createLock( application, "users", "username" ),
+                manager.createLock( application, "users/username" ) );
+    }
+
+
+    @Test
+    public void spreadsPaths() {
+        boolean[] used = new boolean[manager.getStripes()];
+        UUID application = UUID.randomUUID();
+
+        for ( int i = 0; i < 10000; i++ ) {
+            used[manager.stripe( application, UUID.randomUUID().toString() )] = true;
+        }
+
+        for ( boolean u : used ) {
+            assertTrue( u );
+        }
+    }
+
+
+    @Test
+    public void reentrant() throws Exception {
+        final UUID application = UUID.randomUUID();
+        final UUID entity = UUID.randomUUID();
+
+        Lock lock = manager.createLock( application, entity.toString() );
+        lock.lock();
+        lock.lock();
+
+        assertFalse( lockInDifferentThread( application, entity ) );
+
+        lock.unlock();
+
+        assertFalse( lockInDifferentThread( application, entity ) );
+
+        lock.unlock();
+
+        assertTrue( lockInDifferentThread( application, entity ) );
+    }
+
+
+    /** Try to acquire a lock in a different thread */
+    private boolean lockInDifferentThread( final UUID application, final UUID entity ) throws Exception {
+        return pool.submit( new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                Lock lock = manager.createLock( application, entity.toString() );
+
+                boolean locked = lock.tryLock( 0, TimeUnit.MILLISECONDS );
+
+                if ( locked ) {
+                    lock.unlock();
+                }
+
+                return locked;
+            }
+        } ).get( 2, TimeUnit.SECONDS );
+    }
+}
@@ -17,7 +17,9 @@
 package org.apache.usergrid.mq;
 
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -25,7 +27,12 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.usergrid.AbstractCoreIT;
+import org.apache.usergrid.CoreITSuite;
 import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.locking.LockManager;
+import org.apache.usergrid.mq.cassandra.QueueFanout;
+import org.apache.usergrid.mq.cassandra.QueueManagerFactoryImpl;
+import org.apache.usergrid.persistence.cassandra.CounterUtils;
 import org.apache.usergrid.utils.JsonUtils;
 
 import static org.junit.Assert.assertEquals;
@@ -276,4 +283,44 @@ public class MessagesIT extends AbstractCoreIT {
         assertFalse( "Both transactions have been removed", qm.hasOutstandingTransactions( queuePath, null ) );
         assertFalse( "Both messages and transactions have been returned", qm.hasPendingReads( queuePath, null ) );
     }
+
+
+    @Test
+    public void testResumePendingFanout() throws Exception {
+        // an asynchronous fan out that never runs, like a node that stopped after its posts returned
+        QueueFanout stopped = new QueueFanout( 1, 1, 0, 0 ) {
+            @Override
+            public void submit( Runnable fanout ) {
+            }
+        };
+
+        QueueManagerFactoryImpl qmf = new QueueManagerFactoryImpl( setup.getCassSvc(),
+                CoreITSuite.cassandraResource.getBean( CounterUtils.class ),
+                CoreITSuite.cassandraResource.getBean( LockManager.class ), 5000, stopped );
+
+        QueueManager qm = qmf.getQueueManager( app.getId() );
+        qm.subscribeToQueue( "/pending/", "/pending/subscriber/" );
+
+        // more messages than one page of pending marks
+        List<Message> messages = new ArrayList<Message>();
+
+        for ( int i = 0; i < 1100; i++ ) {
+            Message message = new Message();
+            message.setStringProperty( "foo", "bar" + i );
+            messages.add( message );
+        }
+
+        qm.postToQueue( "/pending/", messages );
+
+        // resumed through the persisted list of applications, by a factory that didn't post them
+        QueueManagerFactoryImpl sweeper = new QueueManagerFactoryImpl( setup.getCassSvc(),
+                CoreITSuite.cassandraResource.getBean( CounterUtils.class ),
+                CoreITSuite.cassandraResource.getBean( LockManager.class ), 5000 );
+
+        assertEquals( 1100, sweeper.resumePendingFanout( 0 ) );
+        assertEquals( 0, sweeper.resumePendingFanout( 0 ) );
+
+        Map<String, Long> counters = qm.getQueueCounters( "/" );
+        assertEquals( new Long( 1100 ), counters.get( "/pending/subscriber/" ) );
+    }
 }
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra;
+
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class QueueFanoutTest {
+
+    @Test
+    public void cachesSubscribers() {
+        QueueFanout fanout = new QueueFanout( 0, 0, 60, 0 );
+        UUID applicationId = UUIDUtils.newTimeUUID();
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals( Arrays.asList( "/sub" ), fanout.getSubscribers( applicationId, "/pub", loader ) );
+        assertEquals( Arrays.asList( "/sub" ), fanout.getSubscribers( applicationId, "/pub", loader ) );
+        assertEquals( 1, loader.loads.get() );
+
+        //another application's queue with the same path isn't shared
+        fanout.getSubscribers( UUIDUtils.newTimeUUID(), "/pub", loader );
+        assertEquals( 2, loader.loads.get() );
+
+        fanout.invalidateSubscribers( applicationId, "/pub" );
+        fanout.getSubscribers( applicationId, "/pub", loader );
+        assertEquals( 3, loader.loads.get() );
+    }
+
+
+    @Test
+    public void uncachedSubscribers() {
+        QueueFanout fanout = new QueueFanout( 0, 0, 0, 0 );
+        UUID applicationId = UUIDUtils.newTimeUUID();
+        CountingLoader loader = new CountingLoader();
+
+        fanout.getSubscribers( applicationId, "/pub", loader );
+        fanout.getSubscribers( applicationId, "/pub", loader );
+        assertEquals( 2, loader.loads.get() );
+    }
+
+
+    @Test
+    public void synchronous() {
+        QueueFanout fanout = new QueueFanout( 0, 0, 0, 0 );
+        final AtomicReference<Thread> ran = new AtomicReference<Thread>();
+
+        fanout.submit( new Runnable() {
+            @Override
+            public void run() {
+                ran.set( Thread.currentThread() );
+            }
+        } );
+
+        assertFalse( fanout.isAsync() );
+        assertSame( Thread.currentThread(), ran.get() );
+        assertEquals( 0, fanout.getLag() );
+    }
+
+
+    @Test
+    public void asynchronous() throws Exception {
+        QueueFanout fanout = new QueueFanout( 1, 10, 0, 0 );
+        final AtomicReference<Thread> ran = new AtomicReference<Thread>();
+        final CountDownLatch done = new CountDownLatch( 1 );
+
+        try {
+            fanout.submit( new Runnable() {
+                @Override
+                public void run() {
+                    ran.set( Thread.currentThread() );
+                    done.countDown();
+                }
+            } );
+
+            assertTrue( fanout.isAsync() );
+            assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+            assertNotSame( Thread.currentThread(), ran.get() );
+        }
+        finally {
+            fanout.shutdown();
+        }
+
+        assertEquals( 0, fanout.getLag() );
+    }
+
+
+    @Test
+    public void saturatedRunsOnCaller() throws Exception {
+        QueueFanout fanout = new QueueFanout( 1, 1, 0, 0 );
+        final CountDownLatch blocked = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicReference<Thread> ran = new AtomicReference<Thread>();
+
+        try {
+            //occupy the only thread
+            fanout.submit( new Runnable() {
+                @Override
+                public void run() {
+                    blocked.countDown();
+                    try {
+                        release.await( 10, TimeUnit.SECONDS );
+                    }
+                    catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+
+            assertTrue( blocked.await( 10, TimeUnit.SECONDS ) );
+
+            //fill the only pending slot, then the next fan out runs on this thread
+            fanout.submit( new Runnable() {
+                @Override
+                public void run() {
+                }
+            } );
+
+            Thread.sleep( 5 );
+            assertTrue( fanout.getLag() > 0 );
+
+            fanout.submit( new Runnable() {
+                @Override
+                public void run() {
+                    ran.set( Thread.currentThread() );
+                }
+            } );
+
+            assertSame( Thread.currentThread(), ran.get() );
+        }
+        finally {
+            release.countDown();
+            fanout.shutdown();
+        }
+    }
+
+
+    @Test
+    public void failuresDontPropagate() throws Exception {
+        QueueFanout fanout = new QueueFanout( 1, 10, 0, 0 );
+        final CountDownLatch done = new CountDownLatch( 1 );
+
+        try {
+            fanout.submit( new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException( "expected" );
+                }
+            } );
+
+            //the thread survives to run the next fan out
+            fanout.submit( new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            } );
+
+            assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        }
+        finally {
+            fanout.shutdown();
+        }
+    }
+
+
+    private static class CountingLoader implements Callable<List<String>> {
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+
+        @Override
+        public List<String> call() {
+            loads.incrementAndGet();
+            return Arrays.asList( "/sub" );
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.mq.Message;
+import org.apache.usergrid.mq.Queue;
+import org.apache.usergrid.mq.cassandra.io.QueueCache;
+import org.apache.usergrid.mq.cassandra.io.QueueSettings;
+import org.apache.usergrid.persistence.cassandra.CounterUtils;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.HCounterColumn;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import static org.apache.usergrid.mq.Queue.QUEUE_NEWEST;
+import static org.apache.usergrid.mq.Queue.QUEUE_OLDEST;
+import static org.junit.Assert.assertEquals;
+
+
+@Concurrent()
+public class QueueManagerImplTest {
+
+    @Test
+    public void chunkUpdatesQueueOnce() {
+        QueueManagerImpl qm = new QueueManagerImpl().init( null, new CounterUtils(), null, UUIDUtils.newTimeUUID(), 0 );
+
+        List<Message> messages = new ArrayList<Message>();
+        List<MessageIndexUpdate> indexUpdates = new ArrayList<MessageIndexUpdate>();
+
+        for ( int i = 0; i < 10; i++ ) {
+            Message message = new Message();
+            message.setStringProperty( "foo", "bar" + i );
+            message.sync();
+
+            messages.add( message );
+            indexUpdates.add( new MessageIndexUpdate( message ) );
+        }
+
+        RecordingMutator recorder = new RecordingMutator();
+
+        qm.batchPostToQueue( recorder.mutator(), "/foo/bar", messages, indexUpdates, 1000, QueueSettings.DEFAULT );
+
+        assertEquals( 10, recorder.count( QueuesCF.QUEUE_INBOX.getColumnFamily(), null ) );
+        assertEquals( 1, recorder.count( QueuesCF.QUEUE_PROPERTIES.getColumnFamily(), QUEUE_OLDEST ) );
+        assertEquals( 1, recorder.count( QueuesCF.QUEUE_PROPERTIES.getColumnFamily(), QUEUE_NEWEST ) );
+        assertEquals( 1, recorder.count( QueuesCF.QUEUE_SUBSCRIBERS.getColumnFamily(), null ) );
+
+        assertEquals( messages.get( 0 ).getUuid(),
+                recorder.value( QueuesCF.QUEUE_PROPERTIES.getColumnFamily(), QUEUE_OLDEST ) );
+        assertEquals( messages.get( 9 ).getUuid(),
+                recorder.value( QueuesCF.QUEUE_PROPERTIES.getColumnFamily(), QUEUE_NEWEST ) );
+
+        //one increment by the size of the chunk
+        assertEquals( 1, recorder.counters.size() );
+        assertEquals( 10L, recorder.counters.get( 0 ).getValue().longValue() );
+    }
+
+
+    @Test
+    public void emptyChunk() {
+        QueueManagerImpl qm = new QueueManagerImpl().init( null, new CounterUtils(), null, UUIDUtils.newTimeUUID(), 0 );
+
+        RecordingMutator recorder = new RecordingMutator();
+
+        qm.batchPostToQueue( recorder.mutator(), "/foo/bar", new ArrayList<Message>(),
+                new ArrayList<MessageIndexUpdate>(), 1000, QueueSettings.DEFAULT );
+
+        assertEquals( 0, recorder.insertions.size() );
+        assertEquals( 0, recorder.counters.size() );
+    }
+
+
+    @Test
+    public void shardsAndExpiresBySettings() {
+        QueueManagerImpl qm = new QueueManagerImpl().init( null, new CounterUtils(), null, UUIDUtils.newTimeUUID(), 0 );
+
+        Message message = new Message();
+        message.setStringProperty( "foo", "bar" );
+        message.setIndexed( true );
+        message.sync();
+
+        List<MessageIndexUpdate> indexUpdates = new ArrayList<MessageIndexUpdate>();
+        indexUpdates.add( new MessageIndexUpdate( message ) );
+
+        QueueSettings settings = new QueueSettings( 60000, 3600 );
+        RecordingMutator recorder = new RecordingMutator();
+
+        qm.batchPostToQueue( recorder.mutator(), "/foo/bar", Collections.singletonList( message ), indexUpdates, 1000,
+                settings );
+
+        Object[] inbox = recorder.insertion( QueuesCF.QUEUE_INBOX.getColumnFamily() );
+        ByteBuffer expectedKey = CassandraMQUtils
+                .getQueueShardRowKey( Queue.getQueueId( "/foo/bar/" ), settings.getShard( message.getTimestamp() ) );
+
+        assertEquals( expectedKey, inbox[0] );
+        assertEquals( 3600, ( ( HColumn<?, ?> ) inbox[2] ).getTtl() );
+        assertEquals( 3600, ( ( HColumn<?, ?> ) recorder.insertion( QueuesCF.PROPERTY_INDEX.getColumnFamily() )[2] )
+                .getTtl() );
+
+        // the bounds of the queue don't expire
+        assertEquals( 0, ( ( HColumn<?, ?> ) recorder.insertion( QueuesCF.QUEUE_PROPERTIES.getColumnFamily() )[2] )
+                .getTtl() );
+    }
+
+
+    @Test
+    public void bodiesLiveAsLongAsTheLongestDestination() {
+        UUID applicationId = UUIDUtils.newTimeUUID();
+        QueueCache cache = new QueueCache( 60000, 100 );
+        cache.putSettings( applicationId, Queue.getQueueId( "/short/" ), new QueueSettings( 60000, 60 ) );
+        cache.putSettings( applicationId, Queue.getQueueId( "/long/" ), new QueueSettings( 60000, 3600 ) );
+        cache.putSettings( applicationId, Queue.getQueueId( "/forever/" ), QueueSettings.DEFAULT );
+
+        QueueManagerImpl qm = new QueueManagerImpl().init( null, new CounterUtils(), null, applicationId, 0 );
+        qm.setCache( cache );
+
+        QueueSettings settings = new QueueSettings( 60000, 600 );
+
+        assertEquals( 600, qm.getMessageTtl( settings, Collections.<String>emptyList() ) );
+        assertEquals( 3600, qm.getMessageTtl( settings, Arrays.asList( "/short", "/long" ) ) );
+        assertEquals( 0, qm.getMessageTtl( settings, Arrays.asList( "/long", "/forever" ) ) );
+        assertEquals( 0, qm.getMessageTtl( QueueSettings.DEFAULT, Arrays.asList( "/short" ) ) );
+    }
+
+
+    /** Keeps the insertions and counter increments added to a mutator */
+    private static class RecordingMutator implements InvocationHandler {
+
+        private final List<Object[]> insertions = new ArrayList<Object[]>();
+        private final List<HCounterColumn<?>> counters = new ArrayList<HCounterColumn<?>>();
+
+
+        @SuppressWarnings("unchecked")
+        private Mutator<ByteBuffer> mutator() {
+            return ( Mutator<ByteBuffer> ) Proxy.newProxyInstance( Mutator.class.getClassLoader(),
+                    new Class<?>[] { Mutator.class }, this );
+        }
+
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            if ( method.getName().equals( "addInsertion" ) ) {
+                insertions.add( args );
+            }
+            else if ( method.getName().equals( "addCounter" ) ) {
+                counters.add( ( HCounterColumn<?> ) args[2] );
+            }
+            else {
+                throw new UnsupportedOperationException( method.getName() );
+            }
+
+            return proxy;
+        }
+
+
+        /** The number of insertions into the column family, of the named column if the name isn't null */
+        private int count( String columnFamily, String name ) {
+            int count = 0;
+
+            for ( Object[] insertion : insertions ) {
+                HColumn<?, ?> column = ( HColumn<?, ?> ) insertion[2];
+
+                if ( columnFamily.equals( insertion[1] ) && ( ( name == null ) || name.equals( column.getName() ) ) ) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+
+
+        private Object[] insertion( String columnFamily ) {
+            for ( Object[] insertion : insertions ) {
+                if ( columnFamily.equals( insertion[1] ) ) {
+                    return insertion;
+                }
+            }
+
+            return null;
+        }
+
+
+        private Object value( String columnFamily, String name ) {
+            for ( Object[] insertion : insertions ) {
+                HColumn<?, ?> column = ( HColumn<?, ?> ) insertion[2];
+
+                if ( columnFamily.equals( insertion[1] ) && name.equals( column.getName() ) ) {
+                    return column.getValue();
+                }
+            }
+
+            return null;
+        }
+    }
+}
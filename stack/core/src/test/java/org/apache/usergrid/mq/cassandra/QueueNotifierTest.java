@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra;
+
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class QueueNotifierTest {
+
+    @Test
+    public void postWakesWaiter() throws Exception {
+        final QueueNotifier notifier = new QueueNotifier( 60000, 60000 );
+        final UUID applicationId = UUIDUtils.newTimeUUID();
+
+        final QueueNotifier.Signal signal = notifier.getSignal( applicationId, "/waiting" );
+        final long version = signal.getVersion();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<Boolean> waiter = executor.submit( new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return notifier.await( signal, version, 30000 );
+                }
+            } );
+
+            Thread.sleep( 100 );
+
+            // paths are normalized, so this is the same queue
+            notifier.messagesPosted( applicationId, "Waiting" );
+
+            assertTrue( waiter.get( 5, TimeUnit.SECONDS ) );
+            assertEquals( version + 1, signal.getVersion() );
+        }
+        finally {
+            executor.shutdownNow();
+            notifier.shutdown();
+        }
+    }
+
+
+    @Test
+    public void postBeforeWaitIsNotMissed() throws Exception {
+        QueueNotifier notifier = new QueueNotifier( 60000, 60000 );
+        UUID applicationId = UUIDUtils.newTimeUUID();
+
+        QueueNotifier.Signal signal = notifier.getSignal( applicationId, "/missed" );
+        long version = signal.getVersion();
+
+        notifier.messagesPosted( applicationId, "/missed" );
+
+        long start = System.currentTimeMillis();
+        assertTrue( notifier.await( signal, version, 30000 ) );
+        assertTrue( System.currentTimeMillis() - start < 5000 );
+
+        notifier.shutdown();
+    }
+
+
+    @Test
+    public void waitTimesOut() throws Exception {
+        QueueNotifier notifier = new QueueNotifier( 60000, 60000 );
+        UUID applicationId = UUIDUtils.newTimeUUID();
+
+        QueueNotifier.Signal signal = notifier.getSignal( applicationId, "/quiet" );
+
+        // another queue and another application don't wake it
+        notifier.messagesPosted( applicationId, "/other" );
+        notifier.messagesPosted( UUIDUtils.newTimeUUID(), "/quiet" );
+
+        assertFalse( notifier.await( signal, signal.getVersion(), 50 ) );
+        assertSame( signal, notifier.getSignal( applicationId, "/quiet/" ) );
+
+        notifier.shutdown();
+    }
+
+
+    @Test
+    public void listeners() throws Exception {
+        QueueNotifier notifier = new QueueNotifier( 60000, 60000 );
+        UUID applicationId = UUIDUtils.newTimeUUID();
+
+        CountingListener listener = new CountingListener();
+        notifier.addListener( applicationId, "/listened", listener );
+
+        notifier.messagesPosted( applicationId, "/listened" );
+        assertEquals( 1, listener.calls.get() );
+
+        // the timed re-check calls it too, for posts on other nodes
+        notifier.recheck();
+        assertEquals( 2, listener.calls.get() );
+
+        notifier.removeListener( applicationId, "/listened", listener );
+
+        notifier.messagesPosted( applicationId, "/listened" );
+        notifier.recheck();
+        assertEquals( 2, listener.calls.get() );
+
+        notifier.shutdown();
+    }
+
+
+    @Test
+    public void recheckOnInterval() throws Exception {
+        QueueNotifier notifier = new QueueNotifier( 20, 60000 );
+        UUID applicationId = UUIDUtils.newTimeUUID();
+
+        CountingListener listener = new CountingListener();
+        notifier.addListener( applicationId, "/rechecked", listener );
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while ( listener.calls.get() < 2 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+
+        assertTrue( listener.calls.get() >= 2 );
+
+        notifier.shutdown();
+    }
+
+
+    @Test
+    public void failingListener() throws Exception {
+        QueueNotifier notifier = new QueueNotifier( 60000, 60000 );
+        UUID applicationId = UUIDUtils.newTimeUUID();
+
+        notifier.addListener( applicationId, "/failing", new QueueNotifier.QueueListener() {
+            @Override
+            public void messagesPosted() {
+                throw new IllegalStateException( "listener failed" );
+            }
+        } );
+
+        CountingListener listener = new CountingListener();
+        notifier.addListener( applicationId, "/failing", listener );
+
+        // a failing listener doesn't fail the post or skip the others
+        notifier.messagesPosted( applicationId, "/failing" );
+        assertEquals( 1, listener.calls.get() );
+
+        notifier.shutdown();
+    }
+
+
+    private static class CountingListener implements QueueNotifier.QueueListener {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+
+        @Override
+        public void messagesPosted() {
+            calls.incrementAndGet();
+        }
+    }
+}
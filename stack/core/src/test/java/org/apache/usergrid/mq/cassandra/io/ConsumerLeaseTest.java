@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class ConsumerLeaseTest {
+
+    /** Positions in the queue, in order */
+    private static final UUID[] POSITIONS = new UUID[10];
+
+
+    static {
+        long now = System.currentTimeMillis();
+
+        for ( int i = 0; i < POSITIONS.length; i++ ) {
+            POSITIONS[i] = UUIDUtils.newTimeUUID( now + i );
+        }
+    }
+
+
+    @Test
+    public void overlaps() {
+        assertTrue( lease( 0, 3, false ).overlaps( lease( 2, 5, false ) ) );
+        assertTrue( lease( 2, 5, false ).overlaps( lease( 0, 3, false ) ) );
+        assertTrue( lease( -1, 3, false ).overlaps( lease( -1, 1, false ) ) );
+        assertTrue( lease( 0, 9, false ).overlaps( lease( 3, 4, false ) ) );
+
+        //ranges start after their start, so adjacent ranges don't overlap
+        assertFalse( lease( 0, 3, false ).overlaps( lease( 3, 5, false ) ) );
+        assertFalse( lease( 3, 5, false ).overlaps( lease( 0, 3, false ) ) );
+        assertFalse( lease( -1, 3, false ).overlaps( lease( 4, 5, false ) ) );
+    }
+
+
+    @Test
+    public void serialize() {
+        ConsumerLease lease = lease( 2, 5, true );
+        ConsumerLease read = ConsumerLease.fromByteBuffer( lease.getId(), lease.toByteBuffer() );
+
+        assertEquals( lease.getId(), read.getId() );
+        assertEquals( lease.getStart(), read.getStart() );
+        assertEquals( lease.getEnd(), read.getEnd() );
+        assertTrue( read.isDone() );
+
+        //the beginning of the queue
+        lease = lease( -1, 5, false );
+        read = ConsumerLease.fromByteBuffer( lease.getId(), lease.toByteBuffer() );
+
+        assertNull( read.getStart() );
+        assertFalse( read.isDone() );
+
+        assertNull( ConsumerLease.fromByteBuffer( lease.getId(), null ) );
+    }
+
+
+    @Test
+    public void firstUnclaimed() {
+        assertEquals( POSITIONS[2], ConsumerLease.getFirstUnclaimed( POSITIONS[2], leases() ) );
+        assertNull( ConsumerLease.getFirstUnclaimed( null, leases() ) );
+
+        //contiguous leases from the position, pending or done
+        assertEquals( POSITIONS[6], ConsumerLease.getFirstUnclaimed( POSITIONS[2],
+                leases( lease( 4, 6, false ), lease( 2, 4, true ) ) ) );
+        assertEquals( POSITIONS[3], ConsumerLease.getFirstUnclaimed( null, leases( lease( -1, 3, false ) ) ) );
+
+        //the gap left by an expired lease is claimed first
+        assertEquals( POSITIONS[2], ConsumerLease.getFirstUnclaimed( POSITIONS[2],
+                leases( lease( 4, 6, false ) ) ) );
+        assertNull( ConsumerLease.getFirstUnclaimed( null, leases( lease( 4, 6, false ) ) ) );
+
+        //leases behind the position are ignored, and ones that straddle it are covered
+        assertEquals( POSITIONS[5], ConsumerLease.getFirstUnclaimed( POSITIONS[3],
+                leases( lease( 0, 2, true ), lease( 1, 5, false ) ) ) );
+    }
+
+
+    @Test
+    public void nextClaimed() {
+        assertNull( ConsumerLease.getNextClaimed( POSITIONS[2], leases() ) );
+        assertNull( ConsumerLease.getNextClaimed( POSITIONS[2], leases( lease( 0, 2, false ) ) ) );
+
+        assertEquals( POSITIONS[4], ConsumerLease.getNextClaimed( POSITIONS[2],
+                leases( lease( 7, 8, false ), lease( 4, 6, false ), lease( 0, 2, true ) ) ) );
+        assertEquals( POSITIONS[4], ConsumerLease.getNextClaimed( null, leases( lease( 4, 6, false ) ) ) );
+    }
+
+
+    @Test
+    public void completed() {
+        //only done leases move the position
+        assertEquals( POSITIONS[2], ConsumerLease.getCompleted( POSITIONS[2], leases( lease( 2, 4, false ) ) ) );
+        assertEquals( POSITIONS[4], ConsumerLease.getCompleted( POSITIONS[2], leases( lease( 2, 4, true ) ) ) );
+        assertEquals( POSITIONS[6], ConsumerLease.getCompleted( POSITIONS[2],
+                leases( lease( 4, 6, true ), lease( 2, 4, true ), lease( 6, 8, false ) ) ) );
+
+        //a done lease after a pending one waits for it
+        assertEquals( POSITIONS[2], ConsumerLease.getCompleted( POSITIONS[2],
+                leases( lease( 2, 4, false ), lease( 4, 6, true ) ) ) );
+
+        //and after a gap, until the gap is claimed and done
+        assertEquals( POSITIONS[2], ConsumerLease.getCompleted( POSITIONS[2], leases( lease( 4, 6, true ) ) ) );
+        assertNull( ConsumerLease.getCompleted( null, leases( lease( 4, 6, true ) ) ) );
+        assertEquals( POSITIONS[6], ConsumerLease.getCompleted( null, leases( lease( -1, 6, true ) ) ) );
+    }
+
+
+    @Test
+    public void contended() {
+        LeasedConsumerTransaction transaction = new LeasedConsumerTransaction( null, null, null, 5 );
+
+        ConsumerLease lease = lease( 2, 4, false );
+
+        assertFalse( transaction.isContended( lease, leases( lease, lease( 0, 2, true ), lease( 4, 6, false ) ) ) );
+        assertTrue( transaction.isContended( lease, leases( lease, lease( 3, 6, false ) ) ) );
+        assertTrue( transaction.isContended( lease, leases( lease, lease( 2, 4, false ) ) ) );
+
+        //not written, or expired already
+        assertTrue( transaction.isContended( lease, leases() ) );
+    }
+
+
+    /** A lease after the start position up to the end position, -1 for the beginning of the queue */
+    private static ConsumerLease lease( int start, int end, boolean done ) {
+        return new ConsumerLease( UUIDUtils.newTimeUUID(), start < 0 ? null : POSITIONS[start], POSITIONS[end], done );
+    }
+
+
+    private static List<ConsumerLease> leases( ConsumerLease... leases ) {
+        return new ArrayList<ConsumerLease>( Arrays.asList( leases ) );
+    }
+}
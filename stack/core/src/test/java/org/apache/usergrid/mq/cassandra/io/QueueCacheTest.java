@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.apache.usergrid.mq.cassandra.QueueManagerImpl.QUEUE_SHARD_INTERVAL;
+import static org.apache.usergrid.utils.NumberUtils.roundLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+@Concurrent()
+public class QueueCacheTest {
+
+    private static final UUID APP = UUID.randomUUID();
+    private static final UUID OTHER_APP = UUID.randomUUID();
+
+
+    @Test
+    public void boundsByApplication() {
+        QueueCache cache = new QueueCache( 60000, 100 );
+        UUID queueId = UUID.randomUUID();
+        QueueBounds bounds = new QueueBounds( UUIDUtils.newTimeUUID( 1000 ), UUIDUtils.newTimeUUID( 2000 ) );
+
+        cache.putBounds( APP, queueId, bounds );
+
+        assertEquals( bounds, cache.getBounds( APP, queueId ) );
+        assertNull( cache.getBounds( OTHER_APP, queueId ) );
+    }
+
+
+    @Test
+    public void widenBounds() {
+        QueueCache cache = new QueueCache( 60000, 100 );
+        UUID queueId = UUID.randomUUID();
+        UUID oldest = UUIDUtils.newTimeUUID( 1000 );
+        UUID newest = UUIDUtils.newTimeUUID( 2000 );
+        UUID posted = UUIDUtils.newTimeUUID( 3000 );
+
+        // nothing cached, so nothing to widen
+        cache.widenBounds( APP, queueId, posted, posted );
+        assertNull( cache.getBounds( APP, queueId ) );
+
+        QueueSettings settings = new QueueSettings( 60000, 3600 );
+
+        cache.putBounds( APP, queueId, new QueueBounds( oldest, newest, settings ) );
+        cache.widenBounds( APP, queueId, posted, posted );
+        assertEquals( new QueueBounds( oldest, posted, settings ), cache.getBounds( APP, queueId ) );
+
+        UUID older = UUIDUtils.newTimeUUID( 500 );
+        cache.widenBounds( APP, queueId, older, newest );
+        assertEquals( new QueueBounds( older, posted, settings ), cache.getBounds( APP, queueId ) );
+    }
+
+
+    @Test
+    public void expires() throws InterruptedException {
+        QueueCache cache = new QueueCache( 10, 100 );
+        UUID queueId = UUID.randomUUID();
+
+        cache.putBounds( APP, queueId, new QueueBounds( UUIDUtils.newTimeUUID(), UUIDUtils.newTimeUUID() ) );
+
+        Thread.sleep( 50 );
+
+        assertNull( cache.getBounds( APP, queueId ) );
+    }
+
+
+    @Test
+    public void emptyShards() {
+        QueueCache cache = new QueueCache( 60000, 100 );
+        UUID queueId = UUID.randomUUID();
+        long shard = 100 * QUEUE_SHARD_INTERVAL;
+
+        assertEquals( shard, cache.getFirstShard( APP, queueId, shard, QUEUE_SHARD_INTERVAL ) );
+
+        cache.putEmptyShards( APP, queueId, shard, shard + 10 * QUEUE_SHARD_INTERVAL, QUEUE_SHARD_INTERVAL );
+
+        assertEquals( shard + 10 * QUEUE_SHARD_INTERVAL,
+                cache.getFirstShard( APP, queueId, shard, QUEUE_SHARD_INTERVAL ) );
+        assertEquals( shard, cache.getFirstShard( OTHER_APP, queueId, shard, QUEUE_SHARD_INTERVAL ) );
+    }
+
+
+    @Test
+    public void recentShardsNotEmpty() {
+        QueueCache cache = new QueueCache( 60000, 100 );
+        UUID queueId = UUID.randomUUID();
+        long current = roundLong( System.currentTimeMillis(), QUEUE_SHARD_INTERVAL );
+        long shard = current - 5 * QUEUE_SHARD_INTERVAL;
+
+        // only up to the shard before the current one is known to stay empty
+        cache.putEmptyShards( APP, queueId, shard, current + QUEUE_SHARD_INTERVAL, QUEUE_SHARD_INTERVAL );
+        assertEquals( current - QUEUE_SHARD_INTERVAL,
+                cache.getFirstShard( APP, queueId, shard, QUEUE_SHARD_INTERVAL ) );
+
+        UUID other = UUID.randomUUID();
+        cache.putEmptyShards( APP, other, current - QUEUE_SHARD_INTERVAL, current, QUEUE_SHARD_INTERVAL );
+        assertEquals( current - QUEUE_SHARD_INTERVAL,
+                cache.getFirstShard( APP, other, current - QUEUE_SHARD_INTERVAL, QUEUE_SHARD_INTERVAL ) );
+    }
+}
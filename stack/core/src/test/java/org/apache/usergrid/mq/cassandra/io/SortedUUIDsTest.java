@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import com.fasterxml.uuid.UUIDComparator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class SortedUUIDsTest {
+
+    /** Time uuids in order, several in the same millisecond */
+    private static final UUID[] UUIDS = new UUID[20];
+
+
+    static {
+        long now = System.currentTimeMillis();
+
+        for ( int i = 0; i < UUIDS.length; i++ ) {
+            UUIDS[i] = UUIDUtils.newTimeUUID( now + i / 4, i % 4 );
+        }
+    }
+
+
+    @Test
+    public void sortsLikeUUIDComparator() {
+        Random random = new Random( 42 );
+        List<UUID> uuids = new ArrayList<UUID>();
+
+        for ( int i = 0; i < 1000; i++ ) {
+            uuids.add( UUIDUtils.newTimeUUID( random.nextInt( 100000 ), random.nextInt( 10 ) ) );
+            uuids.add( UUID.randomUUID() );
+            uuids.add( UUID.nameUUIDFromBytes( String.valueOf( i ).getBytes() ) );
+            uuids.add( new UUID( random.nextLong(), random.nextLong() ) );
+        }
+
+        // and duplicates
+        uuids.addAll( uuids.subList( 0, 100 ) );
+
+        TreeSet<UUID> expected = new TreeSet<UUID>( new UUIDComparator() );
+        expected.addAll( uuids );
+
+        assertEquals( new ArrayList<UUID>( expected ), SortedUUIDs.of( uuids ).toList( false ) );
+    }
+
+
+    @Test
+    public void encodeDecode() {
+        List<UUID> uuids = new ArrayList<UUID>( Arrays.asList( UUIDS ) );
+        uuids.add( UUID.randomUUID() );
+        uuids.add( UUID.nameUUIDFromBytes( "foo".getBytes() ) );
+        uuids.add( new UUID( -1L, -1L ) );
+        uuids.add( new UUID( 0L, 0L ) );
+
+        long[] keys = new long[2];
+
+        for ( UUID uuid : uuids ) {
+            SortedUUIDs.encode( keys, 0, uuid );
+            assertEquals( uuid, SortedUUIDs.decode( keys[0], keys[1] ) );
+        }
+    }
+
+
+    @Test
+    public void and() {
+        SortedUUIDs a = set( 0, 1, 2, 4, 6, 8, 10 );
+        SortedUUIDs b = set( 1, 2, 3, 6, 9, 10, 11 );
+
+        assertEquals( list( 1, 2, 6, 10 ), a.and( b, 100, false ).toList( false ) );
+        assertEquals( list( 1, 2, 6, 10 ), b.and( a, 100, false ).toList( false ) );
+
+        // the limit keeps the oldest, or the newest if reversed
+        assertEquals( list( 1, 2 ), a.and( b, 2, false ).toList( false ) );
+        assertEquals( list( 6, 10 ), a.and( b, 2, true ).toList( false ) );
+        assertEquals( list( 10, 6 ), a.and( b, 2, true ).toList( true ) );
+
+        assertTrue( a.and( set( 3, 5, 7 ), 100, false ).isEmpty() );
+        assertTrue( a.and( SortedUUIDs.EMPTY, 100, false ).isEmpty() );
+    }
+
+
+    @Test
+    public void andSearchesLargeSet() {
+        SortedUUIDs all = SortedUUIDs.of( Arrays.asList( UUIDS ) );
+        SortedUUIDs few = set( 3, 17 );
+
+        assertEquals( list( 3, 17 ), few.and( all, 100, false ).toList( false ) );
+        assertEquals( list( 3, 17 ), all.and( few, 100, true ).toList( false ) );
+        assertEquals( list( 17 ), all.and( few, 1, true ).toList( false ) );
+        assertEquals( list( 3 ), all.and( few, 1, false ).toList( false ) );
+        assertTrue( all.and( SortedUUIDs.of( Collections.singletonList( UUID.randomUUID() ) ), 100, false )
+                       .isEmpty() );
+    }
+
+
+    @Test
+    public void or() {
+        SortedUUIDs a = set( 0, 2, 4, 6 );
+        SortedUUIDs b = set( 1, 2, 3, 7 );
+
+        assertEquals( list( 0, 1, 2, 3, 4, 6, 7 ), a.or( b, 100, false ).toList( false ) );
+        assertEquals( list( 0, 1, 2 ), a.or( b, 3, false ).toList( false ) );
+        assertEquals( list( 4, 6, 7 ), a.or( b, 3, true ).toList( false ) );
+        assertEquals( list( 0, 2, 4, 6 ), a.or( SortedUUIDs.EMPTY, 100, false ).toList( false ) );
+        assertEquals( list( 6 ), SortedUUIDs.EMPTY.or( a, 1, true ).toList( false ) );
+
+        // duplicates don't leave gaps when reversed
+        assertEquals( list( 0, 1, 2, 3, 4, 6, 7 ), a.or( b, 100, true ).toList( false ) );
+    }
+
+
+    @Test
+    public void range() {
+        SortedUUIDs a = set( 0, 2, 4, 6, 8 );
+
+        // start is included and finish isn't, in the direction of the search
+        assertEquals( list( 2, 4, 6 ), a.range( UUIDS[2], UUIDS[8], false ).toList( false ) );
+        assertEquals( list( 4, 6, 8 ), a.range( UUIDS[8], UUIDS[2], true ).toList( false ) );
+        assertEquals( list( 4, 6 ), a.range( UUIDS[3], UUIDS[7], false ).toList( false ) );
+        assertEquals( list( 0, 2 ), a.range( null, UUIDS[4], false ).toList( false ) );
+        assertTrue( a.range( UUIDS[4], UUIDS[4], false ).isEmpty() );
+    }
+
+
+    @Test
+    public void contains() {
+        SortedUUIDs a = set( 0, 2, 4 );
+
+        assertTrue( a.contains( UUIDS[2] ) );
+        assertFalse( a.contains( UUIDS[3] ) );
+        assertFalse( SortedUUIDs.EMPTY.contains( UUIDS[0] ) );
+    }
+
+
+    @Test
+    public void randomMerges() {
+        Random random = new Random( 7 );
+
+        for ( int run = 0; run < 50; run++ ) {
+            List<UUID> first = randomTimeUUIDs( random, random.nextInt( 200 ) );
+            List<UUID> second = randomTimeUUIDs( random, random.nextInt( 200 ) );
+            int limit = random.nextInt( 100 ) + 1;
+            boolean reversed = random.nextBoolean();
+
+            TreeSet<UUID> and = new TreeSet<UUID>( new UUIDComparator() );
+            and.addAll( first );
+            and.retainAll( second );
+
+            TreeSet<UUID> or = new TreeSet<UUID>( new UUIDComparator() );
+            or.addAll( first );
+            or.addAll( second );
+
+            SortedUUIDs a = SortedUUIDs.of( first );
+            SortedUUIDs b = SortedUUIDs.of( second );
+
+            assertEquals( limit( and, limit, reversed ), a.and( b, limit, reversed ).toList( false ) );
+            assertEquals( limit( or, limit, reversed ), a.or( b, limit, reversed ).toList( false ) );
+        }
+    }
+
+
+    /** Uuids from a small range of times, so two lists share some */
+    private static List<UUID> randomTimeUUIDs( Random random, int count ) {
+        List<UUID> uuids = new ArrayList<UUID>( count );
+
+        for ( int i = 0; i < count; i++ ) {
+            uuids.add( UUIDS[random.nextInt( UUIDS.length )] );
+        }
+
+        return uuids;
+    }
+
+
+    private static List<UUID> limit( TreeSet<UUID> set, int limit, boolean reversed ) {
+        List<UUID> list = new ArrayList<UUID>( set );
+
+        if ( list.size() <= limit ) {
+            return list;
+        }
+
+        return reversed ? list.subList( list.size() - limit, list.size() ) : list.subList( 0, limit );
+    }
+
+
+    private static SortedUUIDs set( int... indexes ) {
+        return SortedUUIDs.of( list( indexes ) );
+    }
+
+
+    private static List<UUID> list( int... indexes ) {
+        List<UUID> uuids = new ArrayList<UUID>();
+
+        for ( int index : indexes ) {
+            uuids.add( UUIDS[index] );
+        }
+
+        return uuids;
+    }
+}
@@ -34,7 +34,7 @@ import org.apache.usergrid.persistence.entities.Group;
 import org.apache.usergrid.persistence.entities.User;
 import org.apache.usergrid.utils.JsonUtils;
 
-import org.apache.usergrid.count.SimpleBatcher;
+import org.apache.usergrid.count.StripedBatcher;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -56,10 +56,9 @@ public class CounterIT extends AbstractCoreIT {
 
     @Before
     public void getSubmitter() {
-        //set the batcher to block the submit so we wait for results when testing
-        SimpleBatcher batcher = CoreITSuite.cassandraResource.getBean( SimpleBatcher.class );
+        //set the batcher to write each count before add returns so we can read the results when testing
+        StripedBatcher batcher = CoreITSuite.cassandraResource.getBean( StripedBatcher.class );
 
-        batcher.setBlockingSubmit( true );
         batcher.setBatchSize( 1 );
     }
 
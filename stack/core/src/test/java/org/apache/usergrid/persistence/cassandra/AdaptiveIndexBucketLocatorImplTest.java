@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.persistence.IndexBucketLocator.IndexType;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@Concurrent()
+public class AdaptiveIndexBucketLocatorImplTest {
+
+    @Test
+    public void sameAsSimpleLocator() {
+        AdaptiveIndexBucketLocatorImpl adaptive = new MemoryLocator( 20, 100, 0, 60 );
+        SimpleIndexBucketLocatorImpl simple = new SimpleIndexBucketLocatorImpl( 20 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        assertEquals( simple.getBuckets( appId, IndexType.COLLECTION, "users" ),
+                adaptive.getBuckets( appId, IndexType.COLLECTION, "users" ) );
+
+        for ( int i = 0; i < 1000; i++ ) {
+            UUID id = UUIDUtils.newTimeUUID();
+
+            assertEquals( simple.getBucket( appId, IndexType.COLLECTION, id, "users" ),
+                    adaptive.getBucket( appId, IndexType.COLLECTION, id, "users" ) );
+
+            assertEquals( simple.getBucket( appId, IndexType.CONNECTION, id, "name" ),
+                    adaptive.getBucket( appId, IndexType.CONNECTION, id, "name" ) );
+        }
+    }
+
+
+    @Test
+    public void startsWithOneBucket() {
+        AdaptiveIndexBucketLocatorImpl locator = new MemoryLocator( 1, 100, 0, 60 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        List<String> buckets = locator.getBuckets( appId, IndexType.COLLECTION, "users" );
+
+        assertEquals( 1, buckets.size() );
+
+        for ( int i = 0; i < 100; i++ ) {
+            assertEquals( buckets.get( 0 ),
+                    locator.getBucket( appId, IndexType.COLLECTION, UUIDUtils.newTimeUUID(), "users" ) );
+        }
+    }
+
+
+    @Test
+    public void splitHotBucket() {
+        MemoryLocator locator = new MemoryLocator( 1, 100, 100, 60 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        Map<UUID, String> existing = new HashMap<UUID, String>();
+
+        for ( int i = 0; i < 100; i++ ) {
+            UUID id = UUIDUtils.newTimeUUID();
+            existing.put( id, locator.getBucket( appId, IndexType.COLLECTION, id, "users" ) );
+        }
+
+        assertEquals( 1, locator.saved );
+
+        List<String> buckets = locator.getBuckets( appId, IndexType.COLLECTION, "users" );
+
+        assertEquals( 2, buckets.size() );
+
+        // a split never moves existing entities
+        for ( Map.Entry<UUID, String> entry : existing.entrySet() ) {
+            assertEquals( entry.getValue(), locator.getBucket( appId, IndexType.COLLECTION, entry.getKey(), "users" ) );
+        }
+
+        // entities created after the split delay use both buckets
+        Set<String> used = new HashSet<String>();
+
+        for ( int i = 0; i < 50; i++ ) {
+            UUID id = UUIDUtils.newTimeUUID( System.currentTimeMillis() + 120000 );
+            used.add( locator.getBucket( appId, IndexType.COLLECTION, id, "users" ) );
+        }
+
+        assertEquals( new HashSet<String>( buckets ), used );
+
+        // other collections are untouched
+        assertEquals( 1, locator.getBuckets( appId, IndexType.COLLECTION, "groups" ).size() );
+        assertEquals( 1, locator.getBuckets( UUIDUtils.newTimeUUID(), IndexType.COLLECTION, "users" ).size() );
+    }
+
+
+    @Test
+    public void maxBuckets() {
+        MemoryLocator locator = new MemoryLocator( 1, 4, 10, 0 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        for ( int i = 0; i < 1000; i++ ) {
+            locator.getBucket( appId, IndexType.COLLECTION, UUIDUtils.newTimeUUID(), "users" );
+        }
+
+        assertEquals( 4, locator.getBuckets( appId, IndexType.COLLECTION, "users" ).size() );
+    }
+
+
+    @Test
+    public void futureIdsRejectedWhileSplitting() {
+        UUID appId = UUIDUtils.newTimeUUID();
+        UUID future = UUIDUtils.newTimeUUID( System.currentTimeMillis() + 60000 );
+
+        // a split before the id's time would locate a different bucket when it's removed
+        try {
+            new MemoryLocator( 1, 100, 100, 60 ).checkEntityId( appId, future );
+            fail( "future id accepted" );
+        }
+        catch ( IllegalArgumentException e ) {
+            // expected
+        }
+
+        new MemoryLocator( 1, 100, 100, 60 ).checkEntityId( appId, UUIDUtils.newTimeUUID() );
+        new MemoryLocator( 1, 100, 100, 60 ).checkEntityId( appId, UUID.randomUUID() );
+
+        // never split, the layout can't change
+        new MemoryLocator( 1, 100, 0, 60 ).checkEntityId( appId, future );
+    }
+
+
+    @Test
+    public void splitRanges() {
+        List<BigInteger> tokens = new ArrayList<BigInteger>();
+        tokens.add( BigInteger.ZERO );
+
+        AdaptiveIndexBucketLocatorImpl.Layout layout = new AdaptiveIndexBucketLocatorImpl.Layout( 0, tokens );
+
+        // the single bucket owns the whole ring, the split token is halfway round
+        AdaptiveIndexBucketLocatorImpl.Layout split = layout.split( layout.getBuckets().get( 0 ), 1 );
+
+        assertEquals( 2, split.size() );
+        assertEquals( SimpleIndexBucketLocatorImpl.MAXIMUM.shiftRight( 1 ),
+                new BigInteger( split.getBuckets().get( 1 ) ) );
+
+        // and it survives being stored
+        AdaptiveIndexBucketLocatorImpl.Layout parsed = AdaptiveIndexBucketLocatorImpl.Layout.parse( 1, split.toString() );
+
+        assertEquals( split.getBuckets(), parsed.getBuckets() );
+
+        for ( int i = 0; i < 100; i++ ) {
+            UUID id = UUIDUtils.newTimeUUID();
+            assertTrue( split.getBuckets().contains( split.getBucket( id ) ) );
+            assertEquals( split.getBucket( id ), parsed.getBucket( id ) );
+        }
+    }
+
+
+    /** Keeps the layouts in memory instead of cassandra */
+    private static class MemoryLocator extends AdaptiveIndexBucketLocatorImpl {
+
+        private final Map<Object, SortedMap<Long, String>> rows = new HashMap<Object, SortedMap<Long, String>>();
+
+        private int saved;
+
+
+        private MemoryLocator( int initialBuckets, int maxBuckets, long splitThreshold, long splitDelaySeconds ) {
+            super( null, initialBuckets, maxBuckets, splitThreshold, splitDelaySeconds );
+        }
+
+
+        @Override
+        protected synchronized SortedMap<Long, String> loadLayouts( UUID applicationId, Object rowKey ) {
+            SortedMap<Long, String> row = rows.get( rowKey );
+            return row == null ? new TreeMap<Long, String>() : new TreeMap<Long, String>( row );
+        }
+
+
+        @Override
+        protected synchronized void saveLayout( UUID applicationId, Object rowKey, long start, String tokens ) {
+            SortedMap<Long, String> row = rows.get( rowKey );
+
+            if ( row == null ) {
+                row = new TreeMap<Long, String>();
+                rows.put( rowKey, row );
+            }
+
+            row.put( start, tokens );
+            saved++;
+        }
+    }
+}
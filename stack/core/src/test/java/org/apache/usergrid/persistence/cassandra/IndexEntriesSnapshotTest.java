@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+
+import static java.util.Arrays.asList;
+import static org.apache.usergrid.persistence.cassandra.IndexUpdate.indexValueCode;
+import static org.apache.usergrid.persistence.cassandra.IndexUpdate.toIndexableValue;
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class IndexEntriesSnapshotTest {
+
+    @Test
+    public void entriesByName() {
+        UUID entityId = UUIDUtils.newTimeUUID();
+
+        List<HColumn<ByteBuffer, ByteBuffer>> columns = new ArrayList<HColumn<ByteBuffer, ByteBuffer>>();
+        columns.add( entry( "nam", "bar" ) );
+        columns.add( entry( "name", "foo" ) );
+        columns.add( entry( "name", "foo2" ) );
+        columns.add( entry( "name2", "foo" ) );
+
+        IndexEntriesSnapshot snapshot = snapshot( entityId, columns );
+
+        assertTrue( snapshot.contains( entityId ) );
+
+        List<HColumn<ByteBuffer, ByteBuffer>> entries =
+                snapshot.getEntries( entityId, new DynamicComposite( "name" ), 1000 );
+
+        assertEquals( 2, entries.size() );
+        assertEquals( "foo", DynamicComposite.fromByteBuffer( entries.get( 0 ).getName().duplicate() ).get( 2 ) );
+        assertEquals( "foo2", DynamicComposite.fromByteBuffer( entries.get( 1 ).getName().duplicate() ).get( 2 ) );
+
+        assertEquals( 1, snapshot.getEntries( entityId, new DynamicComposite( "name" ), 1 ).size() );
+        assertTrue( snapshot.getEntries( entityId, new DynamicComposite( "other" ), 1000 ).isEmpty() );
+    }
+
+
+    @Test
+    public void entriesByValue() {
+        UUID entityId = UUIDUtils.newTimeUUID();
+
+        List<HColumn<ByteBuffer, ByteBuffer>> columns = new ArrayList<HColumn<ByteBuffer, ByteBuffer>>();
+        columns.add( entry( "tags", "a" ) );
+        columns.add( entry( "tags", "ab" ) );
+        columns.add( entry( "tags", "b" ) );
+
+        IndexEntriesSnapshot snapshot = snapshot( entityId, columns );
+
+        List<HColumn<ByteBuffer, ByteBuffer>> entries = snapshot.getEntries( entityId,
+                new DynamicComposite( "tags", indexValueCode( "a" ), toIndexableValue( "a" ) ), 1000 );
+
+        assertEquals( 1, entries.size() );
+        assertEquals( "a", DynamicComposite.fromByteBuffer( entries.get( 0 ).getName().duplicate() ).get( 2 ) );
+    }
+
+
+    @Test
+    public void missingEntity() {
+        IndexEntriesSnapshot snapshot =
+                snapshot( UUIDUtils.newTimeUUID(), new ArrayList<HColumn<ByteBuffer, ByteBuffer>>() );
+
+        UUID other = UUIDUtils.newTimeUUID();
+
+        assertFalse( snapshot.contains( other ) );
+        assertNull( snapshot.getEntries( other, new DynamicComposite( "name" ), 1000 ) );
+    }
+
+
+    private IndexEntriesSnapshot snapshot( UUID entityId, List<HColumn<ByteBuffer, ByteBuffer>> columns ) {
+        Map<UUID, List<HColumn<ByteBuffer, ByteBuffer>>> entries =
+                new HashMap<UUID, List<HColumn<ByteBuffer, ByteBuffer>>>();
+        entries.put( entityId, columns );
+        return new IndexEntriesSnapshot( entries );
+    }
+
+
+    /** Build an entry the same way RelationManagerImpl writes it */
+    private HColumn<ByteBuffer, ByteBuffer> entry( String entryName, String value ) {
+        ByteBuffer name = DynamicComposite.toByteBuffer(
+                asList( entryName, indexValueCode( value ), toIndexableValue( value ), UUIDUtils.newTimeUUID(), "" ) );
+
+        return HFactory.createColumn( name, ByteBuffer.allocate( 0 ), be, be );
+    }
+}
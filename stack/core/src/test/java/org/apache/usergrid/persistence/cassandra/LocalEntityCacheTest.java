@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.apache.usergrid.persistence.Schema.PROPERTY_TYPE;
+import static org.apache.usergrid.persistence.Schema.PROPERTY_UUID;
+import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
+import static org.apache.usergrid.utils.ConversionUtils.string;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class LocalEntityCacheTest {
+
+    @Test
+    public void readThrough() {
+        LocalEntityCache cache = new LocalEntityCache( true, 1024 * 1024, 60 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+        UUID entityId = UUIDUtils.newTimeUUID();
+
+        assertNull( cache.get( appId, entityId ) );
+
+        cache.put( appId, entityId, columns( entityId, "user", "foo" ) );
+
+        Map<String, ByteBuffer> cached = cache.get( appId, entityId );
+
+        assertEquals( "user", string( cached.get( PROPERTY_TYPE ) ) );
+        assertEquals( "foo", string( cached.get( "name" ) ) );
+
+        // consuming the returned buffers must not change what's cached
+        cached.get( "name" ).position( cached.get( "name" ).limit() );
+
+        assertEquals( "foo", string( cache.get( appId, entityId ).get( "name" ) ) );
+
+        // same entity id in another app is a different entry
+        assertNull( cache.get( UUIDUtils.newTimeUUID(), entityId ) );
+
+        assertEquals( 2, cache.getStats().hitCount() );
+        assertEquals( 2, cache.getStats().missCount() );
+    }
+
+
+    @Test
+    public void invalidate() {
+        LocalEntityCache cache = new LocalEntityCache( true, 1024 * 1024, 60 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+        UUID entityId = UUIDUtils.newTimeUUID();
+
+        cache.put( appId, entityId, columns( entityId, "user", "foo" ) );
+
+        cache.invalidate( appId, entityId );
+
+        assertNull( cache.get( appId, entityId ) );
+    }
+
+
+    @Test
+    public void getAll() {
+        LocalEntityCache cache = new LocalEntityCache( true, 1024 * 1024, 60 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+        UUID first = UUIDUtils.newTimeUUID();
+        UUID second = UUIDUtils.newTimeUUID();
+        UUID missing = UUIDUtils.newTimeUUID();
+
+        cache.put( appId, first, columns( first, "user", "first" ) );
+        cache.put( appId, second, columns( second, "user", "second" ) );
+
+        Map<UUID, Map<String, ByteBuffer>> results = cache.getAll( appId, Arrays.asList( first, missing, second ) );
+
+        assertEquals( 2, results.size() );
+        assertEquals( "first", string( results.get( first ).get( "name" ) ) );
+        assertEquals( "second", string( results.get( second ).get( "name" ) ) );
+        assertFalse( results.containsKey( missing ) );
+    }
+
+
+    @Test
+    public void missingRowsNotCached() {
+        LocalEntityCache cache = new LocalEntityCache( true, 1024 * 1024, 60 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+        UUID entityId = UUIDUtils.newTimeUUID();
+
+        cache.put( appId, entityId, new LinkedHashMap<String, ByteBuffer>() );
+        cache.put( appId, entityId, null );
+
+        assertNull( cache.get( appId, entityId ) );
+    }
+
+
+    @Test
+    public void boundedBySize() {
+        LocalEntityCache cache = new LocalEntityCache( true, 16 * 1024, 60 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        char[] value = new char[1024];
+        Arrays.fill( value, 'a' );
+
+        for ( int i = 0; i < 100; i++ ) {
+            UUID entityId = UUIDUtils.newTimeUUID();
+            cache.put( appId, entityId, columns( entityId, "user", new String( value ) ) );
+        }
+
+        assertTrue( cache.getStats().evictionCount() > 0 );
+    }
+
+
+    @Test
+    public void disabled() {
+        LocalEntityCache cache = new LocalEntityCache( false, 1024 * 1024, 60 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+        UUID entityId = UUIDUtils.newTimeUUID();
+
+        cache.put( appId, entityId, columns( entityId, "user", "foo" ) );
+
+        assertFalse( cache.isEnabled() );
+        assertNull( cache.get( appId, entityId ) );
+        assertTrue( cache.getAll( appId, Arrays.asList( entityId ) ).isEmpty() );
+    }
+
+
+    private Map<String, ByteBuffer> columns( UUID entityId, String type, String name ) {
+        Map<String, ByteBuffer> columns = new LinkedHashMap<String, ByteBuffer>();
+        columns.put( PROPERTY_UUID, bytebuffer( entityId ) );
+        columns.put( PROPERTY_TYPE, bytebuffer( type ) );
+        columns.put( "name", bytebuffer( name ) );
+        return columns;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class NameLookupCacheTest {
+
+    @Test
+    public void cachesFoundAndMissingNames() throws Exception {
+        NameLookupCache cache = new NameLookupCache( "test-cached", 60, 60, 100 );
+
+        UUID id = UUID.randomUUID();
+        CountingLoader found = new CountingLoader( id );
+        CountingLoader missing = new CountingLoader( null );
+
+        assertEquals( id, cache.lookup( "org/app", found ) );
+        assertEquals( id, cache.lookup( "org/app", found ) );
+        assertEquals( 1, found.calls );
+
+        assertNull( cache.lookup( "org/none", missing ) );
+        assertNull( cache.lookup( "org/none", missing ) );
+        assertEquals( 1, missing.calls );
+    }
+
+
+    @Test
+    public void disabled() throws Exception {
+        NameLookupCache cache = new NameLookupCache( "test-disabled", 0, 60, 100 );
+
+        CountingLoader found = new CountingLoader( UUID.randomUUID() );
+        CountingLoader missing = new CountingLoader( null );
+
+        cache.lookup( "org/app", found );
+        cache.lookup( "org/app", found );
+        cache.lookup( "org/none", missing );
+        cache.lookup( "org/none", missing );
+
+        assertEquals( 2, found.calls );
+        assertEquals( 2, missing.calls );
+    }
+
+
+    @Test
+    public void missingNamesNotCached() throws Exception {
+        NameLookupCache cache = new NameLookupCache( "test-not-negative", 60, 0, 100 );
+
+        CountingLoader found = new CountingLoader( UUID.randomUUID() );
+        CountingLoader missing = new CountingLoader( null );
+
+        cache.lookup( "org/app", found );
+        cache.lookup( "org/app", found );
+        cache.lookup( "org/none", missing );
+        cache.lookup( "org/none", missing );
+
+        assertEquals( 1, found.calls );
+        assertEquals( 2, missing.calls );
+    }
+
+
+    @Test
+    public void invalidate() throws Exception {
+        NameLookupCache cache = new NameLookupCache( "test-invalidate", 60, 60, 100 );
+
+        UUID id = UUID.randomUUID();
+
+        assertNull( cache.lookup( "org/app", new CountingLoader( null ) ) );
+
+        cache.invalidate( "org/app" );
+
+        assertEquals( id, cache.lookup( "org/app", new CountingLoader( id ) ) );
+    }
+
+
+    @Test
+    public void invalidatedWhileLoading() throws Exception {
+        final NameLookupCache cache = new NameLookupCache( "test-invalidate-loading", 60, 60, 100 );
+
+        UUID id = UUID.randomUUID();
+
+        // the name is created while it's read, so the read missing it isn't cached
+        assertNull( cache.lookup( "org/app", new Callable<UUID>() {
+            @Override
+            public UUID call() throws Exception {
+                cache.invalidate( "org/app" );
+                return null;
+            }
+        } ) );
+
+        assertEquals( id, cache.lookup( "org/app", new CountingLoader( id ) ) );
+    }
+
+
+    private static class CountingLoader implements Callable<UUID> {
+
+        private final UUID id;
+        private int calls;
+
+
+        private CountingLoader( UUID id ) {
+            this.id = id;
+        }
+
+
+        @Override
+        public UUID call() throws Exception {
+            calls++;
+            return id;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.ir.result;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.persistence.DynamicEntity;
+import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.EntityPropertyComparator;
+import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.cassandra.CursorCache;
+import org.apache.usergrid.persistence.query.ir.QuerySlice;
+import org.apache.usergrid.persistence.query.ir.result.SecondaryIndexSliceParser.SecondaryIndexColumn;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import org.apache.commons.collections.comparators.ComparatorChain;
+
+import com.google.common.collect.Iterables;
+
+import static org.apache.usergrid.persistence.cassandra.Serializers.ue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class OrderByIteratorTest {
+
+    private static final int SIZE = 5000;
+
+
+    @Test
+    public void sortsPage() {
+        Entities entities = new Entities( SIZE );
+
+        OrderByIterator itr = entities.iterator( false, false, 10, null );
+
+        assertEquals( entities.sorted( false ).subList( 0, 10 ), ids( itr ) );
+
+        //every candidate is loaded exactly once
+        assertEquals( SIZE, entities.loaded );
+    }
+
+
+    @Test
+    public void stopsEarly() {
+        Entities entities = new Entities( SIZE );
+
+        OrderByIterator itr = entities.iterator( false, true, 10, null );
+
+        assertEquals( entities.sorted( false ).subList( 0, 10 ), ids( itr ) );
+
+        //the first load is past the tenth entry's rank, nothing after it can be in the page
+        assertEquals( OrderByIterator.LOAD_SIZE, entities.loaded );
+    }
+
+
+    @Test
+    public void stopsEarlyReversed() {
+        Entities entities = new Entities( SIZE );
+
+        OrderByIterator itr = entities.iterator( true, true, 10, null );
+
+        assertEquals( entities.sorted( true ).subList( 0, 10 ), ids( itr ) );
+        assertEquals( OrderByIterator.LOAD_SIZE, entities.loaded );
+    }
+
+
+    @Test
+    public void resumesFromCursor() {
+        Entities entities = new Entities( SIZE );
+
+        List<UUID> sorted = entities.sorted( false );
+
+        OrderByIterator itr = entities.iterator( false, true, 10, sorted.get( 9 ) );
+
+        assertEquals( sorted.subList( 10, 20 ), ids( itr ) );
+    }
+
+
+    @Test
+    public void pageLargerThanResults() {
+        Entities entities = new Entities( 25 );
+
+        OrderByIterator itr = entities.iterator( false, true, 100, null );
+
+        assertEquals( entities.sorted( false ), ids( itr ) );
+    }
+
+
+    private static List<UUID> ids( OrderByIterator itr ) {
+        List<UUID> ids = new ArrayList<UUID>();
+
+        while ( itr.hasNext() ) {
+            for ( ScanColumn col : itr.next() ) {
+                ids.add( col.getUUID() );
+            }
+        }
+
+        return ids;
+    }
+
+
+    /** Entities with a "rank" shared by 10 entities each, and a random "name" to sort the ties */
+    private static class Entities {
+
+        private final Map<UUID, Entity> entities = new HashMap<UUID, Entity>();
+
+        /** The number of entities loaded for sorting */
+        private int loaded;
+
+
+        private Entities( int size ) {
+            Random random = new Random( size );
+
+            for ( int i = 0; i < size; i++ ) {
+                UUID id = UUIDUtils.newTimeUUID();
+
+                Map<String, Object> properties = new HashMap<String, Object>();
+                properties.put( "uuid", id );
+                properties.put( "rank", ( long ) i / 10 );
+                properties.put( "name", Long.toHexString( random.nextLong() ) );
+
+                entities.put( id, new DynamicEntity( "thing", id, properties ) );
+            }
+        }
+
+
+        /** Every id sorted by rank, then name */
+        private List<UUID> sorted( boolean reversed ) {
+            List<Entity> all = new ArrayList<Entity>( entities.values() );
+            Collections.sort( all, comparator( reversed ) );
+
+            List<UUID> ids = new ArrayList<UUID>();
+
+            for ( Entity entity : all ) {
+                ids.add( entity.getUuid() );
+            }
+
+            return ids;
+        }
+
+
+        @SuppressWarnings("unchecked")
+        private Comparator<Entity> comparator( boolean reversed ) {
+            ComparatorChain chain = new ComparatorChain();
+            chain.addComparator( new EntityPropertyComparator( "rank", reversed ) );
+            chain.addComparator( new EntityPropertyComparator( "name", false ) );
+            chain.addComparator( new EntityPropertyComparator( "uuid", false ) );
+            return chain;
+        }
+
+
+        /** An order by rank and name, over candidates scanned from the rank index */
+        private OrderByIterator iterator( boolean reversed, boolean primaryOrdered, int pageSize, UUID cursor ) {
+            QuerySlice slice = new QuerySlice( "rank", 0 );
+
+            if ( reversed ) {
+                slice.reverse();
+            }
+
+            if ( cursor != null ) {
+                slice.setCursor( ue.toByteBuffer( cursor ) );
+            }
+
+            List<Query.SortPredicate> secondary = new ArrayList<Query.SortPredicate>();
+            secondary.add( new Query.SortPredicate( "name", Query.SortDirection.ASCENDING ) );
+
+            //the index holds rank, then uuid
+            List<Entity> scanned = new ArrayList<Entity>( entities.values() );
+
+            ComparatorChain index = new ComparatorChain();
+            index.addComparator( new EntityPropertyComparator( "rank", reversed ) );
+            index.addComparator( new EntityPropertyComparator( "uuid", false ) );
+
+            Collections.sort( scanned, index );
+
+            List<ScanColumn> candidates = new ArrayList<ScanColumn>();
+
+            for ( Entity entity : scanned ) {
+                candidates.add(
+                        new SecondaryIndexColumn( entity.getUuid(), entity.getProperty( "rank" ), ByteBuffer.allocate( 0 ) ) );
+            }
+
+            return new OrderByIterator( slice, secondary, new ListIterator( candidates, 100 ), entityManager(),
+                    pageSize, primaryOrdered );
+        }
+
+
+        /** An entity manager that only loads partial entities */
+        private EntityManager entityManager() {
+            return ( EntityManager ) Proxy.newProxyInstance( EntityManager.class.getClassLoader(),
+                    new Class<?>[] { EntityManager.class }, new InvocationHandler() {
+
+                        @Override
+                        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+                            if ( !method.getName().equals( "getPartialEntities" ) ) {
+                                throw new UnsupportedOperationException( method.getName() );
+                            }
+
+                            List<Entity> results = new ArrayList<Entity>();
+
+                            for ( Object id : ( Collection<?> ) args[0] ) {
+                                Entity entity = entities.get( id );
+
+                                if ( entity != null ) {
+                                    results.add( entity );
+                                    loaded++;
+                                }
+                            }
+
+                            return results;
+                        }
+                    } );
+        }
+    }
+
+
+    /** Pages through a list of columns */
+    private static class ListIterator implements ResultIterator {
+
+        private final List<ScanColumn> columns;
+        private final int pageSize;
+        private Iterator<List<ScanColumn>> pages;
+
+
+        private ListIterator( List<ScanColumn> columns, int pageSize ) {
+            this.columns = columns;
+            this.pageSize = pageSize;
+            reset();
+        }
+
+
+        @Override
+        public Iterator<Set<ScanColumn>> iterator() {
+            return this;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            return pages.hasNext();
+        }
+
+
+        @Override
+        public Set<ScanColumn> next() {
+            return new LinkedHashSet<ScanColumn>( pages.next() );
+        }
+
+
+        @Override
+        public void reset() {
+            pages = Iterables.partition( columns, pageSize ).iterator();
+        }
+
+
+        @Override
+        public void remove() {
+        }
+
+
+        @Override
+        public void finalizeCursor( CursorCache cache, UUID lastValue ) {
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.tree;
+
+
+import java.util.UUID;
+
+import org.antlr.runtime.RecognitionException;
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.persistence.Query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+
+@Concurrent()
+public class QueryPlanCacheTest {
+
+    @Test
+    public void literalsShareAPlan() throws RecognitionException {
+        QueryPlanCache cache = new QueryPlanCache( 100 );
+
+        Equal first = ( Equal ) cache.parse( "select * where a = 5" ).getRootOperand();
+        Equal second = ( Equal ) cache.parse( "select * where a   =   6" ).getRootOperand();
+
+        assertEquals( 1, cache.size() );
+
+        assertEquals( "a", first.getProperty().getValue() );
+        assertEquals( 5L, ( ( LongLiteral ) first.getLiteral() ).getValue().longValue() );
+
+        assertEquals( "a", second.getProperty().getValue() );
+        assertEquals( 6L, ( ( LongLiteral ) second.getLiteral() ).getValue().longValue() );
+
+        //repeated exactly, bound from the literals lexed the first time
+        Equal third = ( Equal ) cache.parse( "select * where a = 5" ).getRootOperand();
+
+        assertNotSame( first, third );
+        assertEquals( 5L, ( ( LongLiteral ) third.getLiteral() ).getValue().longValue() );
+    }
+
+
+    @Test
+    public void shapesDontShareAPlan() throws RecognitionException {
+        QueryPlanCache cache = new QueryPlanCache( 100 );
+
+        cache.parse( "select * where a = 5" );
+        cache.parse( "select * where b = 5" );
+        cache.parse( "select * where a > 5" );
+        cache.parse( "select * where a = 'foo'" );
+        cache.parse( "select * where a = 5 order by b" );
+
+        assertEquals( 5, cache.size() );
+    }
+
+
+    @Test
+    public void bindsEveryLiteral() throws RecognitionException {
+        QueryPlanCache cache = new QueryPlanCache( 100 );
+
+        UUID id = UUID.randomUUID();
+
+        cache.parse( "select * where a = 'foo' and (b > 1.5 or c = true) and d = " + UUID.randomUUID()
+                + " and loc within 10 of 1.5, -2.5" );
+
+        Query query = cache.parse(
+                "select * where a = 'bar' and (b > 3.5 or c = false) and d = " + id + " and loc within 20 of 3.5, 4.5" );
+
+        AndOperand root = ( AndOperand ) query.getRootOperand();
+        AndOperand left = ( AndOperand ) root.getLeft();
+        AndOperand leftLeft = ( AndOperand ) left.getLeft();
+
+        assertEquals( "bar", ( ( Equal ) leftLeft.getLeft() ).getLiteral().getValue() );
+
+        OrOperand or = ( OrOperand ) leftLeft.getRight();
+
+        assertEquals( 3.5f, ( ( FloatLiteral ) ( ( GreaterThan ) or.getLeft() ).getLiteral() ).getValue(), 0 );
+        assertEquals( false, ( ( Equal ) or.getRight() ).getLiteral().getValue() );
+
+        assertEquals( id, ( ( Equal ) left.getRight() ).getLiteral().getValue() );
+
+        WithinOperand within = ( WithinOperand ) root.getRight();
+
+        assertEquals( 20L, within.getDistance().getFloatValue(), 0 );
+        assertEquals( 3.5f, within.getLattitude().getFloatValue(), 0 );
+        assertEquals( 4.5f, within.getLongitude().getFloatValue(), 0 );
+
+        assertEquals( 1, cache.size() );
+    }
+
+
+    @Test
+    public void selectsAndSorts() throws RecognitionException {
+        QueryPlanCache cache = new QueryPlanCache( 100 );
+
+        cache.parse( "select name, age where a = 1 order by name desc" );
+
+        Query query = cache.parse( "select name, age where a = 2 order by name desc" );
+
+        assertEquals( 2, query.getSelectAssignments().size() );
+        assertEquals( 1, query.getSortPredicates().size() );
+        assertEquals( Query.SortDirection.DESCENDING, query.getSortPredicates().get( 0 ).getDirection() );
+    }
+
+
+    @Test
+    public void copiesAreIndependent() throws RecognitionException {
+        QueryPlanCache cache = new QueryPlanCache( 100 );
+
+        Query first = cache.parse( "select * where a = 5" );
+        first.addEqualityFilter( "b", 6 );
+        first.addSort( "c" );
+
+        Query second = cache.parse( "select * where a = 5" );
+
+        assertNotSame( first.getRootOperand(), second.getRootOperand() );
+        assertEquals( Equal.class, second.getRootOperand().getClass() );
+        assertNull( second.getRootOperand().getParent() );
+        assertEquals( 0, second.getSortPredicates().size() );
+    }
+
+
+    @Test
+    public void disabled() throws RecognitionException {
+        QueryPlanCache cache = new QueryPlanCache( 0 );
+
+        Equal equal = ( Equal ) cache.parse( "select * where a = 5" ).getRootOperand();
+
+        assertEquals( 5L, ( ( LongLiteral ) equal.getLiteral() ).getValue().longValue() );
+        assertEquals( 0, cache.size() );
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.utils;
+
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.persistence.Schema;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@Concurrent()
+public class CompactValueUtilsTest {
+
+    @Test
+    public void readsLikeSmile() {
+        UUID id = UUIDUtils.newTimeUUID();
+
+        Object[] values = {
+                "hello", "ünïcode ✓", "", id, id.toString(), 5, 5L, -3, 1L << 40, Long.MIN_VALUE, 1.5,
+                1.5f, true, false, Arrays.asList( 1, id, id.toString(), "x" ), new Object[] { 2, "y" }, properties( id )
+        };
+
+        for ( Object value : values ) {
+            assertEquals( String.valueOf( value ), smile( value ), compact( value ) );
+        }
+    }
+
+
+    @Test
+    public void readsNestedLikeSmile() {
+        UUID id = UUIDUtils.newTimeUUID();
+
+        List<Object> list = new ArrayList<Object>();
+        list.add( properties( id ) );
+        list.add( Arrays.asList( properties( id ), 7 ) );
+
+        Map<String, Object> map = properties( id );
+        map.put( "list", list );
+        map.put( "map", properties( id ) );
+
+        //only some of the uuids and ints are converted, so check the types match wherever they are
+        assertEquals( smile( list ), compact( list ) );
+        assertEquals( smile( map ), compact( map ) );
+    }
+
+
+    @Test
+    public void readsAsClass() {
+        UUID id = UUIDUtils.newTimeUUID();
+
+        ByteBuffer bytes = CompactValueUtils.toByteBuffer( properties( id ) );
+
+        assertEquals( JsonUtils.normalizeJsonTree( JsonUtils.fromByteBuffer( smileBytes( properties( id ) ), Map.class ) ),
+                CompactValueUtils.fromByteBuffer( bytes.duplicate(), Map.class ) );
+
+        assertEquals( 5L, CompactValueUtils.fromByteBuffer( CompactValueUtils.toByteBuffer( 5 ), Long.class ) );
+        assertEquals( id, CompactValueUtils.fromByteBuffer( CompactValueUtils.toByteBuffer( id ), String.class ) );
+    }
+
+
+    @Test
+    public void bytes() {
+        byte[] data = { 0, 1, 2, ( byte ) 0xFF };
+
+        assertArrayEquals( data, ( byte[] ) compact( data ) );
+    }
+
+
+    @Test
+    public void readsBothFormats() {
+        UUID id = UUIDUtils.newTimeUUID();
+
+        ByteBuffer legacy = Schema.serializePropertyValueToJsonBinary( JsonUtils.toJsonNode( properties( id ) ) );
+        ByteBuffer bytes = CompactValueUtils.toByteBuffer( properties( id ) );
+
+        assertFalse( CompactValueUtils.isCompact( legacy ) );
+        assertTrue( CompactValueUtils.isCompact( bytes ) );
+        assertTrue( bytes.remaining() < legacy.remaining() );
+
+        assertEquals( Schema.deserializePropertyValueFromJsonBinary( legacy ),
+                Schema.deserializePropertyValueFromJsonBinary( bytes ) );
+    }
+
+
+    @Test
+    public void unsupportedValues() {
+        Map<Object, Object> uuidKeys = new LinkedHashMap<Object, Object>();
+        uuidKeys.put( UUIDUtils.newTimeUUID(), 1 );
+
+        assertNull( CompactValueUtils.toByteBuffer( null ) );
+        assertNull( CompactValueUtils.toByteBuffer( new Date() ) );
+        assertNull( CompactValueUtils.toByteBuffer( BigDecimal.ONE ) );
+        assertNull( CompactValueUtils.toByteBuffer( Arrays.asList( 1, new Date() ) ) );
+        assertNull( CompactValueUtils.toByteBuffer( uuidKeys ) );
+
+        //left to smile
+        Date date = new Date();
+        assertEquals( date.getTime(), Schema.deserializePropertyValueFromJsonBinary( Schema.serializePropertyValue( date ) ) );
+    }
+
+
+    @Test
+    public void truncated() {
+        ByteBuffer bytes = CompactValueUtils.toByteBuffer( properties( UUIDUtils.newTimeUUID() ) );
+        bytes.limit( bytes.limit() - 3 );
+
+        assertNull( CompactValueUtils.fromByteBuffer( bytes ) );
+    }
+
+
+    private static Map<String, Object> properties( UUID id ) {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put( "name", id.toString() );
+        properties.put( "owner", id );
+        properties.put( "ownerString", id.toString() );
+        properties.put( "count", 3 );
+        properties.put( "big", 1L << 40 );
+        properties.put( "score", 2.5 );
+        properties.put( "active", true );
+        properties.put( "missing", null );
+        properties.put( "tags", Arrays.asList( "a", id, 4 ) );
+        properties.put( "address", MapUtils.map( "id", id, "zip", 94107 ) );
+        return properties;
+    }
+
+
+    private static ByteBuffer smileBytes( Object value ) {
+        return JsonUtils.toByteBuffer( JsonUtils.toJsonNode( value ) );
+    }
+
+
+    private static Object smile( Object value ) {
+        return JsonUtils.normalizeJsonTree( JsonUtils.fromByteBuffer( smileBytes( value ) ) );
+    }
+
+
+    private static Object compact( Object value ) {
+        return CompactValueUtils.fromByteBuffer( CompactValueUtils.toByteBuffer( value ) );
+    }
+}
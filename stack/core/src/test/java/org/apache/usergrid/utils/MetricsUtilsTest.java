@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.utils;
+
+
+import org.junit.Test;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class MetricsUtilsTest {
+
+    @Test
+    public void latestGaugeReported() {
+        MetricsUtils.replaceGauge( MetricsUtilsTest.class, "latest", new ConstantGauge( 1 ) );
+        MetricsUtils.replaceGauge( MetricsUtilsTest.class, "latest", new ConstantGauge( 2 ) );
+
+        Gauge<?> gauge = ( Gauge<?> ) Metrics.defaultRegistry().allMetrics()
+                                             .get( new MetricName( MetricsUtilsTest.class, "latest" ) );
+
+        assertEquals( 2L, gauge.value() );
+    }
+
+
+    private static class ConstantGauge extends Gauge<Long> {
+
+        private final long value;
+
+
+        private ConstantGauge( long value ) {
+            this.value = value;
+        }
+
+
+        @Override
+        public Long value() {
+            return value;
+        }
+    }
+}
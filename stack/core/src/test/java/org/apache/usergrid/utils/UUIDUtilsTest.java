@@ -220,6 +220,69 @@ public class UUIDUtilsTest {
     }
 
 
+    @Test
+    public void concurrentUniqueAndOrdered() throws Exception {
+        final int count = 1000 * 50;
+
+        ExecutorService exec = Executors.newFixedThreadPool( 8 );
+        List<Future<List<UUID>>> jobs = new ArrayList<Future<List<UUID>>>();
+
+        for ( int x = 0; x < 8; x++ ) {
+            jobs.add( exec.submit( new Callable<List<UUID>>() {
+                @Override
+                public List<UUID> call() throws Exception {
+                    List<UUID> created = new ArrayList<UUID>( count );
+
+                    for ( int i = 0; i < count; i++ ) {
+                        created.add( newTimeUUID() );
+                    }
+
+                    return created;
+                }
+            } ) );
+        }
+
+        Set<Long> micros = new HashSet<Long>();
+
+        for ( Future<List<UUID>> job : jobs ) {
+            List<UUID> created = job.get();
+
+            for ( int i = 0; i < created.size(); i++ ) {
+                assertTrue( "Timestamp already generated",
+                        micros.add( UUIDUtils.getTimestampInMicros( created.get( i ) ) ) );
+
+                if ( i > 0 ) {
+                    assertTrue( created.get( i - 1 ).timestamp() < created.get( i ).timestamp() );
+                }
+            }
+        }
+
+        exec.shutdown();
+
+        assertEquals( count * 8, micros.size() );
+    }
+
+
+    @Test
+    public void clockSetBackDoesntWait() throws InterruptedException {
+        long lead = System.currentTimeMillis() + 500;
+
+        // the clock is behind the last timestamp handed out, as if it was set back
+        UUIDUtils.lastTimestamp.set( lead * 10000 );
+
+        long start = System.currentTimeMillis();
+        UUID uuid = newTimeUUID();
+
+        assertTrue( System.currentTimeMillis() - start < 100 );
+        assertTrue( getTimestampInMillis( uuid ) >= lead );
+
+        // let the clock catch up, so the other tests see uuids in line with it
+        while ( System.currentTimeMillis() <= lead ) {
+            TimeUnit.MILLISECONDS.sleep( 10 );
+        }
+    }
+
+
     @Test
     public void timeUUIDOrderingRolls() {
 
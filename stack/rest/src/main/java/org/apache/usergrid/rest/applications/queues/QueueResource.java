@@ -62,6 +62,9 @@ public class QueueResource extends AbstractContextResource {
 
     static final Logger logger = LoggerFactory.getLogger( QueueResource.class );
 
+    /** The most messages that can be posted in one array, they're written in batches by the queue manager */
+    public static final int MAX_POST_MESSAGES = 10000;
+
     QueueManager mq;
     String queuePath = "";
 
@@ -165,6 +168,19 @@ public class QueueResource extends AbstractContextResource {
                     callback );
         }
         else if ( json instanceof List ) {
+            List<?> list = ( List<?> ) json;
+
+            if ( list.size() > MAX_POST_MESSAGES ) {
+                throw new IllegalArgumentException(
+                        "Can't post " + list.size() + " messages at once, the most is " + MAX_POST_MESSAGES );
+            }
+
+            for ( Object message : list ) {
+                if ( !( message instanceof Map ) ) {
+                    throw new IllegalArgumentException( "Every message posted in an array must be an object" );
+                }
+            }
+
             return new JSONWithPadding( new QueueResults(
                     mq.postToQueue( queuePath, Message.fromList( ( List<Map<String, Object>> ) json ) ) ), callback );
         }
@@ -17,8 +17,12 @@
 package org.apache.usergrid.rest.applications.queues;
 
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.PUT;
@@ -38,8 +42,10 @@ import org.apache.usergrid.mq.QueueManager;
 import org.apache.usergrid.mq.QueueQuery;
 import org.apache.usergrid.persistence.Results;
 import org.apache.usergrid.rest.AbstractContextResource;
+import org.apache.usergrid.utils.UUIDUtils;
 
 import com.sun.jersey.api.json.JSONWithPadding;
+import com.sun.jersey.core.provider.EntityHolder;
 
 import static org.apache.usergrid.utils.MapUtils.hashMap;
 
@@ -54,6 +60,9 @@ public class QueueTransactionsResource extends AbstractContextResource {
 
     static final Logger logger = LoggerFactory.getLogger( QueueTransactionsResource.class );
 
+    /** The most transactions that can be renewed or committed at once, as many as one transactional read returns */
+    public static final int MAX_TRANSACTIONS = 10000;
+
     QueueManager mq;
     String queuePath = "";
     String subscriptionPath = "";
@@ -97,4 +106,68 @@ public class QueueTransactionsResource extends AbstractContextResource {
 
         return new JSONWithPadding( Results.fromData( hashMap( "transaction", transactionId ) ), callback );
     }
+
+
+    /** Renew every transaction in the body, an array of ids or an object with a "transactions" array */
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    public JSONWithPadding updateTransactions( @Context UriInfo ui, EntityHolder<Object> body,
+                                               @QueryParam("callback") @DefaultValue("callback") String callback )
+            throws Exception {
+
+        QueueQuery query = QueueQuery.fromQueryParams( ui.getQueryParameters() );
+
+        Map<UUID, UUID> transactions = mq.renewTransactions( queuePath, getTransactionIds( body ), query );
+
+        return new JSONWithPadding( Results.fromData( hashMap( "transactions", transactions ) ), callback );
+    }
+
+
+    /** Commit every transaction in the body, an array of ids or an object with a "transactions" array */
+    @DELETE
+    @Consumes(MediaType.APPLICATION_JSON)
+    public JSONWithPadding removeTransactions( @Context UriInfo ui, EntityHolder<Object> body,
+                                               @QueryParam("callback") @DefaultValue("callback") String callback )
+            throws Exception {
+
+        QueueQuery query = QueueQuery.fromQueryParams( ui.getQueryParameters() );
+
+        Map<UUID, Boolean> transactions = mq.deleteTransactions( queuePath, getTransactionIds( body ), query );
+
+        return new JSONWithPadding( Results.fromData( hashMap( "transactions", transactions ) ), callback );
+    }
+
+
+    private static List<UUID> getTransactionIds( EntityHolder<Object> body ) {
+        Object json = body.hasEntity() ? body.getEntity() : null;
+
+        if ( json instanceof Map ) {
+            json = ( ( Map<?, ?> ) json ).get( "transactions" );
+        }
+
+        if ( !( json instanceof List ) ) {
+            throw new IllegalArgumentException( "Transactions must be an array of ids" );
+        }
+
+        List<?> list = ( List<?> ) json;
+
+        if ( list.size() > MAX_TRANSACTIONS ) {
+            throw new IllegalArgumentException(
+                    "Can't update " + list.size() + " transactions at once, the most is " + MAX_TRANSACTIONS );
+        }
+
+        List<UUID> transactionIds = new ArrayList<UUID>( list.size() );
+
+        for ( Object id : list ) {
+            UUID transactionId = UUIDUtils.tryGetUUID( id == null ? null : id.toString() );
+
+            if ( transactionId == null ) {
+                throw new IllegalArgumentException( "Invalid transaction id " + id );
+            }
+
+            transactionIds.add( transactionId );
+        }
+
+        return transactionIds;
+    }
 }
@@ -39,7 +39,9 @@ import org.apache.usergrid.utils.MapUtils;
 import com.sun.jersey.api.client.UniformInterfaceException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 
@@ -94,6 +96,76 @@ public class QueueResourceShortIT extends AbstractQueueResourceIT {
     }
 
 
+    /** Post more messages than are written in one batch in a single request */
+    @Test
+    public void bulkPost() {
+        Queue queue = context.application().queues().queue( "test" );
+
+        final int count = 250;
+
+        @SuppressWarnings("unchecked") Map<String, ?>[] data = new Map[count];
+
+        for ( int i = 0; i < count; i++ ) {
+            data[i] = MapUtils.hashMap( "id", i );
+        }
+
+        queue.post( data );
+
+        queue = queue.withLimit( 50 );
+
+        IncrementHandler handler = new IncrementHandler( count );
+
+        testMessages( queue, handler, new NoLastCommand() );
+
+        handler.assertResults();
+    }
+
+
+    /** Renew and commit a page of transactions in one request each */
+    @Test
+    public void batchTransactions() {
+        Queue queue = context.application().queues().queue( "test" );
+
+        final int count = 20;
+
+        for ( int i = 0; i < count; i++ ) {
+            queue.post( MapUtils.hashMap( "id", i ) );
+        }
+
+        List<JsonNode> messages = queue.withLimit( count ).withTimeout( 60000 ).getNextPage();
+
+        assertEquals( count, messages.size() );
+
+        List<String> transactions = new ArrayList<String>();
+
+        for ( JsonNode message : messages ) {
+            transactions.add( message.get( "transaction" ).asText() );
+        }
+
+        JsonNode renewed = queue.transactions().renew( transactions, 60000 ).get( "data" ).get( "transactions" );
+
+        List<String> renewedTransactions = new ArrayList<String>();
+
+        for ( String transaction : transactions ) {
+            assertFalse( renewed.get( transaction ).isNull() );
+            renewedTransactions.add( renewed.get( transaction ).asText() );
+        }
+
+        // the old transactions are gone, the new ones are committed
+        JsonNode committed = queue.transactions().delete( transactions ).get( "data" ).get( "transactions" );
+
+        for ( String transaction : transactions ) {
+            assertFalse( committed.get( transaction ).asBoolean() );
+        }
+
+        committed = queue.transactions().delete( renewedTransactions ).get( "data" ).get( "transactions" );
+
+        for ( String transaction : renewedTransactions ) {
+            assertTrue( committed.get( transaction ).asBoolean() );
+        }
+    }
+
+
     /** Read all messages with the client, then re-issue the reads from the start position to test we do this
      * properly */
     @Test
@@ -17,6 +17,9 @@
 package org.apache.usergrid.rest.test.resource.app.queue;
 
 
+import java.util.List;
+
+import org.codehaus.jackson.JsonNode;
 import org.apache.usergrid.rest.test.resource.NamedResource;
 import org.apache.usergrid.rest.test.resource.ValueResource;
 
@@ -33,4 +36,17 @@ public class TransactionsCollection extends ValueResource {
     public Transaction transaction( String id ) {
         return new Transaction( id, this );
     }
+
+
+    /** Renew the transactions in one request */
+    public JsonNode renew( List<String> ids, long timeout ) {
+        return jsonMedia( withToken( resource() ).queryParam( "timeout", String.valueOf( timeout ) ) )
+                .put( JsonNode.class, ids );
+    }
+
+
+    /** Commit the transactions in one request */
+    public JsonNode delete( List<String> ids ) {
+        return jsonMedia( withToken( resource() ) ).delete( JsonNode.class, ids );
+    }
 }
@@ -27,6 +27,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,6 +65,7 @@ import org.apache.usergrid.persistence.PagingResultsIterator;
 import org.apache.usergrid.persistence.Results;
 import org.apache.usergrid.persistence.Results.Level;
 import org.apache.usergrid.persistence.SimpleEntityRef;
+import org.apache.usergrid.persistence.cassandra.NameLookupCache;
 import org.apache.usergrid.persistence.entities.Application;
 import org.apache.usergrid.persistence.entities.Group;
 import org.apache.usergrid.persistence.entities.User;
@@ -231,6 +233,9 @@ public class ManagementServiceImpl implements ManagementService {
 
     protected EncryptionService encryptionService;
 
+    /** Caches organization ids by name, null to read them every time */
+    protected NameLookupCache organizationNames;
+
 
     /** Must be constructed with a CassandraClientPool. */
     public ManagementServiceImpl() {
@@ -525,6 +530,7 @@ public class ManagementServiceImpl implements ManagementService {
         Group organizationEntity = new Group();
         organizationEntity.setPath( organizationName );
         organizationEntity = em.create( organizationEntity );
+        organizationNameChanged( organizationName );
 
         em.addToCollection( organizationEntity, "users", new SimpleEntityRef( User.ENTITY_TYPE, user.getUuid() ) );
 
@@ -632,6 +638,7 @@ public class ManagementServiceImpl implements ManagementService {
         properties.put( PROPERTY_PATH, organizationName );
         properties.put( PROPERTY_SECRET, generateOAuthSecretKey( AuthPrincipalType.ORGANIZATION ) );
         Entity organization = em.create( organizationId, Group.ENTITY_TYPE, properties );
+        organizationNameChanged( organizationName );
         // em.addToCollection(organization, "users", new SimpleEntityRef(
         // User.ENTITY_TYPE, userId));
         return new OrganizationInfo( organization.getUuid(), organizationName );
@@ -725,12 +732,39 @@ public class ManagementServiceImpl implements ManagementService {
             return null;
         }
 
-        EntityManager em = emf.getEntityManager( MANAGEMENT_APPLICATION_ID );
-        EntityRef ref = em.getAlias( "group", organizationName );
-        if ( ref == null ) {
+        UUID organizationId = lookupOrganizationId( organizationName );
+        if ( organizationId == null ) {
             return null;
         }
-        return getOrganizationByUuid( ref.getUuid() );
+        return getOrganizationByUuid( organizationId );
+    }
+
+
+    /** The id of the organization with the name, from the name cache if there is one */
+    private UUID lookupOrganizationId( final String organizationName ) throws Exception {
+        Callable<UUID> loader = new Callable<UUID>() {
+            @Override
+            public UUID call() throws Exception {
+                EntityManager em = emf.getEntityManager( MANAGEMENT_APPLICATION_ID );
+                EntityRef ref = em.getAlias( "group", organizationName );
+                return ( ref != null ) ? ref.getUuid() : null;
+            }
+        };
+
+        if ( organizationNames == null ) {
+            return loader.call();
+        }
+
+        // aliases are unique regardless of case, so the cache is too
+        return organizationNames.lookup( organizationName.toLowerCase(), loader );
+    }
+
+
+    /** Drop the cached id of the organization name, when an organization is created with it */
+    private void organizationNameChanged( String organizationName ) {
+        if ( ( organizationNames != null ) && ( organizationName != null ) ) {
+            organizationNames.invalidate( organizationName.toLowerCase() );
+        }
     }
 
 
@@ -2903,6 +2937,12 @@ public class ManagementServiceImpl implements ManagementService {
     }
 
 
+    /** @param organizationNames the cache of organization ids by name, null to not cache them */
+    public void setOrganizationNameCache( NameLookupCache organizationNames ) {
+        this.organizationNames = organizationNames;
+    }
+
+
     @Override
     public Object registerAppWithAPM( OrganizationInfo orgInfo, ApplicationInfo appInfo ) throws Exception {
         // TODO Auto-generated method stub
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.shiro;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.persistence.cassandra.PermissionVersions;
+
+import org.apache.shiro.authz.Permission;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+
+
+/**
+ * Caches the permissions and roles {@link Realm} builds for an application user or guest, already resolved into
+ * permission objects, by application and user.
+ * <p/>
+ * Entries are kept with the {@link PermissionVersions version} of the application read before they were built, and
+ * are dropped once a role, group or permission of the application changes on this node. Changes made on other nodes
+ * are seen when the entries expire.
+ */
+public class ApplicationPermissionsCache {
+
+    private final Meter hits = Metrics.newMeter( ApplicationPermissionsCache.class, "hits", "reads", TimeUnit.SECONDS );
+    private final Meter misses =
+            Metrics.newMeter( ApplicationPermissionsCache.class, "misses", "reads", TimeUnit.SECONDS );
+    private final Meter stale =
+            Metrics.newMeter( ApplicationPermissionsCache.class, "stale", "reads", TimeUnit.SECONDS );
+
+    private final Cache<Key, Entry> permissions;
+
+    private final PermissionVersions versions;
+
+
+    /**
+     * @param ttlSeconds How long permissions are cached, 0 doesn't cache them
+     * @param maxSize The most users to cache permissions for
+     * @param versions The versions of the roles and permissions of each application
+     */
+    public ApplicationPermissionsCache( long ttlSeconds, int maxSize, PermissionVersions versions ) {
+        this.versions = versions;
+
+        permissions = CacheBuilder.newBuilder().maximumSize( ttlSeconds > 0 ? maxSize : 0 )
+                                  .expireAfterWrite( Math.max( 1, ttlSeconds ), TimeUnit.SECONDS ).build();
+
+        Metrics.newGauge( ApplicationPermissionsCache.class, "size", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return permissions.size();
+            }
+        } );
+    }
+
+
+    /** The version to pass to {@link #put(UUID, UUID, ApplicationPermissions, long)}, read before building them */
+    public long getVersion( UUID applicationId ) {
+        return versions.getVersion( applicationId );
+    }
+
+
+    /**
+     * The cached permissions of the user
+     *
+     * @param userId The user, or null for the guest of the application
+     *
+     * @return The permissions, or null if they aren't cached or the application has changed since
+     */
+    public ApplicationPermissions get( UUID applicationId, UUID userId ) {
+        Key key = new Key( applicationId, userId );
+        Entry entry = permissions.getIfPresent( key );
+
+        if ( ( entry != null ) && ( entry.version != versions.getVersion( applicationId ) ) ) {
+            permissions.invalidate( key );
+            stale.mark();
+            entry = null;
+        }
+
+        if ( entry == null ) {
+            misses.mark();
+            return null;
+        }
+
+        hits.mark();
+
+        return entry.permissions;
+    }
+
+
+    /**
+     * Cache the permissions of the user, unless the application changed since the version was read
+     *
+     * @param userId The user, or null for the guest of the application
+     * @param readVersion The version of the application before the permissions were built
+     */
+    public void put( UUID applicationId, UUID userId, ApplicationPermissions built, long readVersion ) {
+        if ( versions.getVersion( applicationId ) == readVersion ) {
+            permissions.put( new Key( applicationId, userId ), new Entry( built, readVersion ) );
+        }
+    }
+
+
+    /** The permissions and roles of a user or guest in an application */
+    public static final class ApplicationPermissions {
+
+        private final String applicationName;
+        private final PermissionMatcher permissions;
+        private final List<RoleGrant> roles;
+
+
+        public ApplicationPermissions( String applicationName, Collection<Permission> permissions,
+                                       Collection<RoleGrant> roles ) {
+            this.applicationName = applicationName;
+            this.permissions = new PermissionMatcher( permissions );
+            this.roles = Collections.unmodifiableList( new ArrayList<RoleGrant>( roles ) );
+        }
+
+
+        /** The name of the application, null if it couldn't be read */
+        public String getApplicationName() {
+            return applicationName;
+        }
+
+
+        /** The permissions granted regardless of the token */
+        public List<Permission> getPermissions() {
+            return permissions.getPermissions();
+        }
+
+
+        /** The permissions granted regardless of the token, compiled to match requests */
+        public PermissionMatcher getMatcher() {
+            return permissions;
+        }
+
+
+        /** The roles, granted only while the token hasn't been inactive for longer than they allow */
+        public List<RoleGrant> getRoles() {
+            return roles;
+        }
+    }
+
+
+    /** A role of the user and the permissions it grants */
+    public static final class RoleGrant {
+
+        private final String role;
+        private final long inactivity;
+        private final PermissionMatcher permissions;
+
+
+        /**
+         * @param role The role granted to the user
+         * @param inactivity The longest the token may be inactive for the role to be granted, 0 for no limit
+         */
+        public RoleGrant( String role, long inactivity, Collection<Permission> permissions ) {
+            this.role = role;
+            this.inactivity = inactivity;
+            this.permissions = new PermissionMatcher( permissions );
+        }
+
+
+        public String getRole() {
+            return role;
+        }
+
+
+        /** True if the role is granted to a token that has been inactive for this long */
+        public boolean isGranted( long tokenInactive ) {
+            return ( inactivity <= 0 ) || ( tokenInactive <= inactivity );
+        }
+
+
+        public List<Permission> getPermissions() {
+            return permissions.getPermissions();
+        }
+
+
+        /** The permissions of the role, compiled to match requests */
+        public PermissionMatcher getMatcher() {
+            return permissions;
+        }
+    }
+
+
+    private static final class Entry {
+
+        private final ApplicationPermissions permissions;
+        private final long version;
+
+
+        private Entry( ApplicationPermissions permissions, long version ) {
+            this.permissions = permissions;
+            this.version = version;
+        }
+    }
+
+
+    private static final class Key {
+
+        private final UUID applicationId;
+        private final UUID userId;
+
+
+        private Key( UUID applicationId, UUID userId ) {
+            this.applicationId = applicationId;
+            this.userId = userId;
+        }
+
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !( o instanceof Key ) ) {
+                return false;
+            }
+
+            Key other = ( Key ) o;
+
+            return applicationId.equals( other.applicationId ) && ( userId == null ? other.userId == null :
+                                                                    userId.equals( other.userId ) );
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * applicationId.hashCode() + ( userId == null ? 0 : userId.hashCode() );
+        }
+    }
+}
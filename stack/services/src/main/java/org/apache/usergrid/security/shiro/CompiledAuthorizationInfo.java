@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.shiro;
+
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+
+
+/**
+ * Authorization info that holds compiled {@link PermissionMatcher}s next to the permissions added one at a time, so
+ * {@link Realm} can check large sets of application permissions without comparing the request with each of them.
+ */
+public class CompiledAuthorizationInfo extends SimpleAuthorizationInfo {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<PermissionMatcher> matchers = new ArrayList<PermissionMatcher>();
+
+
+    /** Grant all the permissions of the matcher */
+    public void addMatcher( PermissionMatcher matcher ) {
+        matchers.add( matcher );
+    }
+
+
+    /** True if any of the granted permissions implies the permission */
+    public boolean implies( Permission permission ) {
+        for ( PermissionMatcher matcher : matchers ) {
+            if ( matcher.implies( permission ) ) {
+                return true;
+            }
+        }
+
+        if ( objectPermissions != null ) {
+            for ( Permission granted : objectPermissions ) {
+                if ( granted.implies( permission ) ) {
+                    return true;
+                }
+            }
+        }
+
+        // resolved the way CustomPermissionResolver does, which is the only resolver the realm accepts
+        if ( stringPermissions != null ) {
+            for ( String granted : stringPermissions ) {
+                if ( new CustomPermission( granted ).implies( permission ) ) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+    /** The permissions added one at a time and the permissions of the matchers */
+    @Override
+    public Set<Permission> getObjectPermissions() {
+        if ( matchers.isEmpty() ) {
+            return objectPermissions;
+        }
+
+        Set<Permission> permissions = new HashSet<Permission>();
+
+        if ( objectPermissions != null ) {
+            permissions.addAll( objectPermissions );
+        }
+
+        for ( PermissionMatcher matcher : matchers ) {
+            permissions.addAll( matcher.getPermissions() );
+        }
+
+        return permissions;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.shiro;
+
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.WildcardPermission;
+
+
+/**
+ * Matches a permission against a set of granted permissions without checking every grant.
+ * <p/>
+ * Application path grants, "applications:&lt;operations&gt;:&lt;applications&gt;:&lt;paths&gt;", are indexed by
+ * operation and then in a tree by the literal segments their paths start with, up to the first segment with a
+ * wildcard, a variable or "me". A requested path only walks the tree along its own segments, so it's compared with
+ * the grants that start with a prefix of it, rather than with all of them. The grants found are still checked with
+ * {@link CustomPermission#implies(Permission)}, so the index only decides which grants are compared, never whether
+ * one matches.
+ * <p/>
+ * Any other grant, and any other kind of request, is checked against every grant that isn't indexed, or against
+ * all of them.
+ */
+public class PermissionMatcher implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String APPLICATIONS = "applications";
+
+    /** The wildcard token of {@link WildcardPermission} */
+    private static final String WILDCARD = "*";
+
+    private final List<Permission> permissions;
+
+    /** Path grants by operation, with the grants for any operation under the wildcard */
+    private final Map<String, Node> operations = new HashMap<String, Node>();
+
+    /** Path grants for every path, which also imply requests without a path */
+    private final List<Permission> anyPath = new ArrayList<Permission>();
+
+    /** Grants that aren't indexed, checked for every request */
+    private final List<Permission> unindexed = new ArrayList<Permission>();
+
+
+    public PermissionMatcher( Collection<? extends Permission> permissions ) {
+        this.permissions = Collections.unmodifiableList( new ArrayList<Permission>( permissions ) );
+
+        for ( Permission permission : this.permissions ) {
+            if ( !index( permission ) ) {
+                unindexed.add( permission );
+            }
+        }
+    }
+
+
+    /** All the granted permissions */
+    public List<Permission> getPermissions() {
+        return permissions;
+    }
+
+
+    /** True if any granted permission implies the permission */
+    public boolean implies( Permission permission ) {
+        if ( !( permission instanceof CustomPermission ) ) {
+            return impliedBy( permissions, permission );
+        }
+
+        List<Set<String>> parts = ( ( CustomPermission ) permission ).getParts();
+
+        if ( !isApplicationPart( parts.get( 0 ) ) || ( parts.size() < 3 ) || ( parts.get( 1 ).size() != 1 ) ) {
+            return impliedBy( permissions, permission );
+        }
+
+        if ( impliedBy( unindexed, permission ) ) {
+            return true;
+        }
+
+        // only grants for every path imply a request for none
+        if ( parts.size() == 3 ) {
+            return impliedBy( anyPath, permission );
+        }
+
+        if ( ( parts.size() > 4 ) || ( parts.get( 3 ).size() != 1 ) ) {
+            return impliedBy( permissions, permission );
+        }
+
+        String operation = parts.get( 1 ).iterator().next();
+        if ( !isOperation( operation ) ) {
+            return impliedBy( permissions, permission );
+        }
+
+        List<String> segments = segments( parts.get( 3 ).iterator().next() );
+
+        return impliedBy( operations.get( WILDCARD ), segments, permission ) || impliedBy(
+                operations.get( operation.toLowerCase() ), segments, permission );
+    }
+
+
+    /** Index an application path grant, false if the permission can't be indexed */
+    private boolean index( Permission permission ) {
+        if ( !( permission instanceof CustomPermission ) ) {
+            return false;
+        }
+
+        List<Set<String>> parts = ( ( CustomPermission ) permission ).getParts();
+
+        if ( ( parts.size() != 4 ) || !isApplicationPart( parts.get( 0 ) ) ) {
+            return false;
+        }
+
+        List<Node> roots = new ArrayList<Node>();
+
+        Set<String> grantedOperations = parts.get( 1 );
+        if ( grantedOperations.contains( WILDCARD ) || !areOperations( grantedOperations ) ) {
+            roots.add( root( WILDCARD ) );
+        }
+        else {
+            for ( String operation : grantedOperations ) {
+                roots.add( root( operation.toLowerCase() ) );
+            }
+        }
+
+        Set<String> paths = parts.get( 3 );
+        if ( paths.contains( WILDCARD ) ) {
+            anyPath.add( permission );
+        }
+
+        for ( Node root : roots ) {
+            for ( String path : paths ) {
+                Node node = root;
+                for ( String segment : segments( path ) ) {
+                    if ( !isLiteral( segment ) ) {
+                        break;
+                    }
+                    node = node.child( segment );
+                }
+                node.permissions.add( permission );
+            }
+        }
+
+        return true;
+    }
+
+
+    private Node root( String operation ) {
+        Node root = operations.get( operation );
+        if ( root == null ) {
+            root = new Node();
+            operations.put( operation, root );
+        }
+        return root;
+    }
+
+
+    /** Check the grants along the path of segments from the root */
+    private static boolean impliedBy( Node root, List<String> segments, Permission permission ) {
+        Node node = root;
+
+        for ( int i = 0; node != null; i++ ) {
+            if ( impliedBy( node.permissions, permission ) ) {
+                return true;
+            }
+
+            if ( ( i == segments.size() ) || ( node.children == null ) ) {
+                return false;
+            }
+
+            node = node.children.get( segments.get( i ) );
+        }
+
+        return false;
+    }
+
+
+    private static boolean impliedBy( List<Permission> granted, Permission permission ) {
+        for ( Permission grant : granted ) {
+            if ( grant.implies( permission ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static boolean isApplicationPart( Set<String> part ) {
+        return ( part.size() == 1 ) && part.contains( APPLICATIONS );
+    }
+
+
+    private static boolean areOperations( Set<String> part ) {
+        for ( String operation : part ) {
+            if ( !isOperation( operation ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** False if the operation could match something other than itself, or would be compared as a path */
+    private static boolean isOperation( String operation ) {
+        return isLiteral( operation ) && ( operation.indexOf( '/' ) < 0 );
+    }
+
+
+    /** False if the segment could match something other than itself, or is replaced with the user */
+    private static boolean isLiteral( String segment ) {
+        for ( int i = 0; i < segment.length(); i++ ) {
+            switch ( segment.charAt( i ) ) {
+                case '*':
+                case '?':
+                case '{':
+                case '}':
+                case '$':
+                    return false;
+                default:
+            }
+        }
+        return !"me".equals( segment );
+    }
+
+
+    /** The non empty segments of the path, trimmed and in lower case, as the path matcher splits them */
+    static List<String> segments( String path ) {
+        List<String> segments = new ArrayList<String>();
+
+        int start = 0;
+        while ( start <= path.length() ) {
+            int end = path.indexOf( '/', start );
+            if ( end < 0 ) {
+                end = path.length();
+            }
+
+            String segment = path.substring( start, end ).trim();
+            if ( segment.length() > 0 ) {
+                segments.add( segment.toLowerCase() );
+            }
+
+            start = end + 1;
+        }
+
+        return segments;
+    }
+
+
+    private static final class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Permission> permissions = new ArrayList<Permission>( 1 );
+        private Map<String, Node> children;
+
+
+        private Node child( String segment ) {
+            if ( children == null ) {
+                children = new HashMap<String, Node>();
+            }
+
+            Node child = children.get( segment );
+            if ( child == null ) {
+                child = new Node();
+                children.put( segment, child );
+            }
+            return child;
+        }
+    }
+}
@@ -17,7 +17,11 @@
 package org.apache.usergrid.security.shiro;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -40,6 +44,8 @@ import org.apache.usergrid.persistence.SimpleEntityRef;
 import org.apache.usergrid.persistence.entities.Group;
 import org.apache.usergrid.persistence.entities.Role;
 import org.apache.usergrid.persistence.entities.User;
+import org.apache.usergrid.security.shiro.ApplicationPermissionsCache.ApplicationPermissions;
+import org.apache.usergrid.security.shiro.ApplicationPermissionsCache.RoleGrant;
 import org.apache.usergrid.security.shiro.credentials.AccessTokenCredentials;
 import org.apache.usergrid.security.shiro.credentials.AdminUserAccessToken;
 import org.apache.usergrid.security.shiro.credentials.AdminUserPassword;
@@ -67,7 +73,9 @@ import org.apache.shiro.authc.SimpleAuthenticationInfo;
 import org.apache.shiro.authc.credential.AllowAllCredentialsMatcher;
 import org.apache.shiro.authc.credential.CredentialsMatcher;
 import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.authz.UnauthorizedException;
 import org.apache.shiro.authz.permission.PermissionResolver;
 import org.apache.shiro.cache.CacheManager;
 import org.apache.shiro.realm.AuthorizingRealm;
@@ -98,6 +106,7 @@ public class Realm extends AuthorizingRealm {
     private EntityManagerFactory emf;
     private ManagementService management;
     private TokenService tokens;
+    private ApplicationPermissionsCache permissionsCache;
 
 
     @Value( "${" + PROPERTIES_SYSADMIN_LOGIN_ALLOWED + "}" )
@@ -169,6 +178,12 @@ public class Realm extends AuthorizingRealm {
     }
 
 
+    /** Cache the permissions of application users and guests, rather than reading them for every authorization */
+    public void setPermissionsCache( ApplicationPermissionsCache permissionsCache ) {
+        this.permissionsCache = permissionsCache;
+    }
+
+
     @Override
     protected AuthenticationInfo doGetAuthenticationInfo( AuthenticationToken token ) throws AuthenticationException {
         PrincipalCredentialsToken pcToken = ( PrincipalCredentialsToken ) token;
@@ -226,7 +241,7 @@ public class Realm extends AuthorizingRealm {
 
     @Override
     protected AuthorizationInfo doGetAuthorizationInfo( PrincipalCollection principals ) {
-        SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+        CompiledAuthorizationInfo info = new CompiledAuthorizationInfo();
 
         Map<UUID, String> organizationSet = HashBiMap.create();
         Map<UUID, String> applicationSet = HashBiMap.create();
@@ -372,68 +387,14 @@ public class Realm extends AuthorizingRealm {
                  * "/users/${user}/following/user/*"));
                  */
 
-                EntityManager em = emf.getEntityManager( applicationId );
-                try {
-                    String appName = ( String ) em.getProperty( em.getApplicationRef(), "name" );
-                    applicationSet.put( applicationId, appName );
-                    application = new ApplicationInfo( applicationId, appName );
-                }
-                catch ( Exception e ) {
-                }
-
-                try {
-                    Set<String> permissions = em.getRolePermissions( "default" );
-                    grant( info, principal, applicationId, permissions );
-                }
-                catch ( Exception e ) {
-                    logger.error( "Unable to get user default role permissions", e );
-                }
-
                 UserInfo user = principal.getUser();
-                try {
-                    Set<String> permissions = em.getUserPermissions( user.getUuid() );
-                    grant( info, principal, applicationId, permissions );
-                }
-                catch ( Exception e ) {
-                    logger.error( "Unable to get user permissions", e );
-                }
-
-                try {
-                    Set<String> rolenames = em.getUserRoles( user.getUuid() );
-                    grantAppRoles( info, em, applicationId, token, principal, rolenames );
-                }
-                catch ( Exception e ) {
-                    logger.error( "Unable to get user role permissions", e );
-                }
-
-                try {
-                    //TODO TN.  This is woefully inefficient, but temporary.  Introduce cassandra backed shiro
-                    // caching so this only ever happens once.
-                    //See USERGRID-779 for details
-                    Results r =
-                            em.getCollection( new SimpleEntityRef( User.ENTITY_TYPE, user.getUuid() ), "groups", null,
-                                    1000, Level.IDS, false );
-                    if ( r != null ) {
-
-                        Set<String> rolenames = new HashSet<String>();
-
-                        for ( UUID groupId : r.getIds() ) {
-
-                            Results roleResults =
-                                    em.getCollection( new SimpleEntityRef( Group.ENTITY_TYPE, groupId ), "roles", null,
-                                            1000, Level.CORE_PROPERTIES, false );
-
-                            for ( Entity entity : roleResults.getEntities() ) {
-                                rolenames.add( entity.getName() );
-                            }
-                        }
 
+                ApplicationPermissions permissions = getApplicationPermissions( applicationId, user.getUuid() );
+                grant( info, principal, permissions, token );
 
-                        grantAppRoles( info, em, applicationId, token, principal, rolenames );
-                    }
-                }
-                catch ( Exception e ) {
-                    logger.error( "Unable to get user group role permissions", e );
+                if ( permissions.getApplicationName() != null ) {
+                    applicationSet.put( applicationId, permissions.getApplicationName() );
+                    application = new ApplicationInfo( applicationId, permissions.getApplicationName() );
                 }
             }
             else if ( principal instanceof ApplicationGuestPrincipal ) {
@@ -441,23 +402,14 @@ public class Realm extends AuthorizingRealm {
 
                 UUID applicationId = ( ( ApplicationGuestPrincipal ) principal ).getApplicationId();
 
-                EntityManager em = emf.getEntityManager( applicationId );
-                try {
-                    String appName = ( String ) em.getProperty( em.getApplicationRef(), "name" );
-                    applicationSet.put( applicationId, appName );
-                    application = new ApplicationInfo( applicationId, appName );
-                }
-                catch ( Exception e ) {
-                }
-
                 grant( info, principal, getPermissionFromPath( applicationId, "access" ) );
 
-                try {
-                    Set<String> permissions = em.getRolePermissions( "guest" );
-                    grant( info, principal, applicationId, permissions );
-                }
-                catch ( Exception e ) {
-                    logger.error( "Unable to get user default role permissions", e );
+                ApplicationPermissions permissions = getApplicationPermissions( applicationId, null );
+                grant( info, principal, permissions, null );
+
+                if ( permissions.getApplicationName() != null ) {
+                    applicationSet.put( applicationId, permissions.getApplicationName() );
+                    application = new ApplicationInfo( applicationId, permissions.getApplicationName() );
                 }
             }
         }
@@ -480,23 +432,164 @@ public class Realm extends AuthorizingRealm {
     }
 
 
-    /** Grant all permissions for the role names on this application */
-    private void grantAppRoles( SimpleAuthorizationInfo info, EntityManager em, UUID applicationId, TokenInfo token,
-                                PrincipalIdentifier principal, Set<String> rolenames ) throws Exception {
+    /**
+     * The permissions and roles of an application user or guest, from the permissions cache if they're there,
+     * otherwise read from the application and cached
+     *
+     * @param userId The user, or null for the guest
+     */
+    private ApplicationPermissions getApplicationPermissions( UUID applicationId, UUID userId ) {
+        long version = 0;
+
+        if ( permissionsCache != null ) {
+            ApplicationPermissions cached = permissionsCache.get( applicationId, userId );
+            if ( cached != null ) {
+                return cached;
+            }
+            version = permissionsCache.getVersion( applicationId );
+        }
+
+        EntityManager em = emf.getEntityManager( applicationId );
+
+        // anything that fails to load is left out, and the permissions aren't cached so it's retried
+        boolean complete = true;
+
+        String appName = null;
+        try {
+            appName = ( String ) em.getProperty( em.getApplicationRef(), "name" );
+        }
+        catch ( Exception e ) {
+            complete = false;
+        }
+
+        List<Permission> permissions = new ArrayList<Permission>();
+        List<RoleGrant> roles = new ArrayList<RoleGrant>();
+
+        if ( userId == null ) {
+            try {
+                permissions.addAll( resolve( applicationId, em.getRolePermissions( "guest" ) ) );
+            }
+            catch ( Exception e ) {
+                logger.error( "Unable to get user default role permissions", e );
+                complete = false;
+            }
+        }
+        else {
+            complete &= loadUserPermissions( em, applicationId, userId, permissions, roles );
+        }
+
+        ApplicationPermissions built = new ApplicationPermissions( appName, permissions, roles );
+
+        if ( complete && ( permissionsCache != null ) ) {
+            permissionsCache.put( applicationId, userId, built, version );
+        }
+
+        return built;
+    }
+
+
+    /**
+     * Read the permissions of the default role, of the user, of the roles of the user and of the roles of the groups
+     * of the user
+     *
+     * @return False if any of them couldn't be read
+     */
+    private boolean loadUserPermissions( EntityManager em, UUID applicationId, UUID userId,
+                                         List<Permission> permissions, List<RoleGrant> roles ) {
+        boolean complete = true;
+
+        try {
+            permissions.addAll( resolve( applicationId, em.getRolePermissions( "default" ) ) );
+        }
+        catch ( Exception e ) {
+            logger.error( "Unable to get user default role permissions", e );
+            complete = false;
+        }
+
+        try {
+            permissions.addAll( resolve( applicationId, em.getUserPermissions( userId ) ) );
+        }
+        catch ( Exception e ) {
+            logger.error( "Unable to get user permissions", e );
+            complete = false;
+        }
+
+        try {
+            roles.addAll( getAppRoles( em, applicationId, em.getUserRoles( userId ) ) );
+        }
+        catch ( Exception e ) {
+            logger.error( "Unable to get user role permissions", e );
+            complete = false;
+        }
+
+        try {
+            Results r = em.getCollection( new SimpleEntityRef( User.ENTITY_TYPE, userId ), "groups", null, 1000,
+                    Level.IDS, false );
+            if ( r != null ) {
+
+                Set<String> rolenames = new HashSet<String>();
+
+                for ( UUID groupId : r.getIds() ) {
+
+                    Results roleResults =
+                            em.getCollection( new SimpleEntityRef( Group.ENTITY_TYPE, groupId ), "roles", null, 1000,
+                                    Level.CORE_PROPERTIES, false );
+
+                    for ( Entity entity : roleResults.getEntities() ) {
+                        rolenames.add( entity.getName() );
+                    }
+                }
+
+                roles.addAll( getAppRoles( em, applicationId, rolenames ) );
+            }
+        }
+        catch ( Exception e ) {
+            logger.error( "Unable to get user group role permissions", e );
+            complete = false;
+        }
+
+        return complete;
+    }
+
+
+    /** The roles with the role names on this application, and the permissions they grant */
+    private List<RoleGrant> getAppRoles( EntityManager em, UUID applicationId, Set<String> rolenames )
+            throws Exception {
+        if ( rolenames == null ) {
+            return Collections.emptyList();
+        }
+
         Map<String, Role> app_roles = em.getRolesWithTitles( rolenames );
+        List<RoleGrant> grants = new ArrayList<RoleGrant>( rolenames.size() );
 
         for ( String rolename : rolenames ) {
-            if ( ( app_roles != null ) && ( token != null ) ) {
+            long inactivity = 0;
+            if ( app_roles != null ) {
                 Role role = app_roles.get( rolename );
-                if ( ( role != null ) && ( role.getInactivity() > 0 ) && ( token.getInactive() > role
-                        .getInactivity() ) ) {
-                    continue;
+                if ( ( role != null ) && ( role.getInactivity() != null ) ) {
+                    inactivity = role.getInactivity();
                 }
             }
-            Set<String> permissions = em.getRolePermissions( rolename );
-            grant( info, principal, applicationId, permissions );
-            role( info, principal,
-                    "application-role:".concat( applicationId.toString() ).concat( ":" ).concat( rolename ) );
+            grants.add( new RoleGrant(
+                    "application-role:".concat( applicationId.toString() ).concat( ":" ).concat( rolename ),
+                    inactivity, resolve( applicationId, em.getRolePermissions( rolename ) ) ) );
+        }
+
+        return grants;
+    }
+
+
+    /** Grant the permissions, and the roles the token hasn't been inactive too long for */
+    private static void grant( CompiledAuthorizationInfo info, PrincipalIdentifier principal,
+                               ApplicationPermissions permissions, TokenInfo token ) {
+        grant( info, principal, permissions.getMatcher() );
+
+        for ( RoleGrant role : permissions.getRoles() ) {
+            if ( ( token != null ) && !role.isGranted( token.getInactive() ) ) {
+                continue;
+            }
+            grant( info, principal, role.getMatcher() );
+            role( info, principal, role.getRole() );
         }
     }
 
@@ -507,30 +600,73 @@ public class Realm extends AuthorizingRealm {
     }
 
 
+    private static void grant( CompiledAuthorizationInfo info, PrincipalIdentifier principal,
+                               PermissionMatcher permissions ) {
+        if ( logger.isDebugEnabled() ) {
+            for ( Permission permission : permissions.getPermissions() ) {
+                logger.debug( "Principal {} granted permission: {}", principal, permission );
+            }
+        }
+        info.addMatcher( permissions );
+    }
+
+
+    /** Checks compiled authorization info with its matchers, rather than each permission in turn */
+    @Override
+    public boolean isPermitted( PrincipalCollection principals, Permission permission ) {
+        AuthorizationInfo info = getAuthorizationInfo( principals );
+        if ( info instanceof CompiledAuthorizationInfo ) {
+            return ( ( CompiledAuthorizationInfo ) info ).implies( permission );
+        }
+        return super.isPermitted( principals, permission );
+    }
+
+
+    @Override
+    protected void checkPermission( Permission permission, AuthorizationInfo info ) {
+        if ( info instanceof CompiledAuthorizationInfo ) {
+            if ( !( ( CompiledAuthorizationInfo ) info ).implies( permission ) ) {
+                throw new UnauthorizedException( "User is not permitted [" + permission + "]" );
+            }
+            return;
+        }
+        super.checkPermission( permission, info );
+    }
+
+
     public static void role( SimpleAuthorizationInfo info, PrincipalIdentifier principal, String role ) {
         logger.debug( "Principal {} added to role: {}", principal, role );
         info.addRole( role );
     }
 
 
-    private static void grant( SimpleAuthorizationInfo info, PrincipalIdentifier principal, UUID applicationId,
-                               Set<String> permissions ) {
-        if ( permissions != null ) {
-            for ( String permission : permissions ) {
-                if ( isNotBlank( permission ) ) {
-                    String operations = "*";
-                    if ( permission.indexOf( ':' ) != -1 ) {
-                        operations = stringOrSubstringBeforeFirst( permission, ':' );
-                    }
-                    if ( isBlank( operations ) ) {
-                        operations = "*";
-                    }
-                    permission = stringOrSubstringAfterFirst( permission, ':' );
-                    permission = "applications:" + operations + ":" + applicationId + ":" + permission;
-                    grant( info, principal, permission );
+    /** Resolve the permissions of the application once, so they aren't parsed again on every check */
+    private List<Permission> resolve( UUID applicationId, Set<String> permissions ) {
+        if ( permissions == null ) {
+            return Collections.emptyList();
+        }
+
+        Set<String> resolved = new LinkedHashSet<String>();
+        for ( String permission : permissions ) {
+            if ( isNotBlank( permission ) ) {
+                String operations = "*";
+                if ( permission.indexOf( ':' ) != -1 ) {
+                    operations = stringOrSubstringBeforeFirst( permission, ':' );
+                }
+                if ( isBlank( operations ) ) {
+                    operations = "*";
                 }
+                permission = stringOrSubstringAfterFirst( permission, ':' );
+                resolved.add( "applications:" + operations + ":" + applicationId + ":" + permission );
             }
         }
+
+        List<Permission> compiled = new ArrayList<Permission>( resolved.size() );
+        for ( String permission : resolved ) {
+            compiled.add( getPermissionResolver().resolvePermission( permission ) );
+        }
+
+        return compiled;
     }
 
 
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.tokens;
+
+
+import java.util.Collection;
+import java.util.UUID;
+
+
+/**
+ * Carries the ids of revoked tokens between the nodes of a cluster, so each node can drop the tokens it has cached.
+ *
+ * @see NoOpTokenInvalidationBus
+ */
+public interface TokenInvalidationBus {
+
+    /** Tell the other nodes the tokens were revoked */
+    public void publish( Collection<UUID> tokenIds );
+
+    /** Register the listener for tokens revoked on other nodes */
+    public void subscribe( Listener listener );
+
+
+    public interface Listener {
+
+        /** The tokens were revoked on another node */
+        public void invalidated( Collection<UUID> tokenIds );
+    }
+}
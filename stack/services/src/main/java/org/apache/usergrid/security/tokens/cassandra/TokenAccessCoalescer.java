@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.tokens.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.cassandra.CassandraService;
+
+import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Meter;
+
+import static me.prettyprint.hector.api.factory.HFactory.createColumn;
+import static me.prettyprint.hector.api.factory.HFactory.createMutator;
+import static org.apache.usergrid.persistence.cassandra.CassandraService.TOKENS_CF;
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+import static org.apache.usergrid.persistence.cassandra.Serializers.le;
+import static org.apache.usergrid.persistence.cassandra.Serializers.se;
+import static org.apache.usergrid.persistence.cassandra.Serializers.ue;
+import static org.apache.usergrid.security.tokens.cassandra.TokenServiceImpl.TOKEN_ACCESSED;
+import static org.apache.usergrid.security.tokens.cassandra.TokenServiceImpl.TOKEN_INACTIVE;
+import static org.apache.usergrid.utils.ConversionUtils.getLong;
+
+
+/**
+ * Holds the first and last use of tokens on this node since the last flush, and writes them to the tokens column
+ * family from a background thread, at most once per token each flush interval.
+ * <p/>
+ * Only the last access is kept. The flush reads the access written before, and the inactivity is recomputed from the
+ * time between it and the first use since. Gaps between uses within one flush interval aren't seen. Tokens whose row
+ * is gone, because they were revoked or expired, aren't written to. {@link TokenServiceImpl} merges the pending
+ * access of a token with the one it reads the same way.
+ */
+public class TokenAccessCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger( TokenAccessCoalescer.class );
+
+    /** The most tokens written in one mutation */
+    private static final int MAX_BATCH = 1000;
+
+    private final Meter writes =
+            Metrics.newMeter( TokenAccessCoalescer.class, "access_writes", "tokens", TimeUnit.SECONDS );
+    private final Meter touches =
+            Metrics.newMeter( TokenAccessCoalescer.class, "access_touches", "tokens", TimeUnit.SECONDS );
+    private final Counter failures = Metrics.newCounter( TokenAccessCoalescer.class, "flush_failures" );
+
+    private final ConcurrentMap<UUID, Access> pending = new ConcurrentHashMap<UUID, Access>();
+
+    private final CassandraService cassandra;
+
+    private final ScheduledExecutorService executor;
+
+
+    /**
+     * @param cassandra The cassandra service of the token column family
+     * @param flushMillis How often the accesses are written, 0 writes every access as the token is read
+     */
+    public TokenAccessCoalescer( CassandraService cassandra, long flushMillis ) {
+        this.cassandra = cassandra;
+
+        if ( flushMillis <= 0 ) {
+            executor = null;
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor( FlushThreadFactory.INSTANCE );
+        executor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS );
+    }
+
+
+    /** True if accesses are written by the flush, false if they should be written as the token is read */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+
+    /** The access of the token not written yet, null if there is none */
+    public Access getAccess( UUID tokenId ) {
+        return pending.get( tokenId );
+    }
+
+
+    /**
+     * Record a use of the token, to be written with the next flush
+     *
+     * @param accessed The time the token was used
+     * @param ttl The seconds the columns should live, the same as the token
+     */
+    public void touch( UUID tokenId, long accessed, int ttl ) {
+        touches.mark();
+
+        Access access = new Access( accessed, accessed, ttl );
+
+        while ( true ) {
+            Access current = pending.putIfAbsent( tokenId, access );
+
+            if ( current == null ) {
+                return;
+            }
+
+            Access merged = current.merge( access );
+
+            if ( merged == current || pending.replace( tokenId, current, merged ) ) {
+                return;
+            }
+        }
+    }
+
+
+    /** Drop the pending access of the token, so a flush doesn't write columns back to a removed token */
+    public void forget( UUID tokenId ) {
+        pending.remove( tokenId );
+    }
+
+
+    /** Write every pending access */
+    public void flush() {
+        Map<UUID, Access> accesses = new HashMap<UUID, Access>();
+
+        try {
+            for ( Map.Entry<UUID, Access> entry : pending.entrySet() ) {
+                Access access = entry.getValue();
+
+                // a touch since the entry was read waits for the next flush
+                if ( !pending.remove( entry.getKey(), access ) ) {
+                    continue;
+                }
+
+                accesses.put( entry.getKey(), access );
+
+                if ( accesses.size() == MAX_BATCH ) {
+                    write( accesses );
+                    accesses.clear();
+                }
+            }
+
+            if ( !accesses.isEmpty() ) {
+                write( accesses );
+            }
+        }
+        catch ( Exception e ) {
+            failures.inc();
+            logger.error( "Unable to write token accesses", e );
+        }
+    }
+
+
+    /** Write the accesses of the tokens that still exist, with the inactivity since the access written before */
+    private void write( Map<UUID, Access> accesses ) throws Exception {
+        Rows<UUID, String, ByteBuffer> rows = cassandra
+                .getRows( cassandra.getSystemKeyspace(), TOKENS_CF, new ArrayList<UUID>( accesses.keySet() ), ue, se,
+                        be );
+
+        Mutator<UUID> batch = createMutator( cassandra.getSystemKeyspace(), ue );
+        int size = 0;
+
+        for ( Row<UUID, String, ByteBuffer> row : rows ) {
+            ColumnSlice<String, ByteBuffer> columns = row.getColumnSlice();
+            HColumn<String, ByteBuffer> accessed = columns.getColumnByName( TOKEN_ACCESSED );
+
+            // the token was revoked or expired since it was used
+            if ( accessed == null ) {
+                continue;
+            }
+
+            Access access = accesses.get( row.getKey() );
+            long lastAccessed = getLong( accessed.getValue() );
+
+            if ( access.accessed <= lastAccessed ) {
+                continue;
+            }
+
+            batch.addInsertion( row.getKey(), TOKENS_CF,
+                    createColumn( TOKEN_ACCESSED, access.accessed, access.ttl, se, le ) );
+
+            HColumn<String, ByteBuffer> inactive = columns.getColumnByName( TOKEN_INACTIVE );
+            long unused = access.first - lastAccessed;
+
+            if ( unused > ( inactive == null ? 0 : getLong( inactive.getValue() ) ) ) {
+                batch.addInsertion( row.getKey(), TOKENS_CF,
+                        createColumn( TOKEN_INACTIVE, unused, access.ttl, se, le ) );
+            }
+
+            size++;
+        }
+
+        if ( size > 0 ) {
+            batch.execute();
+            writes.mark( size );
+        }
+    }
+
+
+    /** Stop flushing, and write what's pending */
+    public void shutdown() {
+        if ( executor != null ) {
+            executor.shutdownNow();
+            flush();
+        }
+    }
+
+
+    /** The first and last use of a token since the last flush */
+    public static final class Access {
+
+        private final long first;
+        private final long accessed;
+        private final int ttl;
+
+
+        private Access( long first, long accessed, int ttl ) {
+            this.first = first;
+            this.accessed = accessed;
+            this.ttl = ttl;
+        }
+
+
+        /** The first use since the last flush, the end of the time the token was unused before */
+        public long getFirstAccessed() {
+            return first;
+        }
+
+
+        public long getAccessed() {
+            return accessed;
+        }
+
+
+        private Access merge( Access other ) {
+            if ( ( other.accessed <= accessed ) && ( other.first >= first ) ) {
+                return this;
+            }
+
+            return new Access( Math.min( first, other.first ), Math.max( accessed, other.accessed ),
+                    other.accessed > accessed ? other.ttl : ttl );
+        }
+    }
+
+
+    private static final class FlushThreadFactory implements ThreadFactory {
+
+        private static final FlushThreadFactory INSTANCE = new FlushThreadFactory();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "TokenAccessCoalescer" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
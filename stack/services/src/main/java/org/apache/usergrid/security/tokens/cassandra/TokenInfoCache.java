@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.tokens.cassandra;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.usergrid.security.tokens.TokenInfo;
+import org.apache.usergrid.security.tokens.TokenInvalidationBus;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+
+
+/**
+ * Caches the token info read from the tokens column family and the maximum age of the token by token id, until the
+ * entry expires or the token does.
+ * <p/>
+ * Revoking tokens invalidates them here and publishes them on the {@link TokenInvalidationBus}, so other nodes drop
+ * them as well. Without a bus that carries them, other nodes keep using revoked tokens until their entries expire.
+ * <p/>
+ * An entry read before an invalidation isn't cached after it, so a token being read while it's revoked can't be put
+ * back.
+ */
+public class TokenInfoCache implements TokenInvalidationBus.Listener {
+
+    private final Meter hits = Metrics.newMeter( TokenInfoCache.class, "hits", "reads", TimeUnit.SECONDS );
+    private final Meter misses = Metrics.newMeter( TokenInfoCache.class, "misses", "reads", TimeUnit.SECONDS );
+    private final Meter invalidations =
+            Metrics.newMeter( TokenInfoCache.class, "invalidations", "tokens", TimeUnit.SECONDS );
+
+    private final Cache<UUID, CachedToken> tokens;
+
+    private final TokenInvalidationBus bus;
+
+    /** Incremented on every invalidation, so reads that started before one aren't cached */
+    private final AtomicLong generation = new AtomicLong();
+
+
+    /**
+     * @param ttlSeconds How long token info is cached, 0 doesn't cache it
+     * @param maxSize The most tokens to cache
+     * @param bus The bus revoked tokens are published and received on
+     */
+    public TokenInfoCache( long ttlSeconds, int maxSize, TokenInvalidationBus bus ) {
+        this.bus = bus;
+
+        tokens = CacheBuilder.newBuilder().maximumSize( ttlSeconds > 0 ? maxSize : 0 )
+                             .expireAfterWrite( Math.max( 1, ttlSeconds ), TimeUnit.SECONDS ).build();
+
+        Metrics.newGauge( TokenInfoCache.class, "size", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return tokens.size();
+            }
+        } );
+
+        bus.subscribe( this );
+    }
+
+
+    /** The generation to pass to {@link #put(TokenInfo, long, long)}, read before the token info is */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+
+    /** A copy of the cached token, null if it isn't cached or the token has expired */
+    public CachedToken get( UUID tokenId ) {
+        CachedToken cached = tokens.getIfPresent( tokenId );
+
+        if ( ( cached != null ) && ( System.currentTimeMillis() >= cached.expires ) ) {
+            tokens.invalidate( tokenId );
+            cached = null;
+        }
+
+        if ( cached == null ) {
+            misses.mark();
+            return null;
+        }
+
+        hits.mark();
+
+        return new CachedToken( copy( cached.info ), cached.maxTokenTtl );
+    }
+
+
+    /**
+     * Cache a copy of the token info, unless a token was invalidated since the generation was read
+     *
+     * @param maxTokenTtl The maximum age of the token, used when the token has no duration
+     * @param readGeneration The generation before the token info was read
+     */
+    public void put( TokenInfo info, long maxTokenTtl, long readGeneration ) {
+        tokens.put( info.getUuid(), new CachedToken( copy( info ), maxTokenTtl ) );
+
+        // an invalidation raced with the read, so the info may belong to a revoked token
+        if ( generation.get() != readGeneration ) {
+            tokens.invalidate( info.getUuid() );
+        }
+    }
+
+
+    /** Drop the tokens on this node, and publish them for the other nodes */
+    public void invalidate( Collection<UUID> tokenIds ) {
+        invalidated( tokenIds );
+        bus.publish( tokenIds );
+    }
+
+
+    public void invalidate( UUID tokenId ) {
+        invalidate( Collections.singletonList( tokenId ) );
+    }
+
+
+    @Override
+    public void invalidated( Collection<UUID> tokenIds ) {
+        generation.incrementAndGet();
+        tokens.invalidateAll( tokenIds );
+        invalidations.mark( tokenIds.size() );
+    }
+
+
+    private static TokenInfo copy( TokenInfo info ) {
+        return new TokenInfo( info.getUuid(), info.getType(), info.getCreated(), info.getAccessed(),
+                info.getInactive(), info.getDuration(), info.getPrincipal(), info.getState() );
+    }
+
+
+    public static final class CachedToken {
+
+        private final TokenInfo info;
+        private final long maxTokenTtl;
+        private final long expires;
+
+
+        private CachedToken( TokenInfo info, long maxTokenTtl ) {
+            this.info = info;
+            this.maxTokenTtl = maxTokenTtl;
+
+            long duration = info.getExpiration( maxTokenTtl );
+            expires = ( duration > ( Long.MAX_VALUE - info.getCreated() ) ) ? Long.MAX_VALUE :
+                      info.getCreated() + duration;
+        }
+
+
+        public TokenInfo getInfo() {
+            return info;
+        }
+
+
+        public long getMaxTokenTtl() {
+            return maxTokenTtl;
+        }
+    }
+}
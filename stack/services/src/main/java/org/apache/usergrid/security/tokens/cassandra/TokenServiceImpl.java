@@ -81,8 +81,8 @@ public class TokenServiceImpl implements TokenService {
     private static final String TOKEN_UUID = "uuid";
     private static final String TOKEN_TYPE = "type";
     private static final String TOKEN_CREATED = "created";
-    private static final String TOKEN_ACCESSED = "accessed";
-    private static final String TOKEN_INACTIVE = "inactive";
+    static final String TOKEN_ACCESSED = "accessed";
+    static final String TOKEN_INACTIVE = "inactive";
     private static final String TOKEN_DURATION = "duration";
     private static final String TOKEN_PRINCIPAL_TYPE = "principal";
     private static final String TOKEN_ENTITY = "entity";
@@ -151,6 +151,10 @@ public class TokenServiceImpl implements TokenService {
 
     protected EntityManagerFactory emf;
 
+    protected TokenAccessCoalescer accessCoalescer;
+
+    protected TokenInfoCache tokenCache;
+
 
     public TokenServiceImpl() {
 
@@ -250,16 +254,52 @@ public class TokenServiceImpl implements TokenService {
             return null;
         }
 
-        TokenInfo tokenInfo = getTokenInfo( uuid );
+        TokenInfo tokenInfo;
+        long maxTokenTtl;
 
-        if ( tokenInfo == null ) {
-            return null;
+        long generation = ( tokenCache != null ) ? tokenCache.getGeneration() : 0;
+        TokenInfoCache.CachedToken cached = ( tokenCache != null ) ? tokenCache.get( uuid ) : null;
+
+        if ( cached != null ) {
+            tokenInfo = cached.getInfo();
+            maxTokenTtl = cached.getMaxTokenTtl();
+        }
+        else {
+            tokenInfo = getTokenInfo( uuid );
+
+            if ( tokenInfo == null ) {
+                return null;
+            }
+
+            maxTokenTtl = getMaxTtl( TokenCategory.getFromBase64String( token ), tokenInfo.getPrincipal() );
         }
 
         //update the token
         long now = currentTimeMillis();
 
-        long maxTokenTtl = getMaxTtl( TokenCategory.getFromBase64String( token ), tokenInfo.getPrincipal() );
+        if ( ( accessCoalescer != null ) && accessCoalescer.isEnabled() ) {
+            // take in the uses on this node that haven't been written yet, as the flush will write them
+            TokenAccessCoalescer.Access access = accessCoalescer.getAccess( uuid );
+
+            if ( ( access != null ) && ( access.getAccessed() > tokenInfo.getAccessed() ) ) {
+                long unused = access.getFirstAccessed() - tokenInfo.getAccessed();
+                if ( unused > tokenInfo.getInactive() ) {
+                    tokenInfo.setInactive( unused );
+                }
+                tokenInfo.setAccessed( access.getAccessed() );
+            }
+
+            long inactive = now - tokenInfo.getAccessed();
+            if ( inactive > tokenInfo.getInactive() ) {
+                tokenInfo.setInactive( inactive );
+            }
+
+            accessCoalescer.touch( uuid, now, calcTokenTime( tokenInfo.getExpiration( maxTokenTtl ) ) );
+
+            cacheTokenInfo( tokenInfo, now, maxTokenTtl, generation );
+
+            return tokenInfo;
+        }
 
         Mutator<UUID> batch = createMutator( cassandra.getSystemKeyspace(), ue );
 
@@ -278,10 +318,26 @@ public class TokenServiceImpl implements TokenService {
 
         batch.execute();
 
+        cacheTokenInfo( tokenInfo, now, maxTokenTtl, generation );
+
         return tokenInfo;
     }
 
 
+    /** Cache the token as it is after this access */
+    private void cacheTokenInfo( TokenInfo tokenInfo, long now, long maxTokenTtl, long generation ) {
+        if ( tokenCache == null ) {
+            return;
+        }
+
+        long accessed = tokenInfo.getAccessed();
+
+        tokenInfo.setAccessed( now );
+        tokenCache.put( tokenInfo, maxTokenTtl, generation );
+        tokenInfo.setAccessed( accessed );
+    }
+
+
     /** Get the max ttl per app. This is null safe,and will return the default in the case of missing data */
     private long getMaxTtl( TokenCategory tokenCategory, AuthPrincipalInfo principal ) throws Exception {
 
@@ -330,11 +386,16 @@ public class TokenServiceImpl implements TokenService {
 
         for ( UUID tokenId : tokenIds ) {
             batch.addDeletion( bytebuffer( tokenId ), TOKENS_CF );
+            forgetAccess( tokenId );
         }
 
         batch.addDeletion( principalKey( principal ), PRINCIPAL_TOKEN_CF );
 
         batch.execute();
+
+        if ( tokenCache != null ) {
+            tokenCache.invalidate( tokenIds );
+        }
     }
 
 
@@ -370,8 +431,20 @@ public class TokenServiceImpl implements TokenService {
 
         // remove the token from the tokens cf
         batch.addDeletion( bytebuffer( tokenId ), TOKENS_CF );
+        forgetAccess( tokenId );
 
         batch.execute();
+
+        if ( tokenCache != null ) {
+            tokenCache.invalidate( tokenId );
+        }
+    }
+
+
+    private void forgetAccess( UUID tokenId ) {
+        if ( accessCoalescer != null ) {
+            accessCoalescer.forget( tokenId );
+        }
     }
 
 
@@ -579,6 +652,18 @@ public class TokenServiceImpl implements TokenService {
     }
 
 
+    /** Write token accesses in the background instead of on every read, see {@link TokenAccessCoalescer} */
+    public void setAccessCoalescer( TokenAccessCoalescer accessCoalescer ) {
+        this.accessCoalescer = accessCoalescer;
+    }
+
+
+    /** Cache token info read on this node, see {@link TokenInfoCache} */
+    public void setTokenCache( TokenInfoCache tokenCache ) {
+        this.tokenCache = tokenCache;
+    }
+
+
     private String getTokenForUUID( TokenInfo tokenInfo, TokenCategory tokenCategory, UUID uuid ) {
         int l = 36;
         if ( tokenCategory.getExpires() ) {
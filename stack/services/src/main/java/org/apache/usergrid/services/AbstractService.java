@@ -1262,8 +1262,9 @@ public abstract class AbstractService implements Service {
         String perm =
                 getPermissionFromPath( em.getApplicationRef().getUuid(), context.getAction().toString().toLowerCase(),
                         path );
-        boolean permitted = currentUser.isPermitted( perm );
+        // the check below fails if it isn't permitted, so only ask separately to log it
         if ( logger.isDebugEnabled() ) {
+            boolean permitted = currentUser.isPermitted( perm );
             logger.debug( PATH_MSG, new Object[] { path, context.getAction(), perm, permitted } );
         }
         SubjectUtils.checkPermission( perm );
@@ -36,7 +36,7 @@ import org.apache.usergrid.ServiceITSuite;
 import org.apache.usergrid.cassandra.CassandraResource;
 import org.apache.usergrid.cassandra.ClearShiroSubject;
 import org.apache.usergrid.cassandra.Concurrent;
-import org.apache.usergrid.count.SimpleBatcher;
+import org.apache.usergrid.count.StripedBatcher;
 import org.apache.usergrid.management.OrganizationInfo;
 import org.apache.usergrid.management.UserInfo;
 import org.apache.usergrid.persistence.CredentialsInfo;
@@ -132,9 +132,8 @@ public class ManagementServiceIT {
 
     @Test
     public void testCountAdminUserAction() throws Exception {
-        SimpleBatcher batcher = cassandraResource.getBean( SimpleBatcher.class );
+        StripedBatcher batcher = cassandraResource.getBean( StripedBatcher.class );
 
-        batcher.setBlockingSubmit( true );
         batcher.setBatchSize( 1 );
 
         setup.getMgmtSvc().countAdminUserAction( adminUser, "login" );
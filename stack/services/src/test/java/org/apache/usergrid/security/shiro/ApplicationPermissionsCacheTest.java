@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.shiro;
+
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.persistence.cassandra.PermissionVersions;
+import org.apache.usergrid.security.shiro.ApplicationPermissionsCache.ApplicationPermissions;
+import org.apache.usergrid.security.shiro.ApplicationPermissionsCache.RoleGrant;
+
+import org.apache.shiro.authz.Permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class ApplicationPermissionsCacheTest {
+
+    @Test
+    public void cachesByApplicationAndUser() {
+        ApplicationPermissionsCache cache = new ApplicationPermissionsCache( 60, 100, new PermissionVersions() );
+        UUID applicationId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+
+        ApplicationPermissions user = permissions( applicationId, "get:/users/me" );
+        ApplicationPermissions guest = permissions( applicationId, "post:/users" );
+
+        assertNull( cache.get( applicationId, userId ) );
+
+        cache.put( applicationId, userId, user, cache.getVersion( applicationId ) );
+        cache.put( applicationId, null, guest, cache.getVersion( applicationId ) );
+
+        assertSame( user, cache.get( applicationId, userId ) );
+        assertSame( guest, cache.get( applicationId, null ) );
+        assertNull( cache.get( applicationId, UUID.randomUUID() ) );
+        assertNull( cache.get( UUID.randomUUID(), userId ) );
+    }
+
+
+    @Test
+    public void disabled() {
+        ApplicationPermissionsCache cache = new ApplicationPermissionsCache( 0, 100, new PermissionVersions() );
+        UUID applicationId = UUID.randomUUID();
+
+        cache.put( applicationId, null, permissions( applicationId, "post:/users" ),
+                cache.getVersion( applicationId ) );
+
+        assertNull( cache.get( applicationId, null ) );
+    }
+
+
+    @Test
+    public void droppedWhenApplicationChanges() {
+        PermissionVersions versions = new PermissionVersions();
+        ApplicationPermissionsCache cache = new ApplicationPermissionsCache( 60, 100, versions );
+        UUID applicationId = UUID.randomUUID();
+        UUID userId = UUID.randomUUID();
+
+        cache.put( applicationId, userId, permissions( applicationId, "get:/users/me" ),
+                cache.getVersion( applicationId ) );
+        assertNotNull( cache.get( applicationId, userId ) );
+
+        versions.changed( applicationId );
+
+        assertNull( cache.get( applicationId, userId ) );
+    }
+
+
+    @Test
+    public void builtBeforeChangeNotCached() {
+        PermissionVersions versions = new PermissionVersions();
+        ApplicationPermissionsCache cache = new ApplicationPermissionsCache( 60, 100, versions );
+        UUID applicationId = UUID.randomUUID();
+
+        long version = cache.getVersion( applicationId );
+
+        versions.changed( applicationId );
+        cache.put( applicationId, null, permissions( applicationId, "post:/users" ), version );
+
+        assertNull( cache.get( applicationId, null ) );
+    }
+
+
+    @Test
+    public void roleInactivity() {
+        RoleGrant unlimited = new RoleGrant( "application-role:app:default", 0, Collections.<Permission>emptyList() );
+        RoleGrant limited = new RoleGrant( "application-role:app:limited", 1000, Collections.<Permission>emptyList() );
+
+        assertTrue( unlimited.isGranted( Long.MAX_VALUE ) );
+        assertTrue( limited.isGranted( 1000 ) );
+        assertFalse( limited.isGranted( 1001 ) );
+    }
+
+
+    private static ApplicationPermissions permissions( UUID applicationId, String permission ) {
+        Permission compiled = new CustomPermission( "applications:" + permission.replaceFirst( ":",
+                ":" + applicationId + ":" ) );
+
+        ApplicationPermissions permissions =
+                new ApplicationPermissions( "test", Collections.singletonList( compiled ),
+                        Collections.<RoleGrant>emptyList() );
+
+        assertEquals( 1, permissions.getPermissions().size() );
+
+        return permissions;
+    }
+}
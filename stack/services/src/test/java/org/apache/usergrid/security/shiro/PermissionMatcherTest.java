@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.shiro;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import org.apache.shiro.authz.Permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.apache.usergrid.security.shiro.utils.SubjectUtils.getPermissionFromPath;
+
+
+public class PermissionMatcherTest {
+
+    private static final UUID APP = UUID.randomUUID();
+    private static final UUID OTHER_APP = UUID.randomUUID();
+
+
+    @Test
+    public void segments() {
+        assertEquals( Arrays.asList( "users", "bob", "feed" ), PermissionMatcher.segments( "/Users//bob/ feed/" ) );
+        assertEquals( Arrays.asList( "users" ), PermissionMatcher.segments( "users" ) );
+        assertTrue( PermissionMatcher.segments( "/" ).isEmpty() );
+    }
+
+
+    @Test
+    public void matchesLikeEachPermission() {
+        List<Permission> grants = new ArrayList<Permission>();
+        grants.add( grant( "applications:get:" + APP + ":/users/*" ) );
+        grants.add( grant( "applications:post:" + APP + ":/users" ) );
+        grants.add( grant( "applications:put:" + APP + ":/devices/*" ) );
+        grants.add( grant( "applications:get,put:" + APP + ":/users/bob/feed,/groups/*/users" ) );
+        grants.add( grant( "applications:*:" + APP + ":/things/**" ) );
+        grants.add( grant( "applications:delete:" + APP + ":*" ) );
+        grants.add( grant( "applications:get:" + APP + ":/cats/?at" ) );
+        grants.add( grant( "applications:access:" + APP ) );
+        grants.add( grant( "applications:get:" + OTHER_APP + ":/**" ) );
+
+        PermissionMatcher matcher = new PermissionMatcher( grants );
+
+        String[][] requests = {
+                { "get", "/users/bob" }, { "get", "/users" }, { "get", "/users/" }, { "get", "/users/bob/feed" },
+                { "put", "/users/bob/feed" }, { "post", "/users/bob/feed" }, { "post", "/users" },
+                { "post", "/users/bob" }, { "put", "/devices/1" }, { "put", "/devices/1/2" },
+                { "get", "/groups/admins/users" }, { "get", "/groups/admins/roles" }, { "post", "/things" },
+                { "get", "/things/a/b/c" }, { "delete", "/anything/at/all" }, { "get", "/cats/hat" },
+                { "get", "/cats/that" }, { "get", "/" }, { "head", "/users/bob" }, { "*", "/users/bob" }
+        };
+
+        for ( String[] request : requests ) {
+            assertMatches( grants, matcher, getPermissionFromPath( APP, request[0], request[1] ) );
+            assertMatches( grants, matcher, getPermissionFromPath( OTHER_APP, request[0], request[1] ) );
+        }
+
+        assertMatches( grants, matcher, getPermissionFromPath( APP, "access" ) );
+        assertMatches( grants, matcher, getPermissionFromPath( APP, "delete" ) );
+        assertMatches( grants, matcher, getPermissionFromPath( APP, "get" ) );
+        assertMatches( grants, matcher, getPermissionFromPath( APP, "get", "/users/bob", "/users/bob/feed" ) );
+        assertMatches( grants, matcher, "organizations:access:" + APP );
+    }
+
+
+    @Test
+    public void matchesIndexedGrants() {
+        PermissionMatcher matcher = new PermissionMatcher(
+                Arrays.asList( grant( "applications:get,put:" + APP + ":/users/*" ),
+                        grant( "applications:*:" + APP + ":/things/**" ) ) );
+
+        assertTrue( matcher.implies( grant( getPermissionFromPath( APP, "get", "/users/bob" ) ) ) );
+        assertTrue( matcher.implies( grant( getPermissionFromPath( APP, "put", "/users/bob" ) ) ) );
+        assertTrue( matcher.implies( grant( getPermissionFromPath( APP, "delete", "/things/a/b" ) ) ) );
+        assertFalse( matcher.implies( grant( getPermissionFromPath( APP, "post", "/users/bob" ) ) ) );
+        assertFalse( matcher.implies( grant( getPermissionFromPath( APP, "get", "/groups/bob" ) ) ) );
+        assertFalse( matcher.implies( grant( getPermissionFromPath( OTHER_APP, "get", "/users/bob" ) ) ) );
+    }
+
+
+    private static void assertMatches( List<Permission> grants, PermissionMatcher matcher, String request ) {
+        Permission permission = grant( request );
+
+        boolean expected = false;
+        for ( Permission granted : grants ) {
+            expected |= granted.implies( permission );
+        }
+
+        assertEquals( request, expected, matcher.implies( permission ) );
+    }
+
+
+    private static Permission grant( String permission ) {
+        return new CustomPermission( permission );
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.tokens.cassandra;
+
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+
+public class TokenAccessCoalescerTest {
+
+    @Test
+    public void disabled() {
+        assertFalse( new TokenAccessCoalescer( null, 0 ).isEnabled() );
+    }
+
+
+    @Test
+    public void keepsFirstAndLatestAccess() {
+        TokenAccessCoalescer coalescer = new TokenAccessCoalescer( null, 0 );
+        UUID tokenId = UUID.randomUUID();
+
+        assertNull( coalescer.getAccess( tokenId ) );
+
+        coalescer.touch( tokenId, 2000, 60 );
+        coalescer.touch( tokenId, 1500, 60 );
+
+        assertEquals( 1500, coalescer.getAccess( tokenId ).getFirstAccessed() );
+        assertEquals( 2000, coalescer.getAccess( tokenId ).getAccessed() );
+
+        coalescer.touch( tokenId, 9000, 60 );
+
+        assertEquals( 1500, coalescer.getAccess( tokenId ).getFirstAccessed() );
+        assertEquals( 9000, coalescer.getAccess( tokenId ).getAccessed() );
+
+        assertNull( coalescer.getAccess( UUID.randomUUID() ) );
+    }
+
+
+    @Test
+    public void forget() {
+        TokenAccessCoalescer coalescer = new TokenAccessCoalescer( null, 0 );
+        UUID tokenId = UUID.randomUUID();
+
+        coalescer.touch( tokenId, 2000, 60 );
+        coalescer.forget( tokenId );
+
+        assertNull( coalescer.getAccess( tokenId ) );
+
+        // nothing pending, so nothing to write
+        coalescer.flush();
+    }
+}
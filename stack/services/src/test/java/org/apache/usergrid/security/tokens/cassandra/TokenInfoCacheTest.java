@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.tokens.cassandra;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.security.tokens.NoOpTokenInvalidationBus;
+import org.apache.usergrid.security.tokens.TokenInfo;
+import org.apache.usergrid.security.tokens.TokenInvalidationBus;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+
+public class TokenInfoCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+
+    @Test
+    public void cachesCopies() {
+        TokenInfoCache cache = new TokenInfoCache( 60, 100, new NoOpTokenInvalidationBus() );
+        TokenInfo info = token( System.currentTimeMillis(), HOUR );
+
+        assertNull( cache.get( info.getUuid() ) );
+
+        cache.put( info, HOUR, cache.getGeneration() );
+        info.setAccessed( 5 );
+
+        TokenInfoCache.CachedToken cached = cache.get( info.getUuid() );
+        assertNotNull( cached );
+        assertEquals( info.getCreated(), cached.getInfo().getAccessed() );
+        assertEquals( HOUR, cached.getMaxTokenTtl() );
+
+        cached.getInfo().setInactive( 10 );
+        assertEquals( 0, cache.get( info.getUuid() ).getInfo().getInactive() );
+    }
+
+
+    @Test
+    public void disabled() {
+        TokenInfoCache cache = new TokenInfoCache( 0, 100, new NoOpTokenInvalidationBus() );
+        TokenInfo info = token( System.currentTimeMillis(), HOUR );
+
+        cache.put( info, HOUR, cache.getGeneration() );
+        assertNull( cache.get( info.getUuid() ) );
+    }
+
+
+    @Test
+    public void expiresWithToken() {
+        TokenInfoCache cache = new TokenInfoCache( 60, 100, new NoOpTokenInvalidationBus() );
+
+        TokenInfo expired = token( System.currentTimeMillis() - 2 * HOUR, HOUR );
+        cache.put( expired, HOUR, cache.getGeneration() );
+        assertNull( cache.get( expired.getUuid() ) );
+
+        // no duration, so the max age of the token applies
+        TokenInfo unlimited = token( System.currentTimeMillis() - 2 * HOUR, 0 );
+        cache.put( unlimited, Long.MAX_VALUE, cache.getGeneration() );
+        assertNotNull( cache.get( unlimited.getUuid() ) );
+    }
+
+
+    @Test
+    public void invalidatesAndPublishes() {
+        RecordingBus bus = new RecordingBus();
+        TokenInfoCache cache = new TokenInfoCache( 60, 100, bus );
+        TokenInfo info = token( System.currentTimeMillis(), HOUR );
+        TokenInfo other = token( System.currentTimeMillis(), HOUR );
+
+        cache.put( info, HOUR, cache.getGeneration() );
+        cache.put( other, HOUR, cache.getGeneration() );
+
+        cache.invalidate( info.getUuid() );
+
+        assertNull( cache.get( info.getUuid() ) );
+        assertNotNull( cache.get( other.getUuid() ) );
+        assertEquals( Collections.singletonList( info.getUuid() ), bus.published );
+
+        // revoked on another node
+        bus.listener.invalidated( Collections.singletonList( other.getUuid() ) );
+        assertNull( cache.get( other.getUuid() ) );
+        assertEquals( 1, bus.published.size() );
+    }
+
+
+    @Test
+    public void readBeforeInvalidationNotCached() {
+        TokenInfoCache cache = new TokenInfoCache( 60, 100, new NoOpTokenInvalidationBus() );
+        TokenInfo info = token( System.currentTimeMillis(), HOUR );
+
+        long generation = cache.getGeneration();
+
+        cache.invalidate( info.getUuid() );
+        cache.put( info, HOUR, generation );
+
+        assertNull( cache.get( info.getUuid() ) );
+    }
+
+
+    private static TokenInfo token( long created, long duration ) {
+        return new TokenInfo( UUIDUtils.newTimeUUID( created ), "access", created, created, 0, duration, null,
+                null );
+    }
+
+
+    private static class RecordingBus implements TokenInvalidationBus {
+
+        private final List<UUID> published = new ArrayList<UUID>();
+        private Listener listener;
+
+
+        @Override
+        public void publish( Collection<UUID> tokenIds ) {
+            published.addAll( tokenIds );
+        }
+
+
+        @Override
+        public void subscribe( Listener listener ) {
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.Results.Level;
+import org.apache.usergrid.persistence.cassandra.EntityManagerFactoryImpl;
+import org.apache.usergrid.persistence.cassandra.LocalEntityCache;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import com.google.common.cache.CacheStats;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.reporting.ConsoleReporter;
+
+
+/**
+ * Reads a hot set of entities from a collection over and over through the entity manager to measure the effect of the
+ * entity cache. Run it once with -Dusergrid.entity.cache.enabled=false and once with true and compare the timers and
+ * the number of reads that reached cassandra.
+ */
+public class EntityCacheBenchMark extends ToolBase {
+
+    private static final Logger logger = LoggerFactory.getLogger( EntityCacheBenchMark.class );
+
+    private final Timer getReads =
+            Metrics.newTimer( EntityCacheBenchMark.class, "get", TimeUnit.MICROSECONDS, TimeUnit.SECONDS );
+
+    private final Timer getEntitiesReads =
+            Metrics.newTimer( EntityCacheBenchMark.class, "getEntities", TimeUnit.MICROSECONDS, TimeUnit.SECONDS );
+
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option hostOption =
+                OptionBuilder.withArgName( "host" ).hasArg().isRequired( true ).withDescription( "Cassandra host" )
+                             .create( "host" );
+
+        Option appIdOption = OptionBuilder.withArgName( "appId" ).hasArg().isRequired( true )
+                                          .withDescription( "Application Id to use" ).create( "appId" );
+
+        Option collectionOption = OptionBuilder.withArgName( "collection" ).hasArg().isRequired( true )
+                                               .withDescription( "Collection to read the hot entities from" )
+                                               .create( "collection" );
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg().isRequired( true )
+                                          .withDescription( "Number of hot entities to read" ).create( "count" );
+
+        Option readsOption = OptionBuilder.withArgName( "reads" ).hasArg().isRequired( true )
+                                          .withDescription( "Number of reads per worker" ).create( "reads" );
+
+        Option workerOption = OptionBuilder.withArgName( "workers" ).hasArg().isRequired( true )
+                                           .withDescription( "Number of workers to use" ).create( "workers" );
+
+        Options options = new Options();
+        options.addOption( hostOption );
+        options.addOption( appIdOption );
+        options.addOption( collectionOption );
+        options.addOption( countOption );
+        options.addOption( readsOption );
+        options.addOption( workerOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        startSpring();
+
+        UUID appId = UUID.fromString( line.getOptionValue( "appId" ) );
+        String collection = line.getOptionValue( "collection" );
+        int count = Integer.parseInt( line.getOptionValue( "count" ) );
+        int reads = Integer.parseInt( line.getOptionValue( "reads" ) );
+        int workerSize = Integer.parseInt( line.getOptionValue( "workers" ) );
+
+        EntityManager em = emf.getEntityManager( appId );
+
+        List<UUID> ids = em.getCollection( em.getApplicationRef(), collection, null, count, Level.IDS, false )
+                           .getIds();
+
+        Assert.notEmpty( ids, "No entities found in collection " + collection );
+
+        logger.info( "Reading {} entities from {} with {} workers", new Object[] { ids.size(), collection, workerSize } );
+
+        LocalEntityCache cache = ( ( EntityManagerFactoryImpl ) emf ).getApplicationContext()
+                                                                    .getBean( "entityCache", LocalEntityCache.class );
+
+        System.out.println( "Entity cache enabled: " + cache.isEnabled() );
+
+        ExecutorService executors = Executors.newFixedThreadPool( workerSize );
+
+        Stack<Future<Void>> futures = new Stack<Future<Void>>();
+
+        for ( int i = 0; i < workerSize; i++ ) {
+            futures.push( executors.submit( new ReadWorker( em, ids, reads ) ) );
+        }
+
+        while ( !futures.isEmpty() ) {
+            futures.pop().get();
+        }
+
+        executors.shutdown();
+
+        new ConsoleReporter( Metrics.defaultRegistry(), System.out, MetricPredicate.ALL ).run();
+
+        CacheStats stats = cache.getStats();
+
+        long total = reads * workerSize * ( 1 + ids.size() );
+
+        System.out.println( "Entity reads: " + total );
+        System.out.println( "Entity cache hits: " + stats.hitCount() );
+        System.out.println( "Entity cache misses: " + stats.missCount() );
+        System.out.println( "Entity cache evictions: " + stats.evictionCount() );
+        System.out.println( "Rows read from cassandra: " + ( cache.isEnabled() ? stats.missCount() : total ) );
+    }
+
+
+    /** Alternates single gets of a random hot entity with a multiget of the whole hot set */
+    private class ReadWorker implements Callable<Void> {
+
+        private final EntityManager em;
+        private final List<UUID> ids;
+        private final int reads;
+        private final Random random = new Random();
+
+
+        private ReadWorker( EntityManager em, List<UUID> ids, int reads ) {
+            this.em = em;
+            this.ids = ids;
+            this.reads = reads;
+        }
+
+
+        @Override
+        public Void call() throws Exception {
+
+            for ( int i = 0; i < reads; i++ ) {
+
+                TimerContext timer = getReads.time();
+
+                Assert.notNull( em.get( ids.get( random.nextInt( ids.size() ) ) ) );
+
+                timer.stop();
+
+                timer = getEntitiesReads.time();
+
+                em.get( ids );
+
+                timer.stop();
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.locking.Lock;
+import org.apache.usergrid.locking.LockManager;
+import org.apache.usergrid.locking.singlenode.SingleNodeLockManagerImpl;
+import org.apache.usergrid.locking.singlenode.StripedLockManagerImpl;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+
+/**
+ * Measures creating, locking and unlocking locks on a set of paths with the {@link SingleNodeLockManagerImpl} against
+ * the {@link StripedLockManagerImpl} with fair and non fair locks, from 1 up to the maximum number of threads, doubling
+ * each run. Fewer paths mean more contention. Doesn't need cassandra.
+ */
+public class LockContentionBenchMark extends ToolBase {
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg()
+                                          .withDescription( "Number of locks per thread, defaults to 200000" )
+                                          .create( "count" );
+
+        Option threadsOption = OptionBuilder.withArgName( "threads" ).hasArg()
+                                            .withDescription( "Maximum number of threads, defaults to 64" )
+                                            .create( "threads" );
+
+        Option pathsOption = OptionBuilder.withArgName( "paths" ).hasArg()
+                                          .withDescription( "Number of distinct lock paths, defaults to 1000" )
+                                          .create( "paths" );
+
+        Option stripesOption = OptionBuilder.withArgName( "stripes" ).hasArg()
+                                            .withDescription( "Number of striped locks, defaults to 1024" )
+                                            .create( "stripes" );
+
+        Options options = new Options();
+        options.addOption( countOption );
+        options.addOption( threadsOption );
+        options.addOption( pathsOption );
+        options.addOption( stripesOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        int count = Integer.parseInt( line.getOptionValue( "count", "200000" ) );
+        int maxThreads = Integer.parseInt( line.getOptionValue( "threads", "64" ) );
+        int pathCount = Integer.parseInt( line.getOptionValue( "paths", "1000" ) );
+        int stripes = Integer.parseInt( line.getOptionValue( "stripes",
+                String.valueOf( StripedLockManagerImpl.DEFAULT_STRIPES ) ) );
+
+        // queue consumer locks, the most frequently taken
+        UUID applicationId = UUID.randomUUID();
+        UUID queueId = UUID.randomUUID();
+        String[] paths = new String[pathCount];
+
+        for ( int i = 0; i < pathCount; i++ ) {
+            paths[i] = UUID.randomUUID().toString();
+        }
+
+        LockManager cached = new SingleNodeLockManagerImpl();
+        LockManager stripedFair = new StripedLockManagerImpl( stripes, true );
+        LockManager striped = new StripedLockManagerImpl( stripes, false );
+
+        //warm up so the first run isn't measuring the jit
+        run( cached, applicationId, queueId, paths, 4, count );
+        run( stripedFair, applicationId, queueId, paths, 4, count );
+        run( striped, applicationId, queueId, paths, 4, count );
+
+        System.out.println(
+                String.format( "%8s %16s %16s %16s", "threads", "cached/sec", "striped fair/sec", "striped/sec" ) );
+
+        for ( int threads = 1; threads <= maxThreads; threads *= 2 ) {
+            long cachedRate = run( cached, applicationId, queueId, paths, threads, count );
+            long stripedFairRate = run( stripedFair, applicationId, queueId, paths, threads, count );
+            long stripedRate = run( striped, applicationId, queueId, paths, threads, count );
+
+            System.out.println(
+                    String.format( "%8d %16d %16d %16d", threads, cachedRate, stripedFairRate, stripedRate ) );
+        }
+    }
+
+
+    /** Lock and unlock count paths on each thread and return the number locked per second */
+    private long run( final LockManager manager, final UUID applicationId, final UUID queueId, final String[] paths,
+                      int threads, final int count ) throws Exception {
+        ExecutorService executors = Executors.newFixedThreadPool( threads );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>( threads );
+
+        for ( int i = 0; i < threads; i++ ) {
+            final int offset = i;
+
+            futures.add( executors.submit( new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+
+                    String queue = queueId.toString();
+
+                    for ( int j = 0; j < count; j++ ) {
+                        Lock lock = manager.createLock( applicationId, queue, paths[( j + offset ) % paths.length] );
+                        lock.lock();
+                        lock.unlock();
+                    }
+
+                    return null;
+                }
+            } ) );
+        }
+
+        long startTime = System.nanoTime();
+
+        start.countDown();
+
+        for ( Future<Void> future : futures ) {
+            future.get();
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+
+        executors.shutdown();
+
+        return ( long ) threads * count * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( 1, elapsed );
+    }
+}
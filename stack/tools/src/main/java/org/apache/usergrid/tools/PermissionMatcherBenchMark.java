@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.security.shiro.CustomPermission;
+import org.apache.usergrid.security.shiro.PermissionMatcher;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import org.apache.shiro.authz.Permission;
+
+import static org.apache.usergrid.security.shiro.utils.SubjectUtils.getPermissionFromPath;
+
+
+/**
+ * Measures permission checks against 10, 100 and 1000 application path grants, comparing each grant in turn as
+ * shiro does with the compiled {@link PermissionMatcher}. Half of the checks are for paths that aren't granted, the
+ * worst case for comparing each grant. Doesn't need cassandra.
+ */
+public class PermissionMatcherBenchMark extends ToolBase {
+
+    private static final int[] GRANTS = { 10, 100, 1000 };
+
+    private static final String[] OPERATIONS = { "get", "put", "post", "delete" };
+
+    /** The checks permitted in the last run, kept so the checks aren't optimized away */
+    private volatile int permitted;
+
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg()
+                                          .withDescription( "Number of checks per run, defaults to 100000" )
+                                          .create( "count" );
+
+        Options options = new Options();
+        options.addOption( countOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        int count = Integer.parseInt( line.getOptionValue( "count", "100000" ) );
+
+        UUID applicationId = UUID.randomUUID();
+        Random random = new Random( 0 );
+
+        System.out.println( String.format( "%8s %16s %16s", "grants", "each/sec", "compiled/sec" ) );
+
+        for ( int grants : GRANTS ) {
+            List<Permission> granted = grants( applicationId, grants );
+            List<Permission> requests = requests( applicationId, grants, random );
+
+            PermissionMatcher matcher = new PermissionMatcher( granted );
+
+            //warm up both so the first run isn't measuring the jit
+            runEach( granted, requests, count );
+            runCompiled( matcher, requests, count );
+
+            long eachRate = runEach( granted, requests, count );
+            long compiledRate = runCompiled( matcher, requests, count );
+
+            System.out.println( String.format( "%8d %16d %16d", grants, eachRate, compiledRate ) );
+        }
+    }
+
+
+    /** Check every grant in turn, the way shiro does, and return the checks per second */
+    private long runEach( List<Permission> granted, List<Permission> requests, int count ) {
+        long startTime = System.nanoTime();
+        int permitted = 0;
+
+        for ( int i = 0; i < count; i++ ) {
+            Permission request = requests.get( i % requests.size() );
+            for ( Permission grant : granted ) {
+                if ( grant.implies( request ) ) {
+                    permitted++;
+                    break;
+                }
+            }
+        }
+
+        this.permitted = permitted;
+
+        return rate( count, System.nanoTime() - startTime );
+    }
+
+
+    private long runCompiled( PermissionMatcher matcher, List<Permission> requests, int count ) {
+        long startTime = System.nanoTime();
+        int permitted = 0;
+
+        for ( int i = 0; i < count; i++ ) {
+            if ( matcher.implies( requests.get( i % requests.size() ) ) ) {
+                permitted++;
+            }
+        }
+
+        this.permitted = permitted;
+
+        return rate( count, System.nanoTime() - startTime );
+    }
+
+
+    private static long rate( int count, long elapsed ) {
+        return ( long ) count * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( 1, elapsed );
+    }
+
+
+    /** Grants on the entities and connections of a collection each, like a large set of role permissions */
+    private static List<Permission> grants( UUID applicationId, int grants ) {
+        List<Permission> granted = new ArrayList<Permission>( grants );
+
+        for ( int i = 0; i < grants; i++ ) {
+            String operation = OPERATIONS[i % OPERATIONS.length];
+            String path = ( i % 2 == 0 ) ? "/collection" + i + "/*" : "/collection" + i + "/*/connections/**";
+            granted.add( new CustomPermission( getPermissionFromPath( applicationId, operation, path ) ) );
+        }
+
+        return granted;
+    }
+
+
+    /** Requests for granted paths and for paths in collections with no grants */
+    private static List<Permission> requests( UUID applicationId, int grants, Random random ) {
+        List<Permission> requests = new ArrayList<Permission>( 1000 );
+
+        for ( int i = 0; i < 1000; i++ ) {
+            int collection = random.nextInt( grants );
+            String operation = OPERATIONS[collection % OPERATIONS.length];
+            String path = ( i % 2 == 0 ) ? "/collection" + collection + "/" + random.nextInt( 100 ) :
+                          "/ungranted" + collection + "/" + random.nextInt( 100 );
+            requests.add( new CustomPermission( getPermissionFromPath( applicationId, operation, path ) ) );
+        }
+
+        return requests;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.utils.CompactValueUtils;
+import org.apache.usergrid.utils.JsonUtils;
+import org.apache.usergrid.utils.MapUtils;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+
+/**
+ * Measures serializing and deserializing the properties of a typical entity as Smile, the way they were always
+ * written, against the compact format, and the bytes each takes on disk. Doesn't need cassandra.
+ */
+public class PropertySerializationBenchMark extends ToolBase {
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg()
+                                          .withDescription( "Number of entities to serialize, defaults to 200000" )
+                                          .create( "count" );
+
+        Options options = new Options();
+        options.addOption( countOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        int count = Integer.parseInt( line.getOptionValue( "count", "200000" ) );
+
+        Map<String, Object> entity = entity();
+
+        Format[] formats = { new Smile(), new Compact() };
+
+        //warm up so the first run isn't measuring the jit
+        for ( Format format : formats ) {
+            run( format, entity, count );
+        }
+
+        System.out.println(
+                String.format( "%8s %16s %16s %16s", "", "writes/sec", "reads/sec", "bytes/entity" ) );
+
+        for ( Format format : formats ) {
+            long[] result = run( format, entity, count );
+            System.out.println( String.format( "%8s %16d %16d %16d", format.getClass().getSimpleName().toLowerCase(),
+                    result[0], result[1], result[2] ) );
+        }
+    }
+
+
+    /** Serialize and deserialize every property count times, return writes and reads per second and bytes on disk */
+    private long[] run( Format format, Map<String, Object> entity, int count ) {
+        ByteBuffer[] columns = new ByteBuffer[entity.size()];
+        long bytes = 0;
+
+        long startTime = System.nanoTime();
+
+        for ( int i = 0; i < count; i++ ) {
+            int c = 0;
+            for ( Object value : entity.values() ) {
+                columns[c++] = format.write( value );
+            }
+        }
+
+        long writes = System.nanoTime() - startTime;
+
+        for ( ByteBuffer column : columns ) {
+            bytes += column.remaining();
+        }
+
+        startTime = System.nanoTime();
+
+        for ( int i = 0; i < count; i++ ) {
+            for ( ByteBuffer column : columns ) {
+                format.read( column.duplicate() );
+            }
+        }
+
+        long reads = System.nanoTime() - startTime;
+
+        return new long[] { perSecond( count, writes ), perSecond( count, reads ), bytes };
+    }
+
+
+    private static long perSecond( int count, long elapsed ) {
+        return ( long ) count * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( 1, elapsed );
+    }
+
+
+    /** The properties of a user, one column each */
+    private static Map<String, Object> entity() {
+        UUID id = UUIDUtils.newTimeUUID();
+
+        Map<String, Object> entity = new LinkedHashMap<String, Object>();
+        entity.put( "created", System.currentTimeMillis() );
+        entity.put( "modified", System.currentTimeMillis() );
+        entity.put( "username", "jdoe" );
+        entity.put( "name", "Jane Doe" );
+        entity.put( "email", "jane.doe@example.com" );
+        entity.put( "activated", true );
+        entity.put( "age", 37 );
+        entity.put( "score", 12.75 );
+        entity.put( "owner", id );
+        entity.put( "friends", Arrays.asList( UUIDUtils.newTimeUUID(), UUIDUtils.newTimeUUID(), id ) );
+        entity.put( "address",
+                MapUtils.map( "street", "1 Main St", "city", "San Francisco", "zip", 94107, "id", id ) );
+        entity.put( "location", MapUtils.map( "latitude", 37.77, "longitude", -122.41 ) );
+
+        return entity;
+    }
+
+
+    private interface Format {
+
+        ByteBuffer write( Object value );
+
+        Object read( ByteBuffer bytes );
+    }
+
+
+    /** Through a JsonNode, the way properties were always written */
+    private static class Smile implements Format {
+
+        @Override
+        public ByteBuffer write( Object value ) {
+            return JsonUtils.toByteBuffer( JsonUtils.toJsonNode( value ) );
+        }
+
+
+        @Override
+        public Object read( ByteBuffer bytes ) {
+            return JsonUtils.normalizeJsonTree( JsonUtils.fromByteBuffer( bytes ) );
+        }
+    }
+
+
+    private static class Compact implements Format {
+
+        @Override
+        public ByteBuffer write( Object value ) {
+            return CompactValueUtils.toByteBuffer( value );
+        }
+
+
+        @Override
+        public Object read( ByteBuffer bytes ) {
+            return CompactValueUtils.fromByteBuffer( bytes );
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.persistence.query.tree.QueryPlanCache;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+
+/**
+ * Measures parsing a query with the ANTLR parser against binding it to a cached plan, both by the shape of the query
+ * when its literals are new, and by the exact query when it repeats. Doesn't need cassandra.
+ */
+public class QueryParseBenchMark extends ToolBase {
+
+    private static final String[] SHAPES = {
+            "select * where name = '%d'",
+            "select * where age > %d and age < 99 order by created desc",
+            "select name, age where (status = 'active' or score >= %d) and verified = true",
+            "select * where location within %d of 37.77, -122.41",
+    };
+
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg()
+                                          .withDescription( "Number of queries to parse, defaults to 200000" )
+                                          .create( "count" );
+
+        Options options = new Options();
+        options.addOption( countOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        int count = Integer.parseInt( line.getOptionValue( "count", "200000" ) );
+
+        //more distinct queries than the cache holds, so only their shapes are cached
+        String[] queries = new String[Math.min( count, 100000 )];
+
+        for ( int i = 0; i < queries.length; i++ ) {
+            queries[i] = String.format( SHAPES[i % SHAPES.length], i );
+        }
+
+        String[] repeated = new String[100];
+        System.arraycopy( queries, 0, repeated, 0, repeated.length );
+
+        QueryPlanCache parser = new QueryPlanCache( 0 );
+        QueryPlanCache cache = new QueryPlanCache( 1000 );
+
+        //warm up so the first run isn't measuring the jit
+        run( parser, queries, count );
+        run( cache, queries, count );
+        run( cache, repeated, count );
+
+        System.out.println( String.format( "%8s %16s %16s", "", "queries/sec", "bytes/query" ) );
+
+        long[] parsed = run( parser, queries, count );
+        System.out.println( String.format( "%8s %16d %16d", "parse", parsed[0], parsed[1] ) );
+
+        long[] shape = run( cache, queries, count );
+        System.out.println( String.format( "%8s %16d %16d", "shape", shape[0], shape[1] ) );
+
+        long[] exact = run( cache, repeated, count );
+        System.out.println( String.format( "%8s %16d %16d", "exact", exact[0], exact[1] ) );
+    }
+
+
+    /** Parse count queries and return the number per second and the bytes allocated per query */
+    private long[] run( QueryPlanCache cache, String[] queries, int count ) throws Exception {
+        long allocated = allocatedBytes();
+        long startTime = System.nanoTime();
+
+        for ( int i = 0; i < count; i++ ) {
+            cache.parse( queries[i % queries.length] );
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        long bytes = allocated < 0 ? -1 : ( allocatedBytes() - allocated ) / count;
+
+        return new long[] { ( long ) count * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( 1, elapsed ), bytes };
+    }
+
+
+    /**
+     * Bytes allocated by this thread, -1 if the jvm doesn't track it. Only HotSpot's ThreadMXBean can, so it's looked
+     * up by reflection rather than compiled against
+     */
+    private static long allocatedBytes() {
+        Object bean = ManagementFactory.getThreadMXBean();
+
+        try {
+            Method allocated = Class.forName( "com.sun.management.ThreadMXBean" )
+                                    .getMethod( "getThreadAllocatedBytes", long.class );
+
+            return ( Long ) allocated.invoke( bean, Thread.currentThread().getId() );
+        }
+        catch ( Exception e ) {
+            return -1;
+        }
+    }
+}
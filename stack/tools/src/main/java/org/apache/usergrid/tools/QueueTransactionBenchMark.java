@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.apache.usergrid.locking.LockManager;
+import org.apache.usergrid.mq.Message;
+import org.apache.usergrid.mq.QueueQuery;
+import org.apache.usergrid.mq.QueueResults;
+import org.apache.usergrid.mq.cassandra.QueueManagerImpl;
+import org.apache.usergrid.persistence.cassandra.CounterUtils;
+import org.apache.usergrid.persistence.exceptions.QueueException;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+
+/**
+ * Measures the throughput of many workers reading one queue transactionally as the same consumer, with the consumer
+ * locked for every read against claiming ranges of the queue with leases. Each worker reads, then commits the
+ * transaction of every message it gets. Also counts messages returned more than once, which should be none.
+ */
+public class QueueTransactionBenchMark extends ToolBase {
+
+    private static final int POST_SIZE = 1000;
+
+    /** Empty reads in a row before a worker decides the queue is drained */
+    private static final int MAX_EMPTY_READS = 20;
+
+    private LockManager lockManager;
+
+    private CounterUtils counterUtils;
+
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option hostOption =
+                OptionBuilder.withArgName( "host" ).hasArg().withDescription( "Cassandra host" ).create( "host" );
+
+        Option appIdOption = OptionBuilder.withArgName( "appId" ).hasArg().isRequired( true )
+                                          .withDescription( "Application Id to use" ).create( "appId" );
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg()
+                                          .withDescription( "Number of messages to read, defaults to 10000" )
+                                          .create( "count" );
+
+        Option workerOption = OptionBuilder.withArgName( "workers" ).hasArg()
+                                           .withDescription( "Number of workers reading, defaults to 8" )
+                                           .create( "workers" );
+
+        Option limitOption = OptionBuilder.withArgName( "limit" ).hasArg()
+                                          .withDescription( "Messages per read, defaults to 10" ).create( "limit" );
+
+        Options options = new Options();
+        options.addOption( hostOption );
+        options.addOption( appIdOption );
+        options.addOption( countOption );
+        options.addOption( workerOption );
+        options.addOption( limitOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        startSpring();
+
+        UUID appId = UUID.fromString( line.getOptionValue( "appId" ) );
+        int count = Integer.parseInt( line.getOptionValue( "count", "10000" ) );
+        int workers = Integer.parseInt( line.getOptionValue( "workers", "8" ) );
+        int limit = Integer.parseInt( line.getOptionValue( "limit", "10" ) );
+
+        System.out.println( String.format( "%8s %16s %12s %12s %12s", "", "messages/sec", "received", "duplicates",
+                "failed" ) );
+
+        for ( boolean leased : new boolean[] { false, true } ) {
+            Result result = run( appId, leased, count, workers, limit );
+
+            System.out.println( String.format( "%8s %16d %12d %12d %12d", leased ? "leased" : "locked",
+                    result.perSecond, result.received, result.duplicateCount.get(), result.failedCount.get() ) );
+        }
+    }
+
+
+    private Result run( UUID appId, boolean leased, int count, int workers, int limit ) throws Exception {
+        int lockTimeout = Integer.parseInt( properties.getProperty( "usergrid.queue.lock.timeout", "5" ) );
+
+        QueueManagerImpl qm = new QueueManagerImpl().init( cass, counterUtils, lockManager, appId, lockTimeout );
+        qm.setLeasedTransactions( leased );
+
+        String queuePath = "/benchmark/" + ( leased ? "leased" : "locked" ) + "/" + UUIDUtils.newTimeUUID();
+
+        for ( int posted = 0; posted < count; posted += POST_SIZE ) {
+            List<Message> messages = new ArrayList<Message>();
+
+            for ( int i = posted; i < Math.min( count, posted + POST_SIZE ); i++ ) {
+                Message message = new Message();
+                message.setStringProperty( "index", String.valueOf( i ) );
+                messages.add( message );
+            }
+
+            qm.postToQueue( queuePath, messages );
+        }
+
+        Result result = new Result();
+        ExecutorService executor = Executors.newFixedThreadPool( workers );
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        long startTime = System.nanoTime();
+
+        for ( int i = 0; i < workers; i++ ) {
+            futures.add( executor.submit( new ReadWorker( qm, queuePath, count, limit, result ) ) );
+        }
+
+        for ( Future<Void> future : futures ) {
+            future.get();
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+
+        executor.shutdown();
+
+        result.received = result.messages.size();
+        result.perSecond = ( long ) result.received * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( 1, elapsed );
+
+        return result;
+    }
+
+
+    @Autowired
+    public void setLockManager( LockManager lockManager ) {
+        this.lockManager = lockManager;
+    }
+
+
+    @Autowired
+    public void setCounterUtils( CounterUtils counterUtils ) {
+        this.counterUtils = counterUtils;
+    }
+
+
+    private static class Result {
+
+        private final ConcurrentMap<UUID, Boolean> messages = new ConcurrentHashMap<UUID, Boolean>();
+        private final AtomicInteger duplicateCount = new AtomicInteger();
+        private final AtomicInteger failedCount = new AtomicInteger();
+
+        private int received;
+        private long perSecond;
+    }
+
+
+    private static class ReadWorker implements Callable<Void> {
+
+        private final QueueManagerImpl qm;
+        private final String queuePath;
+        private final int count;
+        private final int limit;
+        private final Result result;
+
+
+        private ReadWorker( QueueManagerImpl qm, String queuePath, int count, int limit, Result result ) {
+            this.qm = qm;
+            this.queuePath = queuePath;
+            this.count = count;
+            this.limit = limit;
+            this.result = result;
+        }
+
+
+        @Override
+        public Void call() throws Exception {
+            int emptyReads = 0;
+
+            while ( result.messages.size() < count && emptyReads < MAX_EMPTY_READS ) {
+                QueueQuery query = new QueueQuery();
+                query.setTimeout( TimeUnit.MINUTES.toMillis( 5 ) );
+                query.setLimit( limit );
+
+                QueueResults results;
+
+                try {
+                    results = qm.getFromQueue( queuePath, query );
+                }
+                catch ( QueueException e ) {
+                    // couldn't get the lock or claim a range in time
+                    result.failedCount.incrementAndGet();
+                    continue;
+                }
+
+                if ( results.getMessages().isEmpty() ) {
+                    emptyReads++;
+                    continue;
+                }
+
+                emptyReads = 0;
+
+                for ( Message message : results.getMessages() ) {
+                    if ( result.messages.putIfAbsent( message.getUuid(), Boolean.TRUE ) != null ) {
+                        result.duplicateCount.incrementAndGet();
+                    }
+
+                    qm.commitTransaction( queuePath, message.getTransaction(), query );
+                }
+            }
+
+            return null;
+        }
+    }
+}
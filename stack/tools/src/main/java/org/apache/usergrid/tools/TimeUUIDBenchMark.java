@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.usergrid.utils.UUIDUtils;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import com.fasterxml.uuid.EthernetAddress;
+
+
+/**
+ * Measures the throughput of {@link UUIDUtils#newTimeUUID()} against the lock based generator it replaced, from 1 up
+ * to the maximum number of threads, doubling each run. Doesn't need cassandra.
+ */
+public class TimeUUIDBenchMark extends ToolBase {
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg()
+                                          .withDescription( "Number of uuids per thread, defaults to 1000000" )
+                                          .create( "count" );
+
+        Option threadsOption = OptionBuilder.withArgName( "threads" ).hasArg()
+                                            .withDescription( "Maximum number of threads, defaults to 64" )
+                                            .create( "threads" );
+
+        Options options = new Options();
+        options.addOption( countOption );
+        options.addOption( threadsOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        int count = Integer.parseInt( line.getOptionValue( "count", "1000000" ) );
+        int maxThreads = Integer.parseInt( line.getOptionValue( "threads", "64" ) );
+
+        Generator current = new Generator() {
+            @Override
+            public UUID next() {
+                return UUIDUtils.newTimeUUID();
+            }
+        };
+
+        Generator locking = new LockingGenerator();
+
+        //warm up both so the first run isn't measuring the jit
+        run( current, 4, count );
+        run( locking, 4, count );
+
+        System.out.println( String.format( "%8s %16s %16s", "threads", "lock free/sec", "locking/sec" ) );
+
+        for ( int threads = 1; threads <= maxThreads; threads *= 2 ) {
+            long currentRate = run( current, threads, count );
+            long lockingRate = run( locking, threads, count );
+
+            System.out.println( String.format( "%8d %16d %16d", threads, currentRate, lockingRate ) );
+        }
+    }
+
+
+    /** Generate count uuids on each thread and return the number generated per second */
+    private long run( final Generator generator, int threads, final int count ) throws Exception {
+        ExecutorService executors = Executors.newFixedThreadPool( threads );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>( threads );
+
+        for ( int i = 0; i < threads; i++ ) {
+            futures.add( executors.submit( new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+
+                    for ( int j = 0; j < count; j++ ) {
+                        generator.next();
+                    }
+
+                    return null;
+                }
+            } ) );
+        }
+
+        long startTime = System.nanoTime();
+
+        start.countDown();
+
+        for ( Future<Void> future : futures ) {
+            future.get();
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+
+        executors.shutdown();
+
+        return ( long ) threads * count * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( 1, elapsed );
+    }
+
+
+    private interface Generator {
+        UUID next();
+    }
+
+
+    /**
+     * The generator UUIDUtils used before it was lock free. A fair lock around the clock, a sleep once 990 uuids have
+     * been handed out in a millisecond, and shared random number generators for the node and clock sequence
+     */
+    private static class LockingGenerator implements Generator {
+
+        private final ReentrantLock tsLock = new ReentrantLock( true );
+        private final AtomicInteger currentMicrosPoint = new AtomicInteger( 0 );
+        private final Random clockSeqRandom = new Random();
+        private long timestampMillisNow = System.currentTimeMillis();
+
+
+        @Override
+        public UUID next() {
+            tsLock.lock();
+            long ts = System.currentTimeMillis();
+            if ( ts > timestampMillisNow ) {
+                timestampMillisNow = ts;
+                currentMicrosPoint.set( 0 );
+            }
+            int pointer = currentMicrosPoint.getAndIncrement();
+            try {
+                if ( pointer > 990 ) {
+                    TimeUnit.MILLISECONDS.sleep( 1L );
+                }
+            }
+            catch ( Exception ex ) {
+                ex.printStackTrace();
+            }
+            finally {
+                tsLock.unlock();
+            }
+
+            EthernetAddress.constructMulticastAddress();
+            clockSeqRandom.nextInt();
+
+            return UUIDUtils.newTimeUUID( ts, pointer * 10 );
+        }
+    }
+}
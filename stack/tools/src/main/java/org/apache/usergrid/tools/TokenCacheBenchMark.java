@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+import org.apache.usergrid.persistence.cassandra.EntityManagerFactoryImpl;
+import org.apache.usergrid.security.tokens.TokenCategory;
+import org.apache.usergrid.security.tokens.TokenService;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.reporting.ConsoleReporter;
+
+
+/**
+ * Looks up a set of access tokens over and over, the way every authenticated request does, to measure the effect of
+ * the token info cache. Run it once with the cache off by default and once with -Dusergrid.auth.token.cache.seconds=30
+ * and compare the timers.
+ */
+public class TokenCacheBenchMark extends ToolBase {
+
+    private static final Logger logger = LoggerFactory.getLogger( TokenCacheBenchMark.class );
+
+    private final Timer lookups =
+            Metrics.newTimer( TokenCacheBenchMark.class, "getTokenInfo", TimeUnit.MICROSECONDS, TimeUnit.SECONDS );
+
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option hostOption =
+                OptionBuilder.withArgName( "host" ).hasArg().isRequired( true ).withDescription( "Cassandra host" )
+                             .create( "host" );
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg().isRequired( true )
+                                          .withDescription( "Number of tokens to look up" ).create( "count" );
+
+        Option readsOption = OptionBuilder.withArgName( "reads" ).hasArg().isRequired( true )
+                                          .withDescription( "Number of lookups per worker" ).create( "reads" );
+
+        Option workerOption = OptionBuilder.withArgName( "workers" ).hasArg().isRequired( true )
+                                           .withDescription( "Number of workers to use" ).create( "workers" );
+
+        Options options = new Options();
+        options.addOption( hostOption );
+        options.addOption( countOption );
+        options.addOption( readsOption );
+        options.addOption( workerOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        startSpring();
+
+        int count = Integer.parseInt( line.getOptionValue( "count" ) );
+        int reads = Integer.parseInt( line.getOptionValue( "reads" ) );
+        int workerSize = Integer.parseInt( line.getOptionValue( "workers" ) );
+
+        TokenService tokens = ( ( EntityManagerFactoryImpl ) emf ).getApplicationContext()
+                                                                 .getBean( "tokenService", TokenService.class );
+
+        logger.info( "Creating {} tokens", count );
+
+        List<String> hot = new ArrayList<String>( count );
+
+        for ( int i = 0; i < count; i++ ) {
+            hot.add( tokens.createToken( TokenCategory.ACCESS, null, null, null, 0 ) );
+        }
+
+        logger.info( "Looking up {} tokens with {} workers", count, workerSize );
+
+        ExecutorService executors = Executors.newFixedThreadPool( workerSize );
+
+        Stack<Future<Void>> futures = new Stack<Future<Void>>();
+
+        for ( int i = 0; i < workerSize; i++ ) {
+            futures.push( executors.submit( new LookupWorker( tokens, hot, reads ) ) );
+        }
+
+        while ( !futures.isEmpty() ) {
+            futures.pop().get();
+        }
+
+        executors.shutdown();
+
+        new ConsoleReporter( Metrics.defaultRegistry(), System.out, MetricPredicate.ALL ).run();
+    }
+
+
+    /** Looks up a random hot token, as an authenticated request does */
+    private class LookupWorker implements Callable<Void> {
+
+        private final TokenService tokens;
+        private final List<String> hot;
+        private final int reads;
+        private final Random random = new Random();
+
+
+        private LookupWorker( TokenService tokens, List<String> hot, int reads ) {
+            this.tokens = tokens;
+            this.hot = hot;
+            this.reads = reads;
+        }
+
+
+        @Override
+        public Void call() throws Exception {
+
+            for ( int i = 0; i < reads; i++ ) {
+
+                TimerContext timer = lookups.time();
+
+                Assert.notNull( tokens.getTokenInfo( hot.get( random.nextInt( hot.size() ) ) ) );
+
+                timer.stop();
+            }
+
+            return null;
+        }
+    }
+}
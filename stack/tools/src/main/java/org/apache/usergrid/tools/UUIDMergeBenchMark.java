@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.mq.cassandra.io.SortedUUIDs;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import com.fasterxml.uuid.UUIDComparator;
+
+
+/**
+ * Measures intersecting and joining the message ids matched by two queue index slices, as tree sets of uuids against
+ * sorted arrays. Each run builds both sets from the unsorted ids, as a search does, then merges them and keeps the
+ * limit oldest. Doesn't need cassandra.
+ */
+public class UUIDMergeBenchMark extends ToolBase {
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg()
+                                          .withDescription( "Number of merges, defaults to 2000" ).create( "count" );
+
+        Option sizeOption = OptionBuilder.withArgName( "size" ).hasArg()
+                                         .withDescription( "Ids matched by each slice, defaults to 10000" )
+                                         .create( "size" );
+
+        Option limitOption = OptionBuilder.withArgName( "limit" ).hasArg()
+                                          .withDescription( "Ids kept from each merge, defaults to 10" )
+                                          .create( "limit" );
+
+        Options options = new Options();
+        options.addOption( countOption );
+        options.addOption( sizeOption );
+        options.addOption( limitOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        int count = Integer.parseInt( line.getOptionValue( "count", "2000" ) );
+        int size = Integer.parseInt( line.getOptionValue( "size", "10000" ) );
+        int limit = Integer.parseInt( line.getOptionValue( "limit", "10" ) );
+
+        // two slices over the same messages that match about half of them each
+        Random random = new Random( 42 );
+        long now = System.currentTimeMillis();
+        List<UUID> first = new ArrayList<UUID>( size );
+        List<UUID> second = new ArrayList<UUID>( size );
+
+        for ( int i = 0; i < size * 2; i++ ) {
+            UUID uuid = UUIDUtils.newTimeUUID( now + i );
+
+            if ( random.nextBoolean() ) {
+                first.add( uuid );
+            }
+            if ( random.nextBoolean() ) {
+                second.add( uuid );
+            }
+        }
+
+        // index slices come back in the order of the indexed values, not of the ids
+        Collections.shuffle( first, random );
+        Collections.shuffle( second, random );
+
+        //warm up so the first run isn't measuring the jit
+        for ( boolean and : new boolean[] { true, false } ) {
+            runTreeSets( first, second, count, limit, and );
+            runArrays( first, second, count, limit, and );
+        }
+
+        System.out.println( String.format( "%8s %16s %16s", "", "treeset/sec", "array/sec" ) );
+
+        for ( boolean and : new boolean[] { true, false } ) {
+            long trees = runTreeSets( first, second, count, limit, and );
+            long arrays = runArrays( first, second, count, limit, and );
+
+            System.out.println( String.format( "%8s %16d %16d", and ? "and" : "or", trees, arrays ) );
+        }
+    }
+
+
+    private long runTreeSets( List<UUID> first, List<UUID> second, int count, int limit, boolean and ) {
+        long startTime = System.nanoTime();
+        int kept = 0;
+
+        for ( int i = 0; i < count; i++ ) {
+            TreeSet<UUID> a = new TreeSet<UUID>( new UUIDComparator() );
+            a.addAll( first );
+
+            TreeSet<UUID> b = new TreeSet<UUID>( new UUIDComparator() );
+            b.addAll( second );
+
+            if ( and ) {
+                a.retainAll( b );
+            }
+            else {
+                a.addAll( b );
+            }
+
+            while ( a.size() > limit ) {
+                a.pollLast();
+            }
+
+            kept += a.size();
+        }
+
+        return perSecond( count, System.nanoTime() - startTime, kept );
+    }
+
+
+    private long runArrays( List<UUID> first, List<UUID> second, int count, int limit, boolean and ) {
+        long startTime = System.nanoTime();
+        int kept = 0;
+
+        for ( int i = 0; i < count; i++ ) {
+            SortedUUIDs a = SortedUUIDs.of( first );
+            SortedUUIDs b = SortedUUIDs.of( second );
+
+            kept += ( and ? a.and( b, limit, false ) : a.or( b, limit, false ) ).size();
+        }
+
+        return perSecond( count, System.nanoTime() - startTime, kept );
+    }
+
+
+    private static long perSecond( int count, long elapsed, int kept ) {
+        // use the result, so the merges can't be optimized away
+        if ( kept < 0 ) {
+            System.out.println( kept );
+        }
+
+        return ( long ) count * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( 1, elapsed );
+    }
+}
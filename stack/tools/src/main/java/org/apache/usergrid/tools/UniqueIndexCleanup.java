@@ -211,7 +211,8 @@ public class UniqueIndexCleanup extends ToolBase {
                             for ( String prop : indexed ) {
 
                                 String bucket =
-                                        indexBucketLocator.getBucket( applicationId, IndexType.COLLECTION, id, prop );
+                                        indexBucketLocator.getBucket( applicationId, IndexType.COLLECTION, id,
+                                                collectionName );
 
                                 Object rowKey = key( applicationId, collection.getName(), prop, bucket );
 
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.websocket;
+
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.handler.codec.http.websocket.DefaultWebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.mq.QueueManager;
+import org.apache.usergrid.mq.QueuePosition;
+import org.apache.usergrid.mq.QueueQuery;
+import org.apache.usergrid.mq.QueueResults;
+import org.apache.usergrid.mq.cassandra.QueueNotifier;
+import org.apache.usergrid.utils.JsonUtils;
+import org.apache.usergrid.utils.UUIDUtils;
+
+
+/**
+ * Pushes the messages posted to a queue to the websocket channels subscribed to it. The queue is read once for all
+ * the channels, when a post on this node signals it or on the notifier's re-check interval, never in a loop.
+ * <p/>
+ * Messages are pushed from when the subscription started. The position is only kept in memory, so every node with
+ * channels subscribed to the queue pushes every message to its own channels.
+ */
+public class QueueSubscription implements QueueNotifier.QueueListener, Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger( QueueSubscription.class );
+
+    /** The most messages pushed in one frame */
+    private static final int PUSH_LIMIT = 100;
+
+    private final QueueManager qm;
+    private final String queuePath;
+    private final ChannelGroup group;
+    private final Executor executor;
+
+    /** True while a push is waiting for a thread, so a burst of posts only reads the queue once */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private UUID last = UUIDUtils.newTimeUUID();
+
+
+    public QueueSubscription( QueueManager qm, String queuePath, ChannelGroup group, Executor executor ) {
+        this.qm = qm;
+        this.queuePath = queuePath;
+        this.group = group;
+        this.executor = executor;
+    }
+
+
+    @Override
+    public void messagesPosted() {
+        if ( scheduled.compareAndSet( false, true ) ) {
+            executor.execute( this );
+        }
+    }
+
+
+    @Override
+    public void run() {
+        scheduled.set( false );
+
+        try {
+            push();
+        }
+        catch ( RuntimeException e ) {
+            logger.error( "Unable to push the messages of queue " + queuePath, e );
+        }
+    }
+
+
+    /** Write the messages posted since the last push to every channel */
+    public synchronized void push() {
+        if ( group.isEmpty() ) {
+            return;
+        }
+
+        while ( true ) {
+            QueueQuery query = new QueueQuery();
+            query.setPosition( QueuePosition.START );
+            query.setLastMessageId( last );
+            query.setLimit( PUSH_LIMIT );
+
+            QueueResults results = qm.getFromQueue( queuePath, query );
+
+            if ( results.getMessages().isEmpty() ) {
+                return;
+            }
+
+            group.write( new DefaultWebSocketFrame( JsonUtils.mapToJsonString( results ) ) );
+
+            last = results.getLast();
+
+            if ( results.getMessages().size() < PUSH_LIMIT ) {
+                return;
+            }
+        }
+    }
+}
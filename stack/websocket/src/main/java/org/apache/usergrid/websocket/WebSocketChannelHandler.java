@@ -18,8 +18,14 @@ package org.apache.usergrid.websocket;
 
 
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -49,9 +55,22 @@ import org.jboss.netty.handler.codec.http.websocket.WebSocketFrameEncoder;
 import org.jboss.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.usergrid.management.ApplicationInfo;
 import org.apache.usergrid.management.ManagementService;
+import org.apache.usergrid.management.OrganizationInfo;
+import org.apache.usergrid.management.UserInfo;
+import org.apache.usergrid.mq.Queue;
+import org.apache.usergrid.mq.QueueManagerFactory;
+import org.apache.usergrid.mq.cassandra.QueueNotifier;
 import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.security.AuthPrincipalInfo;
+import org.apache.usergrid.security.AuthPrincipalType;
+import org.apache.usergrid.security.shiro.PrincipalCredentialsToken;
+import org.apache.usergrid.security.shiro.utils.SubjectUtils;
+import org.apache.usergrid.security.tokens.TokenService;
 import org.apache.usergrid.services.ServiceManagerFactory;
+import org.apache.usergrid.utils.JsonUtils;
+import org.apache.usergrid.utils.UUIDUtils;
 
 import org.apache.shiro.mgt.SessionsSecurityManager;
 import org.apache.shiro.subject.Subject;
@@ -77,6 +96,7 @@ import static org.jboss.netty.handler.codec.http.HttpMethod.GET;
 import static org.jboss.netty.handler.codec.http.HttpResponseStatus.FORBIDDEN;
 import static org.jboss.netty.handler.codec.http.HttpResponseStatus.OK;
 import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.apache.usergrid.utils.MapUtils.hashMap;
 
 
 public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
@@ -88,6 +108,9 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
     private final ManagementService management;
     private final SessionsSecurityManager securityManager;
     private final boolean ssl;
+    private final QueueManagerFactory qmf;
+    private final QueueNotifier notifier;
+    private final TokenService tokens;
 
     boolean websocket = false;
 
@@ -95,11 +118,34 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
     private static ConcurrentHashMap<String, ChannelGroup> subscribers = new ConcurrentHashMap<String, ChannelGroup>();
 
-    List<String> subscriptions;
+    /** The pushes to the subscription groups of queues, created and removed with the group */
+    private static ConcurrentHashMap<String, QueueSubscription> pushes =
+            new ConcurrentHashMap<String, QueueSubscription>();
+
+    private static final ExecutorService pushExecutor =
+            Executors.newFixedThreadPool( 4, PushThreadFactory.INSTANCE );
+
+    /** The access token of the handshake, resolved again for every subscription so a revoked token stops working */
+    String accessToken = null;
+
+    /** The queue subscriptions of this channel, as application id and queue path by subscription path */
+    Map<String, String[]> subscriptions = new ConcurrentHashMap<String, String[]>();
 
 
     public WebSocketChannelHandler( EntityManagerFactory emf, ServiceManagerFactory smf, ManagementService management,
                                     SessionsSecurityManager securityManager, boolean ssl ) {
+        this( emf, smf, management, securityManager, ssl, null, null, null );
+    }
+
+
+    /**
+     * @param qmf reads the queues pushed to subscribed channels
+     * @param notifier signals when messages are posted to a subscribed queue, null disables queue subscriptions
+     * @param tokens resolves the access token of the handshake, null disables queue subscriptions
+     */
+    public WebSocketChannelHandler( EntityManagerFactory emf, ServiceManagerFactory smf, ManagementService management,
+                                    SessionsSecurityManager securityManager, boolean ssl, QueueManagerFactory qmf,
+                                    QueueNotifier notifier, TokenService tokens ) {
         super();
 
         this.emf = emf;
@@ -107,6 +153,9 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
         this.management = management;
         this.securityManager = securityManager;
         this.ssl = ssl;
+        this.qmf = qmf;
+        this.notifier = notifier;
+        this.tokens = tokens;
 
         if ( securityManager != null ) {
             subject = new Subject.Builder( securityManager ).buildSubject();
@@ -182,6 +231,12 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
         if ( websocket ) {
             LOG.info( "Websocket disconnected" );
         }
+        for ( String[] subscription : new ArrayList<String[]>( subscriptions.values() ) ) {
+            unsubscribeFromQueue( UUID.fromString( subscription[0] ), subscription[1], ctx.getChannel() );
+        }
+        if ( ( subject != null ) && subject.isAuthenticated() ) {
+            subject.logout();
+        }
     }
 
 
@@ -237,6 +292,17 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
             String path = qs.getPath();
             LOG.info( path );
 
+            List<String> accessTokens = qs.getParameters().get( "access_token" );
+
+            if ( ( accessTokens != null ) && !accessTokens.isEmpty() ) {
+                accessToken = accessTokens.get( 0 );
+
+                if ( !authenticate() ) {
+                    sendHttpResponse( ctx, req, FORBIDDEN );
+                    return;
+                }
+            }
+
             // Fill in the headers and contents depending on handshake method.
             if ( req.containsHeader( SEC_WEBSOCKET_KEY1 ) && req.containsHeader( SEC_WEBSOCKET_KEY2 ) ) {
 
@@ -310,11 +376,151 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
     }
 
 
+    /**
+     * "subscribe {applicationId} {queuePath}" pushes the messages posted to the queue to this channel, until
+     * "unsubscribe {applicationId} {queuePath}" or the channel closes. Subscribing needs the access_token parameter on
+     * the handshake, with permission to get the queue's path in the application. Anything else is echoed back
+     * uppercased.
+     */
     private void handleWebSocketFrame( ChannelHandlerContext ctx, WebSocketFrame frame ) {
+        String[] command = split( frame.getTextData() );
+
+        if ( ( command != null ) && ( command.length == 3 ) && ( notifier != null ) && UUIDUtils
+                .isUUID( command[1] ) ) {
+            UUID applicationId = UUID.fromString( command[1] );
+
+            if ( "subscribe".equals( command[0] ) ) {
+                if ( !authenticate() || !isPermittedToRead( applicationId, command[2] ) ) {
+                    ctx.getChannel().write( new DefaultWebSocketFrame( JsonUtils.mapToJsonString(
+                            hashMap( "error", "unauthorized" ).map( "path", command[2] ) ) ) );
+                    return;
+                }
+
+                subscribeToQueue( applicationId, command[2], ctx.getChannel() );
+                return;
+            }
+            else if ( "unsubscribe".equals( command[0] ) ) {
+                unsubscribeFromQueue( applicationId, command[2], ctx.getChannel() );
+                return;
+            }
+        }
+
         // Send the uppercased string back.
         ctx.getChannel().write( new DefaultWebSocketFrame( frame.getTextData().toUpperCase() ) );
     }
 
+
+    /** Log the channel's subject in with the access token of the handshake, false if there's none or it's invalid */
+    private boolean authenticate() {
+        if ( ( accessToken == null ) || ( subject == null ) || ( tokens == null ) ) {
+            return false;
+        }
+
+        try {
+            PrincipalCredentialsToken token = getPrincipalCredentialsToken( accessToken );
+
+            if ( token == null ) {
+                return false;
+            }
+
+            subject.login( token );
+            return true;
+        }
+        catch ( Exception e ) {
+            LOG.info( "Websocket access token rejected: {}", e.getMessage() );
+            return false;
+        }
+    }
+
+
+    private PrincipalCredentialsToken getPrincipalCredentialsToken( String token ) throws Exception {
+        AuthPrincipalInfo principal = tokens.getTokenInfo( token ).getPrincipal();
+
+        if ( principal == null ) {
+            return null;
+        }
+
+        if ( AuthPrincipalType.ADMIN_USER.equals( principal.getType() ) ) {
+            UserInfo user = management.getAdminUserInfoFromAccessToken( token );
+            return user == null ? null : PrincipalCredentialsToken.getFromAdminUserInfoAndAccessToken( user, token );
+        }
+        else if ( AuthPrincipalType.APPLICATION_USER.equals( principal.getType() ) ) {
+            UserInfo user = management.getAppUserFromAccessToken( token );
+            return user == null ? null : PrincipalCredentialsToken.getFromAppUserInfoAndAccessToken( user, token );
+        }
+        else if ( AuthPrincipalType.ORGANIZATION.equals( principal.getType() ) ) {
+            OrganizationInfo organization = management.getOrganizationInfoFromAccessToken( token );
+            return organization == null ? null :
+                   PrincipalCredentialsToken.getFromOrganizationInfoAndAccessToken( organization, token );
+        }
+        else if ( AuthPrincipalType.APPLICATION.equals( principal.getType() ) ) {
+            ApplicationInfo application = management.getApplicationInfoFromAccessToken( token );
+            return application == null ? null :
+                   PrincipalCredentialsToken.getFromApplicationInfoAndAccessToken( application, token );
+        }
+
+        return null;
+    }
+
+
+    /** True if the channel's subject may get the queue, "applications:get:{applicationId}:{queuePath}" */
+    private boolean isPermittedToRead( UUID applicationId, String queuePath ) {
+        String path = removeEnd( Queue.normalizeQueuePath( queuePath ), "/" );
+        String permission = SubjectUtils.getPermissionFromPath( applicationId, "get", isEmpty( path ) ? "/" : path );
+
+        return subject.isPermitted( permission );
+    }
+
+
+    /** Push the messages posted to the queue from now on to the channel */
+    public void subscribeToQueue( UUID applicationId, String queuePath, Channel channel ) {
+        String path = getQueueSubscriptionPath( applicationId, queuePath );
+
+        if ( subscriptions.containsKey( path ) ) {
+            return;
+        }
+
+        synchronized ( pushes ) {
+            addSubscription( path, channel );
+
+            if ( !pushes.containsKey( path ) ) {
+                QueueSubscription push =
+                        new QueueSubscription( qmf.getQueueManager( applicationId ), queuePath, subscribers.get( path ),
+                                pushExecutor );
+                pushes.put( path, push );
+                notifier.addListener( applicationId, queuePath, push );
+            }
+        }
+
+        subscriptions.put( path, new String[] { applicationId.toString(), queuePath } );
+    }
+
+
+    public void unsubscribeFromQueue( UUID applicationId, String queuePath, Channel channel ) {
+        String path = getQueueSubscriptionPath( applicationId, queuePath );
+
+        synchronized ( pushes ) {
+            removeSubscription( path, channel );
+
+            // the last channel left, stop reading the queue
+            if ( subscribers.get( path ) == null ) {
+                QueueSubscription push = pushes.remove( path );
+
+                if ( push != null ) {
+                    notifier.removeListener( applicationId, queuePath, push );
+                }
+            }
+        }
+
+        subscriptions.remove( path );
+    }
+
+
+    private static String getQueueSubscriptionPath( UUID applicationId, String queuePath ) {
+        String normalized = Queue.normalizeQueuePath( queuePath );
+        return "queue:" + applicationId + ( normalized == null ? "/" : normalized );
+    }
+
     // TODO Review this for concurrency safety
     // Note: subscriptions are added and removed relatively infrequently
     // during the lifecycle of a connection i.e. typical minimum lifespan
@@ -326,7 +532,12 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
         ChannelGroup group = subscribers.get( path );
 
         if ( group == null ) {
-            group = subscribers.putIfAbsent( path, new DefaultChannelGroup() );
+            ChannelGroup created = new DefaultChannelGroup( path );
+            group = subscribers.putIfAbsent( path, created );
+
+            if ( group == null ) {
+                group = created;
+            }
         }
 
         return group;
@@ -334,15 +545,25 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
 
     public void addSubscription( String path, Channel channel ) {
-        ChannelGroup group = subscribers.get( path );
-        synchronized ( group ) {
-            group.add( channel );
+        while ( true ) {
+            ChannelGroup group = getChannelGroupWithDefault( path );
+            synchronized ( group ) {
+                // the group emptied and was removed, add to its replacement
+                if ( subscribers.get( path ) != group ) {
+                    continue;
+                }
+                group.add( channel );
+                return;
+            }
         }
     }
 
 
     public void removeSubscription( String path, Channel channel ) {
         ChannelGroup group = subscribers.get( path );
+        if ( group == null ) {
+            return;
+        }
         synchronized ( group ) {
             group.remove( channel );
             if ( group.isEmpty() ) {
@@ -355,4 +576,18 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
     public ChannelGroup getSubscriptionGroup( String path ) {
         return subscribers.get( path );
     }
+
+
+    private static final class PushThreadFactory implements ThreadFactory {
+
+        private static final PushThreadFactory INSTANCE = new PushThreadFactory();
+
+
+        @Override
+        public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "WebSocketQueuePush" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
 }
@@ -33,8 +33,11 @@ import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.apache.usergrid.management.ManagementService;
+import org.apache.usergrid.mq.QueueManagerFactory;
+import org.apache.usergrid.mq.cassandra.QueueNotifier;
 import org.apache.usergrid.persistence.EntityManagerFactory;
 import org.apache.usergrid.persistence.cassandra.EntityManagerFactoryImpl;
+import org.apache.usergrid.security.tokens.TokenService;
 import org.apache.usergrid.services.ServiceManagerFactory;
 
 import org.apache.shiro.mgt.DefaultSecurityManager;
@@ -60,6 +63,9 @@ public class WebSocketServer {
     EntityManagerFactory emf;
     ServiceManagerFactory smf;
     ManagementService management;
+    QueueManagerFactory qmf;
+    QueueNotifier notifier;
+    TokenService tokens;
     Realm realm;
     SessionsSecurityManager securityManager;
     boolean ssl = false;
@@ -96,6 +102,26 @@ public class WebSocketServer {
     }
 
 
+    @Autowired
+    public void setQueueManagerFactory( QueueManagerFactory qmf ) {
+        this.qmf = qmf;
+    }
+
+
+    /** Without a notifier, channels can't subscribe to queues */
+    @Autowired(required = false)
+    public void setQueueNotifier( QueueNotifier notifier ) {
+        this.notifier = notifier;
+    }
+
+
+    /** Without a token service, channels can't authenticate to subscribe to queues */
+    @Autowired(required = false)
+    public void setTokenService( TokenService tokens ) {
+        this.tokens = tokens;
+    }
+
+
     public void setSsl( boolean ssl ) {
         this.ssl = ssl;
     }
@@ -161,7 +187,8 @@ public class WebSocketServer {
 
         // Set up the event pipeline factory.
         bootstrap.setPipelineFactory(
-                new WebSocketServerPipelineFactory( emf, smf, management, securityManager, executionHandler, ssl ) );
+                new WebSocketServerPipelineFactory( emf, smf, management, securityManager, executionHandler, ssl, qmf,
+                        notifier, tokens ) );
 
         // Bind and start to accept incoming connections.
         channel = bootstrap.bind( new InetSocketAddress( 8088 ) );
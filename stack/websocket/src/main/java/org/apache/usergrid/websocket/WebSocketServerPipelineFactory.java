@@ -27,7 +27,10 @@ import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
 import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.ssl.SslHandler;
 import org.apache.usergrid.management.ManagementService;
+import org.apache.usergrid.mq.QueueManagerFactory;
+import org.apache.usergrid.mq.cassandra.QueueNotifier;
 import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.security.tokens.TokenService;
 import org.apache.usergrid.services.ServiceManagerFactory;
 
 import org.apache.shiro.mgt.SessionsSecurityManager;
@@ -43,17 +46,31 @@ public class WebSocketServerPipelineFactory implements ChannelPipelineFactory {
     private final ManagementService management;
     private final SessionsSecurityManager securityManager;
     private final boolean ssl;
+    private final QueueManagerFactory qmf;
+    private final QueueNotifier notifier;
+    private final TokenService tokens;
 
 
     public WebSocketServerPipelineFactory( EntityManagerFactory emf, ServiceManagerFactory smf,
                                            ManagementService management, SessionsSecurityManager securityManager,
                                            ExecutionHandler executionHandler, boolean ssl ) {
+        this( emf, smf, management, securityManager, executionHandler, ssl, null, null, null );
+    }
+
+
+    public WebSocketServerPipelineFactory( EntityManagerFactory emf, ServiceManagerFactory smf,
+                                           ManagementService management, SessionsSecurityManager securityManager,
+                                           ExecutionHandler executionHandler, boolean ssl, QueueManagerFactory qmf,
+                                           QueueNotifier notifier, TokenService tokens ) {
         this.emf = emf;
         this.smf = smf;
         this.management = management;
         this.securityManager = securityManager;
         this.executionHandler = executionHandler;
         this.ssl = ssl;
+        this.qmf = qmf;
+        this.notifier = notifier;
+        this.tokens = tokens;
     }
 
 
@@ -70,7 +87,8 @@ public class WebSocketServerPipelineFactory implements ChannelPipelineFactory {
         pipeline.addLast( "aggregator", new HttpChunkAggregator( 65536 ) );
         pipeline.addLast( "encoder", new HttpResponseEncoder() );
         pipeline.addLast( "execution", executionHandler );
-        pipeline.addLast( "handler", new WebSocketChannelHandler( emf, smf, management, securityManager, ssl ) );
+        pipeline.addLast( "handler",
+                new WebSocketChannelHandler( emf, smf, management, securityManager, ssl, qmf, notifier, tokens ) );
         return pipeline;
     }
 }
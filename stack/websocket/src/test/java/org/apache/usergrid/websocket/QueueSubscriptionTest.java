@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.websocket;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.handler.codec.http.websocket.WebSocketFrame;
+import org.junit.Test;
+import org.apache.usergrid.mq.Message;
+import org.apache.usergrid.mq.QueueManager;
+import org.apache.usergrid.mq.QueueQuery;
+import org.apache.usergrid.mq.QueueResults;
+import org.apache.usergrid.utils.JsonUtils;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class QueueSubscriptionTest {
+
+    @Test
+    public void pushesNewMessagesInPages() {
+        FakeQueue queue = new FakeQueue();
+        FakeChannel channel = new FakeChannel( 1 );
+        ChannelGroup group = new DefaultChannelGroup( "pages" );
+        group.add( channel.channel() );
+
+        QueueSubscription subscription = new QueueSubscription( queue.manager(), "/foo", group, null );
+
+        queue.post( 250 );
+        subscription.push();
+
+        assertEquals( 3, channel.frames.size() );
+        assertEquals( 100, channel.messages( 0 ) );
+        assertEquals( 100, channel.messages( 1 ) );
+        assertEquals( 50, channel.messages( 2 ) );
+
+        // only the messages posted since the last push
+        queue.post( 5 );
+        subscription.push();
+        subscription.push();
+
+        assertEquals( 4, channel.frames.size() );
+        assertEquals( 5, channel.messages( 3 ) );
+    }
+
+
+    @Test
+    public void emptyGroupDoesntRead() {
+        FakeQueue queue = new FakeQueue();
+        QueueSubscription subscription =
+                new QueueSubscription( queue.manager(), "/foo", new DefaultChannelGroup( "empty" ), null );
+
+        queue.post( 10 );
+        subscription.push();
+
+        assertEquals( 0, queue.reads );
+    }
+
+
+    @Test
+    public void postsCoalesceUntilThePushRuns() {
+        FakeQueue queue = new FakeQueue();
+        ChannelGroup group = new DefaultChannelGroup( "coalesce" );
+        group.add( new FakeChannel( 1 ).channel() );
+
+        final List<Runnable> scheduled = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                scheduled.add( command );
+            }
+        };
+
+        QueueSubscription subscription = new QueueSubscription( queue.manager(), "/foo", group, executor );
+
+        subscription.messagesPosted();
+        subscription.messagesPosted();
+        assertEquals( 1, scheduled.size() );
+
+        scheduled.get( 0 ).run();
+        subscription.messagesPosted();
+        assertEquals( 2, scheduled.size() );
+    }
+
+
+    /** A queue read from the position and limit of the query */
+    private static class FakeQueue implements InvocationHandler {
+
+        private final List<Message> messages = new ArrayList<Message>();
+        private int reads;
+
+
+        private QueueManager manager() {
+            return ( QueueManager ) Proxy.newProxyInstance( QueueManager.class.getClassLoader(),
+                    new Class<?>[] { QueueManager.class }, this );
+        }
+
+
+        private void post( int count ) {
+            for ( int i = 0; i < count; i++ ) {
+                Message message = new Message();
+                message.setStringProperty( "foo", "bar" + i );
+                message.sync();
+                messages.add( message );
+            }
+        }
+
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            if ( !method.getName().equals( "getFromQueue" ) ) {
+                throw new UnsupportedOperationException( method.getName() );
+            }
+
+            reads++;
+
+            QueueQuery query = ( QueueQuery ) args[1];
+            List<Message> results = new ArrayList<Message>();
+
+            for ( Message message : messages ) {
+                if ( results.size() == query.getLimit() ) {
+                    break;
+                }
+
+                if ( UUIDUtils.compare( message.getUuid(), query.getLastMessageId() ) > 0 ) {
+                    results.add( message );
+                }
+            }
+
+            return new QueueResults( "/foo", null, results,
+                    results.isEmpty() ? null : results.get( results.size() - 1 ).getUuid(), null );
+        }
+    }
+
+
+    /** Keeps the frames written to a channel */
+    private static class FakeChannel implements InvocationHandler {
+
+        private final Integer id;
+        private final List<String> frames = new ArrayList<String>();
+        private Channel channel;
+        private ChannelFuture closeFuture;
+
+
+        private FakeChannel( int id ) {
+            this.id = id;
+        }
+
+
+        private Channel channel() {
+            if ( channel == null ) {
+                channel = ( Channel ) Proxy.newProxyInstance( Channel.class.getClassLoader(),
+                        new Class<?>[] { Channel.class }, this );
+                closeFuture = new DefaultChannelFuture( channel, false );
+            }
+            return channel;
+        }
+
+
+        /** The number of messages in the frame */
+        private int messages( int frame ) {
+            Map<?, ?> results = ( Map<?, ?> ) JsonUtils.parse( frames.get( frame ) );
+            return ( ( List<?> ) results.get( "messages" ) ).size();
+        }
+
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+
+            if ( name.equals( "getId" ) || name.equals( "hashCode" ) ) {
+                return id;
+            }
+            else if ( name.equals( "equals" ) ) {
+                return proxy == args[0];
+            }
+            else if ( name.equals( "compareTo" ) ) {
+                return id.compareTo( ( ( Channel ) args[0] ).getId() );
+            }
+            else if ( name.equals( "getCloseFuture" ) ) {
+                return closeFuture;
+            }
+            else if ( name.equals( "write" ) ) {
+                frames.add( ( ( WebSocketFrame ) args[0] ).getTextData() );
+                return Channels.succeededFuture( ( Channel ) proxy );
+            }
+            else if ( name.equals( "toString" ) ) {
+                return "FakeChannel " + id;
+            }
+
+            throw new UnsupportedOperationException( name );
+        }
+    }
+}